@@ -124,12 +124,7 @@ public class MainApp extends DaggerApplication {
     @SuppressWarnings("deprecation")
     private void registerLocalBroadcastReceiver() {
         IntentFilter filter = new IntentFilter();
-        filter.addAction(Intents.ACTION_NEW_TREATMENT);
-        filter.addAction(Intents.ACTION_CHANGED_TREATMENT);
-        filter.addAction(Intents.ACTION_REMOVED_TREATMENT);
-        filter.addAction(Intents.ACTION_NEW_SGV);
         filter.addAction(Intents.ACTION_NEW_PROFILE);
-        filter.addAction(Intents.ACTION_NEW_MBG);
         filter.addAction(Intents.ACTION_NEW_CAL);
         LocalBroadcastManager.getInstance(this).registerReceiver(new DataReceiver(), filter);
 
@@ -0,0 +1,38 @@
+package info.nightscout.androidaps.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+
+/**
+ * Database writers log and swallow their SQL errors. While a task wrapped by rethrowing()
+ * runs on the current thread they report them here and the first one is thrown after the task,
+ * so the transaction running the task is rolled back instead of committing a partial batch
+ */
+public class BatchErrors {
+
+    // not null while rethrowing task runs on current thread, holds the first error
+    private static final ThreadLocal<SQLException[]> errors = new ThreadLocal<>();
+
+    public static <T> Callable<T> rethrowing(Callable<T> task) {
+        return () -> {
+            if (errors.get() != null) return task.call(); // nested, thrown by the outer task
+            SQLException[] error = new SQLException[1];
+            errors.set(error);
+            try {
+                T result = task.call();
+                if (error[0] != null) throw error[0];
+                return result;
+            } finally {
+                errors.remove();
+            }
+        };
+    }
+
+    /**
+     * Reports error swallowed by a writer, ignored out of rethrowing task
+     */
+    public static void report(SQLException e) {
+        SQLException[] error = errors.get();
+        if (error != null && error[0] == null) error[0] = e;
+    }
+}
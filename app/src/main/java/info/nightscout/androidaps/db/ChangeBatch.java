@@ -0,0 +1,40 @@
+package info.nightscout.androidaps.db;
+
+/**
+ * Defers change events of records stored by the current thread while a batch is running
+ * so only one event is fired for the whole batch
+ */
+public class ChangeBatch {
+
+    // not null while batch is stored by current thread, true if something has changed
+    private final ThreadLocal<Boolean> changed = new ThreadLocal<>();
+
+    /**
+     * @return false if a batch of current thread is running already (nested batch)
+     */
+    public boolean begin() {
+        if (changed.get() != null) return false;
+        changed.set(false);
+        return true;
+    }
+
+    /**
+     * @return true if change event is deferred to the end of running batch
+     */
+    public boolean defer() {
+        if (changed.get() == null) return false;
+        changed.set(true);
+        return true;
+    }
+
+    /**
+     * Ends batch of current thread
+     *
+     * @return true if a change event was deferred
+     */
+    public boolean end() {
+        Boolean result = changed.get();
+        changed.remove();
+        return Boolean.TRUE.equals(result);
+    }
+}
@@ -0,0 +1,47 @@
+package info.nightscout.androidaps.db;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Collects dates (primary keys) of records changed since last reload event was fired
+ * so the in-memory copies can reload only changed records instead of whole table
+ */
+public class ChangedRecords {
+    // larger change (ie. NS full sync) is cheaper to load by one range query
+    static final int MAX_CHANGED_RECORDS = 500;
+
+    private final Set<Long> dates = new HashSet<>();
+    private boolean all = false;
+
+    public synchronized void add(long date) {
+        dates.add(date);
+    }
+
+    /**
+     * Mark whole table as changed (reset, import, ...)
+     */
+    public synchronized void addAll() {
+        all = true;
+    }
+
+    /**
+     * Returns collected changes and starts collecting again
+     *
+     * @return changed dates, null if whole table should be reloaded
+     */
+    @Nullable
+    public synchronized long[] take() {
+        long[] result = null;
+        if (!all && dates.size() <= MAX_CHANGED_RECORDS) {
+            result = new long[dates.size()];
+            int i = 0;
+            for (Long date : dates) result[i++] = date;
+        }
+        dates.clear();
+        all = false;
+        return result;
+    }
+}
@@ -0,0 +1,40 @@
+package info.nightscout.androidaps.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps memory in sync with records stored by a batch transaction of the current thread.
+ * Actions run after the batch is committed and are dropped if it is rolled back,
+ * out of batch they run immediately
+ */
+public class CommitActions {
+
+    // not null while batch is stored by current thread
+    private static final ThreadLocal<List<Runnable>> actions = new ThreadLocal<>();
+
+    /**
+     * @return false if a batch of current thread is running already (nested batch)
+     */
+    public static boolean begin() {
+        if (actions.get() != null) return false;
+        actions.set(new ArrayList<>());
+        return true;
+    }
+
+    public static void run(Runnable action) {
+        List<Runnable> deferred = actions.get();
+        if (deferred == null) action.run();
+        else deferred.add(action);
+    }
+
+    /**
+     * Ends batch of current thread, runs deferred actions if it was committed
+     */
+    public static void end(boolean committed) {
+        List<Runnable> deferred = actions.get();
+        actions.remove();
+        if (committed && deferred != null)
+            for (Runnable action : deferred) action.run();
+    }
+}
@@ -0,0 +1,149 @@
+package info.nightscout.androidaps.db;
+
+import androidx.annotation.Nullable;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import info.nightscout.androidaps.logging.AAPSLogger;
+import info.nightscout.androidaps.logging.LTag;
+import info.nightscout.androidaps.plugins.bus.RxBusWrapper;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.events.EventNewHistoryBgData;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.events.EventNewHistoryData;
+
+/**
+ * Posts change events of database tables on one thread
+ * <p>
+ * Changes of every table are debounced separately, the table's events are fired when
+ * there is no other change of the table within its delay.
+ * Timestamps of changed history are collected for all tables and one combined
+ * EventNewHistoryData (or EventNewHistoryBgData if BG history has changed too) is fired
+ * when events of all changed tables are fired. Sync of more tables (ie. NS) leads to one
+ * IOB/COB recalculation instead of one per table.
+ */
+@Singleton
+public class DatabaseChangeScheduler {
+
+    public enum Table {
+        BG(1),
+        BG_HISTORY(3),
+        TEMPORARY_BASAL(1),
+        TEMPORARY_TARGET(1),
+        EXTENDED_BOLUS(1),
+        CAREPORTAL_EVENT(1),
+        PROFILE_SWITCH(1),
+        TREATMENT(1);
+
+        final int delaySec;
+
+        Table(int delaySec) {
+            this.delaySec = delaySec;
+        }
+    }
+
+    private static final long NONE = Long.MAX_VALUE;
+
+    private final AAPSLogger aapsLogger;
+    private final RxBusWrapper rxBus;
+
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+    private final Map<Table, ScheduledFuture<?>> scheduled = new EnumMap<>(Table.class);
+    private long oldestHistoryChange = NONE;
+    private long oldestBgHistoryChange = NONE;
+
+    @Inject
+    public DatabaseChangeScheduler(AAPSLogger aapsLogger, RxBusWrapper rxBus) {
+        this.aapsLogger = aapsLogger;
+        this.rxBus = rxBus;
+    }
+
+    /**
+     * Records change of history (treatments, temp basals, ...) to be announced
+     * after events of changed tables are fired
+     */
+    public synchronized void historyChanged(long timestamp) {
+        oldestHistoryChange = Math.min(oldestHistoryChange, timestamp);
+    }
+
+    /**
+     * Records change of older BG readings and schedules announcement
+     */
+    public void bgHistoryChanged(long timestamp) {
+        synchronized (this) {
+            oldestBgHistoryChange = Math.min(oldestBgHistoryChange, timestamp);
+        }
+        schedule(Table.BG_HISTORY, null);
+    }
+
+    /**
+     * Fires table events after table's delay if there is no other change meanwhile
+     *
+     * @param fire sends events of the table, run on scheduler's thread
+     */
+    public void schedule(Table table, @Nullable Runnable fire) {
+        synchronized (this) {
+            // cancel waiting task to prevent sending multiple posts
+            ScheduledFuture<?> waiting = scheduled.get(table);
+            if (waiting != null) waiting.cancel(false);
+            scheduled.put(table, worker.schedule(() -> run(table, fire, false), table.delaySec, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Fires table events on calling thread including history changed so far
+     */
+    public void fireNow(Table table, @Nullable Runnable fire) {
+        synchronized (this) {
+            ScheduledFuture<?> waiting = scheduled.remove(table);
+            if (waiting != null) waiting.cancel(false);
+        }
+        run(table, fire, true);
+    }
+
+    private void run(Table table, @Nullable Runnable fire, boolean immediately) {
+        if (!immediately) {
+            synchronized (this) {
+                // don't remove task scheduled while this one is running
+                ScheduledFuture<?> current = scheduled.get(table);
+                if (current != null && current.getDelay(TimeUnit.MILLISECONDS) <= 0)
+                    scheduled.remove(table);
+            }
+        }
+        if (fire != null) {
+            aapsLogger.debug(LTag.DATABASE, "Firing changes of " + table.name());
+            fire.run();
+        }
+        fireHistoryChange(immediately);
+    }
+
+    private void fireHistoryChange(boolean immediately) {
+        long history;
+        long bgHistory;
+        synchronized (this) {
+            // wait for the last changed table
+            if (!immediately && !scheduled.isEmpty()) return;
+            // BG history is waiting for reading of more changes
+            if (immediately && scheduled.containsKey(Table.BG_HISTORY)) bgHistory = NONE;
+            else {
+                bgHistory = oldestBgHistoryChange;
+                oldestBgHistoryChange = NONE;
+            }
+            history = oldestHistoryChange;
+            oldestHistoryChange = NONE;
+        }
+        if (bgHistory != NONE) {
+            aapsLogger.debug(LTag.DATABASE, "Firing EventNewHistoryBgData");
+            rxBus.send(new EventNewHistoryBgData(Math.min(history, bgHistory)));
+        } else if (history != NONE) {
+            aapsLogger.debug(LTag.DATABASE, "Firing EventNewHistoryData");
+            rxBus.send(new EventNewHistoryData(history));
+        }
+    }
+}
@@ -1,17 +1,21 @@
 package info.nightscout.androidaps.db;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 
 import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
 
 import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
 import com.j256.ormlite.dao.CloseableIterator;
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.PreparedQuery;
 import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
 import com.j256.ormlite.stmt.Where;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
@@ -22,13 +26,13 @@ import org.json.JSONObject;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
 
@@ -54,10 +58,9 @@ import info.nightscout.androidaps.logging.AAPSLogger;
 import info.nightscout.androidaps.logging.LTag;
 import info.nightscout.androidaps.plugins.bus.RxBusWrapper;
 import info.nightscout.androidaps.plugins.general.nsclient.NSUpload;
-import info.nightscout.androidaps.plugins.iob.iobCobCalculator.events.EventNewHistoryBgData;
+import info.nightscout.androidaps.plugins.general.nsclient.UploadQueue;
 import info.nightscout.androidaps.plugins.general.openhumans.OpenHumansUploader;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.IobCobCalculatorPlugin;
-import info.nightscout.androidaps.plugins.iob.iobCobCalculator.events.EventNewHistoryData;
 import info.nightscout.androidaps.plugins.pump.insight.database.InsightBolusID;
 import info.nightscout.androidaps.plugins.pump.insight.database.InsightHistoryOffset;
 import info.nightscout.androidaps.plugins.pump.insight.database.InsightPumpID;
@@ -79,6 +82,8 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     @Inject RxBusWrapper rxBus;
     @Inject VirtualPumpPlugin virtualPumpPlugin;
     @Inject OpenHumansUploader openHumansUploader;
+    @Inject DatabaseChangeScheduler changeScheduler;
+    @Inject UploadQueue uploadQueue;
 
     public static final String DATABASE_NAME = "AndroidAPSDb";
     public static final String DATABASE_BGREADINGS = "BgReadings";
@@ -88,37 +93,31 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     public static final String DATABASE_DANARHISTORY = "DanaRHistory";
     public static final String DATABASE_DBREQUESTS = "DBRequests";
     public static final String DATABASE_CAREPORTALEVENTS = "CareportalEvents";
+    public static final String DATABASE_PROFILESWITCHES = "ProfileSwitches";
     public static final String DATABASE_TDDS = "TDDs";
     public static final String DATABASE_INSIGHT_HISTORY_OFFSETS = "InsightHistoryOffsets";
     public static final String DATABASE_INSIGHT_BOLUS_IDS = "InsightBolusIDs";
     public static final String DATABASE_INSIGHT_PUMP_IDS = "InsightPumpIDs";
     public static final String DATABASE_OPEN_HUMANS_QUEUE = "OpenHumansQueue";
 
-    private static final int DATABASE_VERSION = 13;
+    private static final int DATABASE_VERSION = 14;
 
-    public static Long earliestDataChange = null;
+    // ids per IN clause, SQLite allows 999 variables per statement
+    private static final int MAX_IN_VARIABLES = 500;
 
-    private static final ScheduledExecutorService bgWorker = Executors.newSingleThreadScheduledExecutor();
-    private static ScheduledFuture<?> scheduledBgPost = null;
+    // Indexes for queries running in every loop. Plain date ranges are covered by PRIMARY KEY index on date
+    private static final String[] INDEXES = {
+            // getBgreadingsDataFromTime: isValid = 1 AND date >= ? AND value >= 39 ORDER BY date, filtered in index
+            "CREATE INDEX IF NOT EXISTS BgReadings_isValid_date_value ON " + DATABASE_BGREADINGS + " (isValid, date, value)",
+            // getCareportalEventsFromTime(SITECHANGE ...): eventType = ? AND date >= ?
+            "CREATE INDEX IF NOT EXISTS CareportalEvents_eventType_date ON " + DATABASE_CAREPORTALEVENTS + " (eventType, date)",
+            // getLastProfileSwitchWithoutDuration: durationInMinutes = 0 ORDER BY date DESC LIMIT 1
+            "CREATE INDEX IF NOT EXISTS ProfileSwitches_durationInMinutes_date ON " + DATABASE_PROFILESWITCHES + " (durationInMinutes, date)"
+    };
 
-    private static final ScheduledExecutorService bgHistoryWorker = Executors.newSingleThreadScheduledExecutor();
-    private static ScheduledFuture<?> scheduledBgHistoryPost = null;
-    private static long oldestBgHistoryChange = 0;
-
-    private static final ScheduledExecutorService tempBasalsWorker = Executors.newSingleThreadScheduledExecutor();
-    private static ScheduledFuture<?> scheduledTemBasalsPost = null;
-
-    private static final ScheduledExecutorService tempTargetWorker = Executors.newSingleThreadScheduledExecutor();
-    private static ScheduledFuture<?> scheduledTemTargetPost = null;
-
-    private static final ScheduledExecutorService extendedBolusWorker = Executors.newSingleThreadScheduledExecutor();
-    private static ScheduledFuture<?> scheduledExtendedBolusPost = null;
-
-    private static final ScheduledExecutorService careportalEventWorker = Executors.newSingleThreadScheduledExecutor();
-    private static ScheduledFuture<?> scheduledCareportalEventPost = null;
-
-    private static final ScheduledExecutorService profileSwitchEventWorker = Executors.newSingleThreadScheduledExecutor();
-    private static ScheduledFuture<?> scheduledProfileSwitchEventPost = null;
+    private static final ChangedRecords changedTempBasals = new ChangedRecords();
+    private static final ChangedRecords changedExtendedBoluses = new ChangedRecords();
+    private static final ChangedRecords changedProfileSwitches = new ChangedRecords();
 
     private int oldVersion = 0;
     private int newVersion = 0;
@@ -152,6 +151,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                     "WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = \"" + DATABASE_INSIGHT_BOLUS_IDS + "\")");
             database.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT \"" + DATABASE_INSIGHT_PUMP_IDS + "\", " + System.currentTimeMillis() + " " +
                     "WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = \"" + DATABASE_INSIGHT_PUMP_IDS + "\")");
+            createIndexes(database);
         } catch (SQLException e) {
             aapsLogger.error("Can't create database", e);
             throw new RuntimeException(e);
@@ -187,6 +187,10 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 database.execSQL("UPDATE sqlite_sequence SET seq = " + System.currentTimeMillis() + " WHERE name = \"" + DATABASE_INSIGHT_BOLUS_IDS + "\"");
                 database.execSQL("UPDATE sqlite_sequence SET seq = " + System.currentTimeMillis() + " WHERE name = \"" + DATABASE_INSIGHT_PUMP_IDS + "\"");
             }
+            if (oldVersion < 14) {
+                aapsLogger.info(LTag.DATABASE, "onUpgrade: creating indexes");
+                createIndexes(database);
+            }
             TableUtils.createTableIfNotExists(connectionSource, OHQueueItem.class);
         } catch (SQLException e) {
             aapsLogger.error("Can't drop databases", e);
@@ -194,6 +198,12 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         }
     }
 
+    // dropped tables lose indexes too, call after every table recreation
+    private void createIndexes(SQLiteDatabase database) {
+        for (String index : INDEXES)
+            database.execSQL(index);
+    }
+
     @Override
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         aapsLogger.info(LTag.DATABASE, "Do nothing for downgrading...");
@@ -236,10 +246,13 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             TableUtils.createTableIfNotExists(connectionSource, ProfileSwitch.class);
             TableUtils.createTableIfNotExists(connectionSource, TDD.class);
             TableUtils.createTableIfNotExists(connectionSource, OmnipodHistoryRecord.class);
+            createIndexes(getWritableDatabase());
             updateEarliestDataChange(0);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
+        // requests of dropped DBRequests table are kept in memory too
+        uploadQueue.reset();
         virtualPumpPlugin.setFakingStatus(true);
         scheduleBgChange(null); // trigger refresh
         scheduleTemporaryBasalChange();
@@ -295,6 +308,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         try {
             TableUtils.dropTable(connectionSource, CareportalEvent.class, true);
             TableUtils.createTableIfNotExists(connectionSource, CareportalEvent.class);
+            createIndexes(getWritableDatabase());
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
@@ -305,6 +319,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         try {
             TableUtils.dropTable(connectionSource, ProfileSwitch.class, true);
             TableUtils.createTableIfNotExists(connectionSource, ProfileSwitch.class);
+            createIndexes(getWritableDatabase());
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
@@ -391,10 +406,13 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             bgReading.date = roundDateToSec(bgReading.date);
             BgReading old = getDaoBgReadings().queryForId(bgReading.date);
             if (old == null) {
+                long newest = getNewestBgDate();
                 getDaoBgReadings().create(bgReading);
                 openHumansUploader.enqueueBGReading(bgReading);
                 aapsLogger.debug(LTag.DATABASE, "BG: New record from: " + from + " " + bgReading.toString());
                 scheduleBgChange(bgReading);
+                // backfilled reading is not picked up by incremental load of newer readings
+                if (bgReading.date < newest) scheduleBgHistoryChange(bgReading.date);
                 return true;
             }
             if (!old.isEqual(bgReading)) {
@@ -412,72 +430,191 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return false;
     }
 
+    /**
+     * Bulk version of createIfNotExists(BgReading, String) for backfills
+     * <p>
+     * Readings are deduplicated, existing ones are loaded by one query and all changes
+     * are written in one transaction. Only one EventNewBG and one EventNewHistoryBgData is fired.
+     *
+     * @return newly created readings
+     */
+    public List<BgReading> createIfNotExists(List<BgReading> bgReadings, String from) {
+        List<BgReading> created = new ArrayList<>();
+        if (bgReadings.isEmpty()) return created;
+        for (BgReading bgReading : bgReadings)
+            bgReading.date = roundDateToSec(bgReading.date);
+        LongSparseArray<BgReading> unique = uniqueByDate(bgReadings);
+        List<BgReading> updated = new ArrayList<>();
+        long newest;
+        try {
+            Dao<BgReading, Long> dao = getDaoBgReadings();
+            // existing rows are read inside the transaction so readings stored meanwhile by other threads are not created twice
+            newest = callInTransaction(() -> {
+                long newestStored = getNewestBgDate();
+                LongSparseArray<BgReading> existing = new LongSparseArray<>();
+                for (BgReading old : dao.queryBuilder().where().between("date", unique.keyAt(0), unique.keyAt(unique.size() - 1)).query())
+                    existing.put(old.date, old);
+                splitBgReadings(unique, existing, created, updated);
+                for (BgReading bgReading : created) dao.create(bgReading);
+                for (BgReading bgReading : updated) dao.update(bgReading);
+                return newestStored;
+            });
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+            // batch is rolled back, store one by one so only failing readings are lost
+            created.clear();
+            for (int i = 0; i < unique.size(); i++)
+                if (createIfNotExists(unique.valueAt(i), from)) created.add(unique.valueAt(i));
+            return created;
+        }
+        aapsLogger.debug(LTag.DATABASE, "BG: " + created.size() + " new and " + updated.size() + " updated records from: " + from + " of " + bgReadings.size());
+        for (BgReading bgReading : created)
+            openHumansUploader.enqueueBGReading(bgReading);
+        for (BgReading bgReading : updated)
+            openHumansUploader.enqueueBGReading(bgReading);
+        // sorted by date, newest created is the last one and oldest updated the first one
+        if (!created.isEmpty())
+            scheduleBgChange(created.get(created.size() - 1));
+        // backfilled readings are not picked up by incremental load of newer readings
+        if (!created.isEmpty() && created.get(0).date < newest)
+            scheduleBgHistoryChange(created.get(0).date);
+        if (!updated.isEmpty())
+            scheduleBgHistoryChange(updated.get(0).date); // trigger cache invalidation
+        return created;
+    }
+
+    /**
+     * Runs all changes made by task in one transaction. Way faster for many records
+     * than implicit transaction per statement
+     */
+    public <T> T callInTransaction(Callable<T> task) throws SQLException {
+        return TransactionManager.callInTransaction(getConnectionSource(), task);
+    }
+
+    // --------------------- Query plans ---------------------
+
+    /**
+     * Logs EXPLAIN QUERY PLAN and duration of queries running in every loop
+     * with the same time ranges as loop is using. "SCAN TABLE" in the plan means missing index
+     */
+    public void logQueryPlans() {
+        // IobCobCalculatorPlugin loads 24h for autosens + DIA
+        long from = System.currentTimeMillis() - T.hours(24 + 5).msecs();
+        try {
+            logQueryPlan("BgReadings from time", bgReadingsFromTimeQuery(from, false));
+            logQueryPlan("TemporaryBasals from time", temporaryBasalsFromTimeQuery(from, false));
+            logQueryPlan("CareportalEvents from time by type", careportalEventsFromTimeQuery(from, CareportalEvent.SITECHANGE, true), CareportalEvent.SITECHANGE);
+            logQueryPlan("ProfileSwitches from time", profileSwitchEventsFromTimeQuery(from, true));
+            logQueryPlan("Last ProfileSwitch without duration", lastProfileSwitchWithoutDurationQuery());
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+        }
+    }
+
+    /**
+     * @param args values of SelectArg used in query, in order
+     */
+    private void logQueryPlan(String name, QueryBuilder<?, Long> queryBuilder, String... args) throws SQLException {
+        String statement = queryBuilder.prepareStatementString();
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + statement, args)) {
+            // last column is the detail, number of other columns differs between SQLite versions
+            while (cursor.moveToNext())
+                plan.append("\n    ").append(cursor.getString(cursor.getColumnCount() - 1));
+        }
+        long start = System.nanoTime();
+        int records = queryBuilder.query().size();
+        long duration = (System.nanoTime() - start) / 1000;
+        aapsLogger.debug(LTag.DATABASE, name + ": " + records + " records in " + duration + " us\n  " + statement + plan);
+    }
+
     public void update(BgReading bgReading) {
         bgReading.date = roundDateToSec(bgReading.date);
         try {
             getDaoBgReadings().update(bgReading);
             openHumansUploader.enqueueBGReading(bgReading);
+            scheduleBgHistoryChange(bgReading.date); // trigger cache invalidation
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
     }
 
-    private void scheduleBgChange(@Nullable final BgReading bgReading) {
-        class PostRunnable implements Runnable {
-            public void run() {
-                aapsLogger.debug(LTag.DATABASE, "Firing EventNewBg");
-                rxBus.send(new EventNewBG(bgReading));
-                scheduledBgPost = null;
+    /**
+     * Deduplicates readings by date, the same as storing one by one, the last one wins
+     *
+     * @return readings sorted by date
+     */
+    static LongSparseArray<BgReading> uniqueByDate(List<BgReading> bgReadings) {
+        LongSparseArray<BgReading> unique = new LongSparseArray<>();
+        for (BgReading bgReading : bgReadings)
+            unique.put(bgReading.date, bgReading);
+        return unique;
+    }
+
+    /**
+     * Splits readings to new ones and changed existing ones. Changed existing readings
+     * are updated in place. Equal readings are in neither list
+     */
+    static void splitBgReadings(LongSparseArray<BgReading> unique, LongSparseArray<BgReading> existing, List<BgReading> created, List<BgReading> updated) {
+        for (int i = 0; i < unique.size(); i++) {
+            BgReading bgReading = unique.valueAt(i);
+            BgReading old = existing.get(bgReading.date);
+            if (old == null) {
+                created.add(bgReading);
+            } else if (!old.isEqual(bgReading)) {
+                old.copyFrom(bgReading);
+                updated.add(old);
             }
         }
-        // prepare task for execution in 1 sec
-        // cancel waiting task to prevent sending multiple posts
-        if (scheduledBgPost != null)
-            scheduledBgPost.cancel(false);
-        Runnable task = new PostRunnable();
-        final int sec = 1;
-        scheduledBgPost = bgWorker.schedule(task, sec, TimeUnit.SECONDS);
+    }
 
+    /**
+     * @return date of the newest stored reading or 0 if there is none
+     */
+    private long getNewestBgDate() throws SQLException {
+        BgReading newest = getDaoBgReadings().queryBuilder().orderBy("date", false).queryForFirst();
+        return newest != null ? newest.date : 0;
     }
 
-    private void scheduleBgHistoryChange(@Nullable final long timestamp) {
-        class PostRunnable implements Runnable {
-            public void run() {
-                aapsLogger.debug(LTag.DATABASE, "Firing EventNewBg");
-                rxBus.send(new EventNewHistoryBgData(oldestBgHistoryChange));
-                scheduledBgHistoryPost = null;
-                oldestBgHistoryChange = 0;
-            }
-        }
-        // prepare task for execution in 1 sec
-        // cancel waiting task to prevent sending multiple posts
-        if (scheduledBgHistoryPost != null)
-            scheduledBgHistoryPost.cancel(false);
-        Runnable task = new PostRunnable();
-        final int sec = 3;
-        if (oldestBgHistoryChange == 0 || oldestBgHistoryChange > timestamp)
-            oldestBgHistoryChange = timestamp;
-        scheduledBgHistoryPost = bgHistoryWorker.schedule(task, sec, TimeUnit.SECONDS);
+    private void scheduleBgChange(@Nullable final BgReading bgReading) {
+        changeScheduler.schedule(DatabaseChangeScheduler.Table.BG, () -> rxBus.send(new EventNewBG(bgReading)));
+    }
 
+    private void scheduleBgHistoryChange(final long timestamp) {
+        changeScheduler.bgHistoryChanged(timestamp);
     }
 
     public List<BgReading> getBgreadingsDataFromTime(long mills, boolean ascending) {
         try {
-            Dao<BgReading, Long> daoBgreadings = getDaoBgReadings();
-            List<BgReading> bgReadings;
-            QueryBuilder<BgReading, Long> queryBuilder = daoBgreadings.queryBuilder();
-            queryBuilder.orderBy("date", ascending);
-            Where where = queryBuilder.where();
-            where.ge("date", mills).and().ge("value", 39).and().eq("isValid", true);
-            PreparedQuery<BgReading> preparedQuery = queryBuilder.prepare();
-            bgReadings = daoBgreadings.query(preparedQuery);
-            return bgReadings;
+            return bgReadingsFromTimeQuery(mills, ascending).query();
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
         return new ArrayList<>();
     }
 
+    private QueryBuilder<BgReading, Long> bgReadingsFromTimeQuery(long mills, boolean ascending) throws SQLException {
+        QueryBuilder<BgReading, Long> queryBuilder = getDaoBgReadings().queryBuilder();
+        queryBuilder.orderBy("date", ascending);
+        Where where = queryBuilder.where();
+        where.ge("date", mills).and().ge("value", 39).and().eq("isValid", true);
+        return queryBuilder;
+    }
+
+    /**
+     * @return count of readings getBgreadingsDataFromTime(start, ...) returns up to end (inclusive)
+     */
+    public long countBgreadingsDataFromTime(long start, long end) {
+        try {
+            QueryBuilder<BgReading, Long> queryBuilder = getDaoBgReadings().queryBuilder();
+            queryBuilder.where().between("date", start, end).and().ge("value", 39).and().eq("isValid", true);
+            return queryBuilder.countOf();
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+        }
+        return -1;
+    }
+
     public List<BgReading> getBgreadingsDataFromTime(long start, long end, boolean ascending) {
         try {
             Dao<BgReading, Long> daoBgreadings = getDaoBgReadings();
@@ -529,6 +666,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             openHumansUploader.enqueueTotalDailyDose(tdd);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
     }
 
@@ -599,6 +737,18 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return 0;
     }
 
+    public int deleteDbRequests(Collection<String> nsClientIds) {
+        int deleted = 0;
+        try {
+            List<String> ids = new ArrayList<>(nsClientIds);
+            for (int from = 0; from < ids.size(); from += MAX_IN_VARIABLES)
+                deleted += getDaoDbRequest().deleteIds(ids.subList(from, Math.min(from + MAX_IN_VARIABLES, ids.size())));
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+        }
+        return deleted;
+    }
+
     public void deleteDbRequestbyMongoId(String action, String id) {
         try {
             QueryBuilder<DbRequest, String> queryBuilder = getDaoDbRequest().queryBuilder();
@@ -634,14 +784,11 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
 
     //  -------------------- TEMPTARGET HANDLING -------------------
 
-    public static void updateEarliestDataChange(long newDate) {
-        if (earliestDataChange == null) {
-            earliestDataChange = newDate;
-            return;
-        }
-        if (newDate < earliestDataChange) {
-            earliestDataChange = newDate;
-        }
+    /**
+     * History older than newDate must be recalculated, announced by EventNewHistoryData after changes are fired
+     */
+    public void updateEarliestDataChange(long newDate) {
+        changeScheduler.historyChanged(newDate);
     }
 
     // ---------------- TempTargets handling ---------------
@@ -757,21 +904,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     }
 
     private void scheduleTemporaryTargetChange() {
-        class PostRunnable implements Runnable {
-            public void run() {
-                aapsLogger.debug(LTag.DATABASE, "Firing EventTempTargetChange");
-                rxBus.send(new EventTempTargetChange());
-                scheduledTemTargetPost = null;
-            }
-        }
-        // prepare task for execution in 1 sec
-        // cancel waiting task to prevent sending multiple posts
-        if (scheduledTemTargetPost != null)
-            scheduledTemTargetPost.cancel(false);
-        Runnable task = new PostRunnable();
-        final int sec = 1;
-        scheduledTemTargetPost = tempTargetWorker.schedule(task, sec, TimeUnit.SECONDS);
-
+        changeScheduler.schedule(DatabaseChangeScheduler.Table.TEMPORARY_TARGET, () -> rxBus.send(new EventTempTargetChange()));
     }
 
  /*
@@ -867,6 +1000,26 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return historyList;
     }
 
+    // records by primary key (date), records not found are deleted
+    public static <T> List<T> queryByDates(Dao<T, Long> dao, long[] dates) throws SQLException {
+        if (dates.length == 0) return new ArrayList<>();
+        List<Long> keys = new ArrayList<>(dates.length);
+        for (long date : dates) keys.add(date);
+        return dao.queryBuilder().where().in("date", keys).query();
+    }
+
+    // NS records with the same _id are updates of the same record, the last one wins
+    public static Collection<JSONObject> uniqueById(List<JSONObject> jsons) {
+        Map<String, JSONObject> unique = new LinkedHashMap<>();
+        int withoutId = 0;
+        for (JSONObject json : jsons) {
+            String id = JsonHelper.safeGetString(json, "_id");
+            unique.remove(id);
+            unique.put(id != null ? id : "#" + withoutId++, json);
+        }
+        return unique.values();
+    }
+
     // ------------ TemporaryBasal handling ---------------
 
     //return true if new record was created
@@ -907,7 +1060,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                     openHumansUploader.enqueueTemporaryBasal(old);
 
                     updateEarliestDataChange(tempBasal.date);
-                    scheduleTemporaryBasalChange();
+                    scheduleTemporaryBasalChange(old.date);
 
                     return false;
                 }
@@ -916,7 +1069,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 openHumansUploader.enqueueTemporaryBasal(tempBasal);
                 aapsLogger.debug(LTag.DATABASE, "TEMPBASAL: New record from: " + Source.getString(tempBasal.source) + " " + tempBasal.toString());
                 updateEarliestDataChange(tempBasal.date);
-                scheduleTemporaryBasalChange();
+                scheduleTemporaryBasalChange(tempBasal.date);
                 return true;
             }
             if (tempBasal.source == Source.NIGHTSCOUT) {
@@ -935,7 +1088,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                         aapsLogger.debug(LTag.DATABASE, "TEMPBASAL: Updating record by date from: " + Source.getString(tempBasal.source) + " " + old.toString());
                         updateEarliestDataChange(oldDate);
                         updateEarliestDataChange(old.date);
-                        scheduleTemporaryBasalChange();
+                        scheduleTemporaryBasalChange(oldDate, old.date);
                         return true;
                     }
                     return false;
@@ -958,7 +1111,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                             aapsLogger.debug(LTag.DATABASE, "TEMPBASAL: Updating record by _id from: " + Source.getString(tempBasal.source) + " " + old.toString());
                             updateEarliestDataChange(oldDate);
                             updateEarliestDataChange(old.date);
-                            scheduleTemporaryBasalChange();
+                            scheduleTemporaryBasalChange(oldDate, old.date);
                             return true;
                         }
                     }
@@ -967,7 +1120,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 openHumansUploader.enqueueTemporaryBasal(tempBasal);
                 aapsLogger.debug(LTag.DATABASE, "TEMPBASAL: New record from: " + Source.getString(tempBasal.source) + " " + tempBasal.toString());
                 updateEarliestDataChange(tempBasal.date);
-                scheduleTemporaryBasalChange();
+                scheduleTemporaryBasalChange(tempBasal.date);
                 return true;
             }
             if (tempBasal.source == Source.USER) {
@@ -975,11 +1128,12 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 openHumansUploader.enqueueTemporaryBasal(tempBasal);
                 aapsLogger.debug(LTag.DATABASE, "TEMPBASAL: New record from: " + Source.getString(tempBasal.source) + " " + tempBasal.toString());
                 updateEarliestDataChange(tempBasal.date);
-                scheduleTemporaryBasalChange();
+                scheduleTemporaryBasalChange(tempBasal.date);
                 return true;
             }
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
         return false;
     }
@@ -992,7 +1146,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
-        scheduleTemporaryBasalChange();
+        scheduleTemporaryBasalChange(tempBasal.date);
     }
 
     public List<TemporaryBasal> getAllTemporaryBasals() {
@@ -1006,20 +1160,30 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
 
     public List<TemporaryBasal> getTemporaryBasalsDataFromTime(long mills, boolean ascending) {
         try {
-            List<TemporaryBasal> tempbasals;
-            QueryBuilder<TemporaryBasal, Long> queryBuilder = getDaoTemporaryBasal().queryBuilder();
-            queryBuilder.orderBy("date", ascending);
-            Where where = queryBuilder.where();
-            where.ge("date", mills);
-            PreparedQuery<TemporaryBasal> preparedQuery = queryBuilder.prepare();
-            tempbasals = getDaoTemporaryBasal().query(preparedQuery);
-            return tempbasals;
+            return temporaryBasalsFromTimeQuery(mills, ascending).query();
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
         return new ArrayList<TemporaryBasal>();
     }
 
+    private QueryBuilder<TemporaryBasal, Long> temporaryBasalsFromTimeQuery(long mills, boolean ascending) throws SQLException {
+        QueryBuilder<TemporaryBasal, Long> queryBuilder = getDaoTemporaryBasal().queryBuilder();
+        queryBuilder.orderBy("date", ascending);
+        Where where = queryBuilder.where();
+        where.ge("date", mills);
+        return queryBuilder;
+    }
+
+    public List<TemporaryBasal> getTemporaryBasalsDataByDates(long[] dates) {
+        try {
+            return queryByDates(getDaoTemporaryBasal(), dates);
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+        }
+        return new ArrayList<>();
+    }
+
     public List<TemporaryBasal> getTemporaryBasalsDataFromTime(long from, long to, boolean ascending) {
         try {
             List<TemporaryBasal> tempbasals;
@@ -1036,26 +1200,16 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return new ArrayList<TemporaryBasal>();
     }
 
-    private void scheduleTemporaryBasalChange() {
-        class PostRunnable implements Runnable {
-            public void run() {
-                aapsLogger.debug(LTag.DATABASE, "Firing EventTempBasalChange");
-                rxBus.send(new EventReloadTempBasalData());
-                rxBus.send(new EventTempBasalChange());
-                if (earliestDataChange != null)
-                    rxBus.send(new EventNewHistoryData(earliestDataChange));
-                earliestDataChange = null;
-                scheduledTemBasalsPost = null;
-            }
-        }
-        // prepare task for execution in 1 sec
-        // cancel waiting task to prevent sending multiple posts
-        if (scheduledTemBasalsPost != null)
-            scheduledTemBasalsPost.cancel(false);
-        Runnable task = new PostRunnable();
-        final int sec = 1;
-        scheduledTemBasalsPost = tempBasalsWorker.schedule(task, sec, TimeUnit.SECONDS);
-
+    /**
+     * @param changedDates dates of created, updated or deleted records, no dates reloads all records
+     */
+    private void scheduleTemporaryBasalChange(long... changedDates) {
+        if (changedDates.length == 0) changedTempBasals.addAll();
+        for (long date : changedDates) changedTempBasals.add(date);
+        changeScheduler.schedule(DatabaseChangeScheduler.Table.TEMPORARY_BASAL, () -> {
+            rxBus.send(new EventReloadTempBasalData(changedTempBasals.take()));
+            rxBus.send(new EventTempBasalChange());
+        });
     }
 
     /*
@@ -1074,6 +1228,21 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     }
     */
 
+    /**
+     * Stores batch of NS records in one transaction, duplicates by _id are stored once
+     */
+    public void createTempBasalsFromJsonIfNotExists(List<JSONObject> trJsons) {
+        try {
+            callInTransaction(() -> {
+                for (JSONObject trJson : uniqueById(trJsons))
+                    createTempBasalFromJsonIfNotExists(trJson);
+                return null;
+            });
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+        }
+    }
+
     public void createTempBasalFromJsonIfNotExists(JSONObject trJson) {
         try {
             if (trJson.has("originalExtendedAmount")) { // extended bolus uploaded as temp basal
@@ -1136,7 +1305,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             aapsLogger.debug(LTag.DATABASE, "TEMPBASAL: Removing TempBasal record from database: " + stored.toString());
             delete(stored);
             updateEarliestDataChange(stored.date);
-            scheduleTemporaryBasalChange();
+            scheduleTemporaryBasalChange(stored.date);
         }
     }
 
@@ -1215,7 +1384,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 }
                 aapsLogger.debug(LTag.DATABASE, "EXTENDEDBOLUS: New record from: " + Source.getString(extendedBolus.source) + " " + extendedBolus.log());
                 updateEarliestDataChange(extendedBolus.date);
-                scheduleExtendedBolusChange();
+                scheduleExtendedBolusChange(extendedBolus.date);
                 return true;
             }
             if (extendedBolus.source == Source.NIGHTSCOUT) {
@@ -1230,7 +1399,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                         openHumansUploader.enqueueExtendedBolus(old);
                         updateEarliestDataChange(oldDate);
                         updateEarliestDataChange(old.date);
-                        scheduleExtendedBolusChange();
+                        scheduleExtendedBolusChange(oldDate, old.date);
                         return true;
                     }
                     return false;
@@ -1253,7 +1422,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                             openHumansUploader.enqueueExtendedBolus(old);
                             updateEarliestDataChange(oldDate);
                             updateEarliestDataChange(old.date);
-                            scheduleExtendedBolusChange();
+                            scheduleExtendedBolusChange(oldDate, old.date);
                             return true;
                         }
                     }
@@ -1262,7 +1431,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 aapsLogger.debug(LTag.DATABASE, "EXTENDEDBOLUS: New record from: " + Source.getString(extendedBolus.source) + " " + extendedBolus.log());
                 openHumansUploader.enqueueExtendedBolus(extendedBolus);
                 updateEarliestDataChange(extendedBolus.date);
-                scheduleExtendedBolusChange();
+                scheduleExtendedBolusChange(extendedBolus.date);
                 return true;
             }
             if (extendedBolus.source == Source.USER) {
@@ -1270,11 +1439,12 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 aapsLogger.debug(LTag.DATABASE, "EXTENDEDBOLUS: New record from: " + Source.getString(extendedBolus.source) + " " + extendedBolus.log());
                 openHumansUploader.enqueueExtendedBolus(extendedBolus);
                 updateEarliestDataChange(extendedBolus.date);
-                scheduleExtendedBolusChange();
+                scheduleExtendedBolusChange(extendedBolus.date);
                 return true;
             }
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
         return false;
     }
@@ -1295,6 +1465,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                     .queryForFirst();
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
         return null;
     }
@@ -1306,8 +1477,9 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             updateEarliestDataChange(extendedBolus.date);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
-        scheduleExtendedBolusChange();
+        scheduleExtendedBolusChange(extendedBolus.date);
     }
 
     public List<ExtendedBolus> getExtendedBolusDataFromTime(long mills, boolean ascending) {
@@ -1326,6 +1498,15 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return new ArrayList<ExtendedBolus>();
     }
 
+    public List<ExtendedBolus> getExtendedBolusDataByDates(long[] dates) {
+        try {
+            return queryByDates(getDaoExtendedBolus(), dates);
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+        }
+        return new ArrayList<>();
+    }
+
     public List<ExtendedBolus> getExtendedBolusDataFromTime(long from, long to, boolean ascending) {
         try {
             List<ExtendedBolus> extendedBoluses;
@@ -1348,7 +1529,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             aapsLogger.debug(LTag.DATABASE, "EXTENDEDBOLUS: Removing ExtendedBolus record from database: " + stored.toString());
             delete(stored);
             updateEarliestDataChange(stored.date);
-            scheduleExtendedBolusChange();
+            scheduleExtendedBolusChange(stored.date);
         }
     }
 
@@ -1395,25 +1576,14 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             createOrUpdate(extendedBolus);
     }
 
-    private void scheduleExtendedBolusChange() {
-        class PostRunnable implements Runnable {
-            public void run() {
-                aapsLogger.debug(LTag.DATABASE, "Firing EventExtendedBolusChange");
-                rxBus.send(new EventReloadTreatmentData(new EventExtendedBolusChange()));
-                if (earliestDataChange != null)
-                    rxBus.send(new EventNewHistoryData(earliestDataChange));
-                earliestDataChange = null;
-                scheduledExtendedBolusPost = null;
-            }
-        }
-        // prepare task for execution in 1 sec
-        // cancel waiting task to prevent sending multiple posts
-        if (scheduledExtendedBolusPost != null)
-            scheduledExtendedBolusPost.cancel(false);
-        Runnable task = new PostRunnable();
-        final int sec = 1;
-        scheduledExtendedBolusPost = extendedBolusWorker.schedule(task, sec, TimeUnit.SECONDS);
-
+    /**
+     * @param changedDates dates of created, updated or deleted records, no dates reloads all records
+     */
+    private void scheduleExtendedBolusChange(long... changedDates) {
+        if (changedDates.length == 0) changedExtendedBoluses.addAll();
+        for (long date : changedDates) changedExtendedBoluses.add(date);
+        changeScheduler.schedule(DatabaseChangeScheduler.Table.EXTENDED_BOLUS,
+                () -> rxBus.send(new EventReloadTreatmentData(new EventExtendedBolusChange(), new long[0], changedExtendedBoluses.take())));
     }
 
 
@@ -1426,6 +1596,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             openHumansUploader.enqueueCareportalEvent(careportalEvent);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
         scheduleCareportalEventChange();
     }
@@ -1445,6 +1616,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             return getDaoCareportalEvents().queryForId(timestamp);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
         return null;
     }
@@ -1527,21 +1699,22 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
 
     public List<CareportalEvent> getCareportalEventsFromTime(long mills, String type, boolean ascending) {
         try {
-            List<CareportalEvent> careportalEvents;
-            QueryBuilder<CareportalEvent, Long> queryBuilder = getDaoCareportalEvents().queryBuilder();
-            queryBuilder.orderBy("date", ascending);
-            Where where = queryBuilder.where();
-            where.ge("date", mills).and().eq("eventType", type).and().isNotNull("json");
-            PreparedQuery<CareportalEvent> preparedQuery = queryBuilder.prepare();
-            careportalEvents = getDaoCareportalEvents().query(preparedQuery);
-            careportalEvents = preprocessOpenAPSOfflineEvents(careportalEvents);
-            return careportalEvents;
+            return preprocessOpenAPSOfflineEvents(careportalEventsFromTimeQuery(mills, type, ascending).query());
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
         return new ArrayList<>();
     }
 
+    private QueryBuilder<CareportalEvent, Long> careportalEventsFromTimeQuery(long mills, String type, boolean ascending) throws SQLException {
+        QueryBuilder<CareportalEvent, Long> queryBuilder = getDaoCareportalEvents().queryBuilder();
+        queryBuilder.orderBy("date", ascending);
+        Where where = queryBuilder.where();
+        // the only argument bound as "?", needed to be known for EXPLAIN in logQueryPlans()
+        where.ge("date", mills).and().eq("eventType", new SelectArg(type)).and().isNotNull("json");
+        return queryBuilder;
+    }
+
     public List<CareportalEvent> getCareportalEvents(boolean ascending) {
         try {
             List<CareportalEvent> careportalEvents;
@@ -1580,6 +1753,21 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         }
     }
 
+    /**
+     * Stores batch of NS records in one transaction, duplicates by _id are stored once
+     */
+    public void createCareportalEventsFromJsonIfNotExists(List<JSONObject> trJsons) {
+        try {
+            callInTransaction(() -> {
+                for (JSONObject trJson : uniqueById(trJsons))
+                    createCareportalEventFromJsonIfNotExists(trJson);
+                return null;
+            });
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+        }
+    }
+
     public void createCareportalEventFromJsonIfNotExists(JSONObject trJson) {
         try {
             QueryBuilder<CareportalEvent, Long> queryBuilder;
@@ -1612,25 +1800,20 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     }
 
     private void scheduleCareportalEventChange() {
-        class PostRunnable implements Runnable {
-            public void run() {
-                aapsLogger.debug(LTag.DATABASE, "Firing scheduleCareportalEventChange");
-                rxBus.send(new EventCareportalEventChange());
-                scheduledCareportalEventPost = null;
-            }
-        }
-        // prepare task for execution in 1 sec
-        // cancel waiting task to prevent sending multiple posts
-        if (scheduledCareportalEventPost != null)
-            scheduledCareportalEventPost.cancel(false);
-        Runnable task = new PostRunnable();
-        final int sec = 1;
-        scheduledCareportalEventPost = careportalEventWorker.schedule(task, sec, TimeUnit.SECONDS);
-
+        changeScheduler.schedule(DatabaseChangeScheduler.Table.CAREPORTAL_EVENT, () -> rxBus.send(new EventCareportalEventChange()));
     }
 
     // ---------------- ProfileSwitch handling ---------------
 
+    public List<ProfileSwitch> getProfileSwitchDataByDates(long[] dates) {
+        try {
+            return queryByDates(getDaoProfileSwitch(), dates);
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+        }
+        return new ArrayList<>();
+    }
+
     public List<ProfileSwitch> getProfileSwitchData(long from, boolean ascending) {
         try {
             Dao<ProfileSwitch, Long> daoProfileSwitch = getDaoProfileSwitch();
@@ -1673,15 +1856,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     @Nullable
     private ProfileSwitch getLastProfileSwitchWithoutDuration() {
         try {
-            Dao<ProfileSwitch, Long> daoProfileSwitch = getDaoProfileSwitch();
-            List<ProfileSwitch> profileSwitches;
-            QueryBuilder<ProfileSwitch, Long> queryBuilder = daoProfileSwitch.queryBuilder();
-            queryBuilder.orderBy("date", false);
-            queryBuilder.limit(1L);
-            Where where = queryBuilder.where();
-            where.eq("durationInMinutes", 0);
-            PreparedQuery<ProfileSwitch> preparedQuery = queryBuilder.prepare();
-            profileSwitches = daoProfileSwitch.query(preparedQuery);
+            List<ProfileSwitch> profileSwitches = lastProfileSwitchWithoutDurationQuery().query();
             if (profileSwitches.size() > 0)
                 return profileSwitches.get(0);
             else
@@ -1692,24 +1867,33 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         return null;
     }
 
+    private QueryBuilder<ProfileSwitch, Long> lastProfileSwitchWithoutDurationQuery() throws SQLException {
+        QueryBuilder<ProfileSwitch, Long> queryBuilder = getDaoProfileSwitch().queryBuilder();
+        queryBuilder.orderBy("date", false);
+        queryBuilder.limit(1L);
+        Where where = queryBuilder.where();
+        where.eq("durationInMinutes", 0);
+        return queryBuilder;
+    }
+
     public List<ProfileSwitch> getProfileSwitchEventsFromTime(long mills, boolean ascending) {
         try {
-            Dao<ProfileSwitch, Long> daoProfileSwitch = getDaoProfileSwitch();
-            List<ProfileSwitch> profileSwitches;
-            QueryBuilder<ProfileSwitch, Long> queryBuilder = daoProfileSwitch.queryBuilder();
-            queryBuilder.orderBy("date", ascending);
-            queryBuilder.limit(100L);
-            Where where = queryBuilder.where();
-            where.ge("date", mills);
-            PreparedQuery<ProfileSwitch> preparedQuery = queryBuilder.prepare();
-            profileSwitches = daoProfileSwitch.query(preparedQuery);
-            return profileSwitches;
+            return profileSwitchEventsFromTimeQuery(mills, ascending).query();
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
         return new ArrayList<>();
     }
 
+    private QueryBuilder<ProfileSwitch, Long> profileSwitchEventsFromTimeQuery(long mills, boolean ascending) throws SQLException {
+        QueryBuilder<ProfileSwitch, Long> queryBuilder = getDaoProfileSwitch().queryBuilder();
+        queryBuilder.orderBy("date", ascending);
+        queryBuilder.limit(100L);
+        Where where = queryBuilder.where();
+        where.ge("date", mills);
+        return queryBuilder;
+    }
+
     public List<ProfileSwitch> getProfileSwitchEventsFromTime(long from, long to, boolean ascending) {
         try {
             Dao<ProfileSwitch, Long> daoProfileSwitch = getDaoProfileSwitch();
@@ -1743,7 +1927,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                         getDaoProfileSwitch().create(profileSwitch);
                         aapsLogger.debug(LTag.DATABASE, "PROFILESWITCH: Updating record by date from: " + Source.getString(profileSwitch.source) + " " + old.toString());
                         openHumansUploader.enqueueProfileSwitch(profileSwitch);
-                        scheduleProfileSwitchChange();
+                        scheduleProfileSwitchChange(old.date, profileSwitch.date);
                         return true;
                     }
                     return false;
@@ -1758,12 +1942,13 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                     if (trList.size() > 0) {
                         old = trList.get(0);
                         if (!old.isEqual(profileSwitch)) {
+                            long oldDate = old.date;
                             getDaoProfileSwitch().delete(old); // need to delete/create because date may change too
                             old.copyFrom(profileSwitch);
                             getDaoProfileSwitch().create(old);
                             aapsLogger.debug(LTag.DATABASE, "PROFILESWITCH: Updating record by _id from: " + Source.getString(profileSwitch.source) + " " + old.toString());
                             openHumansUploader.enqueueProfileSwitch(old);
-                            scheduleProfileSwitchChange();
+                            scheduleProfileSwitchChange(oldDate, old.date);
                             return true;
                         }
                     }
@@ -1773,14 +1958,14 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                 getDaoProfileSwitch().create(profileSwitch);
                 aapsLogger.debug(LTag.DATABASE, "PROFILESWITCH: New record from: " + Source.getString(profileSwitch.source) + " " + profileSwitch.toString());
                 openHumansUploader.enqueueProfileSwitch(profileSwitch);
-                scheduleProfileSwitchChange();
+                scheduleProfileSwitchChange(profileSwitch.date);
                 return true;
             }
             if (profileSwitch.source == Source.USER) {
                 getDaoProfileSwitch().create(profileSwitch);
                 aapsLogger.debug(LTag.DATABASE, "PROFILESWITCH: New record from: " + Source.getString(profileSwitch.source) + " " + profileSwitch.toString());
                 openHumansUploader.enqueueProfileSwitch(profileSwitch);
-                scheduleProfileSwitchChange();
+                scheduleProfileSwitchChange(profileSwitch.date);
                 return true;
             }
         } catch (SQLException e) {
@@ -1793,29 +1978,22 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         try {
             getDaoProfileSwitch().delete(profileSwitch);
             openHumansUploader.enqueueProfileSwitch(profileSwitch, true);
-            scheduleProfileSwitchChange();
+            scheduleProfileSwitchChange(profileSwitch.date);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
     }
 
-    private void scheduleProfileSwitchChange() {
-        class PostRunnable implements Runnable {
-            public void run() {
-                aapsLogger.debug(LTag.DATABASE, "Firing EventProfileNeedsUpdate");
-                rxBus.send(new EventReloadProfileSwitchData());
-                rxBus.send(new EventProfileNeedsUpdate());
-                scheduledProfileSwitchEventPost = null;
-            }
-        }
-        // prepare task for execution in 1 sec
-        // cancel waiting task to prevent sending multiple posts
-        if (scheduledProfileSwitchEventPost != null)
-            scheduledProfileSwitchEventPost.cancel(false);
-        Runnable task = new PostRunnable();
-        final int sec = 1;
-        scheduledProfileSwitchEventPost = profileSwitchEventWorker.schedule(task, sec, TimeUnit.SECONDS);
-
+    /**
+     * @param changedDates dates of created, updated or deleted records, no dates reloads all records
+     */
+    private void scheduleProfileSwitchChange(long... changedDates) {
+        if (changedDates.length == 0) changedProfileSwitches.addAll();
+        for (long date : changedDates) changedProfileSwitches.add(date);
+        changeScheduler.schedule(DatabaseChangeScheduler.Table.PROFILE_SWITCH, () -> {
+            rxBus.send(new EventReloadProfileSwitchData(changedProfileSwitches.take()));
+            rxBus.send(new EventProfileNeedsUpdate());
+        });
     }
 
  /*
@@ -1925,6 +2103,7 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
             getDaoInsightBolusID().createOrUpdate(bolusID);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
     }
 
@@ -1937,15 +2116,34 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                     .queryForFirst();
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
         return null;
     }
 
+    /**
+     * @return bolus IDs with timestamp in from..to in order of creation
+     */
+    public List<InsightBolusID> getInsightBolusIDs(String pumpSerial, long from, long to) {
+        try {
+            return getDaoInsightBolusID().queryBuilder()
+                    .orderBy("id", true)
+                    .where().eq("pumpSerial", pumpSerial)
+                    .and().between("timestamp", from, to)
+                    .query();
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
+        }
+        return new ArrayList<>();
+    }
+
     public void createOrUpdate(InsightPumpID pumpID) {
         try {
             getDaoInsightPumpID().createOrUpdate(pumpID);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
     }
 
@@ -1959,10 +2157,30 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
                     .queryForFirst();
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
         return null;
     }
 
+    /**
+     * @return stopped and paused events with timestamp from (inclusive) to (exclusive) sorted by timestamp
+     */
+    public List<InsightPumpID> getPumpStoppedEvents(String pumpSerial, long from, long to) {
+        try {
+            return getDaoInsightPumpID().queryBuilder()
+                    .orderBy("timestamp", true)
+                    .where().eq("pumpSerial", pumpSerial)
+                    .and().in("eventType", "PumpStopped", "PumpPaused")
+                    .and().ge("timestamp", from)
+                    .and().lt("timestamp", to)
+                    .query();
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
+        }
+        return new ArrayList<>();
+    }
+
     // ---------------- Food handling ---------------
 
     // ---------------- PodHistory handling ---------------
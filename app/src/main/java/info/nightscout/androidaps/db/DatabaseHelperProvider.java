@@ -6,6 +6,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -64,6 +65,10 @@ public class DatabaseHelperProvider implements DatabaseHelperInterface {
         return MainApp.getDbHelper().deleteDbRequest(id);
     }
 
+    @Override public int deleteDbRequests(@NotNull Collection<String> ids) {
+        return MainApp.getDbHelper().deleteDbRequests(ids);
+    }
+
     @Override public void deleteDbRequestbyMongoId(@NotNull String action, @NotNull String _id) {
         MainApp.getDbHelper().deleteDbRequestbyMongoId(action, _id);
     }
@@ -1,3 +1,6 @@
 package info.nightscout.androidaps.events
 
-class EventReloadProfileSwitchData : Event()
+/**
+ * Dates (primary keys) of changed records, null if everything must be reloaded
+ */
+class EventReloadProfileSwitchData(val changedDates: LongArray?) : Event()
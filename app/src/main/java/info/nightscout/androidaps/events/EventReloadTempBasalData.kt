@@ -1,3 +1,6 @@
 package info.nightscout.androidaps.events
 
-class EventReloadTempBasalData : Event()
+/**
+ * Dates (primary keys) of changed records, null if everything must be reloaded
+ */
+class EventReloadTempBasalData(val changedDates: LongArray?) : Event()
@@ -1,3 +1,6 @@
 package info.nightscout.androidaps.events
 
-class EventReloadTreatmentData(var next: Event) : Event()
+/**
+ * Dates (primary keys) of changed records, empty if nothing changed, null if everything must be reloaded
+ */
+class EventReloadTreatmentData(var next: Event, val changedTreatments: LongArray?, val changedExtendedBoluses: LongArray?) : Event()
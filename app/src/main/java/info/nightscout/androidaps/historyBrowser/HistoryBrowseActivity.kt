@@ -181,7 +181,7 @@ class HistoryBrowseActivity : NoSplashAppCompatActivity() {
             }) { fabricPrivacy::logException }
         )
         disposable.add(rxBus
-            .toObservable(EventIobCalculationProgress::class.java)
+            .toObservable(EventIobCalculationProgress::class.java, 250)
             .observeOn(AndroidSchedulers.mainThread())
             .subscribe({ overview_iobcalculationprogess?.text = it.progress }) { fabricPrivacy::logException }
         )
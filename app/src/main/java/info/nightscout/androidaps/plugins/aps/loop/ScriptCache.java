@@ -0,0 +1,97 @@
+package info.nightscout.androidaps.plugins.aps.loop;
+
+import android.content.Context;
+
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import info.nightscout.androidaps.plugins.aps.logger.LoggerCallback;
+
+/**
+ * Long lived holder of parsed determine-basal scripts
+ * <p>
+ * Scripts are read from assets and compiled only once. Standard JS objects and LoggerCallback
+ * class live in a sealed scope shared by all invocations. Every invocation gets
+ * a lightweight scope on top of it where precompiled scripts are executed, so
+ * state of one loop run never leaks to the next one.
+ * <p>
+ * All methods must be called inside entered rhino Context
+ */
+@Singleton
+public class ScriptCache {
+    private final ScriptReader scriptReader;
+
+    private ScriptableObject sharedScope = null;
+    private final Map<String, Script> files = new HashMap<>();
+    private final Map<String, Script> snippets = new HashMap<>();
+
+    @Inject
+    public ScriptCache(Context context) {
+        this.scriptReader = new ScriptReader(context);
+    }
+
+    public synchronized Scriptable newScope(org.mozilla.javascript.Context rhino) throws IllegalAccessException, InvocationTargetException, InstantiationException {
+        // Turn off optimization to make Rhino Android compatible
+        rhino.setOptimizationLevel(-1);
+        if (sharedScope == null) {
+            ScriptableObject scope = rhino.initStandardObjects(null, true);
+            //register logger callback for console.log and console.error
+            ScriptableObject.defineClass(scope, LoggerCallback.class);
+            scope.sealObject();
+            sharedScope = scope;
+        }
+        Scriptable scope = rhino.newObject(sharedScope);
+        scope.setPrototype(sharedScope);
+        scope.setParentScope(null);
+        return scope;
+    }
+
+    /**
+     * Execute script from assets in scope. Script is compiled on first use.
+     */
+    public void evaluateFile(org.mozilla.javascript.Context rhino, Scriptable scope, String fileName, String sourceName) throws IOException {
+        Script script;
+        synchronized (this) {
+            script = files.get(fileName);
+            if (script == null) {
+                script = rhino.compileString(readFile(fileName), sourceName, 0, null);
+                files.put(fileName, script);
+            }
+        }
+        script.exec(rhino, scope);
+    }
+
+    /**
+     * Execute inline source in scope. Source is compiled on first use.
+     */
+    public void evaluateString(org.mozilla.javascript.Context rhino, Scriptable scope, String source) {
+        Script script;
+        synchronized (this) {
+            script = snippets.get(source);
+            if (script == null) {
+                script = rhino.compileString(source, "JavaScript", 0, null);
+                snippets.put(source, script);
+            }
+        }
+        script.exec(rhino, scope);
+    }
+
+    private String readFile(String filename) throws IOException {
+        byte[] bytes = scriptReader.readFile(filename);
+        String string = new String(bytes, StandardCharsets.UTF_8);
+        if (string.startsWith("#!/usr/bin/env node")) {
+            string = string.substring(20);
+        }
+        return string;
+    }
+}
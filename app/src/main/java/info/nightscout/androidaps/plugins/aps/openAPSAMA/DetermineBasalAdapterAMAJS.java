@@ -9,12 +9,10 @@ import org.mozilla.javascript.NativeJSON;
 import org.mozilla.javascript.NativeObject;
 import org.mozilla.javascript.RhinoException;
 import org.mozilla.javascript.Scriptable;
-import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.Undefined;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.charset.StandardCharsets;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -29,7 +27,7 @@ import info.nightscout.androidaps.data.Profile;
 import info.nightscout.androidaps.db.TemporaryBasal;
 import info.nightscout.androidaps.logging.AAPSLogger;
 import info.nightscout.androidaps.logging.LTag;
-import info.nightscout.androidaps.plugins.aps.loop.ScriptReader;
+import info.nightscout.androidaps.plugins.aps.loop.ScriptCache;
 import info.nightscout.androidaps.plugins.aps.logger.LoggerCallback;
 import info.nightscout.androidaps.plugins.aps.openAPSSMB.SMBDefaults;
 import info.nightscout.androidaps.plugins.configBuilder.ConstraintChecker;
@@ -47,8 +45,7 @@ public class DetermineBasalAdapterAMAJS {
     @Inject ProfileFunction profileFunction;
     @Inject TreatmentsPlugin treatmentsPlugin;
     @Inject OpenHumansUploader openHumansUploader;
-
-    private ScriptReader mScriptReader;
+    @Inject ScriptCache scriptCache;
 
     private JSONObject mProfile;
     private JSONObject mGlucoseStatus;
@@ -66,9 +63,8 @@ public class DetermineBasalAdapterAMAJS {
 
     private String scriptDebug = "";
 
-    DetermineBasalAdapterAMAJS(ScriptReader scriptReader, HasAndroidInjector injector) {
+    DetermineBasalAdapterAMAJS(HasAndroidInjector injector) {
         injector.androidInjector().inject(this);
-        mScriptReader = scriptReader;
         this.injector = injector;
     }
 
@@ -90,26 +86,24 @@ public class DetermineBasalAdapterAMAJS {
         DetermineBasalResultAMA determineBasalResultAMA = null;
 
         Context rhino = Context.enter();
-        Scriptable scope = rhino.initStandardObjects();
-        // Turn off optimization to make Rhino Android compatible
-        rhino.setOptimizationLevel(-1);
 
         try {
+            // standard objects and compiled scripts are shared, scope is per call
+            Scriptable scope = scriptCache.newScope(rhino);
 
             //register logger callback for console.log and console.error
-            ScriptableObject.defineClass(scope, LoggerCallback.class);
             Scriptable myLogger = rhino.newObject(scope, "LoggerCallback", null);
             scope.put("console2", scope, myLogger);
-            rhino.evaluateString(scope, readFile("OpenAPSAMA/loggerhelper.js"), "JavaScript", 0, null);
+            scriptCache.evaluateFile(rhino, scope, "OpenAPSAMA/loggerhelper.js", "JavaScript");
 
             //set module parent
-            rhino.evaluateString(scope, "var module = {\"parent\":Boolean(1)};", "JavaScript", 0, null);
-            rhino.evaluateString(scope, "var round_basal = function round_basal(basal, profile) { return basal; };", "JavaScript", 0, null);
-            rhino.evaluateString(scope, "require = function() {return round_basal;};", "JavaScript", 0, null);
+            scriptCache.evaluateString(rhino, scope, "var module = {\"parent\":Boolean(1)};");
+            scriptCache.evaluateString(rhino, scope, "var round_basal = function round_basal(basal, profile) { return basal; };");
+            scriptCache.evaluateString(rhino, scope, "require = function() {return round_basal;};");
 
             //generate functions "determine_basal" and "setTempBasal"
-            rhino.evaluateString(scope, readFile("OpenAPSAMA/determine-basal.js"), "JavaScript", 0, null);
-            rhino.evaluateString(scope, readFile("OpenAPSAMA/basal-set-temp.js"), "setTempBasal.js", 0, null);
+            scriptCache.evaluateFile(rhino, scope, "OpenAPSAMA/determine-basal.js", "JavaScript");
+            scriptCache.evaluateFile(rhino, scope, "OpenAPSAMA/basal-set-temp.js", "setTempBasal.js");
             Object determineBasalObj = scope.get("determine_basal", scope);
             Object setTempBasalFunctionsObj = scope.get("tempBasalFunctions", scope);
 
@@ -287,13 +281,4 @@ public class DetermineBasalAdapterAMAJS {
         return param;
     }
 
-    private String readFile(String filename) throws IOException {
-        byte[] bytes = mScriptReader.readFile(filename);
-        String string = new String(bytes, StandardCharsets.UTF_8);
-        if (string.startsWith("#!/usr/bin/env node")) {
-            string = string.substring(20);
-        }
-        return string;
-    }
-
 }
@@ -9,12 +9,10 @@ import org.mozilla.javascript.NativeJSON;
 import org.mozilla.javascript.NativeObject;
 import org.mozilla.javascript.RhinoException;
 import org.mozilla.javascript.Scriptable;
-import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.Undefined;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.charset.StandardCharsets;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -32,7 +30,7 @@ import info.nightscout.androidaps.interfaces.PumpInterface;
 import info.nightscout.androidaps.logging.AAPSLogger;
 import info.nightscout.androidaps.logging.LTag;
 import info.nightscout.androidaps.plugins.aps.logger.LoggerCallback;
-import info.nightscout.androidaps.plugins.aps.loop.ScriptReader;
+import info.nightscout.androidaps.plugins.aps.loop.ScriptCache;
 import info.nightscout.androidaps.plugins.configBuilder.ConstraintChecker;
 import info.nightscout.androidaps.interfaces.ProfileFunction;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.GlucoseStatus;
@@ -53,18 +51,18 @@ public class DetermineBasalAdapterSMBJS {
     @Inject TreatmentsPlugin treatmentsPlugin;
     @Inject ActivePluginProvider activePluginProvider;
     @Inject OpenHumansUploader openHumansUploader;
+    @Inject ScriptCache scriptCache;
 
 
-    private ScriptReader mScriptReader;
-    private JSONObject mProfile;
-    private JSONObject mGlucoseStatus;
-    private JSONArray mIobData;
-    private JSONObject mMealData;
-    private JSONObject mCurrentTemp;
-    private JSONObject mAutosensData = null;
-    private boolean mMicrobolusAllowed;
+    JSONObject mProfile;
+    JSONObject mGlucoseStatus;
+    JSONArray mIobData;
+    JSONObject mMealData;
+    JSONObject mCurrentTemp;
+    JSONObject mAutosensData = null;
+    boolean mMicrobolusAllowed;
     private boolean mSMBAlwaysAllowed;
-    private long mCurrentTime;
+    long mCurrentTime;
 
     private String storedCurrentTemp = null;
     private String storedIobData = null;
@@ -77,14 +75,13 @@ public class DetermineBasalAdapterSMBJS {
     private String storedSMBAlwaysAllowed = null;
     private String storedCurrentTime = null;
 
-    private String scriptDebug = "";
+    String scriptDebug = "";
 
     /**
      * Main code
      */
 
-    DetermineBasalAdapterSMBJS(ScriptReader scriptReader, HasAndroidInjector injector) {
-        mScriptReader = scriptReader;
+    DetermineBasalAdapterSMBJS(HasAndroidInjector injector) {
         this.injector = injector;
         injector.androidInjector().inject(this);
     }
@@ -112,27 +109,50 @@ public class DetermineBasalAdapterSMBJS {
 
         DetermineBasalResultSMB determineBasalResultSMB = null;
 
+        JSONObject resultJson = determineBasal();
+        if (resultJson != null) {
+            openHumansUploader.enqueueSMBData(mProfile, mGlucoseStatus, mIobData, mMealData, mCurrentTemp, mAutosensData, mMicrobolusAllowed, mSMBAlwaysAllowed, resultJson);
+            determineBasalResultSMB = new DetermineBasalResultSMB(injector, resultJson);
+        }
+
+        storedGlucoseStatus = mGlucoseStatus.toString();
+        storedIobData = mIobData.toString();
+        storedCurrentTemp = mCurrentTemp.toString();
+        storedProfile = mProfile.toString();
+        storedMeal_data = mMealData.toString();
+
+        return determineBasalResultSMB;
+
+    }
+
+    /**
+     * Run determine-basal.js in Rhino
+     *
+     * @return result JSON or null on failure
+     */
+    @Nullable
+    JSONObject determineBasal() {
+        JSONObject resultJson = null;
+
         Context rhino = Context.enter();
-        Scriptable scope = rhino.initStandardObjects();
-        // Turn off optimization to make Rhino Android compatible
-        rhino.setOptimizationLevel(-1);
 
         try {
+            // standard objects and compiled scripts are shared, scope is per call
+            Scriptable scope = scriptCache.newScope(rhino);
 
             //register logger callback for console.log and console.error
-            ScriptableObject.defineClass(scope, LoggerCallback.class);
             Scriptable myLogger = rhino.newObject(scope, "LoggerCallback", null);
             scope.put("console2", scope, myLogger);
-            rhino.evaluateString(scope, readFile("OpenAPSAMA/loggerhelper.js"), "JavaScript", 0, null);
+            scriptCache.evaluateFile(rhino, scope, "OpenAPSAMA/loggerhelper.js", "JavaScript");
 
             //set module parent
-            rhino.evaluateString(scope, "var module = {\"parent\":Boolean(1)};", "JavaScript", 0, null);
-            rhino.evaluateString(scope, "var round_basal = function round_basal(basal, profile) { return basal; };", "JavaScript", 0, null);
-            rhino.evaluateString(scope, "require = function() {return round_basal;};", "JavaScript", 0, null);
+            scriptCache.evaluateString(rhino, scope, "var module = {\"parent\":Boolean(1)};");
+            scriptCache.evaluateString(rhino, scope, "var round_basal = function round_basal(basal, profile) { return basal; };");
+            scriptCache.evaluateString(rhino, scope, "require = function() {return round_basal;};");
 
             //generate functions "determine_basal" and "setTempBasal"
-            rhino.evaluateString(scope, readFile("OpenAPSSMB/determine-basal.js"), "JavaScript", 0, null);
-            rhino.evaluateString(scope, readFile("OpenAPSSMB/basal-set-temp.js"), "setTempBasal.js", 0, null);
+            scriptCache.evaluateFile(rhino, scope, "OpenAPSSMB/determine-basal.js", "JavaScript");
+            scriptCache.evaluateFile(rhino, scope, "OpenAPSSMB/basal-set-temp.js", "setTempBasal.js");
             Object determineBasalObj = scope.get("determine_basal", scope);
             Object setTempBasalFunctionsObj = scope.get("tempBasalFunctions", scope);
 
@@ -162,9 +182,7 @@ public class DetermineBasalAdapterSMBJS {
                 String result = NativeJSON.stringify(rhino, scope, jsResult, null, null).toString();
                 aapsLogger.debug(LTag.APS, "Result: " + result);
                 try {
-                    JSONObject resultJson = new JSONObject(result);
-                    openHumansUploader.enqueueSMBData(mProfile, mGlucoseStatus, mIobData, mMealData, mCurrentTemp, mAutosensData, mMicrobolusAllowed, mSMBAlwaysAllowed, resultJson);
-                    determineBasalResultSMB = new DetermineBasalResultSMB(injector, resultJson);
+                    resultJson = new JSONObject(result);
                 } catch (JSONException e) {
                     aapsLogger.error(LTag.APS, "Unhandled exception", e);
                 }
@@ -180,15 +198,7 @@ public class DetermineBasalAdapterSMBJS {
         } finally {
             Context.exit();
         }
-
-        storedGlucoseStatus = mGlucoseStatus.toString();
-        storedIobData = mIobData.toString();
-        storedCurrentTemp = mCurrentTemp.toString();
-        storedProfile = mProfile.toString();
-        storedMeal_data = mMealData.toString();
-
-        return determineBasalResultSMB;
-
+        return resultJson;
     }
 
     String getGlucoseStatusParam() {
@@ -370,13 +380,4 @@ public class DetermineBasalAdapterSMBJS {
         return param;
     }
 
-    private String readFile(String filename) throws IOException {
-        byte[] bytes = mScriptReader.readFile(filename);
-        String string = new String(bytes, StandardCharsets.UTF_8);
-        if (string.startsWith("#!/usr/bin/env node")) {
-            string = string.substring(20);
-        }
-        return string;
-    }
-
 }
@@ -0,0 +1,36 @@
+package info.nightscout.androidaps.plugins.aps.openAPSSMB;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+
+import dagger.android.HasAndroidInjector;
+import info.nightscout.androidaps.logging.LTag;
+
+/**
+ * Same inputs and outputs as DetermineBasalAdapterSMBJS
+ * but calculation is done by DetermineBasalSMB without JS engine
+ */
+public class DetermineBasalAdapterSMBJava extends DetermineBasalAdapterSMBJS {
+
+    DetermineBasalAdapterSMBJava(HasAndroidInjector injector) {
+        super(injector);
+    }
+
+    @Nullable @Override
+    JSONObject determineBasal() {
+        DetermineBasalSMB determineBasalSMB = new DetermineBasalSMB();
+        try {
+            JSONObject result = determineBasalSMB.determineBasal(mGlucoseStatus, mCurrentTemp, mIobData, mProfile, mAutosensData, mMealData, mMicrobolusAllowed, mCurrentTime);
+            aapsLogger.debug(LTag.APS, determineBasalSMB.getScriptDebug());
+            aapsLogger.debug(LTag.APS, "Result: " + result.toString());
+            return result;
+        } catch (JSONException e) {
+            aapsLogger.error(LTag.APS, "Unhandled exception", e);
+            return null;
+        } finally {
+            scriptDebug = determineBasalSMB.getScriptDebug();
+        }
+    }
+}
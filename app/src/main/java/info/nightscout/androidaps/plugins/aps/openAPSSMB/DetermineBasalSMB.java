@@ -0,0 +1,1303 @@
+package info.nightscout.androidaps.plugins.aps.openAPSSMB;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import info.nightscout.androidaps.utils.DateUtil;
+
+/**
+ * Java port of OpenAPSSMB/determine-basal.js and basal-set-temp.js
+ * <p>
+ * Takes the same JSON inputs as the script and produces the same result JSON
+ * so DetermineBasalResultSMB does not see any difference. Missing numeric inputs
+ * are handled as NaN which gives the same comparisons as undefined in JS.
+ * Number formatting in reason follows JS rules to keep texts identical.
+ * <p>
+ * Any change of the scripts must be ported here too. DetermineBasalSMBTest
+ * replays inputs through both implementations.
+ */
+public class DetermineBasalSMB {
+
+    private final StringBuilder errorBuffer = new StringBuilder();
+    private final StringBuilder logBuffer = new StringBuilder();
+
+    // inputs
+    private JSONObject profile;
+    private JSONObject currentTemp;
+
+    /**
+     * @param glucoseStatus     glucose status
+     * @param currentTemp       running temp basal
+     * @param iobArray          predicted iob, first item is current
+     * @param profile           profile
+     * @param autosensData      autosens data or null
+     * @param mealData          meal data
+     * @param microBolusAllowed SMB allowed by constraints
+     * @param currentTime       time of calculation, 0 for now
+     * @return requested temp (rT) in the same form as determine_basal returns it
+     */
+    @NonNull
+    public JSONObject determineBasal(JSONObject glucoseStatus, JSONObject currentTemp, JSONArray iobArray, JSONObject profile,
+                                     @Nullable JSONObject autosensData, JSONObject mealData, boolean microBolusAllowed, long currentTime) throws JSONException {
+        this.profile = profile;
+        this.currentTemp = currentTemp;
+
+        JSONObject rT = new JSONObject(); //short for requestedTemp
+
+        long deliverAt = currentTime != 0 ? currentTime : System.currentTimeMillis();
+
+        if (!profile.has("current_basal")) {
+            rT.put("error", "Error: could not get current basal rate");
+            return rT;
+        }
+        double profileCurrentBasal = num(profile, "current_basal");
+        double basal = profileCurrentBasal;
+
+        long systemTime = deliverAt;
+        double bgTime = num(glucoseStatus, "date");
+        double minAgo = round((systemTime - bgTime) / 60 / 1000, 1);
+
+        double bg = num(glucoseStatus, "glucose");
+        double noise = num(glucoseStatus, "noise");
+        double delta = num(glucoseStatus, "delta");
+        double shortAvgDelta = num(glucoseStatus, "short_avgdelta");
+        double longAvgDelta = num(glucoseStatus, "long_avgdelta");
+        double currentTempRate = num(currentTemp, "rate");
+        double currentTempDuration = num(currentTemp, "duration");
+
+        String reason = null;
+        boolean flat = bg > 60 && delta == 0 && shortAvgDelta > -1 && shortAvgDelta < 1 && longAvgDelta > -1 && longAvgDelta < 1;
+        // 38 is an xDrip error state that usually indicates sensor failure
+        // all other BG values between 11 and 37 mg/dL reflect non-error-code BG values, so we should zero temp for those
+        if (bg <= 10 || bg == 38 || noise >= 3) {  //Dexcom is in ??? mode or calibrating, or xDrip reports high noise
+            reason = "CGM is calibrating, in ??? state, or noise is high";
+        }
+        if (minAgo > 12 || minAgo < -5) { // Dexcom data is too old, or way in the future
+            reason = "If current system time " + systemTime + " is correct, then BG data is too old. The last BG data was read " + str(minAgo) + "m ago at " + jsDate(bgTime);
+            // if BG is too old/noisy, or is changing less than 1 mg/dL/5m for 45m, cancel any high temps and shorten any long zero temps
+        } else if (flat) {
+            double lastCal = num(glucoseStatus, "last_cal");
+            if (truthy(lastCal) && lastCal < 3) {
+                reason = "CGM was just calibrated";
+            } else {
+                reason = "Error: CGM data is unchanged for the past ~45m";
+            }
+        }
+        if (bg <= 10 || bg == 38 || noise >= 3 || minAgo > 12 || minAgo < -5 || flat) {
+            if (currentTempRate > basal) { // high temp is running
+                rT.put("reason", reason + ". Replacing high temp basal of " + str(currentTempRate) + " with neutral temp of " + str(basal));
+                rT.put("deliverAt", isoDate(deliverAt));
+                rT.put("temp", "absolute");
+                rT.put("duration", 30);
+                rT.put("rate", number(basal));
+                return rT;
+            } else if (currentTempRate == 0 && currentTempDuration > 30) { //shorten long zero temps to 30m
+                rT.put("reason", reason + ". Shortening " + str(currentTempDuration) + "m long zero temp to 30m. ");
+                rT.put("deliverAt", isoDate(deliverAt));
+                rT.put("temp", "absolute");
+                rT.put("duration", 30);
+                rT.put("rate", 0);
+                return rT;
+            } else { //do nothing.
+                rT.put("reason", reason + ". Temp " + str(currentTempRate) + " <= current basal " + str(basal) + "U/hr; doing nothing. ");
+                return rT;
+            }
+        }
+
+        double maxIob = num(profile, "max_iob"); // maximum amount of non-bolus IOB OpenAPS will ever deliver
+
+        // if min and max are set, then set target to their average
+        double targetBg;
+        double minBg = num(profile, "min_bg");
+        double maxBg = num(profile, "max_bg");
+        if (profile.has("min_bg") && profile.has("max_bg")) {
+            targetBg = (minBg + maxBg) / 2;
+        } else {
+            rT.put("error", "Error: could not determine target_bg. ");
+            return rT;
+        }
+
+        double sensitivityRatio = Double.NaN;
+        boolean highTempTargetRaisesSensitivity = truthy(profile, "exercise_mode") || truthy(profile, "high_temptarget_raises_sensitivity");
+        double normalTarget = 100; // evaluate high/low temptarget against 100, not scheduled target (which might change)
+        double halfBasalTarget = 160; // when temptarget is 160 mg/dL, run 50% basal (120 = 75%; 140 = 60%)
+        if (truthy(profile, "half_basal_exercise_target")) {
+            halfBasalTarget = num(profile, "half_basal_exercise_target");
+        }
+        boolean tempTargetSet = truthy(profile, "temptargetSet");
+        if (highTempTargetRaisesSensitivity && tempTargetSet && targetBg > normalTarget
+                || truthy(profile, "low_temptarget_lowers_sensitivity") && tempTargetSet && targetBg < normalTarget) {
+            // w/ target 100, temp target 110 = .89, 120 = 0.8, 140 = 0.67, 160 = .57, and 200 = .44
+            double c = halfBasalTarget - normalTarget;
+            sensitivityRatio = c / (c + targetBg - normalTarget);
+            // limit sensitivityRatio to profile.autosens_max (1.2x by default)
+            sensitivityRatio = Math.min(sensitivityRatio, num(profile, "autosens_max"));
+            sensitivityRatio = round(sensitivityRatio, 2);
+            log("Sensitivity ratio set to " + str(sensitivityRatio) + " based on temp target of " + str(targetBg) + "; ");
+        } else if (autosensData != null) {
+            sensitivityRatio = num(autosensData, "ratio");
+            log("Autosens ratio: " + str(sensitivityRatio) + "; ");
+        }
+        if (truthy(sensitivityRatio)) {
+            basal = profileCurrentBasal * sensitivityRatio;
+            if (basal != profileCurrentBasal) {
+                log("Adjusting basal from " + str(profileCurrentBasal) + " to " + str(basal) + "; ");
+            } else {
+                log("Basal unchanged: " + str(basal) + "; ");
+            }
+        }
+
+        // adjust min, max, and target BG for sensitivity, such that 50% increase in ISF raises target from 100 to 120
+        if (tempTargetSet) {
+            //console.log("Temp Target set, not adjusting with autosens; ");
+        } else if (autosensData != null) {
+            double ratio = num(autosensData, "ratio");
+            if (truthy(profile, "sensitivity_raises_target") && ratio < 1 || truthy(profile, "resistance_lowers_target") && ratio > 1) {
+                // with a target of 100, default 0.7-1.2 autosens min/max range would allow a 93-117 target range
+                minBg = round((minBg - 60) / ratio) + 60;
+                maxBg = round((maxBg - 60) / ratio) + 60;
+                double newTargetBg = round((targetBg - 60) / ratio) + 60;
+                // don't allow target_bg below 80
+                newTargetBg = Math.max(80, newTargetBg);
+                if (targetBg == newTargetBg) {
+                    log("target_bg unchanged: " + str(newTargetBg) + "; ");
+                } else {
+                    log("target_bg from " + str(targetBg) + " to " + str(newTargetBg) + "; ");
+                }
+                targetBg = newTargetBg;
+            }
+        }
+
+        // determine_basal uses first item as current iob only if there are more items
+        JSONObject iobData = iobArray.length() > 1 ? iobArray.getJSONObject(0) : null;
+        if (iobData == null || !iobData.has("activity") || !iobData.has("iob")) {
+            rT.put("error", "Error: iob_data missing some property. ");
+            return rT;
+        }
+        double iob = num(iobData, "iob");
+
+        Object tick;
+        if (delta > -0.5) {
+            tick = "+" + str(round(delta, 0));
+        } else {
+            tick = round(delta, 0);
+        }
+        double minDelta = Math.min(delta, shortAvgDelta);
+        double minAvgDelta = Math.min(shortAvgDelta, longAvgDelta);
+        double maxDelta = Math.max(delta, Math.max(shortAvgDelta, longAvgDelta));
+
+        double profileSens = round(num(profile, "sens"), 1);
+        double sens = num(profile, "sens");
+        if (autosensData != null) {
+            sens = num(profile, "sens") / sensitivityRatio;
+            sens = round(sens, 1);
+            if (sens != profileSens) {
+                log("ISF from " + str(profileSens) + " to " + str(sens));
+            } else {
+                log("ISF unchanged: " + str(sens));
+            }
+        }
+        double carbRatio = num(profile, "carb_ratio");
+        error("; CR:", carbRatio);
+
+        // compare currenttemp to iob_data.lastTemp and cancel temp if they don't match
+        JSONObject lastTemp = iobData.optJSONObject("lastTemp");
+        double lastTempAge;
+        if (lastTemp != null) {
+            lastTempAge = round((systemTime - num(lastTemp, "date")) / 60000); // in minutes
+        } else {
+            lastTempAge = 0;
+        }
+        double tempModulus = (lastTempAge + currentTempDuration) % 30;
+        error("currenttemp:", currentTemp, "lastTempAge:", lastTempAge, "m", "tempModulus:", tempModulus, "m");
+        rT.put("temp", "absolute");
+        rT.put("deliverAt", isoDate(deliverAt));
+        if (microBolusAllowed && lastTemp != null && currentTempRate != num(lastTemp, "rate") && lastTempAge > 10 && truthy(currentTempDuration)) {
+            rT.put("reason", "Warning: currenttemp rate " + str(currentTempRate) + " != lastTemp rate " + str(num(lastTemp, "rate")) + " from pumphistory; canceling temp");
+            return setTempBasal(0, 0, rT);
+        }
+        if (lastTemp != null && currentTempDuration > 0) {
+            double lastTempEnded = lastTempAge - num(lastTemp, "duration");
+            if (lastTempEnded > 5 && lastTempAge > 10) {
+                rT.put("reason", "Warning: currenttemp running but lastTemp from pumphistory ended " + str(lastTempEnded) + "m ago; canceling temp");
+                return setTempBasal(0, 0, rT);
+            }
+        }
+
+        //calculate BG impact: the amount BG "should" be rising or falling based on insulin activity alone
+        double bgi = round((-num(iobData, "activity") * sens * 5), 2);
+        // project deviations for 30 minutes
+        double deviation = round(30.0 / 5 * (minDelta - bgi));
+        // don't overreact to a big negative delta: use minAvgDelta if deviation is negative
+        if (deviation < 0) {
+            deviation = round((30.0 / 5) * (minAvgDelta - bgi));
+            // and if deviation is still negative, use long_avgdelta
+            if (deviation < 0) {
+                deviation = round((30.0 / 5) * (longAvgDelta - bgi));
+            }
+        }
+
+        // calculate the naive (bolus calculator math) eventual BG based on net IOB and sensitivity
+        double naiveEventualBG;
+        if (iob > 0) {
+            naiveEventualBG = round(bg - (iob * sens));
+        } else { // if IOB is negative, be more conservative and use the lower of sens, profile.sens
+            naiveEventualBG = round(bg - (iob * Math.min(sens, num(profile, "sens"))));
+        }
+        // and adjust it for the deviation above
+        double eventualBG = naiveEventualBG + deviation;
+
+        // raise target for noisy / raw CGM data
+        if (noise >= 2) {
+            // increase target at least 10% (default 30%) for raw / noisy data
+            double noisyCGMTargetMultiplier = Math.max(1.1, num(profile, "noisyCGMTargetMultiplier"));
+            double adjustedMinBG = round(Math.min(200, minBg * noisyCGMTargetMultiplier));
+            double adjustedTargetBG = round(Math.min(200, targetBg * noisyCGMTargetMultiplier));
+            double adjustedMaxBG = round(Math.min(200, maxBg * noisyCGMTargetMultiplier));
+            log("Raising target_bg for noisy / raw CGM data, from " + str(targetBg) + " to " + str(adjustedTargetBG) + "; ");
+            minBg = adjustedMinBG;
+            targetBg = adjustedTargetBG;
+            maxBg = adjustedMaxBG;
+            // adjust target BG range if configured to bring down high BG faster
+        } else if (bg > maxBg && truthy(profile, "adv_target_adjustments") && !tempTargetSet) {
+            // with target=100, as BG rises from 100 to 160, adjustedTarget drops from 100 to 80
+            double adjustedMinBG = round(Math.max(80, minBg - (bg - minBg) / 3), 0);
+            double adjustedTargetBG = round(Math.max(80, targetBg - (bg - targetBg) / 3), 0);
+            double adjustedMaxBG = round(Math.max(80, maxBg - (bg - maxBg) / 3), 0);
+            // if eventualBG, naive_eventualBG, and target_bg aren't all above adjustedMinBG, don't use it
+            if (eventualBG > adjustedMinBG && naiveEventualBG > adjustedMinBG && minBg > adjustedMinBG) {
+                log("Adjusting targets for high BG: min_bg from " + str(minBg) + " to " + str(adjustedMinBG) + "; ");
+                minBg = adjustedMinBG;
+            } else {
+                log("min_bg unchanged: " + str(minBg) + "; ");
+            }
+            // if eventualBG, naive_eventualBG, and target_bg aren't all above adjustedTargetBG, don't use it
+            if (eventualBG > adjustedTargetBG && naiveEventualBG > adjustedTargetBG && targetBg > adjustedTargetBG) {
+                log("target_bg from " + str(targetBg) + " to " + str(adjustedTargetBG) + "; ");
+                targetBg = adjustedTargetBG;
+            } else {
+                log("target_bg unchanged: " + str(targetBg) + "; ");
+            }
+            // if eventualBG, naive_eventualBG, and max_bg aren't all above adjustedMaxBG, don't use it
+            if (eventualBG > adjustedMaxBG && naiveEventualBG > adjustedMaxBG && maxBg > adjustedMaxBG) {
+                error("max_bg from " + str(maxBg) + " to " + str(adjustedMaxBG));
+                maxBg = adjustedMaxBG;
+            } else {
+                error("max_bg unchanged: " + str(maxBg));
+            }
+        }
+
+        double expectedDelta = calculateExpectedDelta(targetBg, eventualBG, bgi);
+        if (Double.isNaN(eventualBG)) {
+            rT.put("error", "Error: could not calculate eventualBG. ");
+            return rT;
+        }
+
+        // min_bg of 90 -> threshold of 65, 100 -> 70 110 -> 75, and 130 -> 85
+        double threshold = minBg - 0.5 * (minBg - 40);
+
+        rT = new JSONObject();
+        rT.put("temp", "absolute");
+        rT.put("bg", number(bg));
+        rT.put("tick", tick instanceof Double ? number((Double) tick) : tick);
+        rT.put("eventualBG", number(eventualBG));
+        rT.put("targetBG", number(targetBg));
+        rT.put("insulinReq", 0);
+        // reservoir data is not available
+        rT.put("deliverAt", isoDate(deliverAt)); // The time at which the microbolus should be delivered
+        if (!Double.isNaN(sensitivityRatio))
+            rT.put("sensitivityRatio", number(sensitivityRatio)); // autosens ratio (fraction of normal basal)
+
+        // generate predicted future BGs based on IOB, COB, and current absorption rate
+
+        List<Double> cobPredBGs = new ArrayList<>();
+        List<Double> aCobPredBGs = new ArrayList<>();
+        List<Double> iobPredBGs = new ArrayList<>();
+        List<Double> uamPredBGs = new ArrayList<>();
+        List<Double> ztPredBGs = new ArrayList<>();
+        cobPredBGs.add(bg);
+        aCobPredBGs.add(bg);
+        iobPredBGs.add(bg);
+        ztPredBGs.add(bg);
+        uamPredBGs.add(bg);
+
+        boolean enableSMB = enableSMB(microBolusAllowed, mealData, targetBg);
+
+        // enable UAM (if enabled in preferences)
+        boolean enableUAM = truthy(profile, "enableUAM");
+
+        double mealCOB = num(mealData, "mealCOB");
+        double carbs = num(mealData, "carbs");
+
+        // calculate current carb absorption rate, and how long to absorb all carbs
+        // CI = current carb impact on BG in mg/dL/5m
+        double ci = round((minDelta - bgi), 1);
+        double uci = round((minDelta - bgi), 1);
+        // ISF (mg/dL/U) / CR (g/U) = CSF (mg/dL/g)
+        // use autosens-adjusted sens to counteract autosens meal insulin dosing adjustments so that
+        // autotuned CR is still in effect even when basals and ISF are being adjusted by TT or autosens
+        // this avoids overdosing insulin for large meals when low temp targets are active
+        double csf = sens / carbRatio;
+        error("profile.sens:", num(profile, "sens"), "sens:", sens, "CSF:", csf);
+
+        double maxCarbAbsorptionRate = 30; // g/h; maximum rate to assume carbs will absorb if no CI observed
+        // limit Carb Impact to maxCarbAbsorptionRate * csf in mg/dL per 5m
+        double maxCI = round(maxCarbAbsorptionRate * csf * 5 / 60, 1);
+        if (ci > maxCI) {
+            error("Limiting carb impact from", ci, "to", maxCI, "mg/dL/5m (", maxCarbAbsorptionRate, "g/h )");
+            ci = maxCI;
+        }
+        double remainingCATimeMin = 3; // h; duration of expected not-yet-observed carb absorption
+        // adjust remainingCATime (instead of CR) for autosens if sensitivityRatio defined
+        if (truthy(sensitivityRatio)) {
+            remainingCATimeMin = remainingCATimeMin / sensitivityRatio;
+        }
+        // 20 g/h means that anything <= 60g will get a remainingCATimeMin, 80g will get 4h, and 120g 6h
+        // when actual absorption ramps up it will take over from remainingCATime
+        double assumedCarbAbsorptionRate = 20; // g/h; maximum rate to assume carbs will absorb if no CI observed
+        double remainingCATime = remainingCATimeMin;
+        if (truthy(carbs)) {
+            // if carbs * assumedCarbAbsorptionRate > remainingCATimeMin, raise it
+            // so <= 90g is assumed to take 3h, and 120g=4h
+            remainingCATimeMin = Math.max(remainingCATimeMin, mealCOB / assumedCarbAbsorptionRate);
+            double lastCarbAge = round((systemTime - num(mealData, "lastCarbTime")) / 60000);
+
+            double fractionCOBAbsorbed = (carbs - mealCOB) / carbs;
+            remainingCATime = remainingCATimeMin + 1.5 * lastCarbAge / 60;
+            remainingCATime = round(remainingCATime, 1);
+            error("Last carbs", lastCarbAge, "minutes ago; remainingCATime:", remainingCATime, "hours;", str(round(fractionCOBAbsorbed * 100)) + "% carbs absorbed");
+        }
+
+        // calculate the number of carbs absorbed over remainingCATime hours at current CI
+        // CI (mg/dL/5m) * (5m)/5 (m) * 60 (min/hr) * 4 (h) / 2 (linear decay factor) = total carb impact (mg/dL)
+        double totalCI = Math.max(0, ci / 5 * 60 * remainingCATime / 2);
+        // totalCI (mg/dL) / CSF (mg/dL/g) = total carbs absorbed (g)
+        double totalCA = totalCI / csf;
+        double remainingCarbsCap = 90; // default to 90
+        double remainingCarbsFraction = 1;
+        if (truthy(profile, "remainingCarbsCap")) {
+            remainingCarbsCap = Math.min(90, num(profile, "remainingCarbsCap"));
+        }
+        if (truthy(profile, "remainingCarbsFraction")) {
+            remainingCarbsFraction = Math.min(1, num(profile, "remainingCarbsFraction"));
+        }
+        double remainingCarbsIgnore = 1 - remainingCarbsFraction;
+        double remainingCarbs = Math.max(0, mealCOB - totalCA - carbs * remainingCarbsIgnore);
+        remainingCarbs = Math.min(remainingCarbsCap, remainingCarbs);
+        // assume remainingCarbs will absorb in a /\ shaped bilinear curve
+        // peaking at remainingCATime / 2 and ending at remainingCATime hours
+        // area of the /\ triangle is the same as a remainingCIpeak-height rectangle out to remainingCATime/2
+        // remainingCIpeak (mg/dL/5m) = remainingCarbs (g) * CSF (mg/dL/g) * 5 (m/5m) * 1h/60m / (remainingCATime/2) (h)
+        double remainingCIpeak = remainingCarbs * csf * 5 / 60 / (remainingCATime / 2);
+
+        // calculate peak deviation in last hour, and slope from that to current deviation
+        double slopeFromMaxDeviation = round(num(mealData, "slopeFromMaxDeviation"), 2);
+        // calculate lowest deviation in last hour, and slope from that to current deviation
+        double slopeFromMinDeviation = round(num(mealData, "slopeFromMinDeviation"), 2);
+        // assume deviations will drop back down at least at 1/3 the rate they ramped up
+        double slopeFromDeviations = Math.min(slopeFromMaxDeviation, -slopeFromMinDeviation / 3);
+
+        double aci = 10;
+        //5m data points = g * (1U/10g) * (40mg/dL/1U) / (mg/dL/5m)
+        // duration (in 5m data points) = COB (g) * CSF (mg/dL/g) / ci (mg/dL/5m)
+        // limit cid to remainingCATime hours: the reset goes to remainingCI
+        double cid;
+        if (ci == 0) {
+            // avoid divide by zero
+            cid = 0;
+        } else {
+            cid = Math.min(remainingCATime * 60 / 5 / 2, Math.max(0, mealCOB * csf / ci));
+        }
+        double acid = Math.max(0, mealCOB * csf / aci);
+        // duration (hours) = duration (5m) * 5 / 60 * 2 (to account for linear decay)
+        error("Carb Impact:", ci, "mg/dL per 5m; CI Duration:", round(cid * 5 / 60 * 2, 1), "hours; remaining CI (~2h peak):", round(remainingCIpeak, 1), "mg/dL per 5m");
+        double minIOBPredBG = 999;
+        double minCOBPredBG = 999;
+        double minUAMPredBG = 999;
+        double minGuardBG;
+        double minCOBGuardBG = 999;
+        double minUAMGuardBG = 999;
+        double minIOBGuardBG = 999;
+        double minZTGuardBG = 999;
+        double minPredBG;
+        double avgPredBG;
+        double iobPredBG = eventualBG;
+        double cobPredBG = Double.NaN;
+        double uamPredBG = Double.NaN;
+        double maxIOBPredBG = bg;
+        double maxCOBPredBG = bg;
+        double lastIOBpredBG;
+        double lastCOBpredBG = Double.NaN;
+        double lastUAMpredBG = Double.NaN;
+        double uamDuration = 0;
+        List<Double> remainingCIs = new ArrayList<>();
+        List<Double> predCIs = new ArrayList<>();
+        boolean hasCarbImpact = truthy(cid) || remainingCIpeak > 0;
+        // set minPredBGs starting when currently-dosed insulin activity will peak
+        // look ahead 60m (regardless of insulin type) so as to be less aggressive on slower insulins
+        // add 30m to allow for insulin delivery (SMBs or temps)
+        double insulinPeakTime = 90;
+        double insulinPeak5m = (insulinPeakTime / 60) * 12;
+        try {
+            for (int index = 0; index < iobArray.length(); index++) {
+                JSONObject iobTick = iobArray.getJSONObject(index);
+                double predBGI = round((-num(iobTick, "activity") * sens * 5), 2);
+                double predZTBGI = round((-num(iobTick.getJSONObject("iobWithZeroTemp"), "activity") * sens * 5), 2);
+                // for IOBpredBGs, predicted deviation impact drops linearly from current deviation down to zero
+                // over 60 minutes (data points every 5m)
+                double predDev = ci * (1 - Math.min(1, iobPredBGs.size() / (60.0 / 5)));
+                iobPredBG = last(iobPredBGs) + predBGI + predDev;
+                // calculate predBGs with long zero temp without deviations
+                double ztPredBG = last(ztPredBGs) + predZTBGI;
+                // for COBpredBGs, predicted carb impact drops linearly from current carb impact down to zero
+                // eventually accounting for all carbs (if they can be absorbed over DIA)
+                double predCI = Math.max(0, Math.max(0, ci) * (1 - cobPredBGs.size() / Math.max(cid * 2, 1)));
+                double predACI = Math.max(0, Math.max(0, aci) * (1 - cobPredBGs.size() / Math.max(acid * 2, 1)));
+                // if any carbs aren't absorbed after remainingCATime hours, assume they'll absorb in a /\ shaped
+                // bilinear curve peaking at remainingCIpeak at remainingCATime/2 hours (remainingCATime/2*12 * 5m)
+                // and ending at remainingCATime h (remainingCATime*12 * 5m intervals)
+                double intervals = Math.min(cobPredBGs.size(), (remainingCATime * 12) - cobPredBGs.size());
+                double remainingCI = Math.max(0, intervals / (remainingCATime / 2 * 12) * remainingCIpeak);
+                remainingCIs.add(round(remainingCI, 0));
+                predCIs.add(round(predCI, 0));
+                cobPredBG = last(cobPredBGs) + predBGI + Math.min(0, predDev) + predCI + remainingCI;
+                double aCobPredBG = last(aCobPredBGs) + predBGI + Math.min(0, predDev) + predACI;
+                // for UAMpredBGs, predicted carb impact drops at slopeFromDeviations
+                // calculate predicted CI from UAM based on slopeFromDeviations
+                double predUCIslope = Math.max(0, uci + (uamPredBGs.size() * slopeFromDeviations));
+                // if slopeFromDeviations is too flat, predicted deviation impact drops linearly from
+                // current deviation down to zero over 3h (data points every 5m)
+                double predUCImax = Math.max(0, uci * (1 - uamPredBGs.size() / Math.max(3 * 60 / 5.0, 1)));
+                // predicted CI from UAM is the lesser of CI based on deviationSlope or DIA
+                double predUCI = Math.min(predUCIslope, predUCImax);
+                if (predUCI > 0) {
+                    uamDuration = round((uamPredBGs.size() + 1) * 5 / 60.0, 1);
+                }
+                uamPredBG = last(uamPredBGs) + predBGI + Math.min(0, predDev) + predUCI;
+                // truncate all BG predictions at 4 hours
+                if (iobPredBGs.size() < 48) iobPredBGs.add(iobPredBG);
+                if (cobPredBGs.size() < 48) cobPredBGs.add(cobPredBG);
+                if (aCobPredBGs.size() < 48) aCobPredBGs.add(aCobPredBG);
+                if (uamPredBGs.size() < 48) uamPredBGs.add(uamPredBG);
+                if (ztPredBGs.size() < 48) ztPredBGs.add(ztPredBG);
+                // calculate minGuardBGs without a wait from COB, UAM, IOB predBGs
+                if (cobPredBG < minCOBGuardBG) minCOBGuardBG = round(cobPredBG);
+                if (uamPredBG < minUAMGuardBG) minUAMGuardBG = round(uamPredBG);
+                if (iobPredBG < minIOBGuardBG) minIOBGuardBG = round(iobPredBG);
+                if (ztPredBG < minZTGuardBG) minZTGuardBG = round(ztPredBG);
+
+                // wait 90m before setting minIOBPredBG
+                if (iobPredBGs.size() > insulinPeak5m && (iobPredBG < minIOBPredBG)) minIOBPredBG = round(iobPredBG);
+                if (iobPredBG > maxIOBPredBG) maxIOBPredBG = iobPredBG;
+                // wait 85-105m before setting COB and 60m for UAM minPredBGs
+                if (hasCarbImpact && cobPredBGs.size() > insulinPeak5m && (cobPredBG < minCOBPredBG)) minCOBPredBG = round(cobPredBG);
+                if (hasCarbImpact && cobPredBG > maxIOBPredBG) maxCOBPredBG = cobPredBG;
+                if (enableUAM && uamPredBGs.size() > 12 && (uamPredBG < minUAMPredBG)) minUAMPredBG = round(uamPredBG);
+            }
+        } catch (JSONException e) {
+            error("Problem with iobArray.  Optional feature Advanced Meal Assist disabled");
+        }
+        if (truthy(mealCOB)) {
+            error("predCIs (mg/dL/5m):", join(predCIs));
+            error("remainingCIs:      ", join(remainingCIs));
+        }
+        JSONObject predBGs = new JSONObject();
+        rT.put("predBGs", predBGs);
+        clamp(iobPredBGs);
+        for (int i = iobPredBGs.size() - 1; i > 12; i--) {
+            if (iobPredBGs.get(i - 1).doubleValue() != iobPredBGs.get(i)) break;
+            else iobPredBGs.remove(i);
+        }
+        predBGs.put("IOB", array(iobPredBGs));
+        lastIOBpredBG = round(last(iobPredBGs));
+        clamp(ztPredBGs);
+        for (int i = ztPredBGs.size() - 1; i > 6; i--) {
+            // stop displaying ZTpredBGs once they're rising and above target
+            if (ztPredBGs.get(i - 1) >= ztPredBGs.get(i) || ztPredBGs.get(i) <= targetBg) break;
+            else ztPredBGs.remove(i);
+        }
+        predBGs.put("ZT", array(ztPredBGs));
+        if (mealCOB > 0 && (ci > 0 || remainingCIpeak > 0)) {
+            clamp(cobPredBGs);
+            for (int i = cobPredBGs.size() - 1; i > 12; i--) {
+                if (cobPredBGs.get(i - 1).doubleValue() != cobPredBGs.get(i)) break;
+                else cobPredBGs.remove(i);
+            }
+            predBGs.put("COB", array(cobPredBGs));
+            lastCOBpredBG = round(last(cobPredBGs));
+            eventualBG = Math.max(eventualBG, round(last(cobPredBGs)));
+        }
+        if (ci > 0 || remainingCIpeak > 0) {
+            if (enableUAM) {
+                clamp(uamPredBGs);
+                for (int i = uamPredBGs.size() - 1; i > 12; i--) {
+                    if (uamPredBGs.get(i - 1).doubleValue() != uamPredBGs.get(i)) break;
+                    else uamPredBGs.remove(i);
+                }
+                predBGs.put("UAM", array(uamPredBGs));
+                lastUAMpredBG = round(last(uamPredBGs));
+                if (truthy(last(uamPredBGs))) {
+                    eventualBG = Math.max(eventualBG, round(last(uamPredBGs)));
+                }
+            }
+
+            // set eventualBG based on COB or UAM predBGs
+            rT.put("eventualBG", number(eventualBG));
+        }
+
+        error("UAM Impact:", uci, "mg/dL per 5m; UAM Duration:", uamDuration, "hours");
+
+
+        minIOBPredBG = Math.max(39, minIOBPredBG);
+        minCOBPredBG = Math.max(39, minCOBPredBG);
+        minUAMPredBG = Math.max(39, minUAMPredBG);
+        minPredBG = round(minIOBPredBG);
+
+        double fractionCarbsLeft = mealCOB / carbs;
+        // if we have COB and UAM is enabled, average both
+        if (minUAMPredBG < 999 && minCOBPredBG < 999) {
+            // weight COBpredBG vs. UAMpredBG based on how many carbs remain as COB
+            avgPredBG = round((1 - fractionCarbsLeft) * uamPredBG + fractionCarbsLeft * cobPredBG);
+            // if UAM is disabled, average IOB and COB
+        } else if (minCOBPredBG < 999) {
+            avgPredBG = round((iobPredBG + cobPredBG) / 2);
+            // if we have UAM but no COB, average IOB and UAM
+        } else if (minUAMPredBG < 999) {
+            avgPredBG = round((iobPredBG + uamPredBG) / 2);
+        } else {
+            avgPredBG = round(iobPredBG);
+        }
+        // if avgPredBG is below minZTGuardBG, bring it up to that level
+        if (minZTGuardBG > avgPredBG) {
+            avgPredBG = minZTGuardBG;
+        }
+
+        // if we have both minCOBGuardBG and minUAMGuardBG, blend according to fractionCarbsLeft
+        if (hasCarbImpact) {
+            if (enableUAM) {
+                minGuardBG = fractionCarbsLeft * minCOBGuardBG + (1 - fractionCarbsLeft) * minUAMGuardBG;
+            } else {
+                minGuardBG = minCOBGuardBG;
+            }
+        } else if (enableUAM) {
+            minGuardBG = minUAMGuardBG;
+        } else {
+            minGuardBG = minIOBGuardBG;
+        }
+        minGuardBG = round(minGuardBG);
+
+        double minZTUAMPredBG = minUAMPredBG;
+        // if minZTGuardBG is below threshold, bring down any super-high minUAMPredBG by averaging
+        // this helps prevent UAM from giving too much insulin in case absorption falls off suddenly
+        if (minZTGuardBG < threshold) {
+            minZTUAMPredBG = (minUAMPredBG + minZTGuardBG) / 2;
+            // if minZTGuardBG is between threshold and target, blend in the averaging
+        } else if (minZTGuardBG < targetBg) {
+            // target 100, threshold 70, minZTGuardBG 85 gives 50%: (85-70) / (100-70)
+            double blendPct = (minZTGuardBG - threshold) / (targetBg - threshold);
+            double blendedMinZTGuardBG = minUAMPredBG * blendPct + minZTGuardBG * (1 - blendPct);
+            minZTUAMPredBG = (minUAMPredBG + blendedMinZTGuardBG) / 2;
+            // if minUAMPredBG is below minZTGuardBG, bring minUAMPredBG up by averaging
+            // this allows more insulin if lastUAMPredBG is below target, but minZTGuardBG is still high
+        } else if (minZTGuardBG > minUAMPredBG) {
+            minZTUAMPredBG = (minUAMPredBG + minZTGuardBG) / 2;
+        }
+        minZTUAMPredBG = round(minZTUAMPredBG);
+        // if any carbs have been entered recently
+        if (truthy(carbs)) {
+
+            // if UAM is disabled, use max of minIOBPredBG, minCOBPredBG
+            if (!enableUAM && minCOBPredBG < 999) {
+                minPredBG = round(Math.max(minIOBPredBG, minCOBPredBG));
+                // if we have COB, use minCOBPredBG, or blendedMinPredBG if it's higher
+            } else if (minCOBPredBG < 999) {
+                // calculate blendedMinPredBG based on how many carbs remain as COB
+                double blendedMinPredBG = fractionCarbsLeft * minCOBPredBG + (1 - fractionCarbsLeft) * minZTUAMPredBG;
+                // if blendedMinPredBG > minCOBPredBG, use that instead
+                minPredBG = round(Math.max(minIOBPredBG, Math.max(minCOBPredBG, blendedMinPredBG)));
+                // if carbs have been entered, but have expired, use minUAMPredBG
+            } else if (enableUAM) {
+                minPredBG = minZTUAMPredBG;
+            } else {
+                minPredBG = minGuardBG;
+            }
+            // in pure UAM mode, use the higher of minIOBPredBG,minUAMPredBG
+        } else if (enableUAM) {
+            minPredBG = round(Math.max(minIOBPredBG, minZTUAMPredBG));
+        }
+
+        // make sure minPredBG isn't higher than avgPredBG
+        minPredBG = Math.min(minPredBG, avgPredBG);
+
+        log("minPredBG: " + str(minPredBG) + " minIOBPredBG: " + str(minIOBPredBG) + " minZTGuardBG: " + str(minZTGuardBG));
+        if (minCOBPredBG < 999) {
+            log(" minCOBPredBG: " + str(minCOBPredBG));
+        }
+        if (minUAMPredBG < 999) {
+            log(" minUAMPredBG: " + str(minUAMPredBG));
+        }
+        error(" avgPredBG:", avgPredBG, "COB:", mealCOB, "/", carbs);
+        // But if the COB line falls off a cliff, don't trust UAM too much:
+        // use maxCOBPredBG if it's been set and lower than minPredBG
+        if (maxCOBPredBG > bg) {
+            minPredBG = Math.min(minPredBG, maxCOBPredBG);
+        }
+
+        rT.put("COB", number(mealCOB));
+        rT.put("IOB", number(iob));
+        rT.put("reason", ""); // keep position of the key, final text is set before return
+        StringBuilder rTReason = new StringBuilder();
+        rTReason.append("COB: ").append(str(round(mealCOB, 1)))
+                .append(", Dev: ").append(convertBg(deviation))
+                .append(", BGI: ").append(convertBg(bgi))
+                .append(", ISF: ").append(convertBg(sens))
+                .append(", CR: ").append(str(round(carbRatio, 2)))
+                .append(", Target: ").append(convertBg(targetBg))
+                .append(", minPredBG ").append(convertBg(minPredBG))
+                .append(", minGuardBG ").append(convertBg(minGuardBG))
+                .append(", IOBpredBG ").append(convertBg(lastIOBpredBG));
+        if (lastCOBpredBG > 0) {
+            rTReason.append(", COBpredBG ").append(convertBg(lastCOBpredBG));
+        }
+        if (lastUAMpredBG > 0) {
+            rTReason.append(", UAMpredBG ").append(convertBg(lastUAMpredBG));
+        }
+        rTReason.append("; ");
+        // use naive_eventualBG if above 40, but switch to minGuardBG if both eventualBGs hit floor of 39
+        double carbsReqBG = naiveEventualBG;
+        if (carbsReqBG < 40) {
+            carbsReqBG = Math.min(minGuardBG, carbsReqBG);
+        }
+        double bgUndershoot = threshold - carbsReqBG;
+        // calculate how long until COB (or IOB) predBGs drop below min_bg
+        double minutesAboveMinBG = 240;
+        double minutesAboveThreshold = 240;
+        List<Double> predictions = mealCOB > 0 && (ci > 0 || remainingCIpeak > 0) ? cobPredBGs : iobPredBGs;
+        for (int i = 0; i < predictions.size(); i++) {
+            if (predictions.get(i) < minBg) {
+                minutesAboveMinBG = 5 * i;
+                break;
+            }
+        }
+        for (int i = 0; i < predictions.size(); i++) {
+            if (predictions.get(i) < threshold) {
+                minutesAboveThreshold = 5 * i;
+                break;
+            }
+        }
+
+        if (enableSMB && minGuardBG < threshold) {
+            error("minGuardBG", convertBg(minGuardBG), "projected below", convertBg(threshold), "- disabling SMB");
+            enableSMB = false;
+        }
+        if (maxDelta > 0.20 * bg) {
+            error("maxDelta", convertBg(maxDelta), "> 20% of BG", convertBg(bg), "- disabling SMB");
+            rTReason.append("maxDelta ").append(convertBg(maxDelta)).append(" > 20% of BG ").append(convertBg(bg)).append(": SMB disabled; ");
+            enableSMB = false;
+        }
+
+        error("BG projected to remain above", convertBg(minBg), "for", minutesAboveMinBG, "minutes");
+        if (minutesAboveThreshold < 240 || minutesAboveMinBG < 60) {
+            error("BG projected to remain above", convertBg(threshold), "for", minutesAboveThreshold, "minutes");
+        }
+        // include at least minutesAboveThreshold worth of zero temps in calculating carbsReq
+        // always include at least 30m worth of zero temp (carbs to 80, low temp up to target)
+        double zeroTempDuration = minutesAboveThreshold;
+        // BG undershoot, minus effect of zero temps until hitting min_bg, converted to grams, minus COB
+        double zeroTempEffect = profileCurrentBasal * sens * zeroTempDuration / 60;
+        // don't count the last 25% of COB against carbsReq
+        double cobForCarbsReq = Math.max(0, mealCOB - 0.25 * carbs);
+        double carbsReq = (bgUndershoot - zeroTempEffect) / csf - cobForCarbsReq;
+        zeroTempEffect = round(zeroTempEffect);
+        carbsReq = round(carbsReq);
+        error("naive_eventualBG:", naiveEventualBG, "bgUndershoot:", bgUndershoot, "zeroTempDuration:", zeroTempDuration, "zeroTempEffect:", zeroTempEffect, "carbsReq:", carbsReq);
+        if (carbsReq >= num(profile, "carbsReqThreshold") && minutesAboveThreshold <= 45) {
+            rT.put("carbsReq", number(carbsReq));
+            rT.put("carbsReqWithin", number(minutesAboveThreshold));
+            rTReason.append(str(carbsReq)).append(" add'l carbs req w/in ").append(str(minutesAboveThreshold)).append("m; ");
+        }
+
+        double durationReq;
+        double worstCaseInsulinReq;
+        // don't low glucose suspend if IOB is already super negative and BG is rising faster than predicted
+        if (bg < threshold && iob < -profileCurrentBasal * 20 / 60 && minDelta > 0 && minDelta > expectedDelta) {
+            rTReason.append("IOB ").append(str(iob)).append(" < ").append(str(round(-profileCurrentBasal * 20 / 60, 2)));
+            rTReason.append(" and minDelta ").append(convertBg(minDelta)).append(" > ").append("expectedDelta ").append(convertBg(expectedDelta)).append("; ");
+            // predictive low glucose suspend mode: BG is / is projected to be < threshold
+        } else if (bg < threshold || minGuardBG < threshold) {
+            rTReason.append("minGuardBG ").append(convertBg(minGuardBG)).append("<").append(convertBg(threshold));
+            bgUndershoot = targetBg - minGuardBG;
+            worstCaseInsulinReq = bgUndershoot / sens;
+            durationReq = round(60 * worstCaseInsulinReq / profileCurrentBasal);
+            durationReq = round(durationReq / 30) * 30;
+            // always set a 30-120m zero temp (oref0-pump-loop will let any longer SMB zero temp run)
+            durationReq = Math.min(120, Math.max(30, durationReq));
+            rT.put("reason", rTReason.toString());
+            return setTempBasal(0, durationReq, rT);
+        }
+
+        // if not in LGS mode, cancel temps before the top of the hour to reduce beeping/vibration
+        int deliverAtMinutes = minutes(deliverAt);
+        if (truthy(profile, "skip_neutral_temps") && deliverAtMinutes >= 55) {
+            rTReason.append("; Canceling temp at ").append(deliverAtMinutes).append("m past the hour. ");
+            rT.put("reason", rTReason.toString());
+            return setTempBasal(0, 0, rT);
+        }
+
+        double insulinReq;
+        double rate;
+        double insulinScheduled;
+        if (eventualBG < minBg) { // if eventual BG is below target:
+            rTReason.append("Eventual BG ").append(convertBg(eventualBG)).append(" < ").append(convertBg(minBg));
+            // if 5m or 30m avg BG is rising faster than expected delta
+            if (minDelta > expectedDelta && minDelta > 0 && !truthy(carbsReq)) {
+                // if naive_eventualBG < 40, set a 30m zero temp (oref0-pump-loop will let any longer SMB zero temp run)
+                if (naiveEventualBG < 40) {
+                    rTReason.append(", naive_eventualBG < 40. ");
+                    rT.put("reason", rTReason.toString());
+                    return setTempBasal(0, 30, rT);
+                }
+                if (delta > minDelta) {
+                    rTReason.append(", but Delta ").append(convertBg(round(delta, 0))).append(" > expectedDelta ").append(convertBg(expectedDelta));
+                } else {
+                    rTReason.append(", but Min. Delta ").append(toFixed(minDelta, 2)).append(" > Exp. Delta ").append(convertBg(expectedDelta));
+                }
+                if (currentTempDuration > 15 && (basal == currentTempRate)) {
+                    rTReason.append(", temp ").append(str(currentTempRate)).append(" ~ req ").append(str(basal)).append("U/hr. ");
+                    rT.put("reason", rTReason.toString());
+                    return rT;
+                } else {
+                    rTReason.append("; setting current basal of ").append(str(basal)).append(" as temp. ");
+                    rT.put("reason", rTReason.toString());
+                    return setTempBasal(basal, 30, rT);
+                }
+            }
+
+            // calculate 30m low-temp required to get projected BG up to target
+            // multiply by 2 to low-temp faster for increased hypo safety
+            insulinReq = 2 * Math.min(0, (eventualBG - targetBg) / sens);
+            insulinReq = round(insulinReq, 2);
+            // calculate naiveInsulinReq based on naive_eventualBG
+            double naiveInsulinReq = Math.min(0, (naiveEventualBG - targetBg) / sens);
+            naiveInsulinReq = round(naiveInsulinReq, 2);
+            if (minDelta < 0 && minDelta > expectedDelta) {
+                // if we're barely falling, newinsulinReq should be barely negative
+                insulinReq = round((insulinReq * (minDelta / expectedDelta)), 2);
+            }
+            // rate required to deliver insulinReq less insulin over 30m:
+            rate = basal + (2 * insulinReq);
+
+            // if required temp < existing temp basal
+            insulinScheduled = currentTempDuration * (currentTempRate - basal) / 60;
+            // if current temp would deliver a lot (30% of basal) less than the required insulin,
+            // by both normal and naive calculations, then raise the rate
+            double minInsulinReq = Math.min(insulinReq, naiveInsulinReq);
+            if (insulinScheduled < minInsulinReq - basal * 0.3) {
+                rTReason.append(", ").append(str(currentTempDuration)).append("m@").append(toFixed(currentTempRate, 2)).append(" is a lot less than needed. ");
+                rT.put("reason", rTReason.toString());
+                return setTempBasal(rate, 30, rT);
+            }
+            if (currentTemp.has("rate") && (currentTempDuration > 5 && rate >= currentTempRate * 0.8)) {
+                rTReason.append(", temp ").append(str(currentTempRate)).append(" ~< req ").append(str(rate)).append("U/hr. ");
+                rT.put("reason", rTReason.toString());
+                return rT;
+            } else {
+                // calculate a long enough zero temp to eventually correct back up to target
+                if (rate <= 0) {
+                    bgUndershoot = targetBg - naiveEventualBG;
+                    worstCaseInsulinReq = bgUndershoot / sens;
+                    durationReq = round(60 * worstCaseInsulinReq / profileCurrentBasal);
+                    if (durationReq < 0) {
+                        durationReq = 0;
+                        // don't set a temp longer than 120 minutes
+                    } else {
+                        durationReq = round(durationReq / 30) * 30;
+                        durationReq = Math.min(120, Math.max(0, durationReq));
+                    }
+                    if (durationReq > 0) {
+                        rTReason.append(", setting ").append(str(durationReq)).append("m zero temp. ");
+                        rT.put("reason", rTReason.toString());
+                        return setTempBasal(rate, durationReq, rT);
+                    }
+                } else {
+                    rTReason.append(", setting ").append(str(rate)).append("U/hr. ");
+                }
+                rT.put("reason", rTReason.toString());
+                return setTempBasal(rate, 30, rT);
+            }
+        }
+
+        // if eventual BG is above min but BG is falling faster than expected Delta
+        if (minDelta < expectedDelta) {
+            // if in SMB mode, don't cancel SMB zero temp
+            if (!(microBolusAllowed && enableSMB)) {
+                if (delta < minDelta) {
+                    rTReason.append("Eventual BG ").append(convertBg(eventualBG)).append(" > ").append(convertBg(minBg)).append(" but Delta ").append(convertBg(round(delta, 0))).append(" < Exp. Delta ").append(convertBg(expectedDelta));
+                } else {
+                    rTReason.append("Eventual BG ").append(convertBg(eventualBG)).append(" > ").append(convertBg(minBg)).append(" but Min. Delta ").append(toFixed(minDelta, 2)).append(" < Exp. Delta ").append(convertBg(expectedDelta));
+                }
+                if (currentTempDuration > 15 && (basal == currentTempRate)) {
+                    rTReason.append(", temp ").append(str(currentTempRate)).append(" ~ req ").append(str(basal)).append("U/hr. ");
+                    rT.put("reason", rTReason.toString());
+                    return rT;
+                } else {
+                    rTReason.append("; setting current basal of ").append(str(basal)).append(" as temp. ");
+                    rT.put("reason", rTReason.toString());
+                    return setTempBasal(basal, 30, rT);
+                }
+            }
+        }
+        // eventualBG or minPredBG is below max_bg
+        if (Math.min(eventualBG, minPredBG) < maxBg) {
+            // if in SMB mode, don't cancel SMB zero temp
+            if (!(microBolusAllowed && enableSMB)) {
+                rTReason.append(convertBg(eventualBG)).append("-").append(convertBg(minPredBG)).append(" in range: no temp required");
+                if (currentTempDuration > 15 && (basal == currentTempRate)) {
+                    rTReason.append(", temp ").append(str(currentTempRate)).append(" ~ req ").append(str(basal)).append("U/hr. ");
+                    rT.put("reason", rTReason.toString());
+                    return rT;
+                } else {
+                    rTReason.append("; setting current basal of ").append(str(basal)).append(" as temp. ");
+                    rT.put("reason", rTReason.toString());
+                    return setTempBasal(basal, 30, rT);
+                }
+            }
+        }
+
+        // eventual BG is at/above target
+        // if iob is over max, just cancel any temps
+        if (eventualBG >= maxBg) {
+            rTReason.append("Eventual BG ").append(convertBg(eventualBG)).append(" >= ").append(convertBg(maxBg)).append(", ");
+        }
+        if (iob > maxIob) {
+            rTReason.append("IOB ").append(str(round(iob, 2))).append(" > max_iob ").append(str(maxIob));
+            if (currentTempDuration > 15 && (basal == currentTempRate)) {
+                rTReason.append(", temp ").append(str(currentTempRate)).append(" ~ req ").append(str(basal)).append("U/hr. ");
+                rT.put("reason", rTReason.toString());
+                return rT;
+            } else {
+                rTReason.append("; setting current basal of ").append(str(basal)).append(" as temp. ");
+                rT.put("reason", rTReason.toString());
+                return setTempBasal(basal, 30, rT);
+            }
+        } else { // otherwise, calculate 30m high-temp required to get projected BG down to target
+
+            // insulinReq is the additional insulin required to get minPredBG down to target_bg
+            insulinReq = round((Math.min(minPredBG, eventualBG) - targetBg) / sens, 2);
+            // if that would put us over max_iob, then reduce accordingly
+            if (insulinReq > maxIob - iob) {
+                rTReason.append("max_iob ").append(str(maxIob)).append(", ");
+                insulinReq = maxIob - iob;
+            }
+
+            // rate required to deliver insulinReq more insulin over 30m:
+            rate = basal + (2 * insulinReq);
+            insulinReq = round(insulinReq, 3);
+            rT.put("insulinReq", number(insulinReq));
+            // minutes since last bolus
+            double lastBolusAge = round((systemTime - num(iobData, "lastBolusTime")) / 60000, 1);
+            // only allow microboluses with COB or low temp targets, or within DIA hours of a bolus
+            if (microBolusAllowed && enableSMB && bg > threshold) {
+                // never bolus more than maxSMBBasalMinutes worth of basal
+                double mealInsulinReq = round(mealCOB / carbRatio, 3);
+                double maxBolus;
+                if (!profile.has("maxSMBBasalMinutes")) {
+                    maxBolus = round(profileCurrentBasal * 30 / 60, 1);
+                    error("profile.maxSMBBasalMinutes undefined: defaulting to 30m");
+                    // if IOB covers more than COB, limit maxBolus to 30m of basal
+                } else if (iob > mealInsulinReq && iob > 0) {
+                    error("IOB", iob, "> COB", str(mealCOB) + "; mealInsulinReq =", mealInsulinReq);
+                    if (truthy(profile, "maxUAMSMBBasalMinutes")) {
+                        error("profile.maxUAMSMBBasalMinutes:", num(profile, "maxUAMSMBBasalMinutes"), "profile.current_basal:", profileCurrentBasal);
+                        maxBolus = round(profileCurrentBasal * num(profile, "maxUAMSMBBasalMinutes") / 60, 1);
+                    } else {
+                        error("profile.maxUAMSMBBasalMinutes undefined: defaulting to 30m");
+                        maxBolus = round(profileCurrentBasal * 30 / 60, 1);
+                    }
+                } else {
+                    error("profile.maxSMBBasalMinutes:", num(profile, "maxSMBBasalMinutes"), "profile.current_basal:", profileCurrentBasal);
+                    maxBolus = round(profileCurrentBasal * num(profile, "maxSMBBasalMinutes") / 60, 1);
+                }
+                // bolus 1/2 the insulinReq, up to maxBolus, rounding down to nearest bolus increment
+                double bolusIncrement = num(profile, "bolus_increment");
+                double roundSMBTo = 1 / bolusIncrement;
+                double microBolus = Math.floor(Math.min(insulinReq / 2, maxBolus) * roundSMBTo) / roundSMBTo;
+                // calculate a long enough zero temp to eventually correct back up to target
+                double smbTarget = targetBg;
+                worstCaseInsulinReq = (smbTarget - (naiveEventualBG + minIOBPredBG) / 2) / sens;
+                durationReq = round(60 * worstCaseInsulinReq / profileCurrentBasal);
+
+                // if insulinReq > 0 but not enough for a microBolus, don't set an SMB zero temp
+                if (insulinReq > 0 && microBolus < bolusIncrement) {
+                    durationReq = 0;
+                }
+
+                double smbLowTempReq = 0;
+                if (durationReq <= 0) {
+                    durationReq = 0;
+                    // don't set an SMB zero temp longer than 60 minutes
+                } else if (durationReq >= 30) {
+                    durationReq = round(durationReq / 30) * 30;
+                    durationReq = Math.min(60, Math.max(0, durationReq));
+                } else {
+                    // if SMB durationReq is less than 30m, set a nonzero low temp
+                    smbLowTempReq = round(basal * durationReq / 30, 2);
+                    durationReq = 30;
+                }
+                rTReason.append(" insulinReq ").append(str(insulinReq));
+                if (microBolus >= maxBolus) {
+                    rTReason.append("; maxBolus ").append(str(maxBolus));
+                }
+                if (durationReq > 0) {
+                    rTReason.append("; setting ").append(str(durationReq)).append("m low temp of ").append(str(smbLowTempReq)).append("U/h");
+                }
+                rTReason.append(". ");
+
+                //allow SMBs every 3 minutes by default
+                double smbInterval = 3;
+                if (truthy(profile, "SMBInterval")) {
+                    // allow SMBIntervals between 1 and 10 minutes
+                    smbInterval = Math.min(10, Math.max(1, num(profile, "SMBInterval")));
+                }
+                double nextBolusMins = round(smbInterval - lastBolusAge, 0);
+                double nextBolusSeconds = round((smbInterval - lastBolusAge) * 60, 0) % 60;
+                error("naive_eventualBG", str(naiveEventualBG) + ",", str(durationReq) + "m " + str(smbLowTempReq) + "U/h temp needed; last bolus", str(lastBolusAge) + "m ago; maxBolus: " + str(maxBolus));
+                if (lastBolusAge > smbInterval) {
+                    if (microBolus > 0) {
+                        rT.put("units", number(microBolus));
+                        rTReason.append("Microbolusing ").append(str(microBolus)).append("U. ");
+                    }
+                } else {
+                    rTReason.append("Waiting ").append(str(nextBolusMins)).append("m ").append(str(nextBolusSeconds)).append("s to microbolus again. ");
+                }
+
+                // if no zero temp is required, don't return yet; allow later code to set a high temp
+                if (durationReq > 0) {
+                    rT.put("reason", rTReason.toString());
+                    rT.put("rate", number(smbLowTempReq));
+                    rT.put("duration", number(durationReq));
+                    return rT;
+                }
+
+            }
+
+            double maxSafeBasal = getMaxSafeBasal();
+
+            if (rate > maxSafeBasal) {
+                rTReason.append("adj. req. rate: ").append(str(round(rate, 2))).append(" to maxSafeBasal: ").append(str(maxSafeBasal)).append(", ");
+                rate = maxSafeBasal;
+            }
+
+            insulinScheduled = currentTempDuration * (currentTempRate - basal) / 60;
+            if (insulinScheduled >= insulinReq * 2) { // if current temp would deliver >2x more than the required insulin, lower the rate
+                rTReason.append(str(currentTempDuration)).append("m@").append(toFixed(currentTempRate, 2)).append(" > 2 * insulinReq. Setting temp basal of ").append(str(rate)).append("U/hr. ");
+                rT.put("reason", rTReason.toString());
+                return setTempBasal(rate, 30, rT);
+            }
+
+            if (!currentTemp.has("duration") || currentTempDuration == 0) { // no temp is set
+                rTReason.append("no temp, setting ").append(str(rate)).append("U/hr. ");
+                rT.put("reason", rTReason.toString());
+                return setTempBasal(rate, 30, rT);
+            }
+
+            if (currentTempDuration > 5 && (rate <= currentTempRate)) { // if required temp <~ existing temp basal
+                rTReason.append("temp ").append(str(currentTempRate)).append(" >~ req ").append(str(rate)).append("U/hr. ");
+                rT.put("reason", rTReason.toString());
+                return rT;
+            }
+
+            // required temp > existing temp basal
+            rTReason.append("temp ").append(str(currentTempRate)).append("<").append(str(rate)).append("U/hr. ");
+            rT.put("reason", rTReason.toString());
+            return setTempBasal(rate, 30, rT);
+        }
+    }
+
+    public String getScriptDebug() {
+        String ret = "";
+        if (errorBuffer.length() > 0) {
+            ret += "e:\n" + errorBuffer.toString();
+        }
+        if (ret.length() > 0 && logBuffer.length() > 0) ret += '\n';
+        if (logBuffer.length() > 0) {
+            ret += "d:\n" + logBuffer.toString();
+        }
+        return ret;
+    }
+
+    private boolean enableSMB(boolean microBolusAllowed, JSONObject mealData, double targetBg) {
+        // disable SMB when a high temptarget is set
+        if (!microBolusAllowed) {
+            error("SMB disabled (!microBolusAllowed)");
+            return false;
+        } else if (!truthy(profile, "allowSMB_with_high_temptarget") && truthy(profile, "temptargetSet") && targetBg > 100) {
+            error("SMB disabled due to high temptarget of", targetBg);
+            return false;
+        } else if (Boolean.TRUE.equals(mealData.opt("bwFound")) && Boolean.FALSE.equals(profile.opt("A52_risk_enable"))) {
+            error("SMB disabled due to Bolus Wizard activity in the last 6 hours.");
+            return false;
+        }
+
+        // enable SMB/UAM if always-on (unless previously disabled for high temptarget)
+        if (Boolean.TRUE.equals(profile.opt("enableSMB_always"))) {
+            if (truthy(mealData, "bwFound")) {
+                error("Warning: SMB enabled within 6h of using Bolus Wizard: be sure to easy bolus 30s before using Bolus Wizard");
+            } else {
+                error("SMB enabled due to enableSMB_always");
+            }
+            return true;
+        }
+
+        // enable SMB/UAM (if enabled in preferences) while we have COB
+        if (Boolean.TRUE.equals(profile.opt("enableSMB_with_COB")) && truthy(mealData, "mealCOB")) {
+            if (truthy(mealData, "bwCarbs")) {
+                error("Warning: SMB enabled with Bolus Wizard carbs: be sure to easy bolus 30s before using Bolus Wizard");
+            } else {
+                error("SMB enabled for COB of", num(mealData, "mealCOB"));
+            }
+            return true;
+        }
+
+        // enable SMB/UAM (if enabled in preferences) for a full 6 hours after any carb entry
+        // (6 hours is defined in carbWindow in lib/meal/total.js)
+        if (Boolean.TRUE.equals(profile.opt("enableSMB_after_carbs")) && truthy(mealData, "carbs")) {
+            if (truthy(mealData, "bwCarbs")) {
+                error("Warning: SMB enabled with Bolus Wizard carbs: be sure to easy bolus 30s before using Bolus Wizard");
+            } else {
+                error("SMB enabled for 6h after carb entry");
+            }
+            return true;
+        }
+
+        // enable SMB/UAM (if enabled in preferences) if a low temptarget is set
+        if (Boolean.TRUE.equals(profile.opt("enableSMB_with_temptarget")) && (truthy(profile, "temptargetSet") && targetBg < 100)) {
+            if (truthy(mealData, "bwFound")) {
+                error("Warning: SMB enabled within 6h of using Bolus Wizard: be sure to easy bolus 30s before using Bolus Wizard");
+            } else {
+                error("SMB enabled for temptarget of", convertBg(targetBg));
+            }
+            return true;
+        }
+
+        error("SMB disabled (no enableSMB preferences active or no condition satisfied)");
+        return false;
+    }
+
+    // basal-set-temp.js
+
+    private double getMaxSafeBasal() {
+        double maxDailySafetyMultiplier = num(profile, "max_daily_safety_multiplier");
+        if (Double.isNaN(maxDailySafetyMultiplier)) maxDailySafetyMultiplier = 3;
+        double currentBasalSafetyMultiplier = num(profile, "current_basal_safety_multiplier");
+        if (Double.isNaN(currentBasalSafetyMultiplier)) currentBasalSafetyMultiplier = 4;
+
+        return Math.min(num(profile, "max_basal"), Math.min(maxDailySafetyMultiplier * num(profile, "max_daily_basal"), currentBasalSafetyMultiplier * num(profile, "current_basal")));
+    }
+
+    private JSONObject setTempBasal(double rate, double duration, JSONObject rT) throws JSONException {
+        double maxSafeBasal = getMaxSafeBasal();
+
+        if (rate < 0) {
+            rate = 0;
+        } else if (rate > maxSafeBasal) {
+            rate = maxSafeBasal;
+        }
+
+        double currentTempRate = num(currentTemp, "rate");
+        double currentTempDuration = num(currentTemp, "duration");
+        double currentBasal = num(profile, "current_basal");
+        if (currentTemp.has("duration") && currentTemp.has("rate") && currentTempDuration > (duration - 10) && currentTempDuration <= 120 && rate <= currentTempRate * 1.2 && rate >= currentTempRate * 0.8 && duration > 0) {
+            rT.put("reason", rT.optString("reason", "undefined") + " " + str(currentTempDuration) + "m left and " + str(currentTempRate) + " ~ req " + str(rate) + "U/hr: no temp required");
+            return rT;
+        }
+
+        if (rate == currentBasal) {
+            if (Boolean.TRUE.equals(profile.opt("skip_neutral_temps"))) {
+                if (currentTemp.has("duration") && currentTempDuration > 0) {
+                    reason(rT, "Suggested rate is same as profile rate, a temp basal is active, canceling current temp");
+                    rT.put("duration", 0);
+                    rT.put("rate", 0);
+                } else {
+                    reason(rT, "Suggested rate is same as profile rate, no temp basal is active, doing nothing");
+                }
+            } else {
+                reason(rT, "Setting neutral temp basal of " + str(currentBasal) + "U/hr");
+                rT.put("duration", number(duration));
+                rT.put("rate", number(rate));
+            }
+        } else {
+            rT.put("duration", number(duration));
+            rT.put("rate", number(rate));
+        }
+        return rT;
+    }
+
+    private void reason(JSONObject rT, String msg) throws JSONException {
+        String reason = rT.optString("reason", "");
+        rT.put("reason", (reason.isEmpty() ? "" : reason + ". ") + msg);
+        error(msg);
+    }
+
+    // helpers
+
+    // we expect BG to rise or fall at the rate of BGI,
+    // adjusted by the rate at which BG would need to rise /
+    // fall to get eventualBG to target over 2 hours
+    private static double calculateExpectedDelta(double targetBg, double eventualBg, double bgi) {
+        // (hours * mins_per_hour) / 5 = how many 5 minute periods in 2h = 24
+        double fiveMinBlocks = (2 * 60) / 5.0;
+        double targetDelta = targetBg - eventualBg;
+        return round(bgi + (targetDelta / fiveMinBlocks), 1);
+    }
+
+    private String convertBg(double value) {
+        if ("mmol/L".equals(profile.opt("out_units"))) {
+            return toFixed(round(value / 18, 1), 1);
+        } else {
+            return str(round(value));
+        }
+    }
+
+    private void log(String message) {
+        logBuffer.append(message).append("\n");
+    }
+
+    private void error(Object... args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) errorBuffer.append(' ');
+            Object arg = args[i];
+            if (arg instanceof Double) errorBuffer.append(str((Double) arg));
+            else errorBuffer.append(arg);
+        }
+        errorBuffer.append("\n");
+    }
+
+    private static double num(JSONObject json, String key) {
+        return json.optDouble(key, Double.NaN);
+    }
+
+    private static boolean truthy(JSONObject json, String key) {
+        Object value = json.opt(key);
+        if (value == null || value == JSONObject.NULL) return false;
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof Number) return truthy(((Number) value).doubleValue());
+        return !value.toString().isEmpty();
+    }
+
+    private static boolean truthy(double value) {
+        return value != 0 && !Double.isNaN(value);
+    }
+
+    private static double last(List<Double> list) {
+        return list.get(list.size() - 1);
+    }
+
+    private static void clamp(List<Double> list) {
+        for (int i = 0; i < list.size(); i++)
+            list.set(i, round(Math.min(401, Math.max(39, list.get(i)))));
+    }
+
+    private static JSONArray array(List<Double> list) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Double value : list) array.put(number(value));
+        return array;
+    }
+
+    private static String join(List<Double> list) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(str(list.get(i)));
+        }
+        return sb.toString();
+    }
+
+    // JSON.stringify writes NaN and Infinity as null
+    private static Object number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return JSONObject.NULL;
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return (long) value;
+        return value;
+    }
+
+    // Rounds value to 'digits' decimal places, Math.round as in Rhino
+    static double round(double value, int digits) {
+        double scale = Math.pow(10, digits);
+        return round(value * scale) / scale;
+    }
+
+    static double round(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return value;
+        long rounded = Math.round(value);
+        if (rounded != 0) return rounded;
+        return value < 0 ? -0.0 : 0.0;
+    }
+
+    /**
+     * Number to string conversion as in JS
+     */
+    static String str(double value) {
+        if (Double.isNaN(value)) return "NaN";
+        if (Double.isInfinite(value)) return value > 0 ? "Infinity" : "-Infinity";
+        if (value == Math.rint(value) && Math.abs(value) < 1e21) {
+            if (Math.abs(value) < 1e18) return Long.toString((long) value);
+            return new BigDecimal(value).toPlainString();
+        }
+        String java = Double.toString(value);
+        if (Math.abs(value) < 1e-6) {
+            // JS uses exponent form like 1.5e-7
+            int e = java.indexOf('E');
+            String mantissa = java.substring(0, e);
+            if (mantissa.endsWith(".0")) mantissa = mantissa.substring(0, mantissa.length() - 2);
+            return mantissa + "e" + java.substring(e + 1);
+        }
+        return new BigDecimal(java).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Number.prototype.toFixed
+     */
+    static String toFixed(double value, int digits) {
+        if (Double.isNaN(value)) return "NaN";
+        String fixed = new BigDecimal(value).setScale(digits, RoundingMode.HALF_UP).toPlainString();
+        if (value < 0 && !fixed.startsWith("-")) fixed = "-" + fixed;
+        return fixed;
+    }
+
+    // Date.prototype.toJSON
+    private static String isoDate(long time) {
+        return DateUtil.toISOString(new Date(time), "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", TimeZone.getTimeZone("UTC"));
+    }
+
+    // Date.prototype.toString as formatted by Rhino
+    private static String jsDate(double time) {
+        if (Double.isNaN(time)) return "Invalid Date";
+        Date date = new Date((long) time);
+        SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd yyyy HH:mm:ss", Locale.US);
+        int minutes = TimeZone.getDefault().getOffset((long) time) / 60000;
+        int offset = (minutes / 60) * 100 + minutes % 60;
+        return format.format(date) + (offset > 0 ? " GMT+" : " GMT-") + String.format(Locale.US, "%04d", Math.abs(offset))
+                + " (" + new SimpleDateFormat("zzz").format(date) + ")";
+    }
+
+    // Date.prototype.getMinutes in local time
+    private static int minutes(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        return calendar.get(Calendar.MINUTE);
+    }
+}
@@ -28,7 +28,6 @@ import info.nightscout.androidaps.interfaces.PumpInterface;
 import info.nightscout.androidaps.logging.AAPSLogger;
 import info.nightscout.androidaps.logging.LTag;
 import info.nightscout.androidaps.plugins.aps.loop.APSResult;
-import info.nightscout.androidaps.plugins.aps.loop.ScriptReader;
 import info.nightscout.androidaps.plugins.aps.events.EventOpenAPSUpdateGui;
 import info.nightscout.androidaps.plugins.aps.events.EventOpenAPSUpdateResultGui;
 import info.nightscout.androidaps.plugins.bus.RxBusWrapper;
@@ -160,7 +159,10 @@ public class OpenAPSSMBPlugin extends PluginBase implements APSInterface, Constr
         getAapsLogger().debug(LTag.APS, "invoke from " + initiator + " tempBasalFallback: " + tempBasalFallback);
         lastAPSResult = null;
         DetermineBasalAdapterSMBJS determineBasalAdapterSMBJS;
-        determineBasalAdapterSMBJS = new DetermineBasalAdapterSMBJS(new ScriptReader(context), getInjector());
+        if (sp.getBoolean(R.string.key_openapssmb_native_determine_basal, false))
+            determineBasalAdapterSMBJS = new DetermineBasalAdapterSMBJava(getInjector());
+        else
+            determineBasalAdapterSMBJS = new DetermineBasalAdapterSMBJS(getInjector());
 
         GlucoseStatus glucoseStatus = new GlucoseStatus(getInjector()).getGlucoseStatusData();
         Profile profile = profileFunction.getProfile();
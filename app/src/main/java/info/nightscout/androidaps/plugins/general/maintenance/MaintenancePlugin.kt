@@ -9,11 +9,13 @@ import androidx.preference.SwitchPreference
 import dagger.android.HasAndroidInjector
 import info.nightscout.androidaps.BuildConfig
 import info.nightscout.androidaps.Config
+import info.nightscout.androidaps.MainApp
 import info.nightscout.androidaps.R
 import info.nightscout.androidaps.interfaces.PluginBase
 import info.nightscout.androidaps.interfaces.PluginDescription
 import info.nightscout.androidaps.interfaces.PluginType
 import info.nightscout.androidaps.logging.AAPSLogger
+import info.nightscout.androidaps.plugins.bus.RxBusWrapper
 import info.nightscout.androidaps.plugins.general.nsclient.data.NSSettingsStatus
 import info.nightscout.androidaps.utils.buildHelper.BuildHelper
 import info.nightscout.androidaps.utils.resources.ResourceHelper
@@ -34,7 +36,8 @@ class MaintenancePlugin @Inject constructor(
     private val nsSettingsStatus: NSSettingsStatus,
     aapsLogger: AAPSLogger,
     private val buildHelper: BuildHelper,
-    private val config: Config
+    private val config: Config,
+    private val rxBus: RxBusWrapper
 ) : PluginBase(PluginDescription()
     .mainType(PluginType.GENERAL)
     .fragmentClass(MaintenanceFragment::class.java.name)
@@ -50,6 +53,11 @@ class MaintenancePlugin @Inject constructor(
     fun sendLogs() {
         val recipient = sp.getString(R.string.key_maintenance_logs_email, "logs@androidaps.org")
         val amount = sp.getInt(R.string.key_maintenance_logs_amount, 2)
+        // query plans of hot DB queries to find regressions in indexes and load of the event bus
+        if (buildHelper.isEngineeringMode()) {
+            MainApp.getDbHelper().logQueryPlans()
+            aapsLogger.debug("Sent events: ${rxBus.eventCounts()}")
+        }
         val logDirectory = LoggerUtils.getLogDirectory()
         val logs = getLogFiles(logDirectory, amount)
         val zipDir = context.getExternalFilesDir("exports")
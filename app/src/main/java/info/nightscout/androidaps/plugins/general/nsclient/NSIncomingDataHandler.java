@@ -0,0 +1,183 @@
+package info.nightscout.androidaps.plugins.general.nsclient;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import info.nightscout.androidaps.Config;
+import info.nightscout.androidaps.MainApp;
+import info.nightscout.androidaps.R;
+import info.nightscout.androidaps.db.CareportalEvent;
+import info.nightscout.androidaps.interfaces.ActivePluginProvider;
+import info.nightscout.androidaps.logging.AAPSLogger;
+import info.nightscout.androidaps.logging.LTag;
+import info.nightscout.androidaps.plugins.bus.RxBusWrapper;
+import info.nightscout.androidaps.plugins.general.nsclient.data.NSMbg;
+import info.nightscout.androidaps.plugins.general.overview.events.EventNewNotification;
+import info.nightscout.androidaps.plugins.general.overview.notifications.Notification;
+import info.nightscout.androidaps.plugins.source.NSClientSourcePlugin;
+import info.nightscout.androidaps.plugins.treatments.TreatmentsPlugin;
+import info.nightscout.androidaps.utils.JsonHelper;
+import info.nightscout.androidaps.utils.sharedPreferences.SP;
+
+/**
+ * Stores data received by NSClientService
+ * <p>
+ * Records are passed already parsed and all of them, treatments included, are stored
+ * on the calling thread (NSClientService handler). So they are stored in the order
+ * received and next data update is not processed before the previous one is stored.
+ */
+@Singleton
+public class NSIncomingDataHandler {
+
+    private final AAPSLogger aapsLogger;
+    private final SP sp;
+    private final RxBusWrapper rxBus;
+    private final NSUpload nsUpload;
+    private final ActivePluginProvider activePlugin;
+    private final Config config;
+    private final NSClientSourcePlugin nsClientSourcePlugin;
+    private final TreatmentsPlugin treatmentsPlugin;
+
+    @Inject
+    public NSIncomingDataHandler(
+            AAPSLogger aapsLogger,
+            SP sp,
+            RxBusWrapper rxBus,
+            NSUpload nsUpload,
+            ActivePluginProvider activePlugin,
+            Config config,
+            NSClientSourcePlugin nsClientSourcePlugin,
+            TreatmentsPlugin treatmentsPlugin
+    ) {
+        this.aapsLogger = aapsLogger;
+        this.sp = sp;
+        this.rxBus = rxBus;
+        this.nsUpload = nsUpload;
+        this.activePlugin = activePlugin;
+        this.config = config;
+        this.nsClientSourcePlugin = nsClientSourcePlugin;
+        this.treatmentsPlugin = treatmentsPlugin;
+    }
+
+    private boolean acceptNSData() {
+        return !sp.getBoolean(R.string.key_ns_upload_only, false);
+    }
+
+    public void handleNewSgvs(List<JSONObject> sgvs) {
+        nsClientSourcePlugin.handleNewSgvs(sgvs);
+    }
+
+    // new and changed treatments are stored the same way
+    public void handleTreatments(List<JSONObject> treatments) {
+        if (!acceptNSData()) return;
+        TreatmentsBatch batch = new TreatmentsBatch();
+        for (JSONObject json : treatments)
+            handleTreatment(json, batch);
+        storeTreatments(batch);
+    }
+
+    public void handleRemovedTreatments(List<JSONObject> treatments) {
+        if (!acceptNSData()) return;
+        for (JSONObject json : treatments)
+            handleRemovedTreatment(json);
+    }
+
+    public void handleNewMbgs(List<JSONObject> mbgs) {
+        if (!acceptNSData()) return;
+        for (JSONObject mbgJson : mbgs) {
+            try {
+                storeMbg(mbgJson);
+            } catch (Exception e) {
+                aapsLogger.error(LTag.DATASERVICE, "Unhandled exception", e);
+            }
+        }
+    }
+
+    private void handleRemovedTreatment(JSONObject json) {
+        treatmentsPlugin.getService().deleteNS(json);
+        String _id = JsonHelper.safeGetString(json, "_id");
+        MainApp.getDbHelper().deleteTempTargetById(_id);
+        MainApp.getDbHelper().deleteTempBasalById(_id);
+        MainApp.getDbHelper().deleteExtendedBolusById(_id);
+        MainApp.getDbHelper().deleteCareportalEventById(_id);
+        MainApp.getDbHelper().deleteProfileSwitchById(_id);
+    }
+
+    // records of the most frequent types received in one update, stored in bulk
+    private static class TreatmentsBatch {
+        final List<JSONObject> treatments = new ArrayList<>();
+        final List<JSONObject> tempBasals = new ArrayList<>();
+        final List<JSONObject> careportalEvents = new ArrayList<>();
+    }
+
+    private void storeTreatments(TreatmentsBatch batch) {
+        aapsLogger.debug(LTag.DATASERVICE, "Storing batch of treatments: " + batch.treatments.size() + " temp basals: " + batch.tempBasals.size() + " careportal events: " + batch.careportalEvents.size());
+        if (!batch.treatments.isEmpty())
+            treatmentsPlugin.getService().createTreatmentsFromJsonIfNotExists(batch.treatments);
+        if (!batch.tempBasals.isEmpty())
+            MainApp.getDbHelper().createTempBasalsFromJsonIfNotExists(batch.tempBasals);
+        if (!batch.careportalEvents.isEmpty())
+            MainApp.getDbHelper().createCareportalEventsFromJsonIfNotExists(batch.careportalEvents);
+    }
+
+    // treatments, temp basals and careportal events are only collected to the batch
+    private void handleTreatment(JSONObject json, TreatmentsBatch batch) {
+        double insulin = JsonHelper.safeGetDouble(json, "insulin");
+        double carbs = JsonHelper.safeGetDouble(json, "carbs");
+        String eventType = JsonHelper.safeGetString(json, "eventType");
+        if (eventType == null) {
+            aapsLogger.debug(LTag.DATASERVICE, "Wrong treatment. Ignoring : " + json.toString());
+            return;
+        }
+        if (insulin > 0 || carbs > 0) {
+            batch.treatments.add(json);
+        } else if (eventType.equals(CareportalEvent.TEMPORARYTARGET)) {
+            MainApp.getDbHelper().createTemptargetFromJsonIfNotExists(json);
+        } else if (eventType.equals(CareportalEvent.TEMPBASAL)) {
+            batch.tempBasals.add(json);
+        } else if (eventType.equals(CareportalEvent.COMBOBOLUS)) {
+            MainApp.getDbHelper().createExtendedBolusFromJsonIfNotExists(json);
+        } else if (eventType.equals(CareportalEvent.PROFILESWITCH)) {
+            MainApp.getDbHelper().createProfileSwitchFromJsonIfNotExists(activePlugin, nsUpload, json);
+        } else if (eventType.equals(CareportalEvent.SITECHANGE) ||
+                eventType.equals(CareportalEvent.INSULINCHANGE) ||
+                eventType.equals(CareportalEvent.SENSORCHANGE) ||
+                eventType.equals(CareportalEvent.BGCHECK) ||
+                eventType.equals(CareportalEvent.NOTE) ||
+                eventType.equals(CareportalEvent.NONE) ||
+                eventType.equals(CareportalEvent.ANNOUNCEMENT) ||
+                eventType.equals(CareportalEvent.QUESTION) ||
+                eventType.equals(CareportalEvent.EXERCISE) ||
+                eventType.equals(CareportalEvent.OPENAPSOFFLINE) ||
+                eventType.equals(CareportalEvent.PUMPBATTERYCHANGE)) {
+            batch.careportalEvents.add(json);
+        }
+
+        if (eventType.equals(CareportalEvent.ANNOUNCEMENT)) {
+            long date = JsonHelper.safeGetLong(json, "mills");
+            long now = System.currentTimeMillis();
+            String enteredBy = JsonHelper.safeGetString(json, "enteredBy", "");
+            String notes = JsonHelper.safeGetString(json, "notes", "");
+            if (date > now - 15 * 60 * 1000L && !notes.isEmpty()
+                    && !enteredBy.equals(sp.getString("careportal_enteredby", "AndroidAPS"))) {
+                boolean defaultVal = config.getNSCLIENT();
+                if (sp.getBoolean(R.string.key_ns_announcements, defaultVal)) {
+                    Notification announcement = new Notification(Notification.NSANNOUNCEMENT, notes, Notification.ANNOUNCEMENT, 60);
+                    rxBus.send(new EventNewNotification(announcement));
+                }
+            }
+        }
+    }
+
+    private void storeMbg(JSONObject mbgJson) {
+        NSMbg nsMbg = new NSMbg(mbgJson);
+        CareportalEvent careportalEvent = new CareportalEvent(nsMbg);
+        MainApp.getDbHelper().createOrUpdate(careportalEvent);
+        aapsLogger.debug(LTag.DATASERVICE, "Adding/Updating new MBG: " + careportalEvent.toString());
+    }
+}
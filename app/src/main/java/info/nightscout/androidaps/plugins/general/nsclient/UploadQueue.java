@@ -9,12 +9,22 @@ import com.j256.ormlite.dao.CloseableIterator;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 import info.nightscout.androidaps.R;
-import info.nightscout.androidaps.db.DatabaseHelper;
+import info.nightscout.androidaps.db.CommitActions;
 import info.nightscout.androidaps.db.DbRequest;
 import info.nightscout.androidaps.interfaces.DatabaseHelperInterface;
 import info.nightscout.androidaps.interfaces.UploadQueueInterface;
@@ -23,18 +33,43 @@ import info.nightscout.androidaps.logging.LTag;
 import info.nightscout.androidaps.plugins.bus.RxBusWrapper;
 import info.nightscout.androidaps.plugins.general.nsclient.events.EventNSClientResend;
 import info.nightscout.androidaps.plugins.general.nsclient.services.NSClientService;
+import info.nightscout.androidaps.utils.T;
 import info.nightscout.androidaps.utils.sharedPreferences.SP;
 
 /**
  * Created by mike on 21.02.2016.
+ * <p>
+ * Pending requests are kept in memory in the order of creation, DBRequests table
+ * is used for durability only (loaded at first access). Requests are sent in a window
+ * of WINDOW_SIZE unacknowledged requests, every ack opens a slot for the next one.
+ * Requests acknowledged meanwhile are deleted from the table in one batch.
  */
+@Singleton
 public class UploadQueue implements UploadQueueInterface {
+    static final int WINDOW_SIZE = 50;
+    // resend request if not acknowledged within this time
+    static final long ACK_TIMEOUT = T.mins(1).msecs();
+    private static final long DELETE_DELAY = T.secs(1).msecs();
+
     private final AAPSLogger aapsLogger;
     private final DatabaseHelperInterface databaseHelper;
     private final Context context;
     private final SP sp;
     private final RxBusWrapper rxBus;
 
+    // nsClientID -> request
+    private LinkedHashMap<String, DbRequest> pending = null;
+    // nsClientID -> time of sending
+    private final Map<String, Long> inFlight = new HashMap<>();
+    private final List<String> toDelete = new ArrayList<>();
+    private final ScheduledExecutorService deleteWorker = Executors.newSingleThreadScheduledExecutor();
+
+    private long sentCount = 0;
+    private long ackedCount = 0;
+    private long ackLatencySum = 0;
+    private long firstAckTime = 0;
+    private long lastAckTime = 0;
+
     @Inject
     public UploadQueue(
             AAPSLogger aapsLogger,
@@ -50,12 +85,33 @@ public class UploadQueue implements UploadQueueInterface {
         this.rxBus = rxBus;
     }
 
+    private Map<String, DbRequest> pending() {
+        if (pending == null) {
+            pending = new LinkedHashMap<>();
+            try {
+                CloseableIterator<DbRequest> iterator = databaseHelper.getDbRequestInterator();
+                try {
+                    while (iterator.hasNext()) {
+                        DbRequest dbr = iterator.next();
+                        pending.put(dbr.nsClientID, dbr);
+                    }
+                } finally {
+                    iterator.close();
+                }
+            } catch (Exception e) {
+                aapsLogger.error("Unhandled exception", e);
+            }
+            aapsLogger.debug(LTag.NSCLIENT, "UploadQueue loaded " + pending.size() + " requests");
+        }
+        return pending;
+    }
+
     public String status() {
-        return "QUEUE: " + databaseHelper.size(DatabaseHelper.DATABASE_DBREQUESTS);
+        return "QUEUE: " + size();
     }
 
-    public long size() {
-        return databaseHelper.size(DatabaseHelper.DATABASE_DBREQUESTS);
+    public synchronized long size() {
+        return pending().size();
     }
 
     private void startService() {
@@ -70,76 +126,152 @@ public class UploadQueue implements UploadQueueInterface {
         aapsLogger.debug(LTag.NSCLIENT, "Adding to queue: " + dbr.log());
         try {
             databaseHelper.create(dbr);
+            // request stored by a batch is sent only if the batch is committed
+            CommitActions.run(() -> {
+                synchronized (this) {
+                    pending().put(dbr.nsClientID, dbr);
+                }
+            });
         } catch (Exception e) {
             aapsLogger.error("Unhandled exception", e);
         }
         rxBus.send(new EventNSClientResend("newdata"));
     }
 
+    /**
+     * Returned requests must be marked by markSent() once they are emitted
+     *
+     * @return requests to send to fill the window, not sent or not acknowledged in ACK_TIMEOUT
+     */
+    public synchronized List<DbRequest> nextToSend() {
+        long now = System.currentTimeMillis();
+        List<DbRequest> result = new ArrayList<>();
+        int free = WINDOW_SIZE;
+        for (Long sent : inFlight.values())
+            if (sent > now - ACK_TIMEOUT) free--;
+        for (DbRequest dbr : pending().values()) {
+            if (free <= 0) break;
+            Long sent = inFlight.get(dbr.nsClientID);
+            if (sent != null && sent > now - ACK_TIMEOUT) continue;
+            result.add(dbr);
+            free--;
+        }
+        return result;
+    }
+
+    /**
+     * Request is in flight until acknowledged or ACK_TIMEOUT elapses
+     */
+    public synchronized void markSent(DbRequest dbr) {
+        inFlight.put(dbr.nsClientID, System.currentTimeMillis());
+        sentCount++;
+    }
+
+    /**
+     * Acks of requests sent before disconnection never come, send them again after reconnection
+     */
+    public synchronized void resetInFlight() {
+        inFlight.clear();
+    }
+
     void clearQueue() {
         startService();
         if (NSClientService.handler != null) {
             NSClientService.handler.post(() -> {
                 aapsLogger.debug(LTag.NSCLIENT, "ClearQueue");
+                reset();
                 databaseHelper.deleteAllDbRequests();
                 aapsLogger.debug(LTag.NSCLIENT, status());
             });
         }
     }
 
+    /**
+     * Forgets all requests, called when DBRequests table is emptied or dropped
+     */
+    public synchronized void reset() {
+        pending = new LinkedHashMap<>();
+        inFlight.clear();
+        toDelete.clear();
+    }
+
     public void removeID(final JSONObject record) {
-        startService();
-        if (NSClientService.handler != null) {
-            NSClientService.handler.post(() -> {
-                try {
-                    String id;
-                    if (record.has("NSCLIENT_ID")) {
-                        id = record.getString("NSCLIENT_ID");
-                    } else {
-                        return;
-                    }
-                    if (databaseHelper.deleteDbRequest(id) == 1) {
-                        aapsLogger.debug(LTag.NSCLIENT, "Removed item from UploadQueue. " + status());
-                    }
-                } catch (JSONException e) {
-                    aapsLogger.error("Unhandled exception", e);
-                }
-            });
+        if (!record.has("NSCLIENT_ID")) return;
+        try {
+            String id = record.getString("NSCLIENT_ID");
+            synchronized (this) {
+                if (pending().remove(id) == null) return;
+                acknowledged(id);
+            }
+            aapsLogger.debug(LTag.NSCLIENT, "Removed item from UploadQueue. " + status());
+        } catch (JSONException e) {
+            aapsLogger.error("Unhandled exception", e);
         }
     }
 
     public void removeID(final String action, final String _id) {
         if (_id == null || _id.equals(""))
             return;
-        startService();
-        if (NSClientService.handler != null) {
-            NSClientService.handler.post(() -> {
-                databaseHelper.deleteDbRequestbyMongoId(action, _id);
-                aapsLogger.debug(LTag.NSCLIENT, "Removing " + _id + " from UploadQueue. " + status());
-            });
+        synchronized (this) {
+            Iterator<DbRequest> iterator = pending().values().iterator();
+            while (iterator.hasNext()) {
+                DbRequest dbr = iterator.next();
+                if (action.equals(dbr.action) && _id.equals(dbr._id)) {
+                    iterator.remove();
+                    acknowledged(dbr.nsClientID);
+                }
+            }
         }
+        aapsLogger.debug(LTag.NSCLIENT, "Removing " + _id + " from UploadQueue. " + status());
     }
 
-    String textList() {
-        String result = "";
-        CloseableIterator<DbRequest> iterator;
-        try {
-            iterator = databaseHelper.getDbRequestInterator();
-            try {
-                while (iterator.hasNext()) {
-                    DbRequest dbr = iterator.next();
-                    result += "<br>";
-                    result += dbr.action.toUpperCase() + " ";
-                    result += dbr.collection + ": ";
-                    result += dbr.data;
-                }
-            } finally {
-                iterator.close();
-            }
-        } catch (SQLException e) {
-            aapsLogger.error("Unhandled exception", e);
+    // called synchronized
+    private void acknowledged(String nsClientID) {
+        long now = System.currentTimeMillis();
+        Long sent = inFlight.remove(nsClientID);
+        if (sent != null) {
+            ackedCount++;
+            ackLatencySum += now - sent;
+            if (firstAckTime == 0) firstAckTime = now;
+            lastAckTime = now;
         }
-        return result;
+        toDelete.add(nsClientID);
+        // first ack schedules delete, others are collected meanwhile
+        if (toDelete.size() == 1)
+            deleteWorker.schedule(this::deleteAcknowledged, DELETE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void deleteAcknowledged() {
+        List<String> ids;
+        synchronized (this) {
+            ids = new ArrayList<>(toDelete);
+            toDelete.clear();
+        }
+        if (ids.isEmpty()) return;
+        int deleted = databaseHelper.deleteDbRequests(ids);
+        aapsLogger.debug(LTag.NSCLIENT, "Deleted " + deleted + " acknowledged requests from DBRequests");
+    }
+
+    /**
+     * @return sent and acknowledged requests, average ack latency and throughput since start
+     */
+    public synchronized String metrics() {
+        long avgLatency = ackedCount > 0 ? ackLatencySum / ackedCount : 0;
+        long duration = lastAckTime - firstAckTime;
+        String throughput = duration > 0 ? String.format(Locale.ENGLISH, "%.1f/s", ackedCount * 1000.0 / duration) : "-";
+        return "sent: " + sentCount + " acked: " + ackedCount + " in flight: " + inFlight.size() + " avg latency: " + avgLatency + "ms throughput: " + throughput;
+    }
+
+    synchronized String textList() {
+        StringBuilder result = new StringBuilder();
+        for (DbRequest dbr : pending().values()) {
+            result.append("<br>");
+            result.append(dbr.action.toUpperCase()).append(" ");
+            result.append(dbr.collection).append(": ");
+            result.append(dbr.data);
+        }
+        result.append("<br>").append(metrics());
+        return result.toString();
     }
 
 }
@@ -0,0 +1,48 @@
+package info.nightscout.androidaps.plugins.general.nsclient.services;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads arrays of dataUpdate payload in chunks of limited size
+ * <p>
+ * Socket.io delivers the payload already parsed. Array is detached from the payload and
+ * every record is released from the array when passed to consumer, so stored records of
+ * a large initial sync can be collected while the rest is processed. No copies of whole
+ * arrays are made.
+ */
+class DataUpdateReader {
+
+    static final int CHUNK_SIZE = 100;
+
+    interface ChunkConsumer {
+        void accept(List<JSONObject> chunk) throws JSONException;
+    }
+
+    /**
+     * @return number of records read
+     */
+    static int read(JSONObject data, String key, int chunkSize, ChunkConsumer consumer) throws JSONException {
+        JSONArray array = data.optJSONArray(key);
+        if (array == null) return 0;
+        data.remove(key);
+        int length = array.length();
+        List<JSONObject> chunk = new ArrayList<>(Math.min(chunkSize, length));
+        for (int i = 0; i < length; i++) {
+            JSONObject record = array.optJSONObject(i);
+            array.put(i, JSONObject.NULL);
+            if (record == null) continue;
+            chunk.add(record);
+            if (chunk.size() == chunkSize) {
+                consumer.accept(chunk);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) consumer.accept(chunk);
+        return length;
+    }
+}
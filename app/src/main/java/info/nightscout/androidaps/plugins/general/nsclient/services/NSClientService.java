@@ -14,14 +14,12 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import com.google.common.base.Charsets;
 import com.google.common.hash.Hashing;
-import com.j256.ormlite.dao.CloseableIterator;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.net.URISyntaxException;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,13 +34,13 @@ import info.nightscout.androidaps.events.EventAppExit;
 import info.nightscout.androidaps.events.EventConfigBuilderChange;
 import info.nightscout.androidaps.events.EventNsFood;
 import info.nightscout.androidaps.events.EventPreferenceChange;
-import info.nightscout.androidaps.interfaces.DatabaseHelperInterface;
 import info.nightscout.androidaps.interfaces.PluginType;
 import info.nightscout.androidaps.interfaces.ProfileStore;
 import info.nightscout.androidaps.logging.AAPSLogger;
 import info.nightscout.androidaps.logging.LTag;
 import info.nightscout.androidaps.plugins.bus.RxBusWrapper;
 import info.nightscout.androidaps.plugins.general.nsclient.NSClientPlugin;
+import info.nightscout.androidaps.plugins.general.nsclient.NSIncomingDataHandler;
 import info.nightscout.androidaps.plugins.general.nsclient.UploadQueue;
 import info.nightscout.androidaps.plugins.general.nsclient.acks.NSAddAck;
 import info.nightscout.androidaps.plugins.general.nsclient.acks.NSAuthAck;
@@ -80,7 +78,6 @@ public class NSClientService extends DaggerService {
     @Inject AAPSLogger aapsLogger;
     @Inject NSSettingsStatus nsSettingsStatus;
     @Inject NSDeviceStatus nsDeviceStatus;
-    @Inject DatabaseHelperInterface databaseHelper;
     @Inject RxBusWrapper rxBus;
     @Inject ResourceHelper resourceHelper;
     @Inject SP sp;
@@ -90,6 +87,7 @@ public class NSClientService extends DaggerService {
     @Inject Config config;
     @Inject DateUtil dateUtil;
     @Inject UploadQueue uploadQueue;
+    @Inject NSIncomingDataHandler nsIncomingDataHandler;
 
     private CompositeDisposable disposable = new CompositeDisposable();
 
@@ -103,6 +101,8 @@ public class NSClientService extends DaggerService {
     public static Socket mSocket;
     public static boolean isConnected = false;
     public static boolean hasWriteAuth = false;
+    private static final String RESEND_ACKED = "Acked";
+
     private static Integer dataCounter = 0;
     private static Integer connectCounter = 0;
 
@@ -116,8 +116,6 @@ public class NSClientService extends DaggerService {
     private String nsDevice = "";
     private final Integer nsHours = 48;
 
-    public long lastResendTime = 0;
-
     public long latestDateInReceivedData = 0;
 
     private String nsAPIhashCode = "";
@@ -215,6 +213,7 @@ public class NSClientService extends DaggerService {
         if (ack.nsClientID != null) {
             uploadQueue.removeID(ack.json);
             rxBus.send(new EventNSClientNewLog("DBADD", "Acked " + ack.nsClientID));
+            resend(RESEND_ACKED);
         } else {
             rxBus.send(new EventNSClientNewLog("ERROR", "DBADD Unknown response"));
         }
@@ -224,6 +223,7 @@ public class NSClientService extends DaggerService {
         if (ack.result) {
             uploadQueue.removeID(ack.action, ack._id);
             rxBus.send(new EventNSClientNewLog("DBUPDATE/DBREMOVE", "Acked " + ack._id));
+            resend(RESEND_ACKED);
         } else {
             rxBus.send(new EventNSClientNewLog("ERROR", "DBUPDATE/DBREMOVE Unknown response"));
         }
@@ -237,6 +237,8 @@ public class NSClientService extends DaggerService {
         connectionStatus += ')';
         isConnected = true;
         hasWriteAuth = ack.write && ack.write_treatment;
+        // new connection, acks of requests sent before are lost
+        uploadQueue.resetInFlight();
         rxBus.send(new EventNSClientStatus(connectionStatus));
         rxBus.send(new EventNSClientNewLog("AUTH", connectionStatus));
         if (!ack.write) {
@@ -586,40 +588,41 @@ public class NSClientService extends DaggerService {
 
                         if (data.has("treatments")) {
                             JSONArray treatments = data.getJSONArray("treatments");
-                            JSONArray removedTreatments = new JSONArray();
-                            JSONArray updatedTreatments = new JSONArray();
-                            JSONArray addedTreatments = new JSONArray();
                             if (treatments.length() > 0)
                                 rxBus.send(new EventNSClientNewLog("DATA", "received " + treatments.length() + " treatments"));
-                            for (Integer index = 0; index < treatments.length(); index++) {
-                                JSONObject jsonTreatment = treatments.getJSONObject(index);
-                                NSTreatment treatment = new NSTreatment(jsonTreatment);
+                            DataUpdateReader.read(data, "treatments", DataUpdateReader.CHUNK_SIZE, chunk -> {
+                                List<JSONObject> removedTreatments = new ArrayList<>();
+                                List<JSONObject> updatedTreatments = new ArrayList<>();
+                                List<JSONObject> addedTreatments = new ArrayList<>();
+                                for (JSONObject jsonTreatment : chunk) {
+                                    NSTreatment treatment = new NSTreatment(jsonTreatment);
 
-                                // remove from upload queue if Ack is failing
-                                uploadQueue.removeID(jsonTreatment);
-                                //Find latest date in treatment
-                                if (treatment.getMills() != null && treatment.getMills() < System.currentTimeMillis())
-                                    if (treatment.getMills() > latestDateInReceivedData)
-                                        latestDateInReceivedData = treatment.getMills();
-
-                                if (treatment.getAction() == null) {
-                                    addedTreatments.put(jsonTreatment);
-                                } else if (treatment.getAction().equals("update")) {
-                                    updatedTreatments.put(jsonTreatment);
-                                } else if (treatment.getAction().equals("remove")) {
-                                    if (treatment.getMills() != null && treatment.getMills() > System.currentTimeMillis() - 24 * 60 * 60 * 1000L) // handle 1 day old deletions only
-                                        removedTreatments.put(jsonTreatment);
+                                    // remove from upload queue if Ack is failing
+                                    uploadQueue.removeID(jsonTreatment);
+                                    //Find latest date in treatment
+                                    if (treatment.getMills() != null && treatment.getMills() < System.currentTimeMillis())
+                                        if (treatment.getMills() > latestDateInReceivedData)
+                                            latestDateInReceivedData = treatment.getMills();
+
+                                    if (treatment.getAction() == null) {
+                                        addedTreatments.add(jsonTreatment);
+                                    } else if (treatment.getAction().equals("update")) {
+                                        updatedTreatments.add(jsonTreatment);
+                                    } else if (treatment.getAction().equals("remove")) {
+                                        if (treatment.getMills() != null && treatment.getMills() > System.currentTimeMillis() - 24 * 60 * 60 * 1000L) // handle 1 day old deletions only
+                                            removedTreatments.add(jsonTreatment);
+                                    }
                                 }
-                            }
-                            if (removedTreatments.length() > 0) {
-                                handleRemovedTreatment(removedTreatments, isDelta);
-                            }
-                            if (updatedTreatments.length() > 0) {
-                                handleChangedTreatment(updatedTreatments, isDelta);
-                            }
-                            if (addedTreatments.length() > 0) {
-                                handleNewTreatment(addedTreatments, isDelta);
-                            }
+                                if (removedTreatments.size() > 0) {
+                                    handleRemovedTreatment(removedTreatments, isDelta);
+                                }
+                                if (updatedTreatments.size() > 0) {
+                                    handleChangedTreatment(updatedTreatments, isDelta);
+                                }
+                                if (addedTreatments.size() > 0) {
+                                    handleNewTreatment(addedTreatments, isDelta);
+                                }
+                            });
                         }
                         if (data.has("devicestatus")) {
                             JSONArray devicestatuses = data.getJSONArray("devicestatus");
@@ -673,12 +676,13 @@ public class NSClientService extends DaggerService {
                             JSONArray mbgs = data.getJSONArray("mbgs");
                             if (mbgs.length() > 0)
                                 rxBus.send(new EventNSClientNewLog("DATA", "received " + mbgs.length() + " mbgs"));
-                            for (Integer index = 0; index < mbgs.length(); index++) {
-                                JSONObject jsonMbg = mbgs.getJSONObject(index);
-                                // remove from upload queue if Ack is failing
-                                uploadQueue.removeID(jsonMbg);
-                            }
-                            handleNewMbg(mbgs, isDelta);
+                            DataUpdateReader.read(data, "mbgs", DataUpdateReader.CHUNK_SIZE, chunk -> {
+                                for (JSONObject jsonMbg : chunk) {
+                                    // remove from upload queue if Ack is failing
+                                    uploadQueue.removeID(jsonMbg);
+                                }
+                                handleNewMbg(chunk);
+                            });
                         }
                         if (data.has("cals")) {
                             JSONArray cals = data.getJSONArray("cals");
@@ -695,24 +699,23 @@ public class NSClientService extends DaggerService {
                             JSONArray sgvs = data.getJSONArray("sgvs");
                             if (sgvs.length() > 0)
                                 rxBus.send(new EventNSClientNewLog("DATA", "received " + sgvs.length() + " sgvs"));
-                            for (int index = 0; index < sgvs.length(); index++) {
-                                JSONObject jsonSgv = sgvs.getJSONObject(index);
-                                // rxBus.send(new EventNSClientNewLog("DATA", "svg " + sgvs.getJSONObject(index).toString());
-                                NSSgv sgv = new NSSgv(jsonSgv);
-                                // Handle new sgv here
-                                // remove from upload queue if Ack is failing
-                                uploadQueue.removeID(jsonSgv);
-                                //Find latest date in sgv
-                                if (sgv.getMills() != null && sgv.getMills() < System.currentTimeMillis())
-                                    if (sgv.getMills() > latestDateInReceivedData)
-                                        latestDateInReceivedData = sgv.getMills();
-                            }
+                            DataUpdateReader.read(data, "sgvs", DataUpdateReader.CHUNK_SIZE, chunk -> {
+                                for (JSONObject jsonSgv : chunk) {
+                                    NSSgv sgv = new NSSgv(jsonSgv);
+                                    // remove from upload queue if Ack is failing
+                                    uploadQueue.removeID(jsonSgv);
+                                    //Find latest date in sgv
+                                    if (sgv.getMills() != null && sgv.getMills() < System.currentTimeMillis())
+                                        if (sgv.getMills() > latestDateInReceivedData)
+                                            latestDateInReceivedData = sgv.getMills();
+                                }
+                                handleNewSgv(chunk, isDelta);
+                            });
                             // Was that sgv more less 5 mins ago ?
                             if ((System.currentTimeMillis() - latestDateInReceivedData) / (60 * 1000L) < 5L) {
                                 rxBus.send(new EventDismissNotification(Notification.NSALARM));
                                 rxBus.send(new EventDismissNotification(Notification.NSURGENTALARM));
                             }
-                            handleNewSgv(sgvs, isDelta);
                         }
                         rxBus.send(new EventNSClientNewLog("LAST", dateUtil.dateAndTimeString(latestDateInReceivedData)));
                     } catch (JSONException e) {
@@ -726,58 +729,78 @@ public class NSClientService extends DaggerService {
         }
     };
 
-    public void dbUpdate(DbRequest dbr, NSUpdateAck ack) {
+    /**
+     * @return true if request was emitted
+     */
+    public boolean dbUpdate(DbRequest dbr, NSUpdateAck ack) {
         try {
-            if (!isConnected || !hasWriteAuth) return;
+            if (!isConnected || !hasWriteAuth) return false;
             JSONObject message = new JSONObject();
             message.put("collection", dbr.collection);
             message.put("_id", dbr._id);
             message.put("data", new JSONObject(dbr.data));
             mSocket.emit("dbUpdate", message, ack);
             rxBus.send(new EventNSClientNewLog("DBUPDATE " + dbr.collection, "Sent " + dbr._id));
+            return true;
         } catch (JSONException e) {
             aapsLogger.error("Unhandled exception", e);
         }
+        return false;
     }
 
-    public void dbUpdateUnset(DbRequest dbr, NSUpdateAck ack) {
+    /**
+     * @return true if request was emitted
+     */
+    public boolean dbUpdateUnset(DbRequest dbr, NSUpdateAck ack) {
         try {
-            if (!isConnected || !hasWriteAuth) return;
+            if (!isConnected || !hasWriteAuth) return false;
             JSONObject message = new JSONObject();
             message.put("collection", dbr.collection);
             message.put("_id", dbr._id);
             message.put("data", new JSONObject(dbr.data));
             mSocket.emit("dbUpdateUnset", message, ack);
             rxBus.send(new EventNSClientNewLog("DBUPDATEUNSET " + dbr.collection, "Sent " + dbr._id));
+            return true;
         } catch (JSONException e) {
             aapsLogger.error("Unhandled exception", e);
         }
+        return false;
     }
 
-    public void dbRemove(DbRequest dbr, NSUpdateAck ack) {
+    /**
+     * @return true if request was emitted
+     */
+    public boolean dbRemove(DbRequest dbr, NSUpdateAck ack) {
         try {
-            if (!isConnected || !hasWriteAuth) return;
+            if (!isConnected || !hasWriteAuth) return false;
             JSONObject message = new JSONObject();
             message.put("collection", dbr.collection);
             message.put("_id", dbr._id);
             mSocket.emit("dbRemove", message, ack);
             rxBus.send(new EventNSClientNewLog("DBREMOVE " + dbr.collection, "Sent " + dbr._id));
+            return true;
         } catch (JSONException e) {
             aapsLogger.error("Unhandled exception", e);
         }
+        return false;
     }
 
-    public void dbAdd(DbRequest dbr, NSAddAck ack) {
+    /**
+     * @return true if request was emitted
+     */
+    public boolean dbAdd(DbRequest dbr, NSAddAck ack) {
         try {
-            if (!isConnected || !hasWriteAuth) return;
+            if (!isConnected || !hasWriteAuth) return false;
             JSONObject message = new JSONObject();
             message.put("collection", dbr.collection);
             message.put("data", new JSONObject(dbr.data));
             mSocket.emit("dbAdd", message, ack);
             rxBus.send(new EventNSClientNewLog("DBADD " + dbr.collection, "Sent " + dbr.nsClientID));
+            return true;
         } catch (JSONException e) {
             aapsLogger.error("Unhandled exception", e);
         }
+        return false;
     }
 
     public void sendAlarmAck(AlarmAck alarmAck) {
@@ -795,44 +818,33 @@ public class NSClientService extends DaggerService {
         handler.post(() -> {
             if (mSocket == null || !mSocket.connected()) return;
 
-            if (lastResendTime > System.currentTimeMillis() - 10 * 1000L) {
-                aapsLogger.debug(LTag.NSCLIENT, "Skipping resend by lastResendTime: " + ((System.currentTimeMillis() - lastResendTime) / 1000L) + " sec");
-                return;
-            }
-            lastResendTime = System.currentTimeMillis();
-
-            rxBus.send(new EventNSClientNewLog("QUEUE", "Resend started: " + reason));
-
-            CloseableIterator<DbRequest> iterator;
-            int maxcount = 30;
-            try {
-                iterator = databaseHelper.getDbRequestInterator();
-                try {
-                    while (iterator.hasNext() && maxcount > 0) {
-                        DbRequest dbr = iterator.next();
-                        if (dbr.action.equals("dbAdd")) {
-                            NSAddAck addAck = new NSAddAck(aapsLogger, rxBus);
-                            dbAdd(dbr, addAck);
-                        } else if (dbr.action.equals("dbRemove")) {
-                            NSUpdateAck removeAck = new NSUpdateAck(dbr.action, dbr._id, aapsLogger, rxBus);
-                            dbRemove(dbr, removeAck);
-                        } else if (dbr.action.equals("dbUpdate")) {
-                            NSUpdateAck updateAck = new NSUpdateAck(dbr.action, dbr._id, aapsLogger, rxBus);
-                            dbUpdate(dbr, updateAck);
-                        } else if (dbr.action.equals("dbUpdateUnset")) {
-                            NSUpdateAck updateUnsetAck = new NSUpdateAck(dbr.action, dbr._id, aapsLogger, rxBus);
-                            dbUpdateUnset(dbr, updateUnsetAck);
-                        }
-                        maxcount--;
-                    }
-                } finally {
-                    iterator.close();
+            List<DbRequest> toSend = uploadQueue.nextToSend();
+            if (toSend.isEmpty()) return;
+            // window is refilled on every ack, don't flood log
+            if (!reason.equals(RESEND_ACKED))
+                rxBus.send(new EventNSClientNewLog("QUEUE", "Resend started: " + reason));
+
+            for (DbRequest dbr : toSend) {
+                boolean sent = false;
+                if (dbr.action.equals("dbAdd")) {
+                    NSAddAck addAck = new NSAddAck(aapsLogger, rxBus);
+                    sent = dbAdd(dbr, addAck);
+                } else if (dbr.action.equals("dbRemove")) {
+                    NSUpdateAck removeAck = new NSUpdateAck(dbr.action, dbr._id, aapsLogger, rxBus);
+                    sent = dbRemove(dbr, removeAck);
+                } else if (dbr.action.equals("dbUpdate")) {
+                    NSUpdateAck updateAck = new NSUpdateAck(dbr.action, dbr._id, aapsLogger, rxBus);
+                    sent = dbUpdate(dbr, updateAck);
+                } else if (dbr.action.equals("dbUpdateUnset")) {
+                    NSUpdateAck updateUnsetAck = new NSUpdateAck(dbr.action, dbr._id, aapsLogger, rxBus);
+                    sent = dbUpdateUnset(dbr, updateUnsetAck);
                 }
-            } catch (SQLException e) {
-                aapsLogger.error("Unhandled exception", e);
+                // not sent requests are returned by the next nextToSend again
+                if (sent) uploadQueue.markSent(dbr);
             }
 
-            rxBus.send(new EventNSClientNewLog("QUEUE", "Resend ended: " + reason));
+            if (!reason.equals(RESEND_ACKED))
+                rxBus.send(new EventNSClientNewLog("QUEUE", "Resend ended: " + reason + " " + uploadQueue.metrics()));
         });
     }
 
@@ -890,14 +902,8 @@ public class NSClientService extends DaggerService {
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
     }
 
-    public void handleNewMbg(JSONArray mbgs, boolean isDelta) {
-        Bundle bundle = new Bundle();
-        bundle.putString("mbgs", mbgs.toString());
-        bundle.putBoolean("delta", isDelta);
-        Intent intent = new Intent(Intents.ACTION_NEW_MBG);
-        intent.putExtras(bundle);
-        intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    public void handleNewMbg(List<JSONObject> mbgs) {
+        nsIncomingDataHandler.handleNewMbgs(mbgs);
     }
 
     public void handleNewProfile(ProfileStore profile, boolean isDelta) {
@@ -920,130 +926,41 @@ public class NSClientService extends DaggerService {
         }
     }
 
-    public void handleNewSgv(JSONArray sgvs, boolean isDelta) {
-        List<JSONArray> splitted = splitArray(sgvs);
-        for (JSONArray part : splitted) {
-            Bundle bundle = new Bundle();
-            bundle.putString("sgvs", part.toString());
-            bundle.putBoolean("delta", isDelta);
-            Intent intent = new Intent(Intents.ACTION_NEW_SGV);
-            intent.putExtras(bundle);
-            intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-            LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
-        }
-
-        if (sp.getBoolean(R.string.key_nsclient_localbroadcasts, false)) {
-            for (JSONArray part : splitted) {
-                Bundle bundle = new Bundle();
-                bundle.putString("sgvs", part.toString());
-                bundle.putBoolean("delta", isDelta);
-                Intent intent = new Intent(Intents.ACTION_NEW_SGV);
-                intent.putExtras(bundle);
-                intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-                this.sendBroadcast(intent);
-            }
-        }
+    public void handleNewSgv(List<JSONObject> sgvs, boolean isDelta) {
+        nsIncomingDataHandler.handleNewSgvs(sgvs);
+        broadcastExternally(Intents.ACTION_NEW_SGV, "sgvs", sgvs, isDelta);
     }
 
-    public void handleNewTreatment(JSONArray treatments, boolean isDelta) {
-        List<JSONArray> splitted = splitArray(treatments);
-        for (JSONArray part : splitted) {
-            Bundle bundle = new Bundle();
-            bundle.putString("treatments", part.toString());
-            bundle.putBoolean("delta", isDelta);
-            Intent intent = new Intent(Intents.ACTION_NEW_TREATMENT);
-            intent.putExtras(bundle);
-            intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-            LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
-        }
-
-        if (sp.getBoolean(R.string.key_nsclient_localbroadcasts, false)) {
-            splitted = splitArray(treatments);
-            for (JSONArray part : splitted) {
-                Bundle bundle = new Bundle();
-                bundle.putString("treatments", part.toString());
-                bundle.putBoolean("delta", isDelta);
-                Intent intent = new Intent(Intents.ACTION_NEW_TREATMENT);
-                intent.putExtras(bundle);
-                intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-                this.getApplicationContext().sendBroadcast(intent);
-            }
-        }
+    public void handleNewTreatment(List<JSONObject> treatments, boolean isDelta) {
+        nsIncomingDataHandler.handleTreatments(treatments);
+        broadcastExternally(Intents.ACTION_NEW_TREATMENT, "treatments", treatments, isDelta);
     }
 
-    public void handleChangedTreatment(JSONArray treatments, boolean isDelta) {
-        List<JSONArray> splitted = splitArray(treatments);
-        for (JSONArray part : splitted) {
-            Bundle bundle = new Bundle();
-            bundle.putString("treatments", part.toString());
-            bundle.putBoolean("delta", isDelta);
-            Intent intent = new Intent(Intents.ACTION_CHANGED_TREATMENT);
-            intent.putExtras(bundle);
-            intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-            LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
-        }
-
-        if (sp.getBoolean(R.string.key_nsclient_localbroadcasts, false)) {
-            splitted = splitArray(treatments);
-            for (JSONArray part : splitted) {
-                Bundle bundle = new Bundle();
-                bundle.putString("treatments", part.toString());
-                bundle.putBoolean("delta", isDelta);
-                Intent intent = new Intent(Intents.ACTION_CHANGED_TREATMENT);
-                intent.putExtras(bundle);
-                intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-                this.getApplicationContext().sendBroadcast(intent);
-            }
-        }
+    public void handleChangedTreatment(List<JSONObject> treatments, boolean isDelta) {
+        nsIncomingDataHandler.handleTreatments(treatments);
+        broadcastExternally(Intents.ACTION_CHANGED_TREATMENT, "treatments", treatments, isDelta);
     }
 
-    public void handleRemovedTreatment(JSONArray treatments, boolean isDelta) {
-        Bundle bundle = new Bundle();
-        bundle.putString("treatments", treatments.toString());
-        bundle.putBoolean("delta", isDelta);
-        Intent intent = new Intent(Intents.ACTION_REMOVED_TREATMENT);
-        intent.putExtras(bundle);
-        intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
-
+    public void handleRemovedTreatment(List<JSONObject> treatments, boolean isDelta) {
+        nsIncomingDataHandler.handleRemovedTreatments(treatments);
+        broadcastExternally(Intents.ACTION_REMOVED_TREATMENT, "treatments", treatments, isDelta);
+    }
 
-        if (sp.getBoolean(R.string.key_nsclient_localbroadcasts, false)) {
-            bundle = new Bundle();
-            bundle.putString("treatments", treatments.toString());
+    // Data is serialized only for other apps when enabled in preferences
+    private void broadcastExternally(String action, String key, List<JSONObject> records, boolean isDelta) {
+        if (!sp.getBoolean(R.string.key_nsclient_localbroadcasts, false)) return;
+        // split to parts of 20 records to keep intents small
+        for (int from = 0; from < records.size(); from += 20) {
+            JSONArray part = new JSONArray();
+            for (JSONObject record : records.subList(from, Math.min(from + 20, records.size())))
+                part.put(record);
+            Bundle bundle = new Bundle();
+            bundle.putString(key, part.toString());
             bundle.putBoolean("delta", isDelta);
-            intent = new Intent(Intents.ACTION_REMOVED_TREATMENT);
+            Intent intent = new Intent(action);
             intent.putExtras(bundle);
             intent.addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
             this.getApplicationContext().sendBroadcast(intent);
         }
     }
-
-
-    public List<JSONArray> splitArray(JSONArray array) {
-        List<JSONArray> ret = new ArrayList<>();
-        try {
-            int size = array.length();
-            int count = 0;
-            JSONArray newarr = null;
-            for (int i = 0; i < size; i++) {
-                if (count == 0) {
-                    if (newarr != null) {
-                        ret.add(newarr);
-                    }
-                    newarr = new JSONArray();
-                    count = 20;
-                }
-                newarr.put(array.get(i));
-                --count;
-            }
-            if (newarr != null && newarr.length() > 0) {
-                ret.add(newarr);
-            }
-        } catch (JSONException e) {
-            aapsLogger.error("Unhandled exception", e);
-            ret = new ArrayList<>();
-            ret.add(array);
-        }
-        return ret;
-    }
 }
\ No newline at end of file
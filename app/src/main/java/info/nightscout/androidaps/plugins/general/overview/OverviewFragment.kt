@@ -283,11 +283,11 @@ class OverviewFragment : DaggerFragment(), View.OnClickListener, OnLongClickList
             .observeOn(Schedulers.io())
             .subscribe({ scheduleUpdateGUI("EventNewOpenLoopNotification") }) { fabricPrivacy.logException(it) })
         disposable.add(rxBus
-            .toObservable(EventPumpStatusChanged::class.java)
+            .toObservable(EventPumpStatusChanged::class.java, 250)
             .observeOn(AndroidSchedulers.mainThread())
             .subscribe({ updatePumpStatus(it) }) { fabricPrivacy.logException(it) })
         disposable.add(rxBus
-            .toObservable(EventIobCalculationProgress::class.java)
+            .toObservable(EventIobCalculationProgress::class.java, 250)
             .observeOn(AndroidSchedulers.mainThread())
             .subscribe({ overview_iobcalculationprogess?.text = it.progress }) { fabricPrivacy.logException(it) })
 
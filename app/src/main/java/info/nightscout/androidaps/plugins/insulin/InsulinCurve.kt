@@ -0,0 +1,70 @@
+package info.nightscout.androidaps.plugins.insulin
+
+import kotlin.math.ceil
+import kotlin.math.exp
+import kotlin.math.pow
+
+/**
+ * Oref exponential insulin curve for 1U precomputed at 1 minute resolution
+ *
+ * Values between samples are linearly interpolated so IOB calculation
+ * does not need exp/pow for every treatment
+ *
+ * @param peak insulin peak in minutes
+ * @param td   duration of insulin action in minutes
+ */
+class InsulinCurve(val peak: Int, val td: Double) {
+
+    private val iob: DoubleArray
+    private val activity: DoubleArray
+
+    private val tau: Double
+    private val a: Double
+    private val s: Double
+
+    init {
+        val tp = peak.toDouble()
+        tau = tp * (1 - tp / td) / (1 - 2 * tp / td)
+        a = 2 * tau / td
+        s = 1 / (1 - a + (1 + a) * exp(-td / tau))
+
+        val samples = ceil(td).toInt() + 1
+        iob = DoubleArray(samples) { exactIob(it.toDouble()) }
+        activity = DoubleArray(samples) { exactActivity(it.toDouble()) }
+    }
+
+    fun isFor(peak: Int, td: Double): Boolean = this.peak == peak && this.td == td
+
+    /**
+     * @param t minutes since bolus
+     * @return remaining part of 1U
+     */
+    fun iob(t: Double): Double = when {
+        t >= td -> 0.0
+        t < 0   -> exactIob(t)
+        else    -> interpolate(iob, t)
+    }
+
+    /**
+     * @param t minutes since bolus
+     * @return activity of 1U per minute
+     */
+    fun activity(t: Double): Double = when {
+        t >= td -> 0.0
+        t < 0   -> exactActivity(t)
+        else    -> interpolate(activity, t)
+    }
+
+    fun exactIob(t: Double): Double =
+        1 - s * (1 - a) * ((t.pow(2.0) / (tau * td * (1 - a)) - t / tau - 1) * exp(-t / tau) + 1)
+
+    fun exactActivity(t: Double): Double =
+        (s / tau.pow(2.0)) * t * (1 - t / td) * exp(-t / tau)
+
+    private fun interpolate(table: DoubleArray, t: Double): Double {
+        val index = t.toInt()
+        val fraction = t - index
+        if (fraction == 0.0) return table[index]
+        return table[index] + (table[index + 1] - table[index]) * fraction
+    }
+}
@@ -35,6 +35,16 @@ abstract class InsulinOrefBasePlugin(
 ), InsulinInterface {
 
     private var lastWarned: Long = 0
+
+    // rebuilt when peak or DIA changes, every insulin plugin keeps its own
+    @Volatile private var curve: InsulinCurve? = null
+
+    private fun curve(peak: Int, td: Double): InsulinCurve {
+        val current = curve
+        if (current != null && current.isFor(peak, td)) return current
+        return InsulinCurve(peak, td).also { curve = it }
+    }
+
     override fun getDia(): Double {
         val dia = userDefinedDia
         return if (dia >= MIN_DIA) {
@@ -73,14 +83,11 @@ abstract class InsulinOrefBasePlugin(
             val bolusTime = treatment.date
             val t = (time - bolusTime) / 1000.0 / 60.0
             val td = getDia() * 60 //getDIA() always >= MIN_DIA
-            val tp = peak.toDouble()
             // force the IOB to 0 if over DIA hours have passed
             if (t < td) {
-                val tau = tp * (1 - tp / td) / (1 - 2 * tp / td)
-                val a = 2 * tau / td
-                val S = 1 / (1 - a + (1 + a) * Math.exp(-td / tau))
-                result.activityContrib = treatment.insulin * (S / Math.pow(tau, 2.0)) * t * (1 - t / td) * Math.exp(-t / tau)
-                result.iobContrib = treatment.insulin * (1 - S * (1 - a) * ((Math.pow(t, 2.0) / (tau * td * (1 - a)) - t / tau - 1) * Math.exp(-t / tau) + 1))
+                val curve = curve(peak, td)
+                result.activityContrib = treatment.insulin * curve.activity(t)
+                result.iobContrib = treatment.insulin * curve.iob(t)
             }
         }
         return result
@@ -0,0 +1,244 @@
+package info.nightscout.androidaps.plugins.iob.iobCobCalculator;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+import info.nightscout.androidaps.db.BgReading;
+
+/**
+ * Glucose time series kept in primitive columns (timestamps, values, interpolated flags)
+ * <p>
+ * Values are indexed newest first the same way as List&lt;BgReading&gt; loaded from database.
+ * Internally they are stored oldest first so newer values can be appended and oldest dropped
+ * without copying. Series is immutable, append and dropOldest return new series sharing
+ * storage with this one, so the series already handed to readers never changes.
+ * <p>
+ * List view creates InMemoryGlucoseValue on every get(), use getTimestamp() and getValue()
+ * in loops.
+ */
+public final class GlucoseSeries extends AbstractList<InMemoryGlucoseValue> implements RandomAccess {
+    private static final int MIN_CAPACITY = 16;
+
+    // Oldest first, shared by all series derived by append. Values are only written
+    // behind 'used' so they never change once visible to some series
+    private static final class Storage {
+        final long[] timestamps;
+        final double[] values;
+        final long[] interpolated; // bitset
+        int used = 0;
+
+        Storage(int capacity) {
+            timestamps = new long[capacity];
+            values = new double[capacity];
+            interpolated = new long[(capacity + 63) >>> 6];
+        }
+
+        boolean isInterpolated(int position) {
+            return (interpolated[position >>> 6] & (1L << position)) != 0;
+        }
+
+        void set(int position, long timestamp, double value, boolean isInterpolated) {
+            timestamps[position] = timestamp;
+            values[position] = value;
+            if (isInterpolated) interpolated[position >>> 6] |= 1L << position;
+        }
+    }
+
+    private final Storage storage;
+    private final int start; // position of oldest value
+    private final int end; // position behind newest value
+
+    private GlucoseSeries(Storage storage, int start, int end) {
+        this.storage = storage;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @param readings readings sorted newest first
+     */
+    public static GlucoseSeries of(List<BgReading> readings) {
+        int size = readings.size();
+        Storage storage = new Storage(size + MIN_CAPACITY);
+        for (int position = 0; position < size; position++) {
+            BgReading reading = readings.get(size - 1 - position);
+            storage.set(position, reading.date, reading.value, false);
+        }
+        storage.used = size;
+        return new GlucoseSeries(storage, 0, size);
+    }
+
+    @Override
+    public int size() {
+        return end - start;
+    }
+
+    private int position(int index) {
+        if (index < 0 || index >= end - start)
+            throw new IndexOutOfBoundsException("Index: " + index + " Size: " + (end - start));
+        return end - 1 - index;
+    }
+
+    public long getTimestamp(int index) {
+        return storage.timestamps[position(index)];
+    }
+
+    public double getValue(int index) {
+        return storage.values[position(index)];
+    }
+
+    public boolean isInterpolated(int index) {
+        return storage.isInterpolated(position(index));
+    }
+
+    @Override
+    public InMemoryGlucoseValue get(int index) {
+        int position = position(index);
+        return new InMemoryGlucoseValue(storage.timestamps[position], storage.values[position], storage.isInterpolated(position));
+    }
+
+    /**
+     * @return index of the oldest value with timestamp >= time, -1 if all values are older
+     */
+    public int findNewer(long time) {
+        int low = start;
+        int high = end;
+        // first position with timestamp >= time
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (storage.timestamps[mid] < time) low = mid + 1;
+            else high = mid;
+        }
+        return low == end ? -1 : end - 1 - low;
+    }
+
+    /**
+     * @return index of the newest value with timestamp <= time, -1 if all values are newer
+     */
+    public int findOlder(long time) {
+        int low = start;
+        int high = end;
+        // first position with timestamp > time
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (storage.timestamps[mid] <= time) low = mid + 1;
+            else high = mid;
+        }
+        return low == start ? -1 : end - low;
+    }
+
+    /**
+     * Compares this series to previous state of the same series
+     *
+     * @return number of values added since previous if this series is previous
+     * with newer values appended and some oldest values possibly dropped, -1 otherwise
+     */
+    public int countAddedSince(GlucoseSeries previous) {
+        if (previous.size() == 0) return -1;
+        int added = findNewer(previous.getTimestamp(0));
+        if (added < 0) return -1;
+        int common = size() - added;
+        if (common > previous.size()) return -1;
+        for (int index = 0; index < common; index++) {
+            if (getTimestamp(added + index) != previous.getTimestamp(index)) return -1;
+            if (Double.compare(getValue(added + index), previous.getValue(index)) != 0) return -1;
+        }
+        return added;
+    }
+
+    /**
+     * @return series without 'count' oldest values
+     */
+    public GlucoseSeries dropOldest(int count) {
+        if (count == 0) return this;
+        if (count < 0 || count > size())
+            throw new IndexOutOfBoundsException("Count: " + count + " Size: " + size());
+        return new GlucoseSeries(storage, start + count, end);
+    }
+
+    /**
+     * @param newer values newer than newest value of this series
+     * @return series with newer values appended
+     */
+    public GlucoseSeries append(Builder newer) {
+        int count = newer.size();
+        if (count == 0) return this;
+        if (size() > 0 && newer.getTimestamp(count - 1) <= storage.timestamps[end - 1])
+            throw new IllegalArgumentException("Appended values must be newer");
+        Storage target = storage;
+        int from = end;
+        synchronized (storage) {
+            if (storage.used == end && end + count <= storage.timestamps.length)
+                storage.used = end + count;
+            else
+                target = null;
+        }
+        if (target == null) {
+            // storage is full or already extended by another series
+            target = new Storage((size() + count) * 2 + MIN_CAPACITY);
+            for (int position = start; position < end; position++)
+                target.set(position - start, storage.timestamps[position], storage.values[position], storage.isInterpolated(position));
+            from = size();
+            target.used = from + count;
+        }
+        for (int index = count - 1; index >= 0; index--)
+            target.set(from + count - 1 - index, newer.timestamps[index], newer.values[index], newer.interpolated.get(index));
+        return new GlucoseSeries(target, target == storage ? start : 0, from + count);
+    }
+
+    /**
+     * Collects values newest first as bucketing produces them
+     */
+    public static final class Builder {
+        private long[] timestamps = new long[64];
+        private double[] values = new double[64];
+        private final BitSet interpolated = new BitSet();
+        private int size = 0;
+
+        public void add(long timestamp, double value, boolean isInterpolated) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            interpolated.set(size, isInterpolated);
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getTimestamp(int index) {
+            return timestamps[index];
+        }
+
+        public void setTimestamp(int index, long timestamp) {
+            timestamps[index] = timestamp;
+        }
+
+        public double getValue(int index) {
+            return values[index];
+        }
+
+        public void setValue(int index, double value) {
+            values[index] = value;
+        }
+
+        public void removeOldest() {
+            interpolated.clear(--size);
+        }
+
+        public GlucoseSeries build() {
+            Storage storage = new Storage(size + MIN_CAPACITY);
+            for (int index = 0; index < size; index++)
+                storage.set(size - 1 - index, timestamps[index], values[index], interpolated.get(index));
+            storage.used = size;
+            return new GlucoseSeries(storage, 0, size);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import androidx.collection.LongSparseArray;
 
 import org.json.JSONArray;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -39,6 +40,7 @@ import info.nightscout.androidaps.logging.LTag;
 import info.nightscout.androidaps.plugins.bus.RxBusWrapper;
 import info.nightscout.androidaps.interfaces.ProfileFunction;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.data.AutosensData;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.events.EventAutosensCalculationFinished;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.events.EventNewHistoryBgData;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.events.EventNewHistoryData;
 import info.nightscout.androidaps.plugins.sensitivity.SensitivityAAPSPlugin;
@@ -59,6 +61,18 @@ import static info.nightscout.androidaps.utils.DateUtil.now;
 
 @Singleton
 public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculatorInterface {
+    // preferences used by calculation, change invalidates all cached data
+    static final int[] CALCULATION_PREFERENCES = {
+            R.string.key_openapsama_autosens_period,
+            R.string.key_age,
+            R.string.key_absorption_maxtime,
+            R.string.key_openapsama_min_5m_carbimpact,
+            R.string.key_absorption_cutoff,
+            R.string.key_openapsama_autosens_max,
+            R.string.key_openapsama_autosens_min,
+            R.string.key_insulin_oref_peak
+    };
+
     private final HasAndroidInjector injector;
     private final SP sp;
     private final RxBusWrapper rxBus;
@@ -71,13 +85,18 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
     private final SensitivityWeightedAveragePlugin sensitivityWeightedAveragePlugin;
     private final FabricPrivacy fabricPrivacy;
     private final DateUtil dateUtil;
+    private final IobCobSnapshot snapshot;
 
     private CompositeDisposable disposable = new CompositeDisposable();
 
+    // caches filled on demand by calculation and readers, guarded by cacheLock
     private LongSparseArray<IobTotal> iobTable = new LongSparseArray<>(); // oldest at index 0
     private LongSparseArray<IobTotal> absIobTable = new LongSparseArray<>(); // oldest at index 0, absolute insulin in the body
-    private LongSparseArray<AutosensData> autosensDataTable = new LongSparseArray<>(); // oldest at index 0
     private LongSparseArray<BasalData> basalDataTable = new LongSparseArray<>(); // oldest at index 0
+    // incremented on invalidation, values calculated before are not cached
+    private long cacheGeneration = 0;
+    // calculated data, never modified after publishing. Calculation works on a copy and replaces it
+    private volatile LongSparseArray<AutosensData> autosensDataTable = new LongSparseArray<>(); // oldest at index 0
 
     // we need to make sure that bucketed_data will always have the same timestamp for correct use of cached values
     // once referenceTime != null all bucketed data should be (x * 5min) from referenceTime
@@ -85,9 +104,21 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
     private Boolean lastUsed5minCalculation = null; // true if used 5min bucketed data
 
     private volatile List<BgReading> bgReadings = null; // newest at index 0
-    private volatile List<InMemoryGlucoseValue> bucketed_data = null;
-
+    private volatile GlucoseSeries readings = null; // bgReadings in primitive columns
+    private volatile GlucoseSeries bucketed_data = null;
+    // readings and mode bucketed_data was created from, new readings are added to bucketed_data incrementally
+    private GlucoseSeries bucketedReadings = null;
+    private boolean bucketedRecalculated = false;
+    // bgReadings contain all valid readings up to now, only newer readings may be missing
+    private boolean bgDataUpToDate = false;
+    // only instance attached to rxBus keeps snapshot, previous run is restored before first calculation
+    private boolean snapshotEnabled = false;
+    private boolean snapshotPending = false;
+    private long lastSnapshotSave = 0;
+
+    // serializes calculation and invalidation, readers don't need it
     private final Object dataLock = new Object();
+    private final Object cacheLock = new Object();
 
     boolean stopCalculationTrigger = false;
     private Thread thread = null;
@@ -106,7 +137,8 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
             SensitivityAAPSPlugin sensitivityAAPSPlugin,
             SensitivityWeightedAveragePlugin sensitivityWeightedAveragePlugin,
             FabricPrivacy fabricPrivacy,
-            DateUtil dateUtil
+            DateUtil dateUtil,
+            IobCobSnapshot snapshot
     ) {
         super(new PluginDescription()
                         .mainType(PluginType.GENERAL)
@@ -128,11 +160,16 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
         this.sensitivityWeightedAveragePlugin = sensitivityWeightedAveragePlugin;
         this.fabricPrivacy = fabricPrivacy;
         this.dateUtil = dateUtil;
+        this.snapshot = snapshot;
     }
 
     @Override
     protected void onStart() {
         super.onStart();
+        synchronized (dataLock) {
+            snapshotEnabled = true;
+            snapshotPending = true;
+        }
         // EventConfigBuilderChange
         disposable.add(rxBus
                 .toObservable(EventConfigBuilderChange.class)
@@ -176,21 +213,16 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
                 .toObservable(EventPreferenceChange.class)
                 .observeOn(Schedulers.io())
                 .subscribe(event -> {
-                    if (event.isChanged(resourceHelper, R.string.key_openapsama_autosens_period) ||
-                            event.isChanged(resourceHelper, R.string.key_age) ||
-                            event.isChanged(resourceHelper, R.string.key_absorption_maxtime) ||
-                            event.isChanged(resourceHelper, R.string.key_openapsama_min_5m_carbimpact) ||
-                            event.isChanged(resourceHelper, R.string.key_absorption_cutoff) ||
-                            event.isChanged(resourceHelper, R.string.key_openapsama_autosens_max) ||
-                            event.isChanged(resourceHelper, R.string.key_openapsama_autosens_min) ||
-                            event.isChanged(resourceHelper, R.string.key_insulin_oref_peak)
-                    ) {
-                        stopCalculation("onEventPreferenceChange");
-                        synchronized (dataLock) {
-                            getAapsLogger().debug(LTag.AUTOSENS, "Invalidating cached data because of preference change.");
-                            resetData();
+                    for (int key : CALCULATION_PREFERENCES) {
+                        if (event.isChanged(resourceHelper, key)) {
+                            stopCalculation("onEventPreferenceChange");
+                            synchronized (dataLock) {
+                                getAapsLogger().debug(LTag.AUTOSENS, "Invalidating cached data because of preference change.");
+                                resetData();
+                            }
+                            runCalculation("onEventPreferenceChange", System.currentTimeMillis(), false, true, event);
+                            break;
                         }
-                        runCalculation("onEventPreferenceChange", System.currentTimeMillis(), false, true, event);
                     }
                 }, fabricPrivacy::logException)
         );
@@ -212,27 +244,46 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
                 .observeOn(Schedulers.io())
                 .subscribe(event -> newHistoryData(new EventNewHistoryData(event.getTimestamp()), true), fabricPrivacy::logException)
         );
+        // EventAutosensCalculationFinished
+        disposable.add(rxBus
+                .toObservable(EventAutosensCalculationFinished.class)
+                .observeOn(Schedulers.io())
+                .subscribe(event -> saveSnapshot(false), fabricPrivacy::logException)
+        );
     }
 
     @Override
     protected void onStop() {
         disposable.clear();
+        saveSnapshot(true);
         super.onStop();
     }
 
+    /**
+     * @return latest complete calculation, must not be modified
+     */
     public LongSparseArray<AutosensData> getAutosensDataTable() {
         return autosensDataTable;
     }
 
+    /**
+     * Publish calculated data. Table must not be modified after that
+     */
+    void setAutosensDataTable(LongSparseArray<AutosensData> autosensDataTable) {
+        this.autosensDataTable = autosensDataTable;
+    }
+
     public List<BgReading> getBgReadings() {
         return bgReadings;
     }
 
     public void setBgReadings(List<BgReading> bgReadings) {
+        this.readings = bgReadings != null ? GlucoseSeries.of(bgReadings) : null;
         this.bgReadings = bgReadings;
+        this.bgDataUpToDate = false;
     }
 
-    public List<InMemoryGlucoseValue> getBucketedData() {
+    public GlucoseSeries getBucketedData() {
         return bucketed_data;
     }
 
@@ -267,49 +318,131 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
         if (profile != null) dia = profile.getDia();
         long start = to - T.hours((long) (24 + dia)).msecs();
         if (DateUtil.isCloseToNow(to)) {
+            if (bgDataUpToDate && loadNewBgData(start))
+                return;
             // if close to now expect there can be some readings with time in close future (caused by wrong time setting)
             // so read all records
-            bgReadings = MainApp.getDbHelper().getBgreadingsDataFromTime(start, false);
+            setBgReadings(MainApp.getDbHelper().getBgreadingsDataFromTime(start, false));
+            bgDataUpToDate = true;
             getAapsLogger().debug(LTag.AUTOSENS, "BG data loaded. Size: " + bgReadings.size() + " Start date: " + dateUtil.dateAndTimeString(start));
         } else {
-            bgReadings = MainApp.getDbHelper().getBgreadingsDataFromTime(start, to, false);
+            setBgReadings(MainApp.getDbHelper().getBgreadingsDataFromTime(start, to, false));
+            bgDataUpToDate = false;
             getAapsLogger().debug(LTag.AUTOSENS, "BG data loaded. Size: " + bgReadings.size() + " Start date: " + dateUtil.dateAndTimeString(start) + " End date: " + dateUtil.dateAndTimeString(to));
         }
     }
 
+    /**
+     * Read from database only readings newer than already loaded ones and drop readings older than start
+     *
+     * @return false if full reload is needed
+     */
+    private boolean loadNewBgData(long start) {
+        List<BgReading> loaded = bgReadings;
+        GlucoseSeries loadedReadings = readings;
+        if (loaded == null || loaded.isEmpty() || loadedReadings == null)
+            return false;
+        int kept = loaded.size();
+        while (kept > 0 && loaded.get(kept - 1).date < start) kept--;
+        // readings inserted out of order (backfill) are older than the newest loaded one
+        if (MainApp.getDbHelper().countBgreadingsDataFromTime(start, loaded.get(0).date) != kept) {
+            getAapsLogger().debug(LTag.AUTOSENS, "BG data inserted out of order, reloading");
+            return false;
+        }
+        List<BgReading> newer = MainApp.getDbHelper().getBgreadingsDataFromTime(loaded.get(0).date + 1, false);
+
+        List<BgReading> merged = new ArrayList<>(newer.size() + kept);
+        merged.addAll(newer);
+        merged.addAll(loaded.subList(0, kept));
+        GlucoseSeries.Builder added = new GlucoseSeries.Builder();
+        for (BgReading reading : newer)
+            added.add(reading.date, reading.value, false);
+        readings = loadedReadings.append(added).dropOldest(loaded.size() - kept);
+        bgReadings = merged;
+        getAapsLogger().debug(LTag.AUTOSENS, "BG data updated. Size: " + merged.size() + " New: " + newer.size() + " Dropped: " + (loaded.size() - kept) + " Start date: " + dateUtil.dateAndTimeString(start));
+        return true;
+    }
+
     public boolean isAbout5minData() {
-        synchronized (dataLock) {
-            if (bgReadings == null || bgReadings.size() < 3) {
-                return true;
-            }
-            long totalDiff = 0;
-            for (int i = 1; i < bgReadings.size(); ++i) {
-                long bgTime = bgReadings.get(i).date;
-                long lastbgTime = bgReadings.get(i - 1).date;
-                long diff = lastbgTime - bgTime;
-                diff %= T.mins(5).msecs();
-                if (diff > T.mins(2).plus(T.secs(30)).msecs())
-                    diff = diff - T.mins(5).msecs();
-                totalDiff += diff;
-                diff = Math.abs(diff);
-                if (diff > T.secs(30).msecs()) {
-                    getAapsLogger().debug(LTag.AUTOSENS, "Interval detection: values: " + bgReadings.size() + " diff: " + (diff / 1000) + "[s] is5minData: " + false);
-                    return false;
-                }
+        GlucoseSeries readings = this.readings;
+        if (readings == null || readings.size() < 3) {
+            return true;
+        }
+        long totalDiff = 0;
+        for (int i = 1; i < readings.size(); ++i) {
+            long bgTime = readings.getTimestamp(i);
+            long lastbgTime = readings.getTimestamp(i - 1);
+            long diff = lastbgTime - bgTime;
+            diff %= T.mins(5).msecs();
+            if (diff > T.mins(2).plus(T.secs(30)).msecs())
+                diff = diff - T.mins(5).msecs();
+            totalDiff += diff;
+            diff = Math.abs(diff);
+            if (diff > T.secs(30).msecs()) {
+                getAapsLogger().debug(LTag.AUTOSENS, "Interval detection: values: " + readings.size() + " diff: " + (diff / 1000) + "[s] is5minData: " + false);
+                return false;
             }
-            long averageDiff = totalDiff / bgReadings.size() / 1000;
-            boolean is5mindata = averageDiff < 1;
-            getAapsLogger().debug(LTag.AUTOSENS, "Interval detection: values: " + bgReadings.size() + " averageDiff: " + averageDiff + "[s] is5minData: " + is5mindata);
-            return is5mindata;
         }
+        long averageDiff = totalDiff / readings.size() / 1000;
+        boolean is5mindata = averageDiff < 1;
+        getAapsLogger().debug(LTag.AUTOSENS, "Interval detection: values: " + readings.size() + " averageDiff: " + averageDiff + "[s] is5minData: " + is5mindata);
+        return is5mindata;
     }
 
     private void resetData() {
         synchronized (dataLock) {
-            iobTable = new LongSparseArray<>();
+            synchronized (cacheLock) {
+                iobTable = new LongSparseArray<>();
+                basalDataTable = new LongSparseArray<>();
+                absIobTable = new LongSparseArray<>();
+                cacheGeneration++;
+            }
             autosensDataTable = new LongSparseArray<>();
-            basalDataTable = new LongSparseArray<>();
-            absIobTable = new LongSparseArray<>();
+            snapshotPending = false;
+            if (snapshotEnabled) snapshot.delete();
+        }
+    }
+
+    // must be called inside dataLock
+    private void restoreSnapshot() {
+        if (!snapshotPending) return;
+        snapshotPending = false;
+        IobCobSnapshot.State state = snapshot.restore();
+        if (state == null) return;
+        referenceTime = state.referenceTime;
+        lastUsed5minCalculation = state.fiveMinData;
+        synchronized (cacheLock) {
+            iobTable = state.iobTable;
+            absIobTable = state.absIobTable;
+            basalDataTable = state.basalDataTable;
+            cacheGeneration++;
+        }
+        autosensDataTable = state.autosensDataTable;
+    }
+
+    // limited to one write per SAVE_INTERVAL, not every calculation has to survive restart
+    private void saveSnapshot(boolean force) {
+        IobCobSnapshot.State state = new IobCobSnapshot.State();
+        synchronized (dataLock) {
+            if (!snapshotEnabled || snapshotPending) return;
+            long now = DateUtil.now();
+            if (!force && now - lastSnapshotSave < IobCobSnapshot.SAVE_INTERVAL) return;
+            lastSnapshotSave = now;
+            state.referenceTime = referenceTime;
+            state.fiveMinData = lastUsed5minCalculation;
+            synchronized (cacheLock) {
+                state.iobTable = iobTable.clone();
+                state.absIobTable = absIobTable.clone();
+                state.basalDataTable = basalDataTable.clone();
+            }
+            state.autosensDataTable = autosensDataTable;
+            // history stored after the lock is released is not in the tables and must not be hashed
+            snapshot.hashHistory(state);
+        }
+        try {
+            snapshot.save(snapshot.write(state));
+        } catch (IOException e) {
+            getAapsLogger().error(LTag.AUTOSENS, "Unhandled exception", e);
         }
     }
 
@@ -321,151 +454,227 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
             resetData();
         }
         lastUsed5minCalculation = fiveMinData;
-        if (isAbout5minData())
-            createBucketedData5min();
-        else
-            createBucketedDataRecalculated();
+        GlucoseSeries readings = this.readings;
+        if (readings == null || readings.size() < 3) {
+            bucketed_data = null;
+            bucketedReadings = null;
+            return;
+        }
+        if (!extendBucketedData(readings, fiveMinData)) {
+            if (fiveMinData)
+                createBucketedData5min(readings);
+            else
+                createBucketedDataRecalculated(readings);
+        }
+        bucketedReadings = readings;
     }
 
     @Nullable
     public BgReading findNewer(long time) {
-        BgReading lastFound = bgReadings.get(0);
-        if (lastFound.date < time) return null;
-        for (int i = 1; i < bgReadings.size(); ++i) {
-            if (bgReadings.get(i).date == time) return bgReadings.get(i);
-            if (bgReadings.get(i).date > time) continue;
-            lastFound = bgReadings.get(i - 1);
-            if (bgReadings.get(i).date < time) break;
-        }
-        return lastFound;
+        int index = readings.findNewer(time);
+        return index >= 0 ? bgReadings.get(index) : null;
     }
 
     @Nullable
     public BgReading findOlder(long time) {
-        BgReading lastFound = bgReadings.get(bgReadings.size() - 1);
-        if (lastFound.date > time) return null;
-        for (int i = bgReadings.size() - 2; i >= 0; --i) {
-            if (bgReadings.get(i).date == time) return bgReadings.get(i);
-            if (bgReadings.get(i).date < time) continue;
-            lastFound = bgReadings.get(i + 1);
-            if (bgReadings.get(i).date > time) break;
-        }
-        return lastFound;
+        int index = readings.findOlder(time);
+        return index >= 0 ? bgReadings.get(index) : null;
     }
 
-    private void createBucketedDataRecalculated() {
-        if (bgReadings == null || bgReadings.size() < 3) {
-            bucketed_data = null;
-            return;
+    /**
+     * Bucketed data is rebuilt from all readings only if something else than adding new readings
+     * and dropping the oldest happened since the last call. Otherwise only new buckets are calculated
+     * and appended, timestamps of existing buckets are kept.
+     *
+     * @return false if full recalculation is needed
+     */
+    private boolean extendBucketedData(GlucoseSeries readings, boolean fiveMinData) {
+        GlucoseSeries previous = bucketed_data;
+        GlucoseSeries previousReadings = bucketedReadings;
+        if (previous == null || previous.size() == 0 || previousReadings == null || referenceTime == null)
+            return false;
+        if (bucketedRecalculated == fiveMinData) return false;
+        int added = readings.countAddedSince(previousReadings);
+        if (added < 0) return false;
+        int dropped = previousReadings.size() - (readings.size() - added);
+        if (added == 0 && dropped == 0) return true;
+
+        GlucoseSeries extended;
+        if (fiveMinData)
+            extended = extendBucketedData5min(previous, readings, previousReadings, added, dropped);
+        else
+            extended = extendBucketedDataRecalculated(previous, readings);
+        if (extended == null) return false;
+        bucketed_data = extended;
+        getAapsLogger().debug(LTag.AUTOSENS, "Bucketed data extended. Added readings: " + added + " Dropped readings: " + dropped + " Size: " + extended.size());
+        return true;
+    }
+
+    // Adds value at 'time' interpolated from closest readings. Returns false if time is out of readings range
+    private static boolean addRecalculatedBucket(GlucoseSeries readings, long time, GlucoseSeries.Builder data) {
+        int newer = readings.findNewer(time);
+        int older = readings.findOlder(time);
+        if (newer < 0 || older < 0)
+            return false;
+
+        long newerTime = readings.getTimestamp(newer);
+        long olderTime = readings.getTimestamp(older);
+        if (olderTime == newerTime) { // direct hit
+            data.add(newerTime, readings.getValue(newer), false);
+        } else {
+            double bgDelta = readings.getValue(newer) - readings.getValue(older);
+            long timeDiffToNew = newerTime - time;
+
+            double currentBg = readings.getValue(newer) - (double) timeDiffToNew / (newerTime - olderTime) * bgDelta;
+            data.add(time, Math.round(currentBg), true);
         }
+        return true;
+    }
 
-        bucketed_data = new ArrayList<>();
-        long currentTime = bgReadings.get(0).date - bgReadings.get(0).date % T.mins(5).msecs();
+    private void createBucketedDataRecalculated(GlucoseSeries readings) {
+        GlucoseSeries.Builder data = new GlucoseSeries.Builder();
+        long currentTime = readings.getTimestamp(0) - readings.getTimestamp(0) % T.mins(5).msecs();
         currentTime = adjustToReferenceTime(currentTime);
         getAapsLogger().debug("Adjusted time " + dateUtil.dateAndTimeAndSecondsString(currentTime));
-        //log.debug("First reading: " + new Date(currentTime).toLocaleString());
-
-        while (true) {
-            // test if current value is older than current time
-            BgReading newer = findNewer(currentTime);
-            BgReading older = findOlder(currentTime);
-            if (newer == null || older == null)
-                break;
 
-            if (older.date == newer.date) { // direct hit
-                bucketed_data.add(new InMemoryGlucoseValue(newer));
-            } else {
-                double bgDelta = newer.value - older.value;
-                long timeDiffToNew = newer.date - currentTime;
-
-                double currentBg = newer.value - (double) timeDiffToNew / (newer.date - older.date) * bgDelta;
-                InMemoryGlucoseValue newBgreading = new InMemoryGlucoseValue(currentTime, Math.round(currentBg), true);
-                bucketed_data.add(newBgreading);
-                //log.debug("BG: " + newBgreading.value + " (" + new Date(newBgreading.date).toLocaleString() + ") Prev: " + older.value + " (" + new Date(older.date).toLocaleString() + ") Newer: " + newer.value + " (" + new Date(newer.date).toLocaleString() + ")");
-            }
+        while (addRecalculatedBucket(readings, currentTime, data))
             currentTime -= T.mins(5).msecs();
-
-        }
+        bucketed_data = data.build();
+        bucketedRecalculated = true;
     }
 
+    @Nullable
+    private GlucoseSeries extendBucketedDataRecalculated(GlucoseSeries previous, GlucoseSeries readings) {
+        long currentTime = readings.getTimestamp(0) - readings.getTimestamp(0) % T.mins(5).msecs();
+        currentTime = adjustToReferenceTime(currentTime);
+        long previousTime = previous.getTimestamp(0);
+        if (currentTime < previousTime || (currentTime - previousTime) % T.mins(5).msecs() != 0)
+            return null;
+        // buckets older than the oldest reading cannot be interpolated anymore
+        int oldestKept = previous.findNewer(readings.getTimestamp(readings.size() - 1));
+        if (oldestKept < 0)
+            return null;
 
-    private void createBucketedData5min() {
-        if (bgReadings == null || bgReadings.size() < 3) {
-            bucketed_data = null;
-            return;
-        }
+        GlucoseSeries.Builder data = new GlucoseSeries.Builder();
+        for (; currentTime > previousTime; currentTime -= T.mins(5).msecs())
+            if (!addRecalculatedBucket(readings, currentTime, data))
+                return null;
+        return previous.dropOldest(previous.size() - 1 - oldestKept).append(data);
+    }
+
+    // Averaging readings into one bucket happens only if they are max 2 minutes apart
+    private static boolean inSeparateBuckets(GlucoseSeries readings, int newer, int older) {
+        long elapsed_minutes = (readings.getTimestamp(older) - readings.getTimestamp(newer)) / (60 * 1000);
+        return Math.abs(elapsed_minutes) > 2;
+    }
 
-        bucketed_data = new ArrayList<>();
-        bucketed_data.add(new InMemoryGlucoseValue(bgReadings.get(0)));
-        getAapsLogger().debug(LTag.AUTOSENS, "Adding. bgTime: " + DateUtil.toISOString(bgReadings.get(0).date) + " lastbgTime: " + "none-first-value" + " " + bgReadings.get(0).toString());
+    // Buckets of 'count' newest readings with original timestamps
+    private GlucoseSeries.Builder bucketReadings5min(GlucoseSeries readings, int count) {
+        GlucoseSeries.Builder data = new GlucoseSeries.Builder();
+        data.add(readings.getTimestamp(0), readings.getValue(0), false);
+        getAapsLogger().debug(LTag.AUTOSENS, "Adding. bgTime: " + DateUtil.toISOString(readings.getTimestamp(0)) + " lastbgTime: " + "none-first-value" + " " + readings.getValue(0));
         int j = 0;
-        for (int i = 1; i < bgReadings.size(); ++i) {
-            long bgTime = bgReadings.get(i).date;
-            long lastbgTime = bgReadings.get(i - 1).date;
-            //log.error("Processing " + i + ": " + new Date(bgTime).toString() + " " + bgReadings.get(i).value + "   Previous: " + new Date(lastbgTime).toString() + " " + bgReadings.get(i - 1).value);
-            if (bgReadings.get(i).value < 39 || bgReadings.get(i - 1).value < 39) {
+        for (int i = 1; i < count; ++i) {
+            long bgTime = readings.getTimestamp(i);
+            long lastbgTime = readings.getTimestamp(i - 1);
+            if (readings.getValue(i) < 39 || readings.getValue(i - 1) < 39) {
                 throw new IllegalStateException("<39");
             }
 
             long elapsed_minutes = (bgTime - lastbgTime) / (60 * 1000);
             if (Math.abs(elapsed_minutes) > 8) {
                 // interpolate missing data points
-                double lastbg = bgReadings.get(i - 1).value;
+                double lastbg = readings.getValue(i - 1);
                 elapsed_minutes = Math.abs(elapsed_minutes);
-                //console.error(elapsed_minutes);
                 long nextbgTime;
                 while (elapsed_minutes > 5) {
                     nextbgTime = lastbgTime - 5 * 60 * 1000;
                     j++;
-                    double gapDelta = bgReadings.get(i).value - lastbg;
-                    //console.error(gapDelta, lastbg, elapsed_minutes);
+                    double gapDelta = readings.getValue(i) - lastbg;
                     double nextbg = lastbg + (5d / elapsed_minutes * gapDelta);
-                    InMemoryGlucoseValue newBgreading = new InMemoryGlucoseValue(nextbgTime, Math.round(nextbg), true);
-                    //console.error("Interpolated", bucketed_data[j]);
-                    bucketed_data.add(newBgreading);
-                    getAapsLogger().debug(LTag.AUTOSENS, "Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + newBgreading.toString());
+                    data.add(nextbgTime, Math.round(nextbg), true);
+                    getAapsLogger().debug(LTag.AUTOSENS, "Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " interpolated " + Math.round(nextbg));
 
                     elapsed_minutes = elapsed_minutes - 5;
                     lastbg = nextbg;
                     lastbgTime = nextbgTime;
                 }
                 j++;
-                InMemoryGlucoseValue newBgreading = new InMemoryGlucoseValue(bgTime, bgReadings.get(i).value);
-                bucketed_data.add(newBgreading);
-                getAapsLogger().debug(LTag.AUTOSENS, "Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + newBgreading.toString());
+                data.add(bgTime, readings.getValue(i), false);
+                getAapsLogger().debug(LTag.AUTOSENS, "Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + readings.getValue(i));
             } else if (Math.abs(elapsed_minutes) > 2) {
                 j++;
-                InMemoryGlucoseValue newBgreading = new InMemoryGlucoseValue(bgTime, bgReadings.get(i).value);
-                bucketed_data.add(newBgreading);
-                getAapsLogger().debug(LTag.AUTOSENS, "Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + newBgreading.toString());
+                data.add(bgTime, readings.getValue(i), false);
+                getAapsLogger().debug(LTag.AUTOSENS, "Adding. bgTime: " + DateUtil.toISOString(bgTime) + " lastbgTime: " + DateUtil.toISOString(lastbgTime) + " " + readings.getValue(i));
             } else {
-                bucketed_data.get(j).setValue((bucketed_data.get(j).getValue() + bgReadings.get(i).value) / 2);
-                //log.error("***** Average");
+                data.setValue(j, (data.getValue(j) + readings.getValue(i)) / 2);
             }
         }
+        return data;
+    }
 
-        // Normalize bucketed data
-        InMemoryGlucoseValue oldest = bucketed_data.get(bucketed_data.size() - 1);
-        oldest.setTimestamp(adjustToReferenceTime(oldest.getTimestamp()));
-        getAapsLogger().debug("Adjusted time " + dateUtil.dateAndTimeAndSecondsString(oldest.getTimestamp()));
-        for (int i = bucketed_data.size() - 2; i >= 0; i--) {
-            InMemoryGlucoseValue current = bucketed_data.get(i);
-            InMemoryGlucoseValue previous = bucketed_data.get(i + 1);
-            long msecDiff = current.getTimestamp() - previous.getTimestamp();
+    // Moves buckets from index 'from' to newest to exact 5 min steps after 'previousTime'
+    private boolean normalizeBuckets5min(GlucoseSeries.Builder data, int from, long previousTime) {
+        for (int i = from; i >= 0; i--) {
+            long current = data.getTimestamp(i);
+            long msecDiff = current - previousTime;
             long adjusted = (msecDiff - T.mins(5).msecs()) / 1000;
-            getAapsLogger().debug(LTag.AUTOSENS, "Adjusting bucketed data time. Current: " + dateUtil.dateAndTimeAndSecondsString(current.getTimestamp()) + " to: " + dateUtil.dateAndTimeAndSecondsString(previous.getTimestamp() + T.mins(5).msecs()) + " by " + adjusted + " sec");
+            getAapsLogger().debug(LTag.AUTOSENS, "Adjusting bucketed data time. Current: " + dateUtil.dateAndTimeAndSecondsString(current) + " to: " + dateUtil.dateAndTimeAndSecondsString(previousTime + T.mins(5).msecs()) + " by " + adjusted + " sec");
             if (Math.abs(adjusted) > 90) {
                 // too big adjustment, fallback to non 5 min data
                 getAapsLogger().debug(LTag.AUTOSENS, "Fallback to non 5 min data");
-                createBucketedDataRecalculated();
-                return;
+                return false;
             }
-            current.setTimestamp(previous.getTimestamp() + T.mins(5).msecs());
+            previousTime += T.mins(5).msecs();
+            data.setTimestamp(i, previousTime);
         }
+        return true;
+    }
+
+    private void createBucketedData5min(GlucoseSeries readings) {
+        GlucoseSeries.Builder data = bucketReadings5min(readings, readings.size());
+
+        // Normalize bucketed data
+        int oldest = data.size() - 1;
+        data.setTimestamp(oldest, adjustToReferenceTime(data.getTimestamp(oldest)));
+        getAapsLogger().debug("Adjusted time " + dateUtil.dateAndTimeAndSecondsString(data.getTimestamp(oldest)));
+        if (!normalizeBuckets5min(data, oldest - 1, data.getTimestamp(oldest))) {
+            createBucketedDataRecalculated(readings);
+            return;
+        }
+        bucketed_data = data.build();
+        bucketedRecalculated = false;
 
         getAapsLogger().debug(LTag.AUTOSENS, "Bucketed data created. Size: " + bucketed_data.size());
     }
 
+    @Nullable
+    private GlucoseSeries extendBucketedData5min(GlucoseSeries previous, GlucoseSeries readings, GlucoseSeries previousReadings, int added, int dropped) {
+        // previous newest reading must keep its own bucket
+        if (added > 0 && !inSeparateBuckets(readings, added - 1, added))
+            return null;
+        int kept = previous.size();
+        if (dropped > 0) {
+            int oldest = previousReadings.size() - dropped - 1;
+            // oldest kept bucket must not contain average with dropped reading
+            if (!inSeparateBuckets(previousReadings, oldest, oldest + 1))
+                return null;
+            // bucket of oldest reading was moved max 90 sec, older buckets are at least 5 min older
+            kept = previous.findNewer(previousReadings.getTimestamp(oldest) - T.secs(150).msecs()) + 1;
+            if (kept <= 0)
+                return null;
+        }
+        GlucoseSeries extended = previous.dropOldest(previous.size() - kept);
+        if (added == 0)
+            return extended;
+
+        GlucoseSeries.Builder data = bucketReadings5min(readings, added + 1);
+        data.removeOldest(); // previous newest reading is already bucketed
+        if (!normalizeBuckets5min(data, data.size() - 1, previous.getTimestamp(0)))
+            return null;
+        return extended.append(data);
+    }
+
     long calculateDetectionStart(long from, boolean limitDataToOldestAvailable) {
         Profile profile = profileFunction.getProfile(from);
         double dia = Constants.defaultDIA;
@@ -482,26 +691,24 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
         return getBGDataFrom;
     }
 
+    // Doesn't wait for running calculation, cache is locked only for lookup
     public IobTotal calculateFromTreatmentsAndTempsSynchronized(long time, Profile profile) {
-        synchronized (dataLock) {
-            return calculateFromTreatmentsAndTemps(time, profile);
-        }
-    }
-
-    private IobTotal calculateFromTreatmentsAndTempsSynchronized(long time, AutosensResult lastAutosensResult, boolean exercise_mode, int half_basal_exercise_target, boolean isTempTarget) {
-        synchronized (dataLock) {
-            return calculateFromTreatmentsAndTemps(time, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget);
-        }
+        return calculateFromTreatmentsAndTemps(time, profile);
     }
 
     IobTotal calculateFromTreatmentsAndTemps(long time, Profile profile) {
         long now = System.currentTimeMillis();
         time = roundUpTime(time);
-        if (time < now && iobTable.get(time) != null) {
-            //og.debug(">>> calculateFromTreatmentsAndTemps Cache hit " + new Date(time).toLocaleString());
-            return iobTable.get(time);
-        } else {
-            //log.debug(">>> calculateFromTreatmentsAndTemps Cache miss " + new Date(time).toLocaleString());
+        long generation;
+        synchronized (cacheLock) {
+            IobTotal cached = iobTable.get(time);
+            if (time < now && cached != null) {
+                //og.debug(">>> calculateFromTreatmentsAndTemps Cache hit " + new Date(time).toLocaleString());
+                return cached;
+            } else {
+                //log.debug(">>> calculateFromTreatmentsAndTemps Cache miss " + new Date(time).toLocaleString());
+            }
+            generation = cacheGeneration;
         }
         IobTotal bolusIob = treatmentsPlugin.getCalculationToTimeTreatments(time).round();
         IobTotal basalIob = treatmentsPlugin.getCalculationToTimeTempBasals(time, true, now).round();
@@ -521,30 +728,37 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
 
         IobTotal iobTotal = IobTotal.combine(bolusIob, basalIob).round();
         if (time < System.currentTimeMillis()) {
-            iobTable.put(time, iobTotal);
+            synchronized (cacheLock) {
+                if (generation == cacheGeneration) iobTable.put(time, iobTotal);
+            }
         }
         return iobTotal;
     }
 
     public IobTotal calculateAbsInsulinFromTreatmentsAndTempsSynchronized(long time, Profile profile) {
-        synchronized (dataLock) {
-            long now = System.currentTimeMillis();
-            time = roundUpTime(time);
-            if (time < now && absIobTable.get(time) != null) {
+        long now = System.currentTimeMillis();
+        time = roundUpTime(time);
+        long generation;
+        synchronized (cacheLock) {
+            IobTotal cached = absIobTable.get(time);
+            if (time < now && cached != null) {
                 //og.debug(">>> calculateFromTreatmentsAndTemps Cache hit " + new Date(time).toLocaleString());
-                return absIobTable.get(time);
+                return cached;
             } else {
                 //log.debug(">>> calculateFromTreatmentsAndTemps Cache miss " + new Date(time).toLocaleString());
             }
-            IobTotal bolusIob = treatmentsPlugin.getCalculationToTimeTreatments(time).round();
-            IobTotal basalIob = treatmentsPlugin.getAbsoluteIOBTempBasals(time).round();
+            generation = cacheGeneration;
+        }
+        IobTotal bolusIob = treatmentsPlugin.getCalculationToTimeTreatments(time).round();
+        IobTotal basalIob = treatmentsPlugin.getAbsoluteIOBTempBasals(time).round();
 
-            IobTotal iobTotal = IobTotal.combine(bolusIob, basalIob).round();
-            if (time < System.currentTimeMillis()) {
-                absIobTable.put(time, iobTotal);
+        IobTotal iobTotal = IobTotal.combine(bolusIob, basalIob).round();
+        if (time < System.currentTimeMillis()) {
+            synchronized (cacheLock) {
+                if (generation == cacheGeneration) absIobTable.put(time, iobTotal);
             }
-            return iobTotal;
         }
+        return iobTotal;
     }
 
     private IobTotal calculateFromTreatmentsAndTemps(long time, AutosensResult lastAutosensResult, boolean exercise_mode, int half_basal_exercise_target, boolean isTempTarget) {
@@ -574,62 +788,67 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
 
     @Nullable
     public Long findPreviousTimeFromBucketedData(long time) {
-        if (bucketed_data == null)
+        GlucoseSeries data = bucketed_data;
+        if (data == null)
             return null;
-        for (int index = 0; index < bucketed_data.size(); index++) {
-            if (bucketed_data.get(index).getTimestamp() <= time)
-                return bucketed_data.get(index).getTimestamp();
-        }
-        return null;
+        int index = data.findOlder(time);
+        return index >= 0 ? data.getTimestamp(index) : null;
     }
 
     public BasalData getBasalData(Profile profile, long time) {
-        synchronized (dataLock) {
-            long now = System.currentTimeMillis();
-            time = roundUpTime(time);
-            BasalData retval = basalDataTable.get(time);
-            if (retval == null) {
-                retval = new BasalData();
-                TemporaryBasal tb = treatmentsPlugin.getTempBasalFromHistory(time);
-                retval.basal = profile.getBasal(time);
-                if (tb != null) {
-                    retval.isTempBasalRunning = true;
-                    retval.tempBasalAbsolute = tb.tempBasalConvertedToAbsolute(time, profile);
-                } else {
-                    retval.isTempBasalRunning = false;
-                    retval.tempBasalAbsolute = retval.basal;
-                }
-                if (time < now) {
-                    basalDataTable.append(time, retval);
-                }
-                //log.debug(">>> getBasalData Cache miss " + new Date(time).toLocaleString());
-            } else {
+        long now = System.currentTimeMillis();
+        time = roundUpTime(time);
+        long generation;
+        synchronized (cacheLock) {
+            BasalData cached = basalDataTable.get(time);
+            if (cached != null) {
                 //log.debug(">>> getBasalData Cache hit " +  new Date(time).toLocaleString());
+                return cached;
             }
-            return retval;
+            generation = cacheGeneration;
         }
+        BasalData retval = new BasalData();
+        TemporaryBasal tb = treatmentsPlugin.getTempBasalFromHistory(time);
+        retval.basal = profile.getBasal(time);
+        if (tb != null) {
+            retval.isTempBasalRunning = true;
+            retval.tempBasalAbsolute = tb.tempBasalConvertedToAbsolute(time, profile);
+        } else {
+            retval.isTempBasalRunning = false;
+            retval.tempBasalAbsolute = retval.basal;
+        }
+        if (time < now) {
+            synchronized (cacheLock) {
+                if (generation == cacheGeneration) basalDataTable.put(time, retval);
+            }
+        }
+        //log.debug(">>> getBasalData Cache miss " + new Date(time).toLocaleString());
+        return retval;
     }
 
     @Nullable
     public AutosensData getAutosensData(long time) {
-        synchronized (dataLock) {
-            long now = System.currentTimeMillis();
-            if (time > now) {
-                return null;
-            }
-            Long previous = findPreviousTimeFromBucketedData(time);
-            if (previous == null) {
-                return null;
-            }
-            time = roundUpTime(previous);
-            AutosensData data = autosensDataTable.get(time);
-            if (data != null) {
-                //log.debug(">>> AUTOSENSDATA Cache hit " + data.toString());
-                return data;
-            } else {
-                //log.debug(">>> AUTOSENSDATA Cache miss " + new Date(time).toLocaleString());
-                return null;
-            }
+        return getAutosensData(autosensDataTable, time);
+    }
+
+    @Nullable
+    AutosensData getAutosensData(LongSparseArray<AutosensData> autosensDataTable, long time) {
+        long now = System.currentTimeMillis();
+        if (time > now) {
+            return null;
+        }
+        Long previous = findPreviousTimeFromBucketedData(time);
+        if (previous == null) {
+            return null;
+        }
+        time = roundUpTime(previous);
+        AutosensData data = autosensDataTable.get(time);
+        if (data != null) {
+            //log.debug(">>> AUTOSENSDATA Cache hit " + data.toString());
+            return data;
+        } else {
+            //log.debug(">>> AUTOSENSDATA Cache miss " + new Date(time).toLocaleString());
+            return null;
         }
     }
 
@@ -643,9 +862,7 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
             }
             getAapsLogger().debug(LTag.AUTOSENS, "AUTOSENSDATA finished waiting for calculation thread: " + reason);
         }
-        synchronized (dataLock) {
-            return getLastAutosensData(reason);
-        }
+        return getLastAutosensData(reason);
     }
 
 
@@ -680,32 +897,23 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
         double sum = 0;
         int count = 0;
         int valuesToProcess = timeInMinutes / 5;
-        synchronized (dataLock) {
-            for (int i = autosensDataTable.size() - 1; i >= 0 && count < valuesToProcess; i--) {
-                if (autosensDataTable.valueAt(i).failoverToMinAbsorbtionRate)
-                    sum++;
-                count++;
-            }
+        LongSparseArray<AutosensData> autosensDataTable = this.autosensDataTable;
+        for (int i = autosensDataTable.size() - 1; i >= 0 && count < valuesToProcess; i--) {
+            if (autosensDataTable.valueAt(i).failoverToMinAbsorbtionRate)
+                sum++;
+            count++;
         }
         return sum / count;
     }
 
     @Nullable
     public AutosensData getLastAutosensData(String reason) {
+        LongSparseArray<AutosensData> autosensDataTable = this.autosensDataTable;
         if (autosensDataTable.size() < 1) {
             getAapsLogger().debug(LTag.AUTOSENS, "AUTOSENSDATA null: autosensDataTable empty (" + reason + ")");
             return null;
         }
-        AutosensData data;
-        try {
-            data = autosensDataTable.valueAt(autosensDataTable.size() - 1);
-        } catch (Exception e) {
-            // data can be processed on the background
-            // in this rare case better return null and do not block UI
-            // APS plugin should use getLastAutosensDataSynchronized where the blocking is not an issue
-            getAapsLogger().error("AUTOSENSDATA null: Exception catched (" + reason + ")");
-            return null;
-        }
+        AutosensData data = autosensDataTable.valueAt(autosensDataTable.size() - 1);
         if (data == null) {
             getAapsLogger().error("AUTOSENSDATA null: data==null");
             return null;
@@ -721,6 +929,10 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
 
     @Override
     public String lastDataTime() {
+        return lastDataTime(autosensDataTable);
+    }
+
+    private String lastDataTime(LongSparseArray<AutosensData> autosensDataTable) {
         if (autosensDataTable.size() > 0)
             return dateUtil.dateAndTimeAndSecondsString(autosensDataTable.valueAt(autosensDataTable.size() - 1).time);
         else
@@ -799,7 +1011,7 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
         int pos = 0;
         for (int i = 0; i < len; i++) {
             long t = now + i * 5 * 60000;
-            IobTotal iob = calculateFromTreatmentsAndTempsSynchronized(t, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget);
+            IobTotal iob = calculateFromTreatmentsAndTemps(t, lastAutosensResult, exercise_mode, half_basal_exercise_target, isTempTarget);
             array[pos] = iob;
             pos++;
         }
@@ -817,10 +1029,31 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
         return sb.toString();
     }
 
-    AutosensResult detectSensitivityWithLock(long fromTime, long toTime) {
-        synchronized (dataLock) {
-            return activePlugin.getActiveSensitivity().detectSensitivity(this, fromTime, toTime);
-        }
+    /**
+     * Run sensitivity detection on data of calculation in progress
+     */
+    AutosensResult detectSensitivity(LongSparseArray<AutosensData> autosensDataTable, long fromTime, long toTime) {
+        return activePlugin.getActiveSensitivity().detectSensitivity(new IobCobCalculatorInterface() {
+            @Override
+            public LongSparseArray<AutosensData> getAutosensDataTable() {
+                return autosensDataTable;
+            }
+
+            @Override
+            public IobTotal[] calculateIobArrayInDia(Profile profile) {
+                return IobCobCalculatorPlugin.this.calculateIobArrayInDia(profile);
+            }
+
+            @Override
+            public String lastDataTime() {
+                return IobCobCalculatorPlugin.this.lastDataTime(autosensDataTable);
+            }
+
+            @Override
+            public AutosensData getAutosensData(long toTime) {
+                return IobCobCalculatorPlugin.this.getAutosensData(autosensDataTable, toTime);
+            }
+        }, fromTime, toTime);
     }
 
     public static JSONArray convertToJSONArray(IobTotal[] iobArray) {
@@ -845,6 +1078,9 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
     public void runCalculation(String from, long end, boolean bgDataReload, boolean limitDataToOldestAvailable, Event cause) {
         getAapsLogger().debug(LTag.AUTOSENS, "Starting calculation thread: " + from + " to " + dateUtil.dateAndTimeAndSecondsString(end));
         if (thread == null || thread.getState() == Thread.State.TERMINATED) {
+            synchronized (dataLock) {
+                restoreSnapshot();
+            }
             if (sensitivityOref1Plugin.isEnabled())
                 thread = new IobCobOref1Thread(injector, this, treatmentsPlugin, from, end, bgDataReload, limitDataToOldestAvailable, cause);
             else
@@ -858,25 +1094,40 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
         //log.debug("Locking onNewHistoryData");
         stopCalculation("onEventNewHistoryData");
         synchronized (dataLock) {
+            restoreSnapshot();
+            if (bgDataReload) bgDataUpToDate = false;
             // clear up 5 min back for proper COB calculation
             long time = ev.getTime() - 5 * 60 * 1000L;
             getAapsLogger().debug(LTag.AUTOSENS, "Invalidating cached data to: " + dateUtil.dateAndTimeAndSecondsString(time));
-            for (int index = iobTable.size() - 1; index >= 0; index--) {
-                if (iobTable.keyAt(index) > time) {
-                    getAapsLogger().debug(LTag.AUTOSENS, "Removing from iobTable: " + dateUtil.dateAndTimeAndSecondsString(iobTable.keyAt(index)));
-                    iobTable.removeAt(index);
-                } else {
-                    break;
+            synchronized (cacheLock) {
+                cacheGeneration++;
+                for (int index = iobTable.size() - 1; index >= 0; index--) {
+                    if (iobTable.keyAt(index) > time) {
+                        getAapsLogger().debug(LTag.AUTOSENS, "Removing from iobTable: " + dateUtil.dateAndTimeAndSecondsString(iobTable.keyAt(index)));
+                        iobTable.removeAt(index);
+                    } else {
+                        break;
+                    }
                 }
-            }
-            for (int index = absIobTable.size() - 1; index >= 0; index--) {
-                if (absIobTable.keyAt(index) > time) {
-                    getAapsLogger().debug(LTag.AUTOSENS, "Removing from absIobTable: " + dateUtil.dateAndTimeAndSecondsString(absIobTable.keyAt(index)));
-                    absIobTable.removeAt(index);
-                } else {
-                    break;
+                for (int index = absIobTable.size() - 1; index >= 0; index--) {
+                    if (absIobTable.keyAt(index) > time) {
+                        getAapsLogger().debug(LTag.AUTOSENS, "Removing from absIobTable: " + dateUtil.dateAndTimeAndSecondsString(absIobTable.keyAt(index)));
+                        absIobTable.removeAt(index);
+                    } else {
+                        break;
+                    }
+                }
+                for (int index = basalDataTable.size() - 1; index >= 0; index--) {
+                    if (basalDataTable.keyAt(index) > time) {
+                        getAapsLogger().debug(LTag.AUTOSENS, "Removing from basalDataTable: " + dateUtil.dateAndTimeAndSecondsString(basalDataTable.keyAt(index)));
+                        basalDataTable.removeAt(index);
+                    } else {
+                        break;
+                    }
                 }
             }
+            // published table is not modified, readers keep using it until invalidated copy replaces it
+            LongSparseArray<AutosensData> autosensDataTable = this.autosensDataTable.clone();
             for (int index = autosensDataTable.size() - 1; index >= 0; index--) {
                 if (autosensDataTable.keyAt(index) > time) {
                     getAapsLogger().debug(LTag.AUTOSENS, "Removing from autosensDataTable: " + dateUtil.dateAndTimeAndSecondsString(autosensDataTable.keyAt(index)));
@@ -885,14 +1136,7 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
                     break;
                 }
             }
-            for (int index = basalDataTable.size() - 1; index >= 0; index--) {
-                if (basalDataTable.keyAt(index) > time) {
-                    getAapsLogger().debug(LTag.AUTOSENS, "Removing from basalDataTable: " + dateUtil.dateAndTimeAndSecondsString(basalDataTable.keyAt(index)));
-                    basalDataTable.removeAt(index);
-                } else {
-                    break;
-                }
-            }
+            this.autosensDataTable = autosensDataTable;
         }
         runCalculation("onEventNewHistoryData", System.currentTimeMillis(), bgDataReload, true, ev);
         //log.debug("Releasing onNewHistoryData");
@@ -901,9 +1145,12 @@ public class IobCobCalculatorPlugin extends PluginBase implements IobCobCalculat
     public void clearCache() {
         synchronized (dataLock) {
             getAapsLogger().debug(LTag.AUTOSENS, "Clearing cached data.");
-            iobTable = new LongSparseArray<>();
+            synchronized (cacheLock) {
+                iobTable = new LongSparseArray<>();
+                basalDataTable = new LongSparseArray<>();
+                cacheGeneration++;
+            }
             autosensDataTable = new LongSparseArray<>();
-            basalDataTable = new LongSparseArray<>();
         }
     }
 
@@ -119,30 +119,43 @@ public class IobCobOref1Thread extends Thread {
                     iobCobCalculatorPlugin.createBucketedData();
                     rxBus.send(new EventAutosensBgLoaded(cause));
                 }
-                List<InMemoryGlucoseValue> bucketed_data = iobCobCalculatorPlugin.getBucketedData();
-                LongSparseArray<AutosensData> autosensDataTable = iobCobCalculatorPlugin.getAutosensDataTable();
+                GlucoseSeries bucketed_data = iobCobCalculatorPlugin.getBucketedData();
+                // readers keep using published data until calculation is done
+                LongSparseArray<AutosensData> autosensDataTable = iobCobCalculatorPlugin.getAutosensDataTable().clone();
 
                 if (bucketed_data == null || bucketed_data.size() < 3) {
                     aapsLogger.debug(LTag.AUTOSENS, "Aborting calculation thread (No bucketed data available): " + from);
                     return;
                 }
 
-                long prevDataTime = IobCobCalculatorPlugin.roundUpTime(bucketed_data.get(bucketed_data.size() - 3).getTimestamp());
+                long prevDataTime = IobCobCalculatorPlugin.roundUpTime(bucketed_data.getTimestamp(bucketed_data.size() - 3));
                 aapsLogger.debug(LTag.AUTOSENS, "Prev data time: " + dateUtil.dateAndTimeString(prevDataTime));
                 AutosensData previous = autosensDataTable.get(prevDataTime);
+                // Data is invalidated from some time to now so calculated data is always continuous.
+                // Continue after the newest calculated value, usually only the new BG needs calculation
+                int first = bucketed_data.size() - 4;
+                for (int i = 0; i < bucketed_data.size() - 4; i++) {
+                    AutosensData existing = autosensDataTable.get(IobCobCalculatorPlugin.roundUpTime(bucketed_data.getTimestamp(i)));
+                    if (existing != null) {
+                        previous = existing;
+                        first = i - 1;
+                        break;
+                    }
+                }
+                aapsLogger.debug(LTag.AUTOSENS, "Calculating " + (first + 1) + " of " + (bucketed_data.size() - 3) + " values: " + from);
                 // start from oldest to be able sub cob
-                for (int i = bucketed_data.size() - 4; i >= 0; i--) {
+                for (int i = first; i >= 0; i--) {
                     String progress = i + (buildHelper.isDev() ? " (" + from + ")" : "");
                     rxBus.send(new EventIobCalculationProgress(progress));
 
                     if (iobCobCalculatorPlugin.stopCalculationTrigger) {
                         iobCobCalculatorPlugin.stopCalculationTrigger = false;
                         aapsLogger.debug(LTag.AUTOSENS, "Aborting calculation thread (trigger): " + from);
+                        iobCobCalculatorPlugin.setAutosensDataTable(autosensDataTable);
                         return;
                     }
                     // check if data already exists
-                    long bgTime = bucketed_data.get(i).getTimestamp();
-                    bgTime = IobCobCalculatorPlugin.roundUpTime(bgTime);
+                    long bgTime = IobCobCalculatorPlugin.roundUpTime(bucketed_data.getTimestamp(i));
                     if (bgTime > IobCobCalculatorPlugin.roundUpTime(now()))
                         continue;
 
@@ -155,10 +168,11 @@ public class IobCobOref1Thread extends Thread {
                     Profile profile = profileFunction.getProfile(bgTime);
                     if (profile == null) {
                         aapsLogger.debug(LTag.AUTOSENS, "Aborting calculation thread (no profile): " + from);
+                        iobCobCalculatorPlugin.setAutosensDataTable(autosensDataTable);
                         return; // profile not set yet
                     }
 
-                    aapsLogger.debug(LTag.AUTOSENS, "Processing calculation thread: " + from + " (" + i + "/" + bucketed_data.size() + ")");
+                    aapsLogger.debug(LTag.AUTOSENS, "Processing calculation thread: {} ({}/{})", from, i, bucketed_data.size());
 
                     double sens = profile.getIsfMgdl(bgTime);
 
@@ -173,14 +187,14 @@ public class IobCobOref1Thread extends Thread {
                     double bg;
                     double avgDelta;
                     double delta;
-                    bg = bucketed_data.get(i).getValue();
-                    if (bg < 39 || bucketed_data.get(i + 3).getValue() < 39) {
+                    bg = bucketed_data.getValue(i);
+                    if (bg < 39 || bucketed_data.getValue(i + 3) < 39) {
                         aapsLogger.error("! value < 39");
                         continue;
                     }
                     autosensData.bg = bg;
-                    delta = (bg - bucketed_data.get(i + 1).getValue());
-                    avgDelta = (bg - bucketed_data.get(i + 3).getValue()) / 3;
+                    delta = (bg - bucketed_data.getValue(i + 1));
+                    avgDelta = (bg - bucketed_data.getValue(i + 3)) / 3;
 
                     IobTotal iob = iobCobCalculatorPlugin.calculateFromTreatmentsAndTemps(bgTime, profile);
 
@@ -196,7 +210,7 @@ public class IobCobOref1Thread extends Thread {
                     // https://github.com/openaps/oref0/blob/master/lib/determine-basal/cob-autosens.js#L169
                     if (i < bucketed_data.size() - 16) { // we need 1h of data to calculate minDeviationSlope
                         long hourago = bgTime + 10 * 1000 - 60 * 60 * 1000L;
-                        AutosensData hourAgoData = iobCobCalculatorPlugin.getAutosensData(hourago);
+                        AutosensData hourAgoData = iobCobCalculatorPlugin.getAutosensData(autosensDataTable, hourago);
                         if (hourAgoData != null) {
                             int initialIndex = autosensDataTable.indexOfKey(hourAgoData.time);
                             aapsLogger.debug(LTag.AUTOSENS, ">>>>> bucketed_data.size()=" + bucketed_data.size() + " i=" + i + " hourAgoData=" + hourAgoData.toString());
@@ -384,12 +398,13 @@ public class IobCobOref1Thread extends Thread {
                     previous = autosensData;
                     if (bgTime < now())
                         autosensDataTable.put(bgTime, autosensData);
-                    aapsLogger.debug(LTag.AUTOSENS, "Running detectSensitivity from: " + dateUtil.dateAndTimeString(oldestTimeWithData) + " to: " + dateUtil.dateAndTimeString(bgTime) + " lastDataTime:" + iobCobCalculatorPlugin.lastDataTime());
-                    AutosensResult sensitivity = iobCobCalculatorPlugin.detectSensitivityWithLock(oldestTimeWithData, bgTime);
-                    aapsLogger.debug(LTag.AUTOSENS, "Sensitivity result: " + sensitivity.toString());
+                    aapsLogger.debug(LTag.AUTOSENS, () -> "Running detectSensitivity from: " + dateUtil.dateAndTimeString(oldestTimeWithData) + " to: " + dateUtil.dateAndTimeString(bgTime) + " lastDataTime:" + iobCobCalculatorPlugin.lastDataTime());
+                    AutosensResult sensitivity = iobCobCalculatorPlugin.detectSensitivity(autosensDataTable, oldestTimeWithData, bgTime);
+                    aapsLogger.debug(LTag.AUTOSENS, "Sensitivity result: {}", sensitivity);
                     autosensData.autosensResult = sensitivity;
-                    aapsLogger.debug(LTag.AUTOSENS, autosensData.toString());
+                    aapsLogger.debug(LTag.AUTOSENS, autosensData::toString);
                 }
+                iobCobCalculatorPlugin.setAutosensDataTable(autosensDataTable);
             }
             new Thread(() -> {
                 SystemClock.sleep(1000);
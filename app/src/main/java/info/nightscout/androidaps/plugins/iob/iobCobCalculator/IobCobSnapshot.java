@@ -0,0 +1,505 @@
+package info.nightscout.androidaps.plugins.iob.iobCobCalculator;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+import androidx.collection.LongSparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import dagger.android.HasAndroidInjector;
+import info.nightscout.androidaps.data.IobTotal;
+import info.nightscout.androidaps.db.BgReading;
+import info.nightscout.androidaps.db.ExtendedBolus;
+import info.nightscout.androidaps.db.ProfileSwitch;
+import info.nightscout.androidaps.db.TemporaryBasal;
+import info.nightscout.androidaps.db.Treatment;
+import info.nightscout.androidaps.interfaces.ActivePluginProvider;
+import info.nightscout.androidaps.interfaces.DatabaseHelperInterface;
+import info.nightscout.androidaps.logging.AAPSLogger;
+import info.nightscout.androidaps.logging.LTag;
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.data.AutosensData;
+import info.nightscout.androidaps.plugins.treatments.TreatmentsPlugin;
+import info.nightscout.androidaps.utils.DateUtil;
+import info.nightscout.androidaps.utils.T;
+import info.nightscout.androidaps.utils.resources.ResourceHelper;
+import info.nightscout.androidaps.utils.sharedPreferences.SP;
+
+/**
+ * Calculated IOB, basal and autosens data kept across app restarts
+ * <p>
+ * Snapshot is written after finished calculation at most every SAVE_INTERVAL and when the plugin
+ * stops. It is read once before the first calculation after start. Every hour of stored data has
+ * a hash of BG readings, treatments, temporary basals, extended boluses and profile switches of that
+ * hour. On restore data is dropped from the first hour whose history differs, the same way as
+ * newHistoryData invalidates it. BG readings backfilled while the app was not running are caught
+ * this way too. History is hashed together with copying of the tables (inside dataLock), so a change
+ * stored meanwhile is never hashed without being calculated. Snapshot made with different calculation
+ * settings is not used at all.
+ */
+@Singleton
+public class IobCobSnapshot {
+    private static final int MAGIC = 0x494F4243; // IOBC
+    private static final int VERSION = 2;
+    private static final String FILE_NAME = "iobcob.snapshot";
+    private static final long HOUR = T.hours(1).msecs();
+    static final long SAVE_INTERVAL = T.mins(30).msecs();
+
+    private final Context context;
+    private final HasAndroidInjector injector;
+    private final AAPSLogger aapsLogger;
+    private final SP sp;
+    private final ResourceHelper resourceHelper;
+    private final ActivePluginProvider activePlugin;
+    private final TreatmentsPlugin treatmentsPlugin;
+    private final DatabaseHelperInterface databaseHelper;
+    private final DateUtil dateUtil;
+
+    static class State {
+        Long referenceTime = null;
+        Boolean fiveMinData = null;
+        LongSparseArray<IobTotal> iobTable = new LongSparseArray<>();
+        LongSparseArray<IobTotal> absIobTable = new LongSparseArray<>();
+        LongSparseArray<AutosensData> autosensDataTable = new LongSparseArray<>();
+        LongSparseArray<BasalData> basalDataTable = new LongSparseArray<>();
+        // set by hashHistory()
+        long savedAt;
+        long firstHour;
+        long[] historyHashes;
+    }
+
+    @Inject
+    public IobCobSnapshot(
+            Context context,
+            HasAndroidInjector injector,
+            AAPSLogger aapsLogger,
+            SP sp,
+            ResourceHelper resourceHelper,
+            ActivePluginProvider activePlugin,
+            TreatmentsPlugin treatmentsPlugin,
+            DatabaseHelperInterface databaseHelper,
+            DateUtil dateUtil
+    ) {
+        this.context = context;
+        this.injector = injector;
+        this.aapsLogger = aapsLogger;
+        this.sp = sp;
+        this.resourceHelper = resourceHelper;
+        this.activePlugin = activePlugin;
+        this.treatmentsPlugin = treatmentsPlugin;
+        this.databaseHelper = databaseHelper;
+        this.dateUtil = dateUtil;
+    }
+
+    private File file() {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    public void save(byte[] snapshot) {
+        File file = file();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(snapshot);
+            out.getFD().sync();
+        } catch (IOException e) {
+            aapsLogger.error(LTag.AUTOSENS, "Unhandled exception", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            aapsLogger.error(LTag.AUTOSENS, "Unable to store snapshot " + file);
+            tmp.delete();
+            return;
+        }
+        aapsLogger.debug(LTag.AUTOSENS, "Snapshot stored: " + snapshot.length + " bytes");
+    }
+
+    @Nullable
+    public State restore() {
+        File file = file();
+        if (!file.exists()) return null;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return read(in);
+        } catch (IOException e) {
+            aapsLogger.error(LTag.AUTOSENS, "Unhandled exception", e);
+            return null;
+        }
+    }
+
+    public void delete() {
+        File file = file();
+        if (file.exists() && file.delete())
+            aapsLogger.debug(LTag.AUTOSENS, "Snapshot deleted");
+    }
+
+    /**
+     * Hashes history of the tables of state. Must be called when the tables are copied
+     */
+    void hashHistory(State state) {
+        long now = DateUtil.now();
+        long oldest = now;
+        if (state.iobTable.size() > 0) oldest = Math.min(oldest, state.iobTable.keyAt(0));
+        if (state.absIobTable.size() > 0) oldest = Math.min(oldest, state.absIobTable.keyAt(0));
+        if (state.autosensDataTable.size() > 0) oldest = Math.min(oldest, state.autosensDataTable.keyAt(0));
+        if (state.basalDataTable.size() > 0) oldest = Math.min(oldest, state.basalDataTable.keyAt(0));
+        state.savedAt = now;
+        state.firstHour = oldest - oldest % HOUR;
+        state.historyHashes = historyHashes(state.firstHour, (int) ((now - state.firstHour) / HOUR) + 1, now);
+    }
+
+    byte[] write(State state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(settingsHash());
+        out.writeLong(state.savedAt);
+        out.writeBoolean(state.referenceTime != null);
+        out.writeLong(state.referenceTime != null ? state.referenceTime : 0);
+        out.writeByte(state.fiveMinData == null ? -1 : state.fiveMinData ? 1 : 0);
+        out.writeLong(state.firstHour);
+        out.writeInt(state.historyHashes.length);
+        for (long hash : state.historyHashes) out.writeLong(hash);
+
+        out.writeInt(state.iobTable.size());
+        for (int i = 0; i < state.iobTable.size(); i++) {
+            out.writeLong(state.iobTable.keyAt(i));
+            writeIobTotal(out, state.iobTable.valueAt(i));
+        }
+        out.writeInt(state.absIobTable.size());
+        for (int i = 0; i < state.absIobTable.size(); i++) {
+            out.writeLong(state.absIobTable.keyAt(i));
+            writeIobTotal(out, state.absIobTable.valueAt(i));
+        }
+        out.writeInt(state.autosensDataTable.size());
+        for (int i = 0; i < state.autosensDataTable.size(); i++) {
+            out.writeLong(state.autosensDataTable.keyAt(i));
+            writeAutosensData(out, state.autosensDataTable.valueAt(i));
+        }
+        out.writeInt(state.basalDataTable.size());
+        for (int i = 0; i < state.basalDataTable.size(); i++) {
+            out.writeLong(state.basalDataTable.keyAt(i));
+            writeBasalData(out, state.basalDataTable.valueAt(i));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Nullable
+    State read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            aapsLogger.debug(LTag.AUTOSENS, "Snapshot ignored: unknown format");
+            return null;
+        }
+        if (in.readLong() != settingsHash()) {
+            aapsLogger.debug(LTag.AUTOSENS, "Snapshot ignored: settings changed");
+            return null;
+        }
+        long savedAt = in.readLong();
+        State state = new State();
+        boolean hasReferenceTime = in.readBoolean();
+        long referenceTime = in.readLong();
+        state.referenceTime = hasReferenceTime ? referenceTime : null;
+        byte fiveMinData = in.readByte();
+        state.fiveMinData = fiveMinData < 0 ? null : fiveMinData == 1;
+        long firstHour = in.readLong();
+        long[] stored = new long[in.readInt()];
+        for (int i = 0; i < stored.length; i++) stored[i] = in.readLong();
+
+        // history older than loaded treatments cannot be verified
+        long oldestAvailable = treatmentsPlugin.oldestDataAvailable();
+        long[] hashes = historyHashes(firstHour, stored.length, savedAt);
+        long validTo = Long.MAX_VALUE;
+        for (int i = 0; i < stored.length; i++) {
+            long hourStart = firstHour + i * HOUR;
+            if (hourStart >= oldestAvailable && hashes[i] != stored[i]) {
+                // clear up 5 min back for proper COB calculation
+                validTo = hourStart - T.mins(5).msecs();
+                aapsLogger.debug(LTag.AUTOSENS, "Snapshot history changed, using data to: " + dateUtil.dateAndTimeAndSecondsString(validTo));
+                break;
+            }
+        }
+
+        for (int i = in.readInt(); i > 0; i--) {
+            long time = in.readLong();
+            IobTotal iobTotal = readIobTotal(in, time);
+            if (time <= validTo) state.iobTable.append(time, iobTotal);
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            long time = in.readLong();
+            IobTotal iobTotal = readIobTotal(in, time);
+            if (time <= validTo) state.absIobTable.append(time, iobTotal);
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            long time = in.readLong();
+            AutosensData autosensData = readAutosensData(in, injector);
+            if (time <= validTo) state.autosensDataTable.append(time, autosensData);
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            long time = in.readLong();
+            BasalData basalData = readBasalData(in);
+            if (time <= validTo) state.basalDataTable.append(time, basalData);
+        }
+        aapsLogger.debug(LTag.AUTOSENS, "Snapshot from " + dateUtil.dateAndTimeAndSecondsString(savedAt) + " restored: "
+                + state.iobTable.size() + " iob " + state.autosensDataTable.size() + " autosens " + state.basalDataTable.size() + " basal values");
+        return state;
+    }
+
+    @Nullable
+    State read(byte[] snapshot) throws IOException {
+        return read(new ByteArrayInputStream(snapshot));
+    }
+
+    private long settingsHash() {
+        StringBuilder settings = new StringBuilder();
+        settings.append(activePlugin.getActiveSensitivity().getClass().getName());
+        settings.append(activePlugin.getActiveInsulin().getClass().getName());
+        for (int key : IobCobCalculatorPlugin.CALCULATION_PREFERENCES)
+            settings.append(';').append(sp.getAll().get(resourceHelper.gs(key)));
+        return settings.toString().hashCode();
+    }
+
+    // Hash of every hour from firstHour, items are added regardless of order
+    private long[] historyHashes(long firstHour, int count, long to) {
+        long[] hashes = new long[count];
+        List<BgReading> bgReadings = databaseHelper.getAllBgreadingsDataFromTime(firstHour, true);
+        for (BgReading bgReading : bgReadings)
+            addToHour(hashes, firstHour, to, bgReading.date, hash(bgReading));
+        List<Treatment> treatments = treatmentsPlugin.getTreatmentsFromHistory();
+        for (Treatment treatment : treatments)
+            addToHour(hashes, firstHour, to, treatment.date, hash(treatment));
+        List<TemporaryBasal> tempBasals = treatmentsPlugin.getTemporaryBasalsFromHistory().getList();
+        for (TemporaryBasal tempBasal : tempBasals)
+            addToHour(hashes, firstHour, to, tempBasal.date, hash(tempBasal));
+        List<ExtendedBolus> extendedBoluses = treatmentsPlugin.getExtendedBolusesFromHistory().getList();
+        for (ExtendedBolus extendedBolus : extendedBoluses)
+            addToHour(hashes, firstHour, to, extendedBolus.date, hash(extendedBolus));
+        List<ProfileSwitch> profileSwitches = treatmentsPlugin.getProfileSwitchesFromHistory().getList();
+        for (ProfileSwitch profileSwitch : profileSwitches)
+            addToHour(hashes, firstHour, to, profileSwitch.date, hash(profileSwitch));
+        return hashes;
+    }
+
+    private static void addToHour(long[] hashes, long firstHour, long to, long date, long hash) {
+        if (date < firstHour || date > to) return;
+        long hour = (date - firstHour) / HOUR;
+        if (hour < hashes.length) hashes[(int) hour] += finish(hash);
+    }
+
+    private static long mix(long hash, long value) {
+        return hash * 31 + value;
+    }
+
+    private static long mix(long hash, double value) {
+        return mix(hash, Double.doubleToLongBits(value));
+    }
+
+    private static long mix(long hash, boolean value) {
+        return mix(hash, value ? 1L : 0L);
+    }
+
+    // spread bits so sums of different items don't cancel out
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long hash(BgReading bgReading) {
+        long hash = mix(5, bgReading.date);
+        hash = mix(hash, bgReading.isValid);
+        hash = mix(hash, bgReading.value);
+        return hash;
+    }
+
+    private static long hash(Treatment treatment) {
+        long hash = mix(1, treatment.date);
+        hash = mix(hash, treatment.isValid);
+        hash = mix(hash, treatment.insulin);
+        hash = mix(hash, treatment.carbs);
+        hash = mix(hash, treatment.mealBolus);
+        hash = mix(hash, treatment.isSMB);
+        return hash;
+    }
+
+    private static long hash(TemporaryBasal tempBasal) {
+        long hash = mix(2, tempBasal.date);
+        hash = mix(hash, tempBasal.isValid);
+        hash = mix(hash, tempBasal.durationInMinutes);
+        hash = mix(hash, tempBasal.isAbsolute);
+        hash = mix(hash, tempBasal.isFakeExtended);
+        hash = mix(hash, tempBasal.percentRate);
+        hash = mix(hash, tempBasal.absoluteRate);
+        hash = mix(hash, tempBasal.netExtendedRate);
+        return hash;
+    }
+
+    private static long hash(ExtendedBolus extendedBolus) {
+        long hash = mix(3, extendedBolus.date);
+        hash = mix(hash, extendedBolus.isValid);
+        hash = mix(hash, extendedBolus.insulin);
+        hash = mix(hash, extendedBolus.durationInMinutes);
+        return hash;
+    }
+
+    private static long hash(ProfileSwitch profileSwitch) {
+        long hash = mix(4, profileSwitch.date);
+        hash = mix(hash, profileSwitch.isValid);
+        hash = mix(hash, profileSwitch.durationInMinutes);
+        hash = mix(hash, profileSwitch.percentage);
+        hash = mix(hash, profileSwitch.timeshift);
+        hash = mix(hash, profileSwitch.profileJson != null ? profileSwitch.profileJson.hashCode() : 0);
+        return hash;
+    }
+
+    private static void writeIobTotal(DataOutput out, IobTotal iobTotal) throws IOException {
+        out.writeDouble(iobTotal.iob);
+        out.writeDouble(iobTotal.activity);
+        out.writeDouble(iobTotal.bolussnooze);
+        out.writeDouble(iobTotal.basaliob);
+        out.writeDouble(iobTotal.netbasalinsulin);
+        out.writeDouble(iobTotal.hightempinsulin);
+        out.writeLong(iobTotal.lastBolusTime);
+        out.writeDouble(iobTotal.netInsulin);
+        out.writeDouble(iobTotal.netRatio);
+        out.writeDouble(iobTotal.extendedBolusInsulin);
+        out.writeBoolean(iobTotal.iobWithZeroTemp != null);
+        if (iobTotal.iobWithZeroTemp != null) writeIobTotal(out, iobTotal.iobWithZeroTemp);
+    }
+
+    private static IobTotal readIobTotal(DataInput in, long time) throws IOException {
+        IobTotal iobTotal = new IobTotal(time);
+        iobTotal.iob = in.readDouble();
+        iobTotal.activity = in.readDouble();
+        iobTotal.bolussnooze = in.readDouble();
+        iobTotal.basaliob = in.readDouble();
+        iobTotal.netbasalinsulin = in.readDouble();
+        iobTotal.hightempinsulin = in.readDouble();
+        iobTotal.lastBolusTime = in.readLong();
+        iobTotal.netInsulin = in.readDouble();
+        iobTotal.netRatio = in.readDouble();
+        iobTotal.extendedBolusInsulin = in.readDouble();
+        if (in.readBoolean()) iobTotal.iobWithZeroTemp = readIobTotal(in, time);
+        return iobTotal;
+    }
+
+    private static void writeBasalData(DataOutput out, BasalData basalData) throws IOException {
+        out.writeDouble(basalData.basal);
+        out.writeDouble(basalData.tempBasalAbsolute);
+        out.writeBoolean(basalData.isTempBasalRunning);
+    }
+
+    private static BasalData readBasalData(DataInput in) throws IOException {
+        BasalData basalData = new BasalData();
+        basalData.basal = in.readDouble();
+        basalData.tempBasalAbsolute = in.readDouble();
+        basalData.isTempBasalRunning = in.readBoolean();
+        return basalData;
+    }
+
+    private static void writeString(DataOutput out, @Nullable String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) out.writeUTF(string);
+    }
+
+    @Nullable
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeAutosensData(DataOutput out, AutosensData autosensData) throws IOException {
+        out.writeLong(autosensData.time);
+        out.writeDouble(autosensData.bg);
+        writeString(out, autosensData.pastSensitivity);
+        out.writeDouble(autosensData.deviation);
+        out.writeBoolean(autosensData.validDeviation);
+        out.writeInt(autosensData.activeCarbsList.size());
+        for (AutosensData.CarbsInPast carbs : autosensData.activeCarbsList) {
+            out.writeLong(carbs.getTime());
+            out.writeDouble(carbs.getCarbs());
+            out.writeDouble(carbs.min5minCarbImpact);
+            out.writeDouble(carbs.getRemaining());
+        }
+        out.writeDouble(autosensData.absorbed);
+        out.writeDouble(autosensData.carbsFromBolus);
+        out.writeDouble(autosensData.cob);
+        out.writeDouble(autosensData.bgi);
+        out.writeDouble(autosensData.delta);
+        out.writeDouble(autosensData.avgDelta);
+        out.writeDouble(autosensData.avgDeviation);
+        out.writeDouble(autosensData.autosensResult.ratio);
+        out.writeDouble(autosensData.autosensResult.carbsAbsorbed);
+        writeString(out, autosensData.autosensResult.sensResult);
+        writeString(out, autosensData.autosensResult.pastSensitivity);
+        writeString(out, autosensData.autosensResult.ratioLimit);
+        out.writeDouble(autosensData.slopeFromMaxDeviation);
+        out.writeDouble(autosensData.slopeFromMinDeviation);
+        out.writeDouble(autosensData.usedMinCarbsImpact);
+        out.writeBoolean(autosensData.failoverToMinAbsorbtionRate);
+        out.writeBoolean(autosensData.absorbing);
+        out.writeDouble(autosensData.mealCarbs);
+        out.writeInt(autosensData.mealStartCounter);
+        writeString(out, autosensData.type);
+        out.writeBoolean(autosensData.uam);
+        out.writeInt(autosensData.extraDeviation.size());
+        for (Double deviation : autosensData.extraDeviation) out.writeDouble(deviation);
+    }
+
+    private static AutosensData readAutosensData(DataInput in, HasAndroidInjector injector) throws IOException {
+        AutosensData autosensData = new AutosensData(injector);
+        autosensData.time = in.readLong();
+        autosensData.bg = in.readDouble();
+        autosensData.pastSensitivity = readString(in);
+        autosensData.deviation = in.readDouble();
+        autosensData.validDeviation = in.readBoolean();
+        for (int i = in.readInt(); i > 0; i--) {
+            long time = in.readLong();
+            double carbs = in.readDouble();
+            double min5minCarbImpact = in.readDouble();
+            double remaining = in.readDouble();
+            autosensData.activeCarbsList.add(autosensData.new CarbsInPast(time, carbs, min5minCarbImpact, remaining));
+        }
+        autosensData.absorbed = in.readDouble();
+        autosensData.carbsFromBolus = in.readDouble();
+        autosensData.cob = in.readDouble();
+        autosensData.bgi = in.readDouble();
+        autosensData.delta = in.readDouble();
+        autosensData.avgDelta = in.readDouble();
+        autosensData.avgDeviation = in.readDouble();
+        autosensData.autosensResult.ratio = in.readDouble();
+        autosensData.autosensResult.carbsAbsorbed = in.readDouble();
+        autosensData.autosensResult.sensResult = readString(in);
+        autosensData.autosensResult.pastSensitivity = readString(in);
+        autosensData.autosensResult.ratioLimit = readString(in);
+        autosensData.slopeFromMaxDeviation = in.readDouble();
+        autosensData.slopeFromMinDeviation = in.readDouble();
+        autosensData.usedMinCarbsImpact = in.readDouble();
+        autosensData.failoverToMinAbsorbtionRate = in.readBoolean();
+        autosensData.absorbing = in.readBoolean();
+        autosensData.mealCarbs = in.readDouble();
+        autosensData.mealStartCounter = in.readInt();
+        autosensData.type = readString(in);
+        autosensData.uam = in.readBoolean();
+        for (int i = in.readInt(); i > 0; i--) autosensData.extraDeviation.add(in.readDouble());
+        return autosensData;
+    }
+}
@@ -16,6 +16,7 @@ import androidx.annotation.NonNull;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
@@ -33,6 +34,7 @@ import info.nightscout.androidaps.R;
 import info.nightscout.androidaps.data.DetailedBolusInfo;
 import info.nightscout.androidaps.data.Profile;
 import info.nightscout.androidaps.data.PumpEnactResult;
+import info.nightscout.androidaps.db.BatchErrors;
 import info.nightscout.androidaps.db.CareportalEvent;
 import info.nightscout.androidaps.db.ExtendedBolus;
 import info.nightscout.androidaps.db.Source;
@@ -110,7 +112,9 @@ import info.nightscout.androidaps.plugins.pump.insight.app_layer.status.GetPumpS
 import info.nightscout.androidaps.plugins.pump.insight.app_layer.status.GetTotalDailyDoseMessage;
 import info.nightscout.androidaps.plugins.pump.insight.app_layer.status.ResetPumpStatusRegisterMessage;
 import info.nightscout.androidaps.plugins.pump.insight.connection_service.InsightConnectionService;
+import info.nightscout.androidaps.plugins.pump.insight.connection_service.MessageRequest;
 import info.nightscout.androidaps.plugins.pump.insight.database.InsightBolusID;
+import info.nightscout.androidaps.plugins.pump.insight.database.InsightBolusIDs;
 import info.nightscout.androidaps.plugins.pump.insight.database.InsightHistoryOffset;
 import info.nightscout.androidaps.plugins.pump.insight.database.InsightPumpID;
 import info.nightscout.androidaps.plugins.pump.insight.descriptors.ActiveBasalRate;
@@ -425,21 +429,22 @@ public class LocalInsightPlugin extends PumpPluginBase implements PumpInterface,
             resetMessage.setActiveTBRChanged(registerMessage.isActiveTBRChanged());
             resetMessage.setActiveBolusesChanged(registerMessage.isActiveBolusesChanged());
             connectionService.requestMessage(resetMessage).await();
-            if (registerMessage.isOperatingModeChanged())
-                operatingMode = connectionService.requestMessage(new GetOperatingModeMessage()).await().getOperatingMode();
-            if (registerMessage.isBatteryStatusChanged())
-                batteryStatus = connectionService.requestMessage(new GetBatteryStatusMessage()).await().getBatteryStatus();
-            if (registerMessage.isCartridgeStatusChanged())
-                cartridgeStatus = connectionService.requestMessage(new GetCartridgeStatusMessage()).await().getCartridgeStatus();
-            if (registerMessage.isTotalDailyDoseChanged())
-                totalDailyDose = connectionService.requestMessage(new GetTotalDailyDoseMessage()).await().getTDD();
+            // all requests are sent before awaiting responses, pipelined by connection service
+            MessageRequest<GetOperatingModeMessage> operatingModeRequest = registerMessage.isOperatingModeChanged() ? connectionService.requestMessage(new GetOperatingModeMessage()) : null;
+            MessageRequest<GetBatteryStatusMessage> batteryStatusRequest = registerMessage.isBatteryStatusChanged() ? connectionService.requestMessage(new GetBatteryStatusMessage()) : null;
+            MessageRequest<GetCartridgeStatusMessage> cartridgeStatusRequest = registerMessage.isCartridgeStatusChanged() ? connectionService.requestMessage(new GetCartridgeStatusMessage()) : null;
+            MessageRequest<GetTotalDailyDoseMessage> totalDailyDoseRequest = registerMessage.isTotalDailyDoseChanged() ? connectionService.requestMessage(new GetTotalDailyDoseMessage()) : null;
+            if (operatingModeRequest != null) operatingMode = operatingModeRequest.await().getOperatingMode();
+            if (batteryStatusRequest != null) batteryStatus = batteryStatusRequest.await().getBatteryStatus();
+            if (cartridgeStatusRequest != null) cartridgeStatus = cartridgeStatusRequest.await().getCartridgeStatus();
+            if (totalDailyDoseRequest != null) totalDailyDose = totalDailyDoseRequest.await().getTDD();
             if (operatingMode == OperatingMode.STARTED) {
-                if (registerMessage.isActiveBasalRateChanged())
-                    activeBasalRate = connectionService.requestMessage(new GetActiveBasalRateMessage()).await().getActiveBasalRate();
-                if (registerMessage.isActiveTBRChanged())
-                    activeTBR = connectionService.requestMessage(new GetActiveTBRMessage()).await().getActiveTBR();
-                if (registerMessage.isActiveBolusesChanged())
-                    activeBoluses = connectionService.requestMessage(new GetActiveBolusesMessage()).await().getActiveBoluses();
+                MessageRequest<GetActiveBasalRateMessage> activeBasalRateRequest = registerMessage.isActiveBasalRateChanged() ? connectionService.requestMessage(new GetActiveBasalRateMessage()) : null;
+                MessageRequest<GetActiveTBRMessage> activeTBRRequest = registerMessage.isActiveTBRChanged() ? connectionService.requestMessage(new GetActiveTBRMessage()) : null;
+                MessageRequest<GetActiveBolusesMessage> activeBolusesRequest = registerMessage.isActiveBolusesChanged() ? connectionService.requestMessage(new GetActiveBolusesMessage()) : null;
+                if (activeBasalRateRequest != null) activeBasalRate = activeBasalRateRequest.await().getActiveBasalRate();
+                if (activeTBRRequest != null) activeTBR = activeTBRRequest.await().getActiveTBR();
+                if (activeBolusesRequest != null) activeBoluses = activeBolusesRequest.await().getActiveBoluses();
             } else {
                 activeBasalRate = null;
                 activeTBR = null;
@@ -456,14 +461,21 @@ public class LocalInsightPlugin extends PumpPluginBase implements PumpInterface,
             resetMessage.setActiveTBRChanged(true);
             resetMessage.setActiveBolusesChanged(true);
             connectionService.requestMessage(resetMessage).await();
-            operatingMode = connectionService.requestMessage(new GetOperatingModeMessage()).await().getOperatingMode();
-            batteryStatus = connectionService.requestMessage(new GetBatteryStatusMessage()).await().getBatteryStatus();
-            cartridgeStatus = connectionService.requestMessage(new GetCartridgeStatusMessage()).await().getCartridgeStatus();
-            totalDailyDose = connectionService.requestMessage(new GetTotalDailyDoseMessage()).await().getTDD();
+            MessageRequest<GetOperatingModeMessage> operatingModeRequest = connectionService.requestMessage(new GetOperatingModeMessage());
+            MessageRequest<GetBatteryStatusMessage> batteryStatusRequest = connectionService.requestMessage(new GetBatteryStatusMessage());
+            MessageRequest<GetCartridgeStatusMessage> cartridgeStatusRequest = connectionService.requestMessage(new GetCartridgeStatusMessage());
+            MessageRequest<GetTotalDailyDoseMessage> totalDailyDoseRequest = connectionService.requestMessage(new GetTotalDailyDoseMessage());
+            operatingMode = operatingModeRequest.await().getOperatingMode();
+            batteryStatus = batteryStatusRequest.await().getBatteryStatus();
+            cartridgeStatus = cartridgeStatusRequest.await().getCartridgeStatus();
+            totalDailyDose = totalDailyDoseRequest.await().getTDD();
             if (operatingMode == OperatingMode.STARTED) {
-                activeBasalRate = connectionService.requestMessage(new GetActiveBasalRateMessage()).await().getActiveBasalRate();
-                activeTBR = connectionService.requestMessage(new GetActiveTBRMessage()).await().getActiveTBR();
-                activeBoluses = connectionService.requestMessage(new GetActiveBolusesMessage()).await().getActiveBoluses();
+                MessageRequest<GetActiveBasalRateMessage> activeBasalRateRequest = connectionService.requestMessage(new GetActiveBasalRateMessage());
+                MessageRequest<GetActiveTBRMessage> activeTBRRequest = connectionService.requestMessage(new GetActiveTBRMessage());
+                MessageRequest<GetActiveBolusesMessage> activeBolusesRequest = connectionService.requestMessage(new GetActiveBolusesMessage());
+                activeBasalRate = activeBasalRateRequest.await().getActiveBasalRate();
+                activeTBR = activeTBRRequest.await().getActiveTBR();
+                activeBoluses = activeBolusesRequest.await().getActiveBoluses();
             } else {
                 activeBasalRate = null;
                 activeTBR = null;
@@ -1194,8 +1206,13 @@ public class LocalInsightPlugin extends PumpPluginBase implements PumpInterface,
                     startMessage.setDirection(HistoryReadingDirection.FORWARD);
                     startMessage.setOffset(historyOffset.offset + 1);
                     connectionService.requestMessage(startMessage).await();
+                    // next page is requested before the current one is received. Page read after the end
+                    // is dropped, its events (if any were added meanwhile) are read again from the stored offset
+                    MessageRequest<ReadHistoryEventsMessage> nextRequest = connectionService.requestMessage(new ReadHistoryEventsMessage());
                     while (true) {
-                        List<HistoryEvent> newEvents = connectionService.requestMessage(new ReadHistoryEventsMessage()).await().getHistoryEvents();
+                        MessageRequest<ReadHistoryEventsMessage> request = nextRequest;
+                        nextRequest = connectionService.requestMessage(new ReadHistoryEventsMessage());
+                        List<HistoryEvent> newEvents = request.await().getHistoryEvents();
                         if (newEvents.size() == 0) break;
                         historyEvents.addAll(newEvents);
                     }
@@ -1231,32 +1248,68 @@ public class LocalInsightPlugin extends PumpPluginBase implements PumpInterface,
         new Handler(Looper.getMainLooper()).post(() -> rxBus.send(new EventRefreshOverview("LocalInsightPlugin::readHistory", false)));
     }
 
-    private void processHistoryEvents(String serial, List<HistoryEvent> historyEvents) {
+    /**
+     * All events are stored in one transaction with one treatment change event. Bolus IDs
+     * of the events' time range are prefetched and stopped events are read once for all starts.
+     * Any SQL error rolls the transaction back and is thrown, so the history offset is not
+     * advanced and the events are read again next time
+     */
+    private void processHistoryEvents(String serial, List<HistoryEvent> historyEvents) throws SQLException {
+        if (historyEvents.size() == 0) return;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (HistoryEvent event : historyEvents) {
+            long timestamp = parseDate(event.getEventYear(), event.getEventMonth(), event.getEventDay(),
+                    event.getEventHour(), event.getEventMinute(), event.getEventSecond()) + timeOffset;
+            first = Math.min(first, timestamp);
+            last = Math.max(last, timestamp);
+        }
+        long from = first - InsightBolusIDs.WINDOW;
+        long to = last + InsightBolusIDs.WINDOW;
+        treatmentsPlugin.getService().callInBatch(BatchErrors.rethrowing(() -> {
+            // date time changes move timestamps out of the range, these are looked up in database
+            InsightBolusIDs bolusIDs = new InsightBolusIDs(MainApp.getDbHelper(), serial, from, to);
+            processHistoryEvents(serial, bolusIDs, historyEvents);
+            return null;
+        }));
+    }
+
+    private void processHistoryEvents(String serial, InsightBolusIDs bolusIDs, List<HistoryEvent> historyEvents) {
         List<TemporaryBasal> temporaryBasals = new ArrayList<>();
         List<InsightPumpID> pumpStartedEvents = new ArrayList<>();
         for (HistoryEvent historyEvent : historyEvents)
-            if (!processHistoryEvent(serial, temporaryBasals, pumpStartedEvents, historyEvent))
+            if (!processHistoryEvent(serial, bolusIDs, temporaryBasals, pumpStartedEvents, historyEvent))
                 break;
         Collections.reverse(temporaryBasals);
-        for (InsightPumpID pumpID : pumpStartedEvents) {
-            InsightPumpID stoppedEvent = MainApp.getDbHelper().getPumpStoppedEvent(pumpID.pumpSerial, pumpID.timestamp);
-            if (stoppedEvent == null || stoppedEvent.eventType.equals("PumpPaused")) continue;
-            long tbrStart = stoppedEvent.timestamp + 10000;
-            TemporaryBasal temporaryBasal = new TemporaryBasal(getInjector());
-            temporaryBasal.durationInMinutes = (int) ((pumpID.timestamp - tbrStart) / 60000);
-            temporaryBasal.date = tbrStart;
-            temporaryBasal.source = Source.PUMP;
-            temporaryBasal.pumpId = pumpID.id;
-            temporaryBasal.percentRate = 0;
-            temporaryBasal.isAbsolute = false;
-            temporaryBasals.add(temporaryBasal);
+        if (pumpStartedEvents.size() > 0) {
+            // last stopped or paused event before each start. Stopped events of processed range are stored already
+            Collections.sort(pumpStartedEvents, (o1, o2) -> Long.compare(o1.timestamp, o2.timestamp));
+            long firstStart = pumpStartedEvents.get(0).timestamp;
+            long lastStart = pumpStartedEvents.get(pumpStartedEvents.size() - 1).timestamp;
+            InsightPumpID stoppedEvent = MainApp.getDbHelper().getPumpStoppedEvent(serial, firstStart);
+            List<InsightPumpID> stoppedEvents = MainApp.getDbHelper().getPumpStoppedEvents(serial, firstStart, lastStart);
+            int stoppedIndex = 0;
+            for (InsightPumpID pumpID : pumpStartedEvents) {
+                while (stoppedIndex < stoppedEvents.size() && stoppedEvents.get(stoppedIndex).timestamp < pumpID.timestamp)
+                    stoppedEvent = stoppedEvents.get(stoppedIndex++);
+                if (stoppedEvent == null || stoppedEvent.eventType.equals("PumpPaused")) continue;
+                long tbrStart = stoppedEvent.timestamp + 10000;
+                TemporaryBasal temporaryBasal = new TemporaryBasal(getInjector());
+                temporaryBasal.durationInMinutes = (int) ((pumpID.timestamp - tbrStart) / 60000);
+                temporaryBasal.date = tbrStart;
+                temporaryBasal.source = Source.PUMP;
+                temporaryBasal.pumpId = pumpID.id;
+                temporaryBasal.percentRate = 0;
+                temporaryBasal.isAbsolute = false;
+                temporaryBasals.add(temporaryBasal);
+            }
         }
         Collections.sort(temporaryBasals, (o1, o2) -> (int) (o1.date - o2.date));
         for (TemporaryBasal temporaryBasal : temporaryBasals)
             treatmentsPlugin.addToHistoryTempBasal(temporaryBasal);
     }
 
-    private boolean processHistoryEvent(String serial, List<TemporaryBasal> temporaryBasals, List<InsightPumpID> pumpStartedEvents, HistoryEvent event) {
+    private boolean processHistoryEvent(String serial, InsightBolusIDs bolusIDs, List<TemporaryBasal> temporaryBasals, List<InsightPumpID> pumpStartedEvents, HistoryEvent event) {
         if (event instanceof DefaultDateTimeSetEvent) return false;
         else if (event instanceof DateTimeChangedEvent)
             processDateTimeChangedEvent((DateTimeChangedEvent) event);
@@ -1275,9 +1328,9 @@ public class LocalInsightPlugin extends PumpPluginBase implements PumpInterface,
         else if (event instanceof EndOfTBREvent)
             processEndOfTBREvent(serial, temporaryBasals, (EndOfTBREvent) event);
         else if (event instanceof BolusProgrammedEvent)
-            processBolusProgrammedEvent(serial, (BolusProgrammedEvent) event);
+            processBolusProgrammedEvent(serial, bolusIDs, (BolusProgrammedEvent) event);
         else if (event instanceof BolusDeliveredEvent)
-            processBolusDeliveredEvent(serial, (BolusDeliveredEvent) event);
+            processBolusDeliveredEvent(serial, bolusIDs, (BolusDeliveredEvent) event);
         else if (event instanceof OccurrenceOfAlertEvent)
             processOccurrenceOfAlertEvent((OccurrenceOfAlertEvent) event);
         return true;
@@ -1395,13 +1448,13 @@ public class LocalInsightPlugin extends PumpPluginBase implements PumpInterface,
         temporaryBasals.add(temporaryBasal);
     }
 
-    private void processBolusProgrammedEvent(String serial, BolusProgrammedEvent event) {
+    private void processBolusProgrammedEvent(String serial, InsightBolusIDs bolusIDs, BolusProgrammedEvent event) {
         long timestamp = parseDate(event.getEventYear(), event.getEventMonth(), event.getEventDay(),
                 event.getEventHour(), event.getEventMinute(), event.getEventSecond()) + timeOffset;
-        InsightBolusID bolusID = MainApp.getDbHelper().getInsightBolusID(serial, event.getBolusID(), timestamp);
+        InsightBolusID bolusID = bolusIDs.get(event.getBolusID(), timestamp);
         if (bolusID != null && bolusID.endID != null) {
             bolusID.startID = event.getEventPosition();
-            MainApp.getDbHelper().createOrUpdate(bolusID);
+            bolusIDs.store(bolusID);
             return;
         }
         if (bolusID == null || bolusID.startID != null) {
@@ -1411,7 +1464,7 @@ public class LocalInsightPlugin extends PumpPluginBase implements PumpInterface,
             bolusID.pumpSerial = serial;
         }
         bolusID.startID = event.getEventPosition();
-        MainApp.getDbHelper().createOrUpdate(bolusID);
+        bolusIDs.store(bolusID);
         if (event.getBolusType() == BolusType.STANDARD || event.getBolusType() == BolusType.MULTIWAVE) {
             DetailedBolusInfo detailedBolusInfo = new DetailedBolusInfo();
             detailedBolusInfo.date = bolusID.timestamp;
@@ -1432,12 +1485,12 @@ public class LocalInsightPlugin extends PumpPluginBase implements PumpInterface,
         }
     }
 
-    private void processBolusDeliveredEvent(String serial, BolusDeliveredEvent event) {
+    private void processBolusDeliveredEvent(String serial, InsightBolusIDs bolusIDs, BolusDeliveredEvent event) {
         long timestamp = parseDate(event.getEventYear(), event.getEventMonth(), event.getEventDay(),
                 event.getEventHour(), event.getEventMinute(), event.getEventSecond()) + timeOffset;
         long startTimestamp = parseRelativeDate(event.getEventYear(), event.getEventMonth(), event.getEventDay(), event.getEventHour(),
                 event.getEventMinute(), event.getEventSecond(), event.getStartHour(), event.getStartMinute(), event.getStartSecond()) + timeOffset;
-        InsightBolusID bolusID = MainApp.getDbHelper().getInsightBolusID(serial, event.getBolusID(), timestamp);
+        InsightBolusID bolusID = bolusIDs.get(event.getBolusID(), timestamp);
         if (bolusID == null || bolusID.endID != null) {
             bolusID = new InsightBolusID();
             bolusID.timestamp = startTimestamp;
@@ -1445,7 +1498,7 @@ public class LocalInsightPlugin extends PumpPluginBase implements PumpInterface,
             bolusID.pumpSerial = serial;
         }
         bolusID.endID = event.getEventPosition();
-        MainApp.getDbHelper().createOrUpdate(bolusID);
+        bolusIDs.store(bolusID);
         if (event.getBolusType() == BolusType.STANDARD || event.getBolusType() == BolusType.MULTIWAVE) {
             DetailedBolusInfo detailedBolusInfo = new DetailedBolusInfo();
             detailedBolusInfo.date = bolusID.timestamp;
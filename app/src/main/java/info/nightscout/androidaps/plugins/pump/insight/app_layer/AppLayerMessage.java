@@ -64,9 +64,9 @@ public class AppLayerMessage implements Comparable<AppLayerMessage> {
             if (exceptionClass == null) throw new UnknownAppLayerErrorCodeException(error);
             else throw exceptionClass.getConstructor(int.class).newInstance(error);
         }
-        byte[] data = byteBuf.readBytes(byteBuf.getSize() - (message.inCRC ? 2 : 0));
-        if (message.inCRC && Cryptograph.calculateCRC(data) != byteBuf.readUInt16LE()) throw new InvalidAppCRCException();
-        message.parse(ByteBuf.from(data));
+        ByteBuf data = byteBuf.readSlice(byteBuf.getSize() - (message.inCRC ? 2 : 0));
+        if (message.inCRC && Cryptograph.calculateCRC(data.getBytes()) != byteBuf.readUInt16LE()) throw new InvalidAppCRCException();
+        message.parse(data);
         return message;
     }
 
@@ -88,4 +88,11 @@ public class AppLayerMessage implements Comparable<AppLayerMessage> {
     public Service getService() {
         return this.service;
     }
+
+    /**
+     * Read only requests which can be sent while previous requests are not answered yet
+     */
+    public boolean isPipelinable() {
+        return false;
+    }
 }
@@ -17,6 +17,11 @@ public class ReadHistoryEventsMessage extends AppLayerMessage {
         super(MessagePriority.NORMAL, true, false, Service.HISTORY);
     }
 
+    @Override
+    public boolean isPipelinable() {
+        return true;
+    }
+
     @Override
     protected void parse(ByteBuf byteBuf) throws Exception {
         historyEvents = new ArrayList<>();
@@ -24,7 +29,7 @@ public class ReadHistoryEventsMessage extends AppLayerMessage {
         int frameCount = byteBuf.readUInt16LE();
         for (int i = 0; i < frameCount; i++) {
             int length = byteBuf.readUInt16LE();
-            historyEvents.add(HistoryEvent.deserialize(ByteBuf.from(byteBuf.readBytes(length))));
+            historyEvents.add(HistoryEvent.deserialize(byteBuf.readSlice(length)));
         }
     }
 
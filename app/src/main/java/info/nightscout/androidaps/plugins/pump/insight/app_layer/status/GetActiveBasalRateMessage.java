@@ -15,6 +15,11 @@ public class GetActiveBasalRateMessage extends AppLayerMessage {
         super(MessagePriority.NORMAL, true, false, Service.STATUS);
     }
 
+    @Override
+    public boolean isPipelinable() {
+        return true;
+    }
+
     @Override
     protected void parse(ByteBuf byteBuf) {
         ActiveBasalRate activeBasalRate = new ActiveBasalRate();
@@ -18,6 +18,11 @@ public class GetActiveBolusesMessage extends AppLayerMessage {
         super(MessagePriority.NORMAL, true, false, Service.STATUS);
     }
 
+    @Override
+    public boolean isPipelinable() {
+        return true;
+    }
+
     @Override
     protected void parse(ByteBuf byteBuf) {
         activeBoluses = new ArrayList<>();
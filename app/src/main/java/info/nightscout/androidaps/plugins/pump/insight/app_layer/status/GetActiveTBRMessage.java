@@ -14,6 +14,11 @@ public class GetActiveTBRMessage extends AppLayerMessage {
         super(MessagePriority.NORMAL, true, false, Service.STATUS);
     }
 
+    @Override
+    public boolean isPipelinable() {
+        return true;
+    }
+
     @Override
     protected void parse(ByteBuf byteBuf) {
         ActiveTBR activeTBR = new ActiveTBR();
@@ -16,6 +16,11 @@ public class GetCartridgeStatusMessage extends AppLayerMessage {
         super(MessagePriority.NORMAL, false, false, Service.STATUS);
     }
 
+    @Override
+    public boolean isPipelinable() {
+        return true;
+    }
+
     @Override
     protected void parse(ByteBuf byteBuf) {
         cartridgeStatus = new CartridgeStatus();
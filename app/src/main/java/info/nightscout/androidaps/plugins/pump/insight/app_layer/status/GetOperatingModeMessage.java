@@ -15,6 +15,11 @@ public class GetOperatingModeMessage extends AppLayerMessage {
         super(MessagePriority.NORMAL, true, false, Service.STATUS);
     }
 
+    @Override
+    public boolean isPipelinable() {
+        return true;
+    }
+
     @Override
     protected void parse(ByteBuf byteBuf) {
         this.operatingMode = OperatingModeIDs.IDS.getType(byteBuf.readUInt16LE());
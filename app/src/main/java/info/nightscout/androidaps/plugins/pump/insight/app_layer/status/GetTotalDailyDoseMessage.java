@@ -14,6 +14,11 @@ public class GetTotalDailyDoseMessage extends AppLayerMessage {
         super(MessagePriority.NORMAL, true, false, Service.STATUS);
     }
 
+    @Override
+    public boolean isPipelinable() {
+        return true;
+    }
+
     @Override
     protected void parse(ByteBuf byteBuf) {
         tdd = new TotalDailyDose();
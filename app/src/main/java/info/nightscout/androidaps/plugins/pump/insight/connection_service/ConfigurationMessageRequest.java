@@ -1,5 +1,7 @@
 package info.nightscout.androidaps.plugins.pump.insight.connection_service;
 
+import java.util.concurrent.CompletableFuture;
+
 import info.nightscout.androidaps.plugins.pump.insight.app_layer.AppLayerMessage;
 import info.nightscout.androidaps.plugins.pump.insight.app_layer.configuration.CloseConfigurationWriteSessionMessage;
 import info.nightscout.androidaps.plugins.pump.insight.app_layer.configuration.OpenConfigurationWriteSessionMessage;
@@ -15,6 +17,13 @@ public class ConfigurationMessageRequest<T extends AppLayerMessage> extends Mess
         this.closeRequest = closeRequest;
     }
 
+    // completed when the write session is closed
+    @Override
+    public CompletableFuture<T> getFuture() {
+        CompletableFuture<T> future = super.getFuture();
+        return CompletableFuture.allOf(openRequest.getFuture(), future, closeRequest.getFuture()).thenCompose(ignored -> future);
+    }
+
     @Override
     public T await() throws Exception {
         openRequest.await();
@@ -209,7 +209,7 @@ public class InsightConnectionService extends DaggerService implements Connectio
         MessageRequest<T> messageRequest;
         if (getState() != InsightState.CONNECTED) {
             messageRequest = new MessageRequest<>(message);
-            messageRequest.exception = new DisconnectedException();
+            messageRequest.complete(new DisconnectedException());
             return messageRequest;
         }
         if (message instanceof WriteConfigurationBlockMessage) {
@@ -228,9 +228,9 @@ public class InsightConnectionService extends DaggerService implements Connectio
     }
 
     private void requestNextMessage() {
-        while (messageQueue.getActiveRequest() == null && messageQueue.hasPendingMessages()) {
-            messageQueue.nextRequest();
-            info.nightscout.androidaps.plugins.pump.insight.app_layer.Service service = messageQueue.getActiveRequest().request.getService();
+        while (messageQueue.hasPendingMessages() && (messageQueue.getActiveRequest() == null || messageQueue.canPipelineNextRequest(activatedServices))) {
+            MessageRequest messageRequest = messageQueue.nextRequest();
+            info.nightscout.androidaps.plugins.pump.insight.app_layer.Service service = messageRequest.request.getService();
             if (service != info.nightscout.androidaps.plugins.pump.insight.app_layer.Service.CONNECTION && !activatedServices.contains(service)) {
                 if (service.getServicePassword() == null) {
                     ActivateServiceMessage activateServiceMessage = new ActivateServiceMessage();
@@ -244,8 +244,10 @@ public class InsightConnectionService extends DaggerService implements Connectio
                     serviceChallengeMessage.setVersion(service.getVersion());
                     sendAppLayerMessage(serviceChallengeMessage);
                 }
-            } else sendAppLayerMessage(messageQueue.getActiveRequest().request);
+            } else sendAppLayerMessage(messageRequest.request);
         }
+        // response of previous message stopped the timer, pipelined requests are still awaiting theirs
+        if (timeoutTimer == null && messageQueue.getActiveRequest() != null) startTimeoutTimer();
     }
 
     public synchronized InsightState getState() {
@@ -480,12 +482,16 @@ public class InsightConnectionService extends DaggerService implements Connectio
             satlMessage.setNonce(nonce);
         }
         ByteBuf serialized = satlMessage.serialize(satlMessage.getClass(), pairingDataStorage.getOutgoingKey());
+        startTimeoutTimer();
+        return serialized.getBytes();
+    }
+
+    private void startTimeoutTimer() {
         if (timeoutTimer != null) timeoutTimer.interrupt();
         timeoutTimer = DelayedActionThread.runDelayed("TimeoutTimer", RESPONSE_TIMEOUT, () -> {
             timeoutTimer = null;
             handleException(new TimeoutException());
         });
-        return serialized.getBytes();
     }
 
     private void sendSatlMessage(SatlMessage satlMessage) {
@@ -1,58 +1,82 @@
 package info.nightscout.androidaps.plugins.pump.insight.connection_service;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.PriorityQueue;
 
 import info.nightscout.androidaps.plugins.pump.insight.app_layer.AppLayerMessage;
+import info.nightscout.androidaps.plugins.pump.insight.app_layer.Service;
 
+/**
+ * Pending requests are kept in a heap ordered by priority and order of enqueueing.
+ * <p>
+ * Requests are sent one by one, except pipelinable (read only) requests which can be sent
+ * before the previous one is answered, up to PIPELINE_DEPTH requests in flight.
+ * Pump answers in order, so responses complete the oldest request in flight.
+ */
 public class MessageQueue {
 
-    MessageRequest activeRequest;
-    final List<MessageRequest> messageRequests = new ArrayList<>();
+    static final int PIPELINE_DEPTH = 2;
 
+    final Deque<MessageRequest> activeRequests = new ArrayDeque<>();
+    final PriorityQueue<MessageRequest> messageRequests = new PriorityQueue<>();
+    private long sequence = 0;
+
+    /**
+     * @return oldest request in flight
+     */
     public MessageRequest getActiveRequest() {
-        return activeRequest;
+        return activeRequests.peekFirst();
     }
 
+    @SuppressWarnings("unchecked")
     public void completeActiveRequest(AppLayerMessage response) {
-        if (activeRequest == null) return;
-        synchronized (activeRequest) {
-            activeRequest.response = response;
-            activeRequest.notifyAll();
-        }
-        activeRequest = null;
+        MessageRequest activeRequest = activeRequests.pollFirst();
+        if (activeRequest != null) activeRequest.complete(response);
     }
 
     public void completeActiveRequest(Exception exception) {
-        if (activeRequest == null) return;
-        synchronized (activeRequest) {
-            activeRequest.exception = exception;
-            activeRequest.notifyAll();
-        }
-        activeRequest = null;
+        MessageRequest activeRequest = activeRequests.pollFirst();
+        if (activeRequest != null) activeRequest.complete(exception);
     }
 
+    // requests in flight behind the active one are completed too, their responses will not come
     public void completePendingRequests(Exception exception) {
-        for (MessageRequest messageRequest : messageRequests) {
-            synchronized (messageRequest) {
-                messageRequest.exception = exception;
-                messageRequest.notifyAll();
-            }
-        }
+        for (MessageRequest messageRequest : activeRequests) messageRequest.complete(exception);
+        activeRequests.clear();
+        for (MessageRequest messageRequest : messageRequests) messageRequest.complete(exception);
         messageRequests.clear();
     }
 
     public void enqueueRequest(MessageRequest messageRequest) {
+        messageRequest.sequence = sequence++;
         messageRequests.add(messageRequest);
-        Collections.sort(messageRequests);
     }
 
-    public void nextRequest() {
-        if (messageRequests.size() != 0) {
-            activeRequest = messageRequests.get(0);
-            messageRequests.remove(0);
-        }
+    /**
+     * Moves first pending request to requests in flight
+     */
+    public MessageRequest nextRequest() {
+        MessageRequest messageRequest = messageRequests.poll();
+        if (messageRequest != null) activeRequests.addLast(messageRequest);
+        return messageRequest;
+    }
+
+    /**
+     * @return true if first pending request can be sent while other requests are in flight
+     */
+    public boolean canPipelineNextRequest(Collection<Service> activatedServices) {
+        MessageRequest next = messageRequests.peek();
+        if (next == null || activeRequests.isEmpty() || activeRequests.size() >= PIPELINE_DEPTH) return false;
+        if (!isPipelinable(next, activatedServices)) return false;
+        for (MessageRequest activeRequest : activeRequests)
+            if (!isPipelinable(activeRequest, activatedServices)) return false;
+        return true;
+    }
+
+    private boolean isPipelinable(MessageRequest messageRequest, Collection<Service> activatedServices) {
+        return messageRequest.request.isPipelinable() && activatedServices.contains(messageRequest.request.getService());
     }
 
     public boolean hasPendingMessages() {
@@ -60,7 +84,7 @@ public class MessageQueue {
     }
 
     public void reset() {
-        activeRequest = null;
+        activeRequests.clear();
         messageRequests.clear();
     }
 }
@@ -1,5 +1,9 @@
 package info.nightscout.androidaps.plugins.pump.insight.connection_service;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import info.nightscout.androidaps.plugins.pump.insight.app_layer.AppLayerMessage;
 
 public class MessageRequest<T extends AppLayerMessage> implements Comparable<MessageRequest> {
@@ -7,30 +11,51 @@ public class MessageRequest<T extends AppLayerMessage> implements Comparable<Mes
     T request;
     T response;
     Exception exception;
+    // order of enqueueing, requests of the same priority are sent in this order
+    long sequence;
+    private final CompletableFuture<T> future = new CompletableFuture<>();
 
     MessageRequest(T request) {
         this.request = request;
     }
 
+    void complete(T response) {
+        this.response = response;
+        future.complete(response);
+    }
+
+    void complete(Exception exception) {
+        this.exception = exception;
+        future.completeExceptionally(exception);
+    }
+
+    /**
+     * Completed with response or with exception thrown by await()
+     */
+    public CompletableFuture<T> getFuture() {
+        return future;
+    }
+
     public T await() throws Exception {
-        synchronized (this) {
-            while (exception == null && response == null) wait();
-            if (exception != null) throw exception;
-            return response;
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
         }
     }
 
     public T await(long timeout) throws Exception {
-        synchronized (this) {
-            while (exception == null && response == null) wait(timeout);
-            if (exception != null) throw exception;
-            return response;
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
         }
     }
 
     @Override
     public int compareTo(MessageRequest messageRequest) {
-        return request.compareTo(messageRequest.request);
+        int result = request.compareTo(messageRequest.request);
+        return result != 0 ? result : Long.compare(sequence, messageRequest.sequence);
     }
 
     public T getRequest() {
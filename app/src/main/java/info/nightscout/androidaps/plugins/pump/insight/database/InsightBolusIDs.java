@@ -0,0 +1,51 @@
+package info.nightscout.androidaps.plugins.pump.insight.database;
+
+import java.util.List;
+
+import info.nightscout.androidaps.db.DatabaseHelper;
+
+/**
+ * Bolus IDs of time range prefetched by one query for processing of many history events.
+ * <p>
+ * Lookups behave like DatabaseHelper.getInsightBolusID, lookups not covered by the
+ * prefetched range are passed to the database. Stored IDs must go through store()
+ * to be found by later lookups. Instance is valid only within the transaction it is created in,
+ * IDs stored by a rolled back transaction stay in memory.
+ */
+public class InsightBolusIDs {
+
+    // the same window as DatabaseHelper.getInsightBolusID uses
+    public static final long WINDOW = 259200000;
+
+    private final DatabaseHelper databaseHelper;
+    private final String pumpSerial;
+    private final long from;
+    private final long to;
+    private final List<InsightBolusID> bolusIDs;
+
+    public InsightBolusIDs(DatabaseHelper databaseHelper, String pumpSerial, long from, long to) {
+        this.databaseHelper = databaseHelper;
+        this.pumpSerial = pumpSerial;
+        this.from = from;
+        this.to = to;
+        bolusIDs = databaseHelper.getInsightBolusIDs(pumpSerial, from, to);
+    }
+
+    public InsightBolusID get(int bolusID, long timestamp) {
+        if (timestamp - WINDOW < from || timestamp + WINDOW > to)
+            return databaseHelper.getInsightBolusID(pumpSerial, bolusID, timestamp);
+        // first created one, like queryForFirst does
+        for (InsightBolusID insightBolusID : bolusIDs)
+            if (insightBolusID.bolusID == bolusID && Math.abs(insightBolusID.timestamp - timestamp) <= WINDOW)
+                return insightBolusID;
+        return null;
+    }
+
+    public void store(InsightBolusID bolusID) {
+        boolean created = bolusID.id == null;
+        databaseHelper.createOrUpdate(bolusID);
+        // id is not set if create failed
+        if (created && bolusID.id != null && bolusID.timestamp >= from && bolusID.timestamp <= to)
+            bolusIDs.add(bolusID);
+    }
+}
@@ -4,33 +4,83 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
 
+/**
+ * Ring buffer of fixed capacity
+ * <p>
+ * Positions are relative to the read index. Reading moves the read index only,
+ * so no bytes are moved when data are consumed from the front.
+ */
 public class ByteBuf {
 
-    private byte[] bytes;
+    private final byte[] bytes;
+    private int start = 0;
     private int size = 0;
+    // view on bytes of another buffer, can't be written
+    private final boolean slice;
 
     public ByteBuf(int length) {
         bytes = new byte[length];
+        slice = false;
+    }
+
+    private ByteBuf(byte[] bytes, int start, int size) {
+        this.bytes = bytes;
+        this.start = start;
+        this.size = size;
+        slice = true;
+    }
+
+    private int index(int position) {
+        int index = start + position;
+        return index < bytes.length ? index : index - bytes.length;
+    }
+
+    private void copyTo(int position, byte[] target, int targetPosition, int length) {
+        int index = index(position);
+        int first = Math.min(length, bytes.length - index);
+        System.arraycopy(bytes, index, target, targetPosition, first);
+        System.arraycopy(bytes, 0, target, targetPosition + first, length - first);
+    }
+
+    private void copyFrom(byte[] source, int sourcePosition, int length) {
+        if (slice) throw new IllegalStateException("Slice is read only");
+        if (size + length > bytes.length) throw new IndexOutOfBoundsException("Buffer overflow");
+        int index = index(size);
+        int first = Math.min(length, bytes.length - index);
+        System.arraycopy(source, sourcePosition, bytes, index, first);
+        System.arraycopy(source, sourcePosition + first, bytes, 0, length - first);
+        size += length;
     }
 
 
     public byte[] getBytes() {
-        byte[] bytes = new byte[size];
-        System.arraycopy(this.bytes, 0, bytes, 0, size);
-        return bytes;
+        return getBytes(0, size);
     }
 
     public void shift(int offset) {
-        System.arraycopy(bytes, offset, bytes, 0, bytes.length - offset);
         size -= offset;
+        start = size == 0 ? 0 : index(offset);
+    }
+
+    /**
+     * View on next length bytes, valid until the bytes are overwritten by this buffer
+     */
+    public ByteBuf getSlice(int length) {
+        return new ByteBuf(bytes, start, length);
+    }
+
+    public ByteBuf readSlice(int length) {
+        ByteBuf slice = getSlice(length);
+        shift(length);
+        return slice;
     }
 
     public byte getByte(int position) {
-        return bytes[position];
+        return bytes[index(position)];
     }
 
     public byte getByte() {
-        return bytes[0];
+        return getByte(0);
     }
 
     public byte readByte() {
@@ -40,19 +90,21 @@ public class ByteBuf {
     }
 
     public void putByte(byte b) {
-        bytes[size] = b;
+        if (slice) throw new IllegalStateException("Slice is read only");
+        if (size == bytes.length) throw new IndexOutOfBoundsException("Buffer overflow");
+        bytes[index(size)] = b;
         size += 1;
     }
 
 
     public void putBytes(byte b, int count) {
-        for (int i = 0; i < count; i++) bytes[size++] = b;
+        for (int i = 0; i < count; i++) putByte(b);
     }
 
 
     public byte[] getBytes(int position, int length) {
         byte[] copy = new byte[length];
-        System.arraycopy(bytes, position, copy, 0, length);
+        copyTo(position, copy, 0, length);
         return copy;
     }
 
@@ -71,8 +123,7 @@ public class ByteBuf {
     }
 
     public void putBytes(byte[] bytes, int length) {
-        System.arraycopy(bytes, 0, this.bytes, size, length);
-        size += length;
+        copyFrom(bytes, 0, length);
     }
 
     public void putBytes(byte[] bytes) {
@@ -83,7 +134,7 @@ public class ByteBuf {
     private byte[] getBytesLE(int position, int length) {
         byte[] copy = new byte[length];
         for (int i = 0; i < length; i++)
-            copy[i] = bytes[length - 1 - i + position];
+            copy[i] = getByte(length - 1 - i + position);
         return copy;
     }
 
@@ -99,8 +150,7 @@ public class ByteBuf {
 
     private void putBytesLE(byte[] bytes, int length) {
         for (int i = 0; i < length; i++)
-            this.bytes[size + length - 1 - i] = bytes[i];
-        size += length;
+            putByte(bytes[length - 1 - i]);
     }
 
     void putBytesLE(byte[] bytes) {
@@ -109,12 +159,15 @@ public class ByteBuf {
 
 
     public void putByteBuf(ByteBuf byteBuf) {
-        putBytes(byteBuf.getBytes(), byteBuf.getSize());
+        int index = byteBuf.index(0);
+        int first = Math.min(byteBuf.size, byteBuf.bytes.length - index);
+        copyFrom(byteBuf.bytes, index, first);
+        copyFrom(byteBuf.bytes, 0, byteBuf.size - first);
     }
 
 
     private short getUInt8(int position) {
-        return (short) (bytes[position] & 0xFF);
+        return (short) (getByte(position) & 0xFF);
     }
 
     private short getUInt8() {
@@ -133,8 +186,8 @@ public class ByteBuf {
 
 
     public int getUInt16LE(int position) {
-        return (bytes[position++] & 0xFF |
-                (bytes[position] & 0xFF) << 8);
+        return (getByte(position++) & 0xFF |
+                (getByte(position) & 0xFF) << 8);
     }
 
     private int getUInt16LE() {
@@ -226,8 +279,8 @@ public class ByteBuf {
 
 
     private short getShort(int position) {
-        return (short) (bytes[position++] << 8 |
-                bytes[position] & 0xFF);
+        return (short) (getByte(position++) << 8 |
+                getByte(position) & 0xFF);
     }
 
     public short getShort() {
@@ -247,10 +300,10 @@ public class ByteBuf {
 
 
     private long getUInt32LE(int position) {
-        return ((long) bytes[position++] & 0xFF) |
-                ((long) bytes[position++] & 0xFF) << 8 |
-                ((long) bytes[position++] & 0xFF) << 16 |
-                ((long) bytes[position] & 0xFF) << 24;
+        return ((long) getByte(position++) & 0xFF) |
+                ((long) getByte(position++) & 0xFF) << 8 |
+                ((long) getByte(position++) & 0xFF) << 16 |
+                ((long) getByte(position) & 0xFF) << 24;
     }
 
     private long getUInt32LE() {
@@ -0,0 +1,119 @@
+package info.nightscout.androidaps.plugins.sensitivity;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Deviations window of oref1 sensitivity detection
+ * <p>
+ * Behaves like ArrayList&lt;Double&gt; with add() and remove(0) but keeps values
+ * in primitive array and removing the oldest value is just moving the start
+ */
+final class DeviationsBuffer {
+    private double[] values = new double[128];
+    private int start = 0;
+    private int end = 0;
+    // scratch array for percentile selection
+    private double[] selection = new double[0];
+
+    int size() {
+        return end - start;
+    }
+
+    void clear() {
+        start = end = 0;
+    }
+
+    void add(double value) {
+        if (end == values.length) {
+            int size = size();
+            // compact if at least half is unused, grow otherwise
+            double[] target = size * 2 <= values.length ? values : new double[values.length * 2];
+            System.arraycopy(values, start, target, 0, size);
+            values = target;
+            start = 0;
+            end = size;
+        }
+        values[end++] = value;
+    }
+
+    void addAll(List<Double> list) {
+        for (int i = 0; i < list.size(); i++)
+            add(list.get(i));
+    }
+
+    void removeOldest() {
+        if (start < end) start++;
+    }
+
+    double get(int index) {
+        return values[start + index];
+    }
+
+    /**
+     * Same result as IobCobCalculatorPlugin.percentile() on sorted values
+     * but using O(n) selection instead of sorting
+     */
+    double percentile(double p) {
+        int size = size();
+        if (size == 0) return 0;
+        if (selection.length < size) selection = new double[values.length];
+        double[] arr = selection;
+        System.arraycopy(values, start, arr, 0, size);
+        if (p <= 0) return select(arr, size, 0);
+        if (p >= 1) return select(arr, size, size - 1);
+
+        double index = size * p,
+                lower = Math.floor(index),
+                upper = lower + 1,
+                weight = index % 1;
+
+        double lowerValue = select(arr, size, (int) lower);
+        if (upper >= size) return lowerValue;
+        // after selection all values behind lower are >= lowerValue, upper is the smallest of them
+        double upperValue = arr[(int) upper];
+        for (int i = (int) upper + 1; i < size; i++)
+            if (Double.compare(arr[i], upperValue) < 0) upperValue = arr[i];
+        return lowerValue * (1 - weight) + upperValue * weight;
+    }
+
+    /**
+     * Quickselect, reorders arr so that arr[k] is k-th smallest value,
+     * smaller values are before it and greater or equal behind it.
+     * Ordering is the same as Arrays.sort(Double[])
+     */
+    static double select(double[] arr, int size, int k) {
+        int left = 0;
+        int right = size - 1;
+        while (right > left) {
+            // median of three pivot
+            int mid = (left + right) >>> 1;
+            if (Double.compare(arr[mid], arr[left]) < 0) swap(arr, mid, left);
+            if (Double.compare(arr[right], arr[left]) < 0) swap(arr, right, left);
+            if (Double.compare(arr[right], arr[mid]) < 0) swap(arr, right, mid);
+            double pivot = arr[mid];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (Double.compare(arr[i], pivot) < 0) i++;
+                while (Double.compare(arr[j], pivot) > 0) j--;
+                if (i <= j) swap(arr, i++, j--);
+            }
+            if (k <= j) right = j;
+            else if (k >= i) left = i;
+            else break;
+        }
+        return arr[k];
+    }
+
+    private static void swap(double[] arr, int i, int j) {
+        double tmp = arr[i];
+        arr[i] = arr[j];
+        arr[j] = tmp;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOfRange(values, start, end));
+    }
+}
@@ -4,7 +4,6 @@ import androidx.collection.LongSparseArray;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -24,9 +23,9 @@ import info.nightscout.androidaps.interfaces.ProfileFunction;
 import info.nightscout.androidaps.logging.AAPSLogger;
 import info.nightscout.androidaps.logging.LTag;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.AutosensResult;
-import info.nightscout.androidaps.plugins.iob.iobCobCalculator.IobCobCalculatorPlugin;
 import info.nightscout.androidaps.plugins.iob.iobCobCalculator.data.AutosensData;
 import info.nightscout.androidaps.utils.DateUtil;
+import info.nightscout.androidaps.utils.T;
 import info.nightscout.androidaps.utils.resources.ResourceHelper;
 import info.nightscout.androidaps.utils.sharedPreferences.SP;
 
@@ -37,6 +36,11 @@ import info.nightscout.androidaps.utils.sharedPreferences.SP;
 @Singleton
 public class SensitivityOref1Plugin extends AbstractSensitivityPlugin {
 
+    //[0] = 8 hour
+    //[1] = 24 hour
+    private static final int[] HOURS_DETECTION = {8, 24};
+    private static final int[] DEVIATION_CATEGORY = {96, 288};
+
     private final ProfileFunction profileFunction;
     private final DateUtil dateUtil;
 
@@ -91,119 +95,116 @@ public class SensitivityOref1Plugin extends AbstractSensitivityPlugin {
         List<CareportalEvent> siteChanges = MainApp.getDbHelper().getCareportalEventsFromTime(fromTime, CareportalEvent.SITECHANGE, true);
         List<ProfileSwitch> profileSwitches = MainApp.getDbHelper().getProfileSwitchEventsFromTime(fromTime, true);
 
+        long[] siteChangeTimes = new long[siteChanges.size()];
+        for (int i = 0; i < siteChanges.size(); i++)
+            siteChangeTimes[i] = siteChanges.get(i).date;
+        // only zero duration profile switches reset deviations
+        int zeroDurationSwitches = 0;
+        long[] profileSwitchTimes = new long[profileSwitches.size()];
+        for (ProfileSwitch profileSwitch : profileSwitches)
+            if (profileSwitch.durationInMinutes == 0)
+                profileSwitchTimes[zeroDurationSwitches++] = profileSwitch.date;
+        profileSwitchTimes = Arrays.copyOf(profileSwitchTimes, zeroDurationSwitches);
+
+        AutosensResult output = detectSensitivity(autosensDataTable, fromTime, toTime, siteChangeTimes, profileSwitchTimes,
+                profile.getIsfMgdl(), profile.getMaxDailyBasal(), current.cob);
+
+        getAapsLogger().debug(LTag.AUTOSENS, "Sensitivity to: "
+                + dateUtil.dateAndTimeString(toTime) +
+                " ratio: " + output.ratio
+                + " mealCOB: " + current.cob);
+
+        return output;
+    }
+
+    /**
+     * Deviations of both 8h and 24h windows are collected in single pass over autosensDataTable
+     *
+     * @param siteChanges     site change timestamps
+     * @param profileSwitches zero duration profile switch timestamps
+     */
+    AutosensResult detectSensitivity(LongSparseArray<AutosensData> autosensDataTable, long fromTime, long toTime,
+                                     long[] siteChanges, long[] profileSwitches, double sens, double maxDailyBasal, double cob) {
+        Arrays.sort(siteChanges);
+        Arrays.sort(profileSwitches);
+
         //[0] = 8 hour
         //[1] = 24 hour
-        //Deviationshour has DeviationsArray
-        List<ArrayList<Double>> deviationsHour = Arrays.asList(new ArrayList<>(), new ArrayList<>());
-        List<String> pastSensitivityArray = Arrays.asList("", "");
-        List<String> sensResultArray = Arrays.asList("", "");
-        List<Double> ratioArray = Arrays.asList(0d, 0d);
-        List<Double> deviationCategory = Arrays.asList(96d, 288d);
-        List<String> ratioLimitArray = Arrays.asList("", "");
-        List<Double> hoursDetection = Arrays.asList(8d, 24d);
-
-
-        int index = 0;
-        while (index < autosensDataTable.size()) {
-            AutosensData autosensData = autosensDataTable.valueAt(index);
+        DeviationsBuffer[] deviationsHour = {new DeviationsBuffer(), new DeviationsBuffer()};
+        long[] detectionStart = {toTime - T.hours(HOURS_DETECTION[0]).msecs(), toTime - T.hours(HOURS_DETECTION[1]).msecs()};
+        // events and past sensitivity are the same for both windows
+        StringBuilder pastSensitivity = new StringBuilder();
 
-            if (autosensData.time < fromTime) {
-                index++;
-                continue;
+        int records = 0;
+        for (int index = firstIndexFrom(autosensDataTable, fromTime); index < autosensDataTable.size(); index++) {
+            AutosensData autosensData = autosensDataTable.valueAt(index);
+            if (autosensData.time > toTime) break;
+            records++;
+
+            // reset deviations after site change
+            boolean reset = false;
+            if (isEvent5minBack(siteChanges, autosensData.time)) {
+                reset = true;
+                pastSensitivity.append("(SITECHANGE)");
             }
 
-            if (autosensData.time > toTime) {
-                index++;
-                continue;
+            // reset deviations after profile switch
+            if (isEvent5minBack(profileSwitches, autosensData.time)) {
+                reset = true;
+                pastSensitivity.append("(PROFILESWITCH)");
             }
-            int hoursegment = 0;
-            //hoursegment = 0 = 8 hour
-            //hoursegment = 1 = 24 hour
-            while (hoursegment < deviationsHour.size()) {
-                ArrayList<Double> deviationsArray = deviationsHour.get(hoursegment);
-                String pastSensitivity = pastSensitivityArray.get(hoursegment);
-
-                // reset deviations after site change
-                if (new CareportalEvent(getInjector()).isEvent5minBack(siteChanges, autosensData.time)) {
-                    deviationsArray.clear();
-                    pastSensitivity += "(SITECHANGE)";
-                }
 
-                // reset deviations after profile switch
-                if (new ProfileSwitch(getInjector()).isEvent5minBack(profileSwitches, autosensData.time, true)) {
-                    deviationsArray.clear();
-                    pastSensitivity += "(PROFILESWITCH)";
-                }
+            double deviation = autosensData.deviation;
 
-                double deviation = autosensData.deviation;
+            //set positive deviations to zero if bg < 80
+            if (autosensData.bg < 80 && deviation > 0)
+                deviation = 0;
 
-                //set positive deviations to zero if bg < 80
-                if (autosensData.bg < 80 && deviation > 0)
-                    deviation = 0;
+            for (int hoursegment = 0; hoursegment < deviationsHour.length; hoursegment++) {
+                DeviationsBuffer deviationsArray = deviationsHour[hoursegment];
+                if (reset) deviationsArray.clear();
 
                 if (autosensData.validDeviation)
-                    if (autosensData.time > toTime - hoursDetection.get(hoursegment) * 60 * 60 * 1000L)
+                    if (autosensData.time > detectionStart[hoursegment])
                         deviationsArray.add(deviation);
 
-
                 deviationsArray.addAll(autosensData.extraDeviation);
 
-                if (deviationsArray.size() > deviationCategory.get(hoursegment)) {
-                    deviationsArray.remove(0);
+                if (deviationsArray.size() > DEVIATION_CATEGORY[hoursegment]) {
+                    deviationsArray.removeOldest();
                 }
+            }
 
-                pastSensitivity += autosensData.pastSensitivity;
-                int secondsFromMidnight = Profile.secondsFromMidnight(autosensData.time);
-
-                if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60) {
-                    pastSensitivity += "(" + Math.round(secondsFromMidnight / 3600d) + ")";
-                }
+            pastSensitivity.append(autosensData.pastSensitivity);
+            int secondsFromMidnight = Profile.secondsFromMidnight(autosensData.time);
 
-                //Update the data back to the parent
-                deviationsHour.set(hoursegment, deviationsArray);
-                pastSensitivityArray.set(hoursegment, pastSensitivity);
-                hoursegment++;
+            if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60) {
+                pastSensitivity.append("(").append(Math.round(secondsFromMidnight / 3600d)).append(")");
             }
-            index++;
         }
 
-        // when we have less than 8h/24 worth of deviation data, add up to 90m of zero deviations
-        // this dampens any large sensitivity changes detected based on too little data, without ignoring them completely
+        getAapsLogger().debug(LTag.AUTOSENS, "Records: " + records + "   " + pastSensitivity);
+
+        double[] ratioArray = new double[deviationsHour.length];
+        String[] sensResultArray = new String[deviationsHour.length];
+        for (int hourused = 0; hourused < deviationsHour.length; hourused++) {
+            DeviationsBuffer deviations = deviationsHour[hourused];
 
-        for (int i = 0; i < deviationsHour.size(); i++) {
-            ArrayList<Double> deviations = deviationsHour.get(i);
+            // when we have less than 8h/24 worth of deviation data, add up to 90m of zero deviations
+            // this dampens any large sensitivity changes detected based on too little data, without ignoring them completely
             getAapsLogger().debug(LTag.AUTOSENS, "Using most recent " + deviations.size() + " deviations");
-            if (deviations.size() < deviationCategory.get(i)) {
-                int pad = (int) Math.round((1 - (double) deviations.size() / deviationCategory.get(i)) * 18);
+            if (deviations.size() < DEVIATION_CATEGORY[hourused]) {
+                int pad = (int) Math.round((1 - (double) deviations.size() / DEVIATION_CATEGORY[hourused]) * 18);
                 getAapsLogger().debug(LTag.AUTOSENS, "Adding " + pad + " more zero deviations");
                 for (int d = 0; d < pad; d++) {
                     deviations.add(0d);
                 }
             }
-            //Update the data back to the parent
-            deviationsHour.set(i, deviations);
-
-        }
-
-        int hourused = 0;
-        while (hourused < deviationsHour.size()) {
-            ArrayList deviationsArray = deviationsHour.get(hourused);
-            String pastSensitivity = pastSensitivityArray.get(hourused);
-            String sensResult = "(8 hours) ";
-            if (hourused == 1) sensResult = "(24 hours) ";
-            String ratioLimit = "";
 
-            Double[] deviations = new Double[deviationsArray.size()];
-            deviations = (Double[]) deviationsArray.toArray(deviations);
+            String sensResult = hourused == 0 ? "(8 hours) " : "(24 hours) ";
 
-            double sens = profile.getIsfMgdl();
-
-
-            getAapsLogger().debug(LTag.AUTOSENS, "Records: " + index + "   " + pastSensitivity);
-
-            Arrays.sort(deviations);
-            double pSensitive = IobCobCalculatorPlugin.percentile(deviations, 0.50);
-            double pResistant = IobCobCalculatorPlugin.percentile(deviations, 0.50);
+            double pSensitive = deviations.percentile(0.50);
+            double pResistant = pSensitive;
 
             double basalOff = 0;
 
@@ -219,31 +220,45 @@ public class SensitivityOref1Plugin extends AbstractSensitivityPlugin {
 
             getAapsLogger().debug(LTag.AUTOSENS, sensResult);
 
-            double ratio = 1 + (basalOff / profile.getMaxDailyBasal());
-
-            //Update the data back to the parent
-            sensResultArray.set(hourused, sensResult);
-            ratioArray.set(hourused, ratio);
-            ratioLimitArray.set(hourused, ratioLimit);
-            hourused++;
+            ratioArray[hourused] = 1 + (basalOff / maxDailyBasal);
+            sensResultArray[hourused] = sensResult;
         }
 
         int key = 1;
-        String comparison = " 8 h ratio " + ratioArray.get(0) + " vs 24h ratio " + ratioArray.get(1);
+        String comparison = " 8 h ratio " + ratioArray[0] + " vs 24h ratio " + ratioArray[1];
         //use 24 hour ratio by default
         //if the 8 hour ratio is less than the 24 hour ratio, the 8 hour ratio is used
-        if (ratioArray.get(0) < ratioArray.get(1)) {
+        if (ratioArray[0] < ratioArray[1]) {
             key = 0;
         }
-        //String message = hoursDetection.get(key) + " of sensitivity used";
-        AutosensResult output = fillResult(ratioArray.get(key), current.cob, pastSensitivityArray.get(key), ratioLimitArray.get(key),
-                sensResultArray.get(key) + comparison, deviationsHour.get(key).size());
+        return fillResult(ratioArray[key], cob, pastSensitivity.toString(), "",
+                sensResultArray[key] + comparison, deviationsHour[key].size());
+    }
 
-        getAapsLogger().debug(LTag.AUTOSENS, "Sensitivity to: "
-                + dateUtil.dateAndTimeString(toTime) +
-                " ratio: " + output.ratio
-                + " mealCOB: " + current.cob);
+    // index of first autosens data with time >= fromTime
+    private static int firstIndexFrom(LongSparseArray<AutosensData> autosensDataTable, long fromTime) {
+        int low = 0;
+        int high = autosensDataTable.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (autosensDataTable.keyAt(mid) < fromTime) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
 
-        return output;
+    // same as CareportalEvent.isEvent5minBack() on sorted timestamps
+    static boolean isEvent5minBack(long[] sortedTimes, long time) {
+        long from = time - 5 * 60 * 1000L;
+        int low = 0;
+        int high = sortedTimes.length;
+        // first event with date > from
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedTimes[mid] <= from) low = mid + 1;
+            else high = mid;
+        }
+        return low < sortedTimes.length && sortedTimes[low] <= time;
+    }
     }
 }
@@ -77,6 +77,7 @@ class DexcomPlugin @Inject constructor(
         try {
             val sensorType = intent.getStringExtra("sensorType") ?: ""
             val glucoseValues = intent.getBundleExtra("glucoseValues")
+            val bgReadings = ArrayList<BgReading>(glucoseValues.size())
             for (i in 0 until glucoseValues.size()) {
                 glucoseValues.getBundle(i.toString())?.let { glucoseValue ->
                     val bgReading = BgReading()
@@ -84,14 +85,15 @@ class DexcomPlugin @Inject constructor(
                     bgReading.direction = glucoseValue.getString("trendArrow")
                     bgReading.date = glucoseValue.getLong("timestamp") * 1000
                     bgReading.raw = 0.0
-                    if (MainApp.getDbHelper().createIfNotExists(bgReading, "Dexcom$sensorType")) {
-                        if (sp.getBoolean(R.string.key_dexcomg5_nsupload, false)) {
-                            nsUpload.uploadBg(bgReading, "AndroidAPS-Dexcom$sensorType")
-                        }
-                        if (sp.getBoolean(R.string.key_dexcomg5_xdripupload, false)) {
-                            nsUpload.sendToXdrip(bgReading)
-                        }
-                    }
+                    bgReadings.add(bgReading)
+                }
+            }
+            for (bgReading in MainApp.getDbHelper().createIfNotExists(bgReadings, "Dexcom$sensorType")) {
+                if (sp.getBoolean(R.string.key_dexcomg5_nsupload, false)) {
+                    nsUpload.uploadBg(bgReading, "AndroidAPS-Dexcom$sensorType")
+                }
+                if (sp.getBoolean(R.string.key_dexcomg5_xdripupload, false)) {
+                    nsUpload.sendToXdrip(bgReading)
                 }
             }
             val meters = intent.getBundleExtra("meters")
@@ -44,6 +44,7 @@ class MM640gPlugin @Inject constructor(
             if (data != null && data.isNotEmpty()) {
                 try {
                     val jsonArray = JSONArray(data)
+                    val bgReadings = ArrayList<BgReading>(jsonArray.length())
                     for (i in 0 until jsonArray.length()) {
                         val jsonObject = jsonArray.getJSONObject(i)
                         when (val type = jsonObject.getString("type")) {
@@ -53,12 +54,13 @@ class MM640gPlugin @Inject constructor(
                                 bgReading.direction = jsonObject.getString("direction")
                                 bgReading.date = jsonObject.getLong("date")
                                 bgReading.raw = jsonObject.getDouble("sgv")
-                                MainApp.getDbHelper().createIfNotExists(bgReading, "MM640g")
+                                bgReadings.add(bgReading)
                             }
 
                             else  -> aapsLogger.debug(LTag.BGSOURCE, "Unknown entries type: $type")
                         }
                     }
+                    MainApp.getDbHelper().createIfNotExists(bgReadings, "MM640g")
                 } catch (e: JSONException) {
                     aapsLogger.error("Exception: ", e)
                 }
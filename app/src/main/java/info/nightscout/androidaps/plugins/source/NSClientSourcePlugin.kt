@@ -53,36 +53,36 @@ class NSClientSourcePlugin @Inject constructor(
     }
 
     override fun handleNewData(intent: Intent) {
-        if (!isEnabled(PluginType.BGSOURCE) && !sp.getBoolean(R.string.key_ns_autobackfill, true)) return
         val bundles = intent.extras ?: return
         try {
-            if (bundles.containsKey("sgv")) {
-                val sgvString = bundles.getString("sgv")
-                aapsLogger.debug(LTag.BGSOURCE, "Received NS Data: $sgvString")
-                val sgvJson = JSONObject(sgvString)
-                storeSgv(sgvJson)
-            }
+            val sgvs = ArrayList<JSONObject>()
+            if (bundles.containsKey("sgv")) sgvs.add(JSONObject(bundles.getString("sgv")))
             if (bundles.containsKey("sgvs")) {
-                val sgvString = bundles.getString("sgvs")
-                aapsLogger.debug(LTag.BGSOURCE, "Received NS Data: $sgvString")
-                val jsonArray = JSONArray(sgvString)
-                for (i in 0 until jsonArray.length()) {
-                    val sgvJson = jsonArray.getJSONObject(i)
-                    storeSgv(sgvJson)
-                }
+                val jsonArray = JSONArray(bundles.getString("sgvs"))
+                for (i in 0 until jsonArray.length()) sgvs.add(jsonArray.getJSONObject(i))
             }
+            handleNewSgvs(sgvs)
         } catch (e: Exception) {
             aapsLogger.error("Unhandled exception", e)
         }
-        // Objectives 0
-        sp.putBoolean(R.string.key_ObjectivesbgIsAvailableInNS, true)
     }
 
-    private fun storeSgv(sgvJson: JSONObject) {
-        val nsSgv = NSSgv(sgvJson)
-        val bgReading = BgReading(injector, nsSgv)
-        MainApp.getDbHelper().createIfNotExists(bgReading, "NS")
-        detectSource(safeGetString(sgvJson, "device", "none"), safeGetLong(sgvJson, "mills"))
+    // Records parsed by NSClientService, passed directly without broadcast
+    fun handleNewSgvs(sgvs: List<JSONObject>) {
+        if (!isEnabled(PluginType.BGSOURCE) && !sp.getBoolean(R.string.key_ns_autobackfill, true)) return
+        aapsLogger.debug(LTag.BGSOURCE) { "Received NS Data: $sgvs" }
+        try {
+            val bgReadings = ArrayList<BgReading>(sgvs.size)
+            for (sgvJson in sgvs) {
+                bgReadings.add(BgReading(injector, NSSgv(sgvJson)))
+                detectSource(safeGetString(sgvJson, "device", "none"), safeGetLong(sgvJson, "mills"))
+            }
+            MainApp.getDbHelper().createIfNotExists(bgReadings, "NS")
+        } catch (e: Exception) {
+            aapsLogger.error("Unhandled exception", e)
+        }
+        // Objectives 0
+        sp.putBoolean(R.string.key_ObjectivesbgIsAvailableInNS, true)
     }
 
     private fun detectSource(source: String, timeStamp: Long) {
@@ -0,0 +1,139 @@
+package info.nightscout.androidaps.plugins.treatments;
+
+import androidx.collection.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import info.nightscout.androidaps.data.Iob;
+import info.nightscout.androidaps.data.IobTotal;
+import info.nightscout.androidaps.db.Treatment;
+import info.nightscout.androidaps.interfaces.InsulinInterface;
+import info.nightscout.androidaps.utils.T;
+
+/**
+ * Time ordered view of valid treatments used for IOB calculation.
+ * <p>
+ * Only treatments inside the insulin action window of requested time are evaluated
+ * (found by binary search) and results are memoized per time, so the autosens thread
+ * walking 5 min steps over 24h + DIA does not re-evaluate the whole treatment list
+ * at every step.
+ * <p>
+ * Instance must be rebuilt when treatments change. Not thread safe, caller must hold
+ * the treatments lock.
+ */
+class TreatmentIobIndex {
+    // prevent unbounded growth when called with arbitrary (not rounded) times
+    private static final int MAX_CACHED = 2000;
+
+    private final Treatment[] items; // oldest at index 0
+    private final long[] dates;
+    private final long[] lastBolusTimes; // latest bolus time in items[0..i]
+
+    private final LongSparseArray<IobTotal> cache = new LongSparseArray<>();
+    private int cachedInsulinId = -1;
+    private double cachedInsulinDia = 0;
+    private double cachedDia = 0;
+    private double cachedSnoozeDivisor = 0;
+
+    TreatmentIobIndex(List<Treatment> treatments) {
+        List<Treatment> valid = new ArrayList<>(treatments.size());
+        for (Treatment t : treatments)
+            if (t.isValid) valid.add(t);
+        Collections.sort(valid, (a, b) -> Long.compare(a.date, b.date));
+
+        int size = valid.size();
+        items = valid.toArray(new Treatment[size]);
+        dates = new long[size];
+        lastBolusTimes = new long[size];
+        long lastBolusTime = 0;
+        for (int i = 0; i < size; i++) {
+            dates[i] = items[i].date;
+            if (items[i].insulin > 0 && items[i].date > lastBolusTime)
+                lastBolusTime = items[i].date;
+            lastBolusTimes[i] = lastBolusTime;
+        }
+    }
+
+    int size() {
+        return items.length;
+    }
+
+    /**
+     * Bolus IOB at time from treatments (extended boluses are not included)
+     *
+     * @param time          time of calculation
+     * @param dia           profile DIA passed to insulin
+     * @param insulin       active insulin
+     * @param snoozeDivisor bolus snooze DIA divisor
+     * @return new IobTotal owned by caller
+     */
+    IobTotal calculate(long time, double dia, InsulinInterface insulin, double snoozeDivisor) {
+        invalidateOnChange(dia, insulin, snoozeDivisor);
+        IobTotal cached = cache.get(time);
+        if (cached != null) return cached.copy();
+
+        IobTotal total = new IobTotal(time);
+        int end = upperBound(time); // exclusive
+        if (end > 0) {
+            total.lastBolusTime = lastBolusTimes[end - 1];
+            long window = actionWindow(dia, insulin.getDia(), snoozeDivisor);
+            int start = window == Long.MAX_VALUE ? 0 : upperBound(time - window);
+            for (int pos = start; pos < end; pos++) {
+                Treatment t = items[pos];
+                Iob tIOB = insulin.iobCalcForTreatment(t, time, dia);
+                total.iob += tIOB.iobContrib;
+                total.activity += tIOB.activityContrib;
+                if (!t.isSMB) {
+                    // instead of dividing the DIA that only worked on the bilinear curves,
+                    // multiply the time the treatment is seen active.
+                    long timeSinceTreatment = time - t.date;
+                    long snoozeTime = t.date + (long) (timeSinceTreatment * snoozeDivisor);
+                    Iob bIOB = insulin.iobCalcForTreatment(t, snoozeTime, dia);
+                    total.bolussnooze += bIOB.iobContrib;
+                }
+            }
+        }
+
+        if (cache.size() >= MAX_CACHED) cache.clear();
+        cache.put(time, total.copy());
+        return total;
+    }
+
+    void clearCache() {
+        cache.clear();
+    }
+
+    private void invalidateOnChange(double dia, InsulinInterface insulin, double snoozeDivisor) {
+        int insulinId = insulin.getId();
+        double insulinDia = insulin.getDia();
+        if (insulinId != cachedInsulinId || insulinDia != cachedInsulinDia || dia != cachedDia || snoozeDivisor != cachedSnoozeDivisor) {
+            cache.clear();
+            cachedInsulinId = insulinId;
+            cachedInsulinDia = insulinDia;
+            cachedDia = dia;
+            cachedSnoozeDivisor = snoozeDivisor;
+        }
+    }
+
+    // Treatments older than this window have zero IOB and zero bolus snooze at requested time
+    static long actionWindow(double dia, double insulinDia, double snoozeDivisor) {
+        if (snoozeDivisor <= 0) return Long.MAX_VALUE;
+        double window = T.hours(1).msecs() * Math.max(dia, insulinDia);
+        if (snoozeDivisor < 1) window /= snoozeDivisor;
+        return (long) Math.ceil(window);
+    }
+
+    // index of first treatment with date > time
+    private int upperBound(long time) {
+        int low = 0;
+        int high = dates.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (dates[mid] <= time) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
@@ -9,6 +9,7 @@ import com.j256.ormlite.android.apptools.OpenHelperManager;
 import com.j256.ormlite.android.apptools.OrmLiteBaseService;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.stmt.PreparedQuery;
 import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.stmt.Where;
@@ -22,20 +23,19 @@ import org.json.JSONObject;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
 
 import dagger.android.HasAndroidInjector;
+import info.nightscout.androidaps.db.BatchErrors;
+import info.nightscout.androidaps.db.ChangeBatch;
+import info.nightscout.androidaps.db.ChangedRecords;
+import info.nightscout.androidaps.db.CommitActions;
+import info.nightscout.androidaps.db.DatabaseChangeScheduler;
 import info.nightscout.androidaps.db.DatabaseHelper;
-import info.nightscout.androidaps.db.ICallback;
 import info.nightscout.androidaps.db.Source;
 import info.nightscout.androidaps.db.Treatment;
-import info.nightscout.androidaps.events.Event;
-import info.nightscout.androidaps.events.EventNsTreatment;
 import info.nightscout.androidaps.events.EventReloadTreatmentData;
 import info.nightscout.androidaps.events.EventTreatmentChange;
 import info.nightscout.androidaps.interfaces.DatabaseHelperInterface;
@@ -43,14 +43,10 @@ import info.nightscout.androidaps.logging.AAPSLogger;
 import info.nightscout.androidaps.logging.LTag;
 import info.nightscout.androidaps.plugins.bus.RxBusWrapper;
 import info.nightscout.androidaps.plugins.general.openhumans.OpenHumansUploader;
-import info.nightscout.androidaps.plugins.iob.iobCobCalculator.events.EventNewHistoryData;
 import info.nightscout.androidaps.plugins.pump.medtronic.MedtronicPumpPlugin;
 import info.nightscout.androidaps.plugins.pump.medtronic.data.MedtronicHistoryData;
 import info.nightscout.androidaps.utils.DateUtil;
-import info.nightscout.androidaps.utils.FabricPrivacy;
 import info.nightscout.androidaps.utils.JsonHelper;
-import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.schedulers.Schedulers;
 
 
 /**
@@ -60,35 +56,21 @@ import io.reactivex.schedulers.Schedulers;
 public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
 
     @Inject AAPSLogger aapsLogger;
-    @Inject FabricPrivacy fabricPrivacy;
     @Inject RxBusWrapper rxBus;
     @Inject MedtronicPumpPlugin medtronicPumpPlugin;
     @Inject DatabaseHelperInterface databaseHelper;
     @Inject OpenHumansUploader openHumansUploader;
+    @Inject DatabaseChangeScheduler changeScheduler;
 
-    private CompositeDisposable disposable = new CompositeDisposable();
-
-    private static final ScheduledExecutorService treatmentEventWorker = Executors.newSingleThreadScheduledExecutor();
-    private static ScheduledFuture<?> scheduledTreatmentEventPost = null;
+    // filled by TreatmentDaoWrapper
+    private static final ChangedRecords changedTreatments = new ChangedRecords();
+    // change events of treatments stored in batch are fired once at the end
+    private static final ChangeBatch batch = new ChangeBatch();
 
     public TreatmentService(HasAndroidInjector injector) {
         injector.androidInjector().inject(this);
         onCreate();
         dbInitialize();
-        disposable.add(rxBus
-                .toObservable(EventNsTreatment.class)
-                .observeOn(Schedulers.io())
-                .subscribe(event -> {
-                    int mode = event.getMode();
-                    JSONObject payload = event.getPayload();
-
-                    if (mode == EventNsTreatment.Companion.getADD() || mode == EventNsTreatment.Companion.getUPDATE()) {
-                        this.createTreatmentFromJsonIfNotExists(payload);
-                    } else { // EventNsTreatment.REMOVE
-                        this.deleteNS(payload);
-                    }
-                }, fabricPrivacy::logException)
-        );
     }
 
     /**
@@ -136,11 +118,13 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
 
         public void delete(Treatment data) throws SQLException {
             wrapped.delete(data);
+            changedTreatments.add(data.date);
             openHumansUploader.enqueueTreatment(data, true);
         }
 
         public void create(Treatment data) throws SQLException {
             wrapped.create(data);
+            changedTreatments.add(data.date);
             openHumansUploader.enqueueTreatment(data);
         }
 
@@ -150,6 +134,7 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
 
         public void update(Treatment data) throws SQLException {
             wrapped.update(data);
+            changedTreatments.add(data.date);
             openHumansUploader.enqueueTreatment(data);
         }
 
@@ -215,78 +200,27 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
         try {
             TableUtils.dropTable(this.getConnectionSource(), Treatment.class, true);
             TableUtils.createTableIfNotExists(this.getConnectionSource(), Treatment.class);
-            DatabaseHelper.updateEarliestDataChange(0);
+            changeScheduler.historyChanged(0);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
+        changedTreatments.addAll();
         scheduleTreatmentChange(null, true);
     }
 
 
-    /**
-     * A place to centrally register events to be posted, if any data changed.
-     * This should be implemented in an abstract service-class.
-     * <p>
-     * We do need to make sure, that ICallback is extended to be able to handle multiple
-     * events, or handle a list of events.
-     * <p>
-     * on some methods the earliestDataChange event is handled separatly, in that it is checked if it is
-     * set to null by another event already (eg. scheduleExtendedBolusChange).
-     *
-     * @param event
-     * @param eventWorker
-     * @param callback
-     */
-    private void scheduleEvent(final Event event, ScheduledExecutorService eventWorker,
-                               final ICallback callback) {
-
-        class PostRunnable implements Runnable {
-            public void run() {
-                aapsLogger.debug(LTag.DATATREATMENTS, "Firing EventReloadTreatmentData");
-                rxBus.send(event);
-                if (DatabaseHelper.earliestDataChange != null) {
-                    aapsLogger.debug(LTag.DATATREATMENTS, "Firing EventNewHistoryData");
-                    rxBus.send(new EventNewHistoryData(DatabaseHelper.earliestDataChange));
-                }
-                DatabaseHelper.earliestDataChange = null;
-                callback.setPost(null);
-            }
-        }
-        // prepare task for execution in 1 sec
-        // cancel waiting task to prevent sending multiple posts
-        ScheduledFuture<?> scheduledFuture = callback.getPost();
-        if (scheduledFuture != null)
-            scheduledFuture.cancel(false);
-        Runnable task = new PostRunnable();
-        final int sec = 1;
-        callback.setPost(eventWorker.schedule(task, sec, TimeUnit.SECONDS));
-    }
-
     /**
      * Schedule a foodChange Event.
      */
     public void scheduleTreatmentChange(@Nullable final Treatment treatment, boolean runImmediately) {
-        if (runImmediately) {
-            aapsLogger.debug(LTag.DATATREATMENTS, "Firing EventReloadTreatmentData");
-            rxBus.send(new EventReloadTreatmentData(new EventTreatmentChange(treatment)));
-            if (DatabaseHelper.earliestDataChange != null) {
-                aapsLogger.debug(LTag.DATATREATMENTS, "Firing EventNewHistoryData");
-                rxBus.send(new EventNewHistoryData(DatabaseHelper.earliestDataChange));
-            }
-            DatabaseHelper.earliestDataChange = null;
-        } else {
-            this.scheduleEvent(new EventReloadTreatmentData(new EventTreatmentChange(treatment)), treatmentEventWorker, new ICallback() {
-                @Override
-                public void setPost(ScheduledFuture<?> post) {
-                    scheduledTreatmentEventPost = post;
-                }
-
-                @Override
-                public ScheduledFuture<?> getPost() {
-                    return scheduledTreatmentEventPost;
-                }
-            });
-        }
+        // fired after batch is stored
+        if (batch.defer()) return;
+        // changes are taken when the event is fired, all changes made meanwhile are included
+        Runnable fire = () -> rxBus.send(new EventReloadTreatmentData(new EventTreatmentChange(treatment), changedTreatments.take(), new long[0]));
+        if (runImmediately)
+            changeScheduler.fireNow(DatabaseChangeScheduler.Table.TREATMENT, fire);
+        else
+            changeScheduler.schedule(DatabaseChangeScheduler.Table.TREATMENT, fire);
     }
 
     public List<Treatment> getTreatmentData() {
@@ -322,6 +256,43 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
         "unit": "ml"
     }
      */
+    /**
+     * Stores batch of NS treatments in one transaction and fires change event once
+     */
+    public void createTreatmentsFromJsonIfNotExists(List<JSONObject> jsons) {
+        try {
+            callInBatch(() -> {
+                for (JSONObject json : DatabaseHelper.uniqueById(jsons))
+                    createTreatmentFromJsonIfNotExists(json);
+                return null;
+            });
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+        }
+    }
+
+    /**
+     * Runs task in one transaction. Treatment change event is fired once after the task
+     * instead of for every stored treatment. Other tables share the transaction.
+     * The transaction is rolled back only if task throws, writers swallow their SQL errors
+     * unless task is wrapped by BatchErrors.rethrowing(). CommitActions run after the commit only
+     */
+    public <T> T callInBatch(Callable<T> task) throws SQLException {
+        if (!batch.begin()) // nested, event is fired by the outer batch
+            return TransactionManager.callInTransaction(getConnectionSource(), task);
+        CommitActions.begin();
+        boolean committed = false;
+        try {
+            T result = TransactionManager.callInTransaction(getConnectionSource(), task);
+            committed = true;
+            return result;
+        } finally {
+            CommitActions.end(committed);
+            // rolled back batch changed nothing
+            if (batch.end() && committed) scheduleTreatmentChange(null, true);
+        }
+    }
+
     public void createTreatmentFromJsonIfNotExists(JSONObject json) {
         try {
             Treatment treatment = Treatment.createFromJson(json);
@@ -374,8 +345,8 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
                         getDao().delete(existingTreatment); // need to delete/create because date may change too
                         existingTreatment.copyBasics(treatment);
                         getDao().create(existingTreatment);
-                        DatabaseHelper.updateEarliestDataChange(oldDate);
-                        DatabaseHelper.updateEarliestDataChange(existingTreatment.date);
+                        changeScheduler.historyChanged(oldDate);
+                        changeScheduler.historyChanged(existingTreatment.date);
                         scheduleTreatmentChange(treatment, true);
                         return new UpdateReturn(sameSource, false); //updating a pump treatment with another one from the pump is not counted as clash
                     }
@@ -397,14 +368,14 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
                     getDao().delete(existingTreatment); // need to delete/create because date may change too
                     existingTreatment.copyFrom(treatment);
                     getDao().create(existingTreatment);
-                    DatabaseHelper.updateEarliestDataChange(oldDate);
-                    DatabaseHelper.updateEarliestDataChange(existingTreatment.date);
+                    changeScheduler.historyChanged(oldDate);
+                    changeScheduler.historyChanged(existingTreatment.date);
                     scheduleTreatmentChange(treatment, true);
                     return new UpdateReturn(equalRePumpHistory || sameSource, false);
                 }
                 getDao().create(treatment);
                 aapsLogger.debug(LTag.DATATREATMENTS, "New record from: " + Source.getString(treatment.source) + " " + treatment.toString());
-                DatabaseHelper.updateEarliestDataChange(treatment.date);
+                changeScheduler.historyChanged(treatment.date);
                 scheduleTreatmentChange(treatment, true);
                 return new UpdateReturn(true, true);
             }
@@ -419,8 +390,8 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
                         getDao().create(old);
                         aapsLogger.debug(LTag.DATATREATMENTS, "Updating record by date from: " + Source.getString(treatment.source) + " " + old.toString());
                         if (historyChange) {
-                            DatabaseHelper.updateEarliestDataChange(oldDate);
-                            DatabaseHelper.updateEarliestDataChange(old.date);
+                            changeScheduler.historyChanged(oldDate);
+                            changeScheduler.historyChanged(old.date);
                         }
                         scheduleTreatmentChange(treatment, false);
                         return new UpdateReturn(true, true);
@@ -440,8 +411,8 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
                             getDao().create(old);
                             aapsLogger.debug(LTag.DATATREATMENTS, "Updating record by _id from: " + Source.getString(treatment.source) + " " + old.toString());
                             if (historyChange) {
-                                DatabaseHelper.updateEarliestDataChange(oldDate);
-                                DatabaseHelper.updateEarliestDataChange(old.date);
+                                changeScheduler.historyChanged(oldDate);
+                                changeScheduler.historyChanged(old.date);
                             }
                             scheduleTreatmentChange(treatment, false);
                             return new UpdateReturn(true, true);
@@ -452,19 +423,20 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
                 }
                 getDao().create(treatment);
                 aapsLogger.debug(LTag.DATATREATMENTS, "New record from: " + Source.getString(treatment.source) + " " + treatment.toString());
-                DatabaseHelper.updateEarliestDataChange(treatment.date);
+                changeScheduler.historyChanged(treatment.date);
                 scheduleTreatmentChange(treatment, false);
                 return new UpdateReturn(true, true);
             }
             if (treatment.source == Source.USER) {
                 getDao().create(treatment);
                 aapsLogger.debug(LTag.DATATREATMENTS, "New record from: " + Source.getString(treatment.source) + " " + treatment.toString());
-                DatabaseHelper.updateEarliestDataChange(treatment.date);
+                changeScheduler.historyChanged(treatment.date);
                 scheduleTreatmentChange(treatment, true);
                 return new UpdateReturn(true, true);
             }
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
+            BatchErrors.report(e);
         }
         return new UpdateReturn(false, false);
     }
@@ -486,7 +458,7 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
             if (existingTreatment == null) {
                 getDao().create(treatment);
                 aapsLogger.debug(LTag.DATATREATMENTS, "New record from: " + Source.getString(treatment.source) + " " + treatment.toString());
-                DatabaseHelper.updateEarliestDataChange(treatment.date);
+                changeScheduler.historyChanged(treatment.date);
                 scheduleTreatmentChange(treatment, true);
                 return new UpdateReturn(true, true);
             } else {
@@ -500,7 +472,7 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
                         return new UpdateReturn(true, false);
                     }
                     getDao().update(existingTreatment);
-                    DatabaseHelper.updateEarliestDataChange(existingTreatment.date);
+                    changeScheduler.historyChanged(existingTreatment.date);
                     scheduleTreatmentChange(treatment, true);
                     return new UpdateReturn(true, false);
                 } else {
@@ -511,7 +483,7 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
                     getDao().delete(existingTreatment);
                     optionalTreatmentCopy(existingTreatment, treatment, fromNightScout);
                     getDao().create(existingTreatment);
-                    DatabaseHelper.updateEarliestDataChange(existingTreatment.date);
+                    changeScheduler.historyChanged(existingTreatment.date);
                     scheduleTreatmentChange(treatment, true);
                     return new UpdateReturn(true, false); //updating a pump treatment with another one from the pump is not counted as clash
                 }
@@ -719,7 +691,7 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
             } catch (SQLException e) {
                 aapsLogger.error("Unhandled exception", e);
             }
-            DatabaseHelper.updateEarliestDataChange(stored.date);
+            changeScheduler.historyChanged(stored.date);
             this.scheduleTreatmentChange(stored, false);
         }
     }
@@ -734,7 +706,7 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
     public void delete(Treatment treatment) {
         try {
             getDao().delete(treatment);
-            DatabaseHelper.updateEarliestDataChange(treatment.date);
+            changeScheduler.historyChanged(treatment.date);
             this.scheduleTreatmentChange(treatment, true);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
@@ -744,7 +716,7 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
     public void update(Treatment treatment) {
         try {
             getDao().update(treatment);
-            DatabaseHelper.updateEarliestDataChange(treatment.date);
+            changeScheduler.historyChanged(treatment.date);
         } catch (SQLException e) {
             aapsLogger.error("Unhandled exception", e);
         }
@@ -797,6 +769,15 @@ public class TreatmentService extends OrmLiteBaseService<DatabaseHelper> {
         return new ArrayList<>();
     }
 
+    public List<Treatment> getTreatmentDataByDates(long[] dates) {
+        try {
+            return DatabaseHelper.queryByDates(getDao().wrapped, dates);
+        } catch (SQLException e) {
+            aapsLogger.error("Unhandled exception", e);
+        }
+        return new ArrayList<>();
+    }
+
     public List<Treatment> getTreatmentDataFromTime(long from, long to, boolean ascending) {
         try {
             TreatmentDaoWrapper daoTreatments = getDao();
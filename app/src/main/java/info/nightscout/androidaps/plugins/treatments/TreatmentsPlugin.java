@@ -12,7 +12,11 @@ import com.google.firebase.analytics.FirebaseAnalytics;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -37,6 +41,7 @@ import info.nightscout.androidaps.db.ProfileSwitch;
 import info.nightscout.androidaps.db.Source;
 import info.nightscout.androidaps.db.TempTarget;
 import info.nightscout.androidaps.db.TemporaryBasal;
+import info.nightscout.androidaps.events.EventPreferenceChange;
 import info.nightscout.androidaps.events.EventReloadProfileSwitchData;
 import info.nightscout.androidaps.events.EventReloadTempBasalData;
 import info.nightscout.androidaps.events.EventReloadTreatmentData;
@@ -86,6 +91,7 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
     private IobTotal lastTempBasalsCalculation;
 
     private final ArrayList<Treatment> treatments = new ArrayList<>();
+    private TreatmentIobIndex treatmentIobIndex; // guarded by treatments, null if treatments changed
     private final Intervals<TemporaryBasal> tempBasals = new NonOverlappingIntervals<>();
     private final Intervals<ExtendedBolus> extendedBoluses = new NonOverlappingIntervals<>();
     private final Intervals<TempTarget> tempTargets = new OverlappingIntervals<>();
@@ -136,8 +142,8 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
                 .observeOn(Schedulers.io())
                 .subscribe(event -> {
                             getAapsLogger().debug(LTag.DATATREATMENTS, "EventReloadTreatmentData");
-                            initializeTreatmentData(range());
-                            initializeExtendedBolusData(range());
+                            updateTreatmentData(range(), event.getChangedTreatments());
+                            updateExtendedBolusData(range(), event.getChangedExtendedBoluses());
                             updateTotalIOBTreatments();
                             rxBus.send(event.getNext());
                         },
@@ -146,7 +152,7 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
         disposable.add(rxBus
                 .toObservable(EventReloadProfileSwitchData.class)
                 .observeOn(Schedulers.io())
-                .subscribe(event -> initializeProfileSwitchData(range()),
+                .subscribe(event -> updateProfileSwitchData(range(), event.getChangedDates()),
                         fabricPrivacy::logException
                 ));
         disposable.add(rxBus
@@ -160,11 +166,23 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
                 .observeOn(Schedulers.io())
                 .subscribe(event -> {
                             getAapsLogger().debug(LTag.DATATREATMENTS, "EventReloadTempBasalData");
-                            initializeTempBasalData(range());
+                            updateTempBasalData(range(), event.getChangedDates());
                             updateTotalIOBTempBasals();
                         },
                         fabricPrivacy::logException
                 ));
+        disposable.add(rxBus
+                .toObservable(EventPreferenceChange.class)
+                .observeOn(Schedulers.io())
+                .subscribe(event -> {
+                            if (event.isChanged(resourceHelper, R.string.key_insulin_oref_peak))
+                                synchronized (treatments) {
+                                    // insulin curve changed, memoized IOB is not valid anymore
+                                    if (treatmentIobIndex != null) treatmentIobIndex.clearCache();
+                                }
+                        },
+                        fabricPrivacy::logException
+                ));
     }
 
     @Override
@@ -197,6 +215,7 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
         synchronized (treatments) {
             treatments.clear();
             treatments.addAll(getService().getTreatmentDataFromTime(DateUtil.now() - range, false));
+            treatmentIobIndex = null;
         }
     }
 
@@ -230,6 +249,79 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
         }
     }
 
+    // Reload only changed records if changes are known
+
+    private void updateTreatmentData(long range, @Nullable long[] changedDates) {
+        if (changedDates == null) {
+            initializeTreatmentData(range);
+            return;
+        }
+        if (changedDates.length == 0) return;
+        getAapsLogger().debug(LTag.DATATREATMENTS, "updateTreatmentData " + changedDates.length);
+        List<Treatment> changed = getService().getTreatmentDataByDates(changedDates);
+        long from = DateUtil.now() - range;
+        Set<Long> removed = new HashSet<>();
+        for (long date : changedDates) removed.add(date);
+        synchronized (treatments) {
+            Iterator<Treatment> iterator = treatments.iterator();
+            while (iterator.hasNext()) {
+                Treatment treatment = iterator.next();
+                if (treatment.date < from || removed.contains(treatment.date))
+                    iterator.remove();
+            }
+            for (Treatment treatment : changed)
+                if (treatment.date >= from)
+                    treatments.add(treatment);
+            // newest first as loaded from database
+            Collections.sort(treatments, (a, b) -> Long.compare(b.date, a.date));
+            treatmentIobIndex = null;
+        }
+    }
+
+    private void updateTempBasalData(long range, @Nullable long[] changedDates) {
+        if (changedDates == null) {
+            initializeTempBasalData(range);
+            return;
+        }
+        if (changedDates.length == 0) return;
+        getAapsLogger().debug(LTag.DATATREATMENTS, "updateTempBasalData " + changedDates.length);
+        List<TemporaryBasal> changed = MainApp.getDbHelper().getTemporaryBasalsDataByDates(changedDates);
+        synchronized (tempBasals) {
+            tempBasals.update(changedDates, changed, DateUtil.now() - range);
+        }
+    }
+
+    private void updateExtendedBolusData(long range, @Nullable long[] changedDates) {
+        if (changedDates == null) {
+            initializeExtendedBolusData(range);
+            return;
+        }
+        if (changedDates.length == 0) return;
+        getAapsLogger().debug(LTag.DATATREATMENTS, "updateExtendedBolusData " + changedDates.length);
+        List<ExtendedBolus> changed = MainApp.getDbHelper().getExtendedBolusDataByDates(changedDates);
+        synchronized (extendedBoluses) {
+            extendedBoluses.update(changedDates, changed, DateUtil.now() - range);
+        }
+    }
+
+    private void updateProfileSwitchData(long range, @Nullable long[] changedDates) {
+        if (changedDates == null) {
+            initializeProfileSwitchData(range);
+            return;
+        }
+        if (changedDates.length == 0) return;
+        List<ProfileSwitch> changed = MainApp.getDbHelper().getProfileSwitchDataByDates(changedDates);
+        // deleted switch may uncover older one outside of loaded range, let the database find it
+        if (changed.size() < changedDates.length) {
+            initializeProfileSwitchData(range);
+            return;
+        }
+        getAapsLogger().debug(LTag.DATATREATMENTS, "updateProfileSwitchData " + changedDates.length);
+        synchronized (profiles) {
+            profiles.update(changedDates, changed);
+        }
+    }
+
     @Override
     public IobTotal getLastCalculationTreatments() {
         return lastTreatmentCalculation;
@@ -246,26 +338,12 @@ public class TreatmentsPlugin extends PluginBase implements TreatmentsInterface
         PumpInterface pumpInterface = activePlugin.getActivePump();
 
         double dia = profile.getDia();
+        double snoozeDivisor = sp.getDouble(R.string.key_openapsama_bolussnooze_dia_divisor, 2.0);
 
         synchronized (treatments) {
-            for (int pos = 0; pos < treatments.size(); pos++) {
-                Treatment t = treatments.get(pos);
-                if (!t.isValid) continue;
-                if (t.date > time) continue;
-                Iob tIOB = t.iobCalc(time, dia);
-                total.iob += tIOB.iobContrib;
-                total.activity += tIOB.activityContrib;
-                if (t.insulin > 0 && t.date > total.lastBolusTime)
-                    total.lastBolusTime = t.date;
-                if (!t.isSMB) {
-                    // instead of dividing the DIA that only worked on the bilinear curves,
-                    // multiply the time the treatment is seen active.
-                    long timeSinceTreatment = time - t.date;
-                    long snoozeTime = t.date + (long) (timeSinceTreatment * sp.getDouble(R.string.key_openapsama_bolussnooze_dia_divisor, 2.0));
-                    Iob bIOB = t.iobCalc(snoozeTime, dia);
-                    total.bolussnooze += bIOB.iobContrib;
-                }
-            }
+            if (treatmentIobIndex == null)
+                treatmentIobIndex = new TreatmentIobIndex(treatments);
+            total = treatmentIobIndex.calculate(time, dia, activePlugin.getActiveInsulin(), snoozeDivisor);
         }
 
         if (!pumpInterface.isFakingTempsByExtendedBoluses())
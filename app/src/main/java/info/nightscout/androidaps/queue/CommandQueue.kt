@@ -2,7 +2,6 @@ package info.nightscout.androidaps.queue
 
 import android.content.Context
 import android.content.Intent
-import android.os.SystemClock
 import android.text.Spanned
 import androidx.appcompat.app.AppCompatActivity
 import dagger.Lazy
@@ -61,6 +60,8 @@ import javax.inject.Singleton
  * but if request of the same type is currently executed (probably important only for bolus which is running long time), new request is declined
  * new QueueThread is created and started if current if finished
  * CommandReadStatus is added automatically before command if queue is empty
+ * status reads are coalesced on pickup: status reads queued next to each other are answered by one read
+ * and status reads next to a command are answered from its response if driver reads status with it (PumpInterface.isStatusReadWith)
  *
  *
  * biggest change is we don't need exec pump commands in Handler because it's finished immediately
@@ -105,6 +106,8 @@ class CommandQueue @Inject constructor(
     private var thread: QueueThread? = null
 
     var performing: Command? = null
+    // status reads answered after performing command finishes
+    private var coalesced: MutableList<CommandReadStatus> = ArrayList()
 
     init {
         disposable.add(rxBus
@@ -167,12 +170,46 @@ class CommandQueue @Inject constructor(
 
     @Synchronized
     override fun pickup() {
-        synchronized(queue) { performing = queue.poll() }
+        synchronized(queue) {
+            val statusReads = pollStatusReads()
+            val next = queue.peek()
+            val pump = activePlugin.get().activePump
+            performing = when {
+                next != null && pump.isStatusReadWith(next.commandType) -> queue.poll()
+                statusReads.isNotEmpty()                                -> statusReads.removeAt(0)
+                else                                                    -> queue.poll()
+            }
+            performing?.let { command ->
+                if (command is CommandReadStatus || pump.isStatusReadWith(command.commandType)) statusReads.addAll(pollStatusReads())
+                if (statusReads.isNotEmpty()) aapsLogger.debug(LTag.PUMPQUEUE, "Coalesced ${statusReads.size} READSTATUS into ${command.status()}")
+            }
+            coalesced = statusReads
+        }
+    }
+
+    // status reads waiting at the head of the queue
+    private fun pollStatusReads(): MutableList<CommandReadStatus> {
+        val statusReads = ArrayList<CommandReadStatus>()
+        while (queue.peek() is CommandReadStatus) statusReads.add(queue.poll() as CommandReadStatus)
+        return statusReads
+    }
+
+    /**
+     * Answers status reads coalesced into performing command with its result. Called after the command is executed
+     */
+    @Synchronized
+    fun completeCoalesced() {
+        val statusReads = coalesced
+        coalesced = ArrayList()
+        val carrier = performing?.result
+        for (statusRead in statusReads) statusRead.complete(carrier)
     }
 
     @Synchronized
     override fun clear() {
         performing = null
+        for (statusRead in coalesced) statusRead.cancel()
+        coalesced = ArrayList()
         synchronized(queue) {
             for (i in queue.indices) {
                 queue[i].cancel()
@@ -195,7 +232,7 @@ class CommandQueue @Inject constructor(
     private fun notifyAboutNewCommand() {
         while (thread != null && thread!!.state != Thread.State.TERMINATED && thread!!.waitingForDisconnect) {
             aapsLogger.debug(LTag.PUMPQUEUE, "Waiting for previous thread finish")
-            SystemClock.sleep(500)
+            thread!!.join(500)
         }
         if (thread == null || thread!!.state == Thread.State.TERMINATED) {
             thread = QueueThread(this, context, aapsLogger, rxBus, activePlugin.get(), resourceHelper, sp)
@@ -203,6 +240,7 @@ class CommandQueue @Inject constructor(
             aapsLogger.debug(LTag.PUMPQUEUE, "Starting new thread")
         } else {
             aapsLogger.debug(LTag.PUMPQUEUE, "Thread is already running")
+            thread!!.wakeUp()
         }
     }
 
@@ -418,7 +456,7 @@ class CommandQueue @Inject constructor(
 
     @Synchronized
     override fun statusInQueue(): Boolean {
-        if (isRunning(CommandType.READSTATUS)) return true
+        if (isRunning(CommandType.READSTATUS) || coalesced.isNotEmpty()) return true
         synchronized(queue) {
             for (i in queue.indices) {
                 if (queue[i].commandType == CommandType.READSTATUS) {
@@ -18,6 +18,7 @@ import info.nightscout.androidaps.queue.events.EventQueueChanged;
 import info.nightscout.androidaps.utils.T;
 import info.nightscout.androidaps.utils.resources.ResourceHelper;
 import info.nightscout.androidaps.utils.sharedPreferences.SP;
+import io.reactivex.disposables.Disposable;
 
 /**
  * Created by mike on 09.11.2017.
@@ -32,7 +33,12 @@ public class QueueThread extends Thread {
     private SP sp;
 
     private boolean connectLogged = false;
-    boolean waitingForDisconnect = false;
+    volatile boolean waitingForDisconnect = false;
+
+    private final Object signal = new Object();
+    private boolean signalled = false;
+    private EventPumpStatusChanged.Status lastStatus = null;
+    private int lastSecondsElapsed = -1;
 
     private PowerManager.WakeLock mWakeLock;
 
@@ -51,10 +57,46 @@ public class QueueThread extends Thread {
             mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "AndroidAPS:QueueThread");
     }
 
+    /**
+     * Wakes the thread waiting for pump connection or for new command
+     */
+    void wakeUp() {
+        synchronized (signal) {
+            signalled = true;
+            signal.notifyAll();
+        }
+    }
+
+    // returns immediately if woken up meanwhile
+    private void waitForSignal(long timeoutMillis) {
+        if (timeoutMillis <= 0) return;
+        synchronized (signal) {
+            try {
+                if (!signalled) signal.wait(timeoutMillis);
+            } catch (InterruptedException e) {
+                aapsLogger.error(LTag.PUMPQUEUE, "Unhandled exception", e);
+            }
+            signalled = false;
+        }
+    }
+
+    // status is sent only on change, elapsed seconds at most once per second
+    private void sendStatus(EventPumpStatusChanged.Status status, int secondsElapsed) {
+        if (status == lastStatus && secondsElapsed == lastSecondsElapsed) return;
+        lastStatus = status;
+        lastSecondsElapsed = secondsElapsed;
+        rxBus.send(new EventPumpStatusChanged(status, secondsElapsed));
+    }
+
     @Override
     public final void run() {
         if (mWakeLock != null)
             mWakeLock.acquire(T.mins(10).msecs());
+        // connection state changes reported by driver
+        Disposable connectionState = rxBus
+                .toObservable(EventPumpStatusChanged.class)
+                .filter(event -> event.getStatus() == EventPumpStatusChanged.Status.CONNECTED || event.getStatus() == EventPumpStatusChanged.Status.DISCONNECTED)
+                .subscribe(event -> wakeUp(), throwable -> aapsLogger.error(LTag.PUMPQUEUE, "Unhandled exception", throwable));
         rxBus.send(new EventQueueChanged());
         long lastCommandTime;
         long connectionStartTime = lastCommandTime = System.currentTimeMillis();
@@ -103,23 +145,23 @@ public class QueueThread extends Thread {
 
                 if (pump.isHandshakeInProgress()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "handshaking " + secondsElapsed);
-                    rxBus.send(new EventPumpStatusChanged(EventPumpStatusChanged.Status.HANDSHAKING, (int) secondsElapsed));
-                    SystemClock.sleep(100);
+                    sendStatus(EventPumpStatusChanged.Status.HANDSHAKING, (int) secondsElapsed);
+                    waitForSignal(100);
                     continue;
                 }
 
                 if (pump.isConnecting()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "connecting " + secondsElapsed);
-                    rxBus.send(new EventPumpStatusChanged(EventPumpStatusChanged.Status.CONNECTING, (int) secondsElapsed));
-                    SystemClock.sleep(1000);
+                    sendStatus(EventPumpStatusChanged.Status.CONNECTING, (int) secondsElapsed);
+                    waitForSignal(1000);
                     continue;
                 }
 
                 if (!pump.isConnected()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "connect");
-                    rxBus.send(new EventPumpStatusChanged(EventPumpStatusChanged.Status.CONNECTING, (int) secondsElapsed));
+                    sendStatus(EventPumpStatusChanged.Status.CONNECTING, (int) secondsElapsed);
                     pump.connect("Connection needed");
-                    SystemClock.sleep(1000);
+                    waitForSignal(1000);
                     continue;
                 }
 
@@ -135,19 +177,23 @@ public class QueueThread extends Thread {
                             aapsLogger.debug(LTag.PUMPQUEUE, "performing " + queue.performing().status());
                             rxBus.send(new EventQueueChanged());
                             queue.performing().execute();
+                            queue.completeCoalesced();
                             queue.resetPerforming();
                             rxBus.send(new EventQueueChanged());
                             lastCommandTime = System.currentTimeMillis();
-                            SystemClock.sleep(100);
                             continue;
                         }
                     }
                 }
 
                 if (queue.size() == 0 && queue.performing() == null) {
-                    long secondsFromLastCommand = (System.currentTimeMillis() - lastCommandTime) / 1000;
-                    if (secondsFromLastCommand >= 5) {
-                        waitingForDisconnect = true;
+                    long millisFromLastCommand = System.currentTimeMillis() - lastCommandTime;
+                    if (millisFromLastCommand >= T.secs(5).msecs()) {
+                        // decided under queue lock, new command is either seen here or waits for this thread to finish
+                        synchronized (queue) {
+                            if (queue.size() > 0) continue;
+                            waitingForDisconnect = true;
+                        }
                         aapsLogger.debug(LTag.PUMPQUEUE, "queue empty. disconnect");
                         rxBus.send(new EventPumpStatusChanged(EventPumpStatusChanged.Status.DISCONNECTING));
                         pump.disconnect("Queue empty");
@@ -156,11 +202,13 @@ public class QueueThread extends Thread {
                         return;
                     } else {
                         aapsLogger.debug(LTag.PUMPQUEUE, "waiting for disconnect");
-                        SystemClock.sleep(1000);
+                        // new command wakes the thread
+                        waitForSignal(T.secs(5).msecs() - millisFromLastCommand);
                     }
                 }
             }
         } finally {
+            connectionState.dispose();
             if (mWakeLock != null && mWakeLock.isHeld())
                 mWakeLock.release();
             aapsLogger.debug(LTag.PUMPQUEUE, "thread end");
@@ -26,7 +26,7 @@ class CommandBolus(
         BolusProgressDialog.bolusEnded = true
         rxBus.send(EventDismissBolusProgressIfRunning(r))
         aapsLogger.debug(LTag.PUMPQUEUE, "Result success: ${r.success} enacted: ${r.enacted}")
-        callback?.result(r)?.run()
+        finish(r)
     }
 
     override fun status(): String {
@@ -16,7 +16,7 @@ class CommandCancelExtendedBolus constructor(
     override fun execute() {
         val r = activePlugin.activePump.cancelExtendedBolus()
         aapsLogger.debug(LTag.PUMPQUEUE, "Result success: ${r.success} enacted: ${r.enacted}")
-        callback?.result(r)?.run()
+        finish(r)
     }
 
     override fun status(): String = "CANCEL EXTENDEDBOLUS"
@@ -17,7 +17,7 @@ class CommandCancelTempBasal(
     override fun execute() {
         val r = activePlugin.activePump.cancelTempBasal(enforceNew)
         aapsLogger.debug(LTag.PUMPQUEUE, "Result success: ${r.success} enacted: ${r.enacted}")
-        callback?.result(r)?.run()
+        finish(r)
     }
 
     override fun status(): String = "CANCEL TEMPBASAL"
@@ -18,7 +18,7 @@ class CommandExtendedBolus constructor(
     override fun execute() {
         val r = activePlugin.activePump.setExtendedBolus(insulin, durationInMinutes)
         aapsLogger.debug(LTag.PUMPQUEUE, "Result rate: $insulin durationInMinutes: $durationInMinutes success: ${r.success} enacted: ${r.enacted}")
-        callback?.result(r)?.run()
+        finish(r)
     }
 
     override fun status(): String = "EXTENDEDBOLUS $insulin U $durationInMinutes min"
@@ -18,7 +18,7 @@ class CommandInsightSetTBROverNotification constructor(
         val pump = activePlugin.activePump
         if (pump is LocalInsightPlugin) {
             val result = pump.setTBROverNotification(enabled)
-            callback?.result(result)?.run()
+            finish(result)
         }
     }
 
@@ -20,7 +20,7 @@ class CommandLoadEvents(
             val danaPump = pump as DanaRInterface
             val r = danaPump.loadEvents()
             aapsLogger.debug(LTag.PUMPQUEUE, "Result success: ${r.success} enacted: ${r.enacted}")
-            callback?.result(r)?.run()
+            finish(r)
         }
     }
 
@@ -21,7 +21,7 @@ class CommandLoadHistory(
             val danaPump = pump as DanaRInterface
             val r = danaPump.loadHistory(type)
             aapsLogger.debug(LTag.PUMPQUEUE, "Result success: " + r.success + " enacted: " + r.enacted)
-            callback?.result(r)?.run()
+            finish(r)
         }
     }
 
@@ -17,7 +17,7 @@ class CommandLoadTDDs(
         val pump = activePlugin.activePump
         val r = pump.loadTDDs()
         aapsLogger.debug(LTag.PUMPQUEUE, "Result success: " + r.success + " enacted: " + r.enacted)
-        callback?.result(r)?.run()
+        finish(r)
     }
 
     override fun status(): String = "LOAD TDDs"
@@ -20,13 +20,19 @@ class CommandReadStatus(
 
     override fun execute() {
         activePlugin.activePump.getPumpStatus()
+        complete(null)
+    }
+
+    // status is already read, by this command or by driver together with another command (carrier)
+    fun complete(carrier: PumpEnactResult?) {
         localAlertUtils.notifyPumpStatusRead()
         aapsLogger.debug(LTag.PUMPQUEUE, "CommandReadStatus executed. Reason: $reason")
-        val pump = activePlugin.activePump
         val result = PumpEnactResult(injector).success(false)
-        val lastConnection = pump.lastDataTime()
-        if (lastConnection > System.currentTimeMillis() - T.mins(1).msecs()) result.success(true)
-        callback?.result(result)?.run()
+        if (carrier != null)
+            result.success(carrier.success).comment(carrier.comment)
+        else if (activePlugin.activePump.lastDataTime() > System.currentTimeMillis() - T.mins(1).msecs())
+            result.success(true)
+        finish(result)
     }
 
     override fun status(): String = "READSTATUS $reason"
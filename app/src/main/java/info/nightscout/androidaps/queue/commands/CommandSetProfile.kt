@@ -26,12 +26,12 @@ class CommandSetProfile constructor(
     override fun execute() {
         if (commandQueue.isThisProfileSet(profile)) {
             aapsLogger.debug(LTag.PUMPQUEUE, "Correct profile already set. profile: $profile")
-            callback?.result(PumpEnactResult(injector).success(true).enacted(false))?.run()
+            finish(PumpEnactResult(injector).success(true).enacted(false))
             return
         }
         val r = activePlugin.activePump.setNewBasalProfile(profile)
         aapsLogger.debug(LTag.PUMPQUEUE, "Result success: ${r.success} enacted: ${r.enacted} profile: $profile")
-        callback?.result(r)?.run()
+        finish(r)
         // Send SMS notification if ProfileSwitch is coming from NS
         val profileSwitch = activePlugin.activeTreatments.getProfileSwitchFromHistory(System.currentTimeMillis())
         if (profileSwitch != null && r.enacted && profileSwitch.source == Source.NIGHTSCOUT) {
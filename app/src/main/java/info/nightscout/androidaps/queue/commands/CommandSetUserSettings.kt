@@ -19,7 +19,7 @@ class CommandSetUserSettings(
         if (pump is DanaRInterface) {
             val r = pump.setUserOptions()
             aapsLogger.debug(LTag.PUMPQUEUE, "Result success: ${r.success} enacted: ${r.enacted}")
-            callback?.result(r)?.run()
+            finish(r)
         }
     }
 
@@ -20,7 +20,7 @@ class CommandStartPump(
         val pump = activePlugin.activePump
         if (pump is LocalInsightPlugin) {
             val result = pump.startPump()
-            callback?.result(result)?.run()
+            finish(result)
         } else if (pump.pumpDescription.pumpType == PumpType.Insulet_Omnipod) {
             // When using CommandQueue.setProfile, it refuses to set the profile is the same as the current profile
             // However we need to set the current profile to resume delivery in case the Pod is suspended
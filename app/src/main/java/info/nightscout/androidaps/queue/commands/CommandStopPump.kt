@@ -17,7 +17,7 @@ class CommandStopPump(
         val pump = activePlugin.activePump
         if (pump is LocalInsightPlugin) {
             val result = pump.stopPump()
-            callback?.result(result)?.run()
+            finish(result)
         }
     }
 
@@ -21,7 +21,7 @@ class CommandTempBasalAbsolute(
     override fun execute() {
         val r = activePlugin.activePump.setTempBasalAbsolute(absoluteRate, durationInMinutes, profile, enforceNew)
         aapsLogger.debug(LTag.PUMPQUEUE, "Result rate: $absoluteRate durationInMinutes: $durationInMinutes success: ${r.success} enacted: ${r.enacted}")
-        callback?.result(r)?.run()
+        finish(r)
     }
 
     override fun status(): String = "TEMP BASAL $absoluteRate U/h $durationInMinutes min"
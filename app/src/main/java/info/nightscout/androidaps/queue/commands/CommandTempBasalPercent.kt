@@ -21,7 +21,7 @@ class CommandTempBasalPercent(
     override fun execute() {
         val r = activePlugin.activePump.setTempBasalPercent(percent, durationInMinutes, profile, enforceNew)
         aapsLogger.debug(LTag.PUMPQUEUE, "Result percent: $percent durationInMinutes: $durationInMinutes success: ${r.success} enacted: ${r.enacted}")
-        callback?.result(r)?.run()
+        finish(r)
     }
 
     override fun status(): String = "TEMP BASAL $percent% $durationInMinutes min"
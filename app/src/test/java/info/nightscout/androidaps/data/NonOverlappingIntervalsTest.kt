@@ -46,6 +46,34 @@ class NonOverlappingIntervalsTest : TestBase() {
         Assert.assertEquals(null, list.getValueByInterval(startDate + T.hours(10).msecs() + 1))
     }
 
+    @Test
+    fun updateTest() {
+        list.reset()
+        list.add(TemporaryBasal(injector).date(startDate).duration(T.hours(10).mins().toInt()).absolute(1.0))
+        list.add(TemporaryBasal(injector).date(startDate + T.hours(5).msecs()).duration(0))
+        Assert.assertEquals(null, list.getValueByInterval(startDate + T.hours(6).msecs()))
+
+        // stop temp deleted, first interval is not cut anymore
+        list.update(longArrayOf(startDate + T.hours(5).msecs()), listOf(), startDate)
+        Assert.assertEquals(1, list.size())
+        Assert.assertEquals(1.0, list.getValueByInterval(startDate + T.hours(6).msecs())!!.absoluteRate, 0.01)
+
+        // new interval inserted and first one updated
+        list.update(longArrayOf(startDate, startDate + T.hours(2).msecs()), listOf(
+            TemporaryBasal(injector).date(startDate).duration(T.hours(10).mins().toInt()).absolute(3.0),
+            TemporaryBasal(injector).date(startDate + T.hours(2).msecs()).duration(T.hours(1).mins().toInt()).absolute(2.0)
+        ), startDate)
+        Assert.assertEquals(2, list.size())
+        Assert.assertEquals(3.0, list.getValueByInterval(startDate + T.hours(1).msecs())!!.absoluteRate, 0.01)
+        Assert.assertEquals(2.0, list.getValueByInterval(startDate + T.mins(150).msecs())!!.absoluteRate, 0.01)
+        Assert.assertEquals(null, list.getValueByInterval(startDate + T.hours(4).msecs()))
+
+        // intervals older than range are removed
+        list.update(longArrayOf(), listOf(), startDate + T.hours(1).msecs())
+        Assert.assertEquals(1, list.size())
+        Assert.assertEquals(null, list.getValueByInterval(startDate + T.hours(1).msecs()))
+    }
+
     @Test
     fun testCopyConstructor() {
         list.reset()
@@ -0,0 +1,52 @@
+package info.nightscout.androidaps.data
+
+import androidx.collection.LongSparseArray
+import org.joda.time.DateTime
+import org.joda.time.DateTimeZone
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+
+class ProfileScheduleTest {
+
+    private val defaultZone = DateTimeZone.getDefault()
+
+    @After
+    fun restoreZone() {
+        DateTimeZone.setDefault(defaultZone)
+    }
+
+    @Test
+    fun valueAtTest() {
+        val array = LongSparseArray<Double>()
+        array.put(0, 1.0)
+        array.put(3600, 2.0)
+        array.put(7200, 3.0)
+        val sut = ProfileSchedule.of(array)
+        Assert.assertEquals(1.0, sut.valueAt(0), 0.0)
+        Assert.assertEquals(1.0, sut.valueAt(3599), 0.0)
+        Assert.assertEquals(2.0, sut.valueAt(3600), 0.0)
+        Assert.assertEquals(2.0, sut.valueAt(7199), 0.0)
+        Assert.assertEquals(3.0, sut.valueAt(86399), 0.0)
+    }
+
+    @Test
+    fun valueBeforeFirstSegmentTest() {
+        val array = LongSparseArray<Double>()
+        array.put(1800, 1.5)
+        Assert.assertEquals(1.5, ProfileSchedule.of(array).valueAt(0), 0.0)
+    }
+
+    @Test
+    fun secondsFromMidnightMatchesJodaAcrossDstTest() {
+        for (zone in listOf("Europe/Prague", "America/New_York", "Australia/Lord_Howe", "UTC")) {
+            DateTimeZone.setDefault(DateTimeZone.forID(zone))
+            var time = DateTime(2020, 3, 1, 0, 0).millis
+            val end = DateTime(2020, 11, 30, 0, 0).millis
+            while (time < end) {
+                Assert.assertEquals(zone, DateTime(time).millisOfDay / 1000, Profile.secondsFromMidnight(time))
+                time += 7 * 60 * 1000L + 13 * 1000L
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package info.nightscout.androidaps.db
+
+import org.junit.Assert
+import org.junit.Test
+import java.sql.SQLException
+
+class BatchErrorsTest {
+
+    @Test
+    fun firstReportedErrorIsThrownAfterTaskTest() {
+        val first = SQLException("first")
+        var finished = false
+        try {
+            BatchErrors.rethrowing {
+                BatchErrors.report(first)
+                BatchErrors.report(SQLException("second"))
+                finished = true
+            }.call()
+            Assert.fail()
+        } catch (e: SQLException) {
+            Assert.assertSame(first, e)
+        }
+        // task is not interrupted by the error
+        Assert.assertTrue(finished)
+    }
+
+    @Test
+    fun errorsOutOfTaskAreIgnoredTest() {
+        BatchErrors.report(SQLException("before"))
+        Assert.assertEquals(1, BatchErrors.rethrowing { 1 }.call())
+        BatchErrors.report(SQLException("after"))
+        Assert.assertEquals(2, BatchErrors.rethrowing { 2 }.call())
+    }
+
+    @Test
+    fun nestedTaskErrorIsThrownByOuterTaskTest() {
+        val error = SQLException("nested")
+        var afterNested = false
+        try {
+            BatchErrors.rethrowing {
+                BatchErrors.rethrowing { BatchErrors.report(error) }.call()
+                afterNested = true
+            }.call()
+            Assert.fail()
+        } catch (e: SQLException) {
+            Assert.assertSame(error, e)
+        }
+        Assert.assertTrue(afterNested)
+    }
+}
@@ -0,0 +1,47 @@
+package info.nightscout.androidaps.db
+
+import org.junit.Assert
+import org.junit.Test
+
+class ChangeBatchTest {
+
+    private val batch = ChangeBatch()
+
+    @Test
+    fun changesAreDeferredOnlyWhileBatchIsRunningTest() {
+        Assert.assertFalse(batch.defer())
+
+        Assert.assertTrue(batch.begin())
+        Assert.assertTrue(batch.defer())
+        Assert.assertTrue(batch.defer())
+        Assert.assertTrue(batch.end())
+
+        // batch is ended
+        Assert.assertFalse(batch.defer())
+    }
+
+    @Test
+    fun batchWithoutChangeFiresNothingTest() {
+        Assert.assertTrue(batch.begin())
+        Assert.assertFalse(batch.end())
+    }
+
+    @Test
+    fun nestedBatchIsPartOfOuterBatchTest() {
+        Assert.assertTrue(batch.begin())
+        Assert.assertFalse(batch.begin())
+        Assert.assertTrue(batch.defer())
+        Assert.assertTrue(batch.end())
+    }
+
+    @Test
+    fun otherThreadsAreNotDeferredTest() {
+        Assert.assertTrue(batch.begin())
+        var deferred = true
+        val thread = Thread { deferred = batch.defer() }
+        thread.start()
+        thread.join()
+        Assert.assertFalse(deferred)
+        Assert.assertFalse(batch.end())
+    }
+}
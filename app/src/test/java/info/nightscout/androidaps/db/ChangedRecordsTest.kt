@@ -0,0 +1,30 @@
+package info.nightscout.androidaps.db
+
+import org.junit.Assert
+import org.junit.Test
+
+class ChangedRecordsTest {
+
+    @Test
+    fun takeTest() {
+        val changes = ChangedRecords()
+        Assert.assertEquals(0, changes.take()!!.size)
+
+        changes.add(1000)
+        changes.add(2000)
+        changes.add(1000)
+        Assert.assertArrayEquals(longArrayOf(1000, 2000), changes.take()!!.sortedArray())
+        // taken changes are not returned again
+        Assert.assertEquals(0, changes.take()!!.size)
+
+        // reset of table
+        changes.add(1000)
+        changes.addAll()
+        Assert.assertNull(changes.take())
+        Assert.assertEquals(0, changes.take()!!.size)
+
+        // too many changes are reloaded as whole table
+        for (date in 0..ChangedRecords.MAX_CHANGED_RECORDS.toLong()) changes.add(date)
+        Assert.assertNull(changes.take())
+    }
+}
@@ -0,0 +1,39 @@
+package info.nightscout.androidaps.db
+
+import org.junit.Assert
+import org.junit.Test
+
+class CommitActionsTest {
+
+    @Test
+    fun actionsOutOfBatchRunImmediatelyTest() {
+        var done = false
+        CommitActions.run { done = true }
+        Assert.assertTrue(done)
+    }
+
+    @Test
+    fun actionsRunAfterCommitTest() {
+        var done = false
+        Assert.assertTrue(CommitActions.begin())
+        CommitActions.run { done = true }
+        Assert.assertFalse(done)
+        CommitActions.end(true)
+        Assert.assertTrue(done)
+    }
+
+    @Test
+    fun actionsAreDroppedOnRollbackTest() {
+        var done = false
+        Assert.assertTrue(CommitActions.begin())
+        // nested batch is part of outer batch
+        Assert.assertFalse(CommitActions.begin())
+        CommitActions.run { done = true }
+        CommitActions.end(false)
+        Assert.assertFalse(done)
+
+        // batch is ended
+        CommitActions.run { done = true }
+        Assert.assertTrue(done)
+    }
+}
@@ -0,0 +1,64 @@
+package info.nightscout.androidaps.db
+
+import info.nightscout.androidaps.TestBase
+import info.nightscout.androidaps.events.Event
+import info.nightscout.androidaps.plugins.bus.RxBusWrapper
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.events.EventNewHistoryData
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mock
+import org.mockito.Mockito
+import java.util.*
+
+class DatabaseChangeSchedulerTest : TestBase() {
+
+    @Mock lateinit var rxBus: RxBusWrapper
+
+    private val sent = Collections.synchronizedList(ArrayList<Event>())
+    private lateinit var sut: DatabaseChangeScheduler
+
+    @Before
+    fun prepare() {
+        Mockito.doAnswer { sent.add(it.arguments[0] as Event) }.`when`(rxBus).send(anyObject())
+        sut = DatabaseChangeScheduler(aapsLogger, rxBus)
+    }
+
+    private class EventTable(val name: String) : Event()
+
+    @Test
+    fun changesOfMoreTablesFireOneHistoryChangeTest() {
+        sut.historyChanged(2000)
+        sut.schedule(DatabaseChangeScheduler.Table.TEMPORARY_BASAL) { rxBus.send(EventTable("tb")) }
+        sut.historyChanged(1000)
+        sut.schedule(DatabaseChangeScheduler.Table.EXTENDED_BOLUS) { rxBus.send(EventTable("eb")) }
+        // debounced, only the last one fires
+        sut.schedule(DatabaseChangeScheduler.Table.TEMPORARY_BASAL) { rxBus.send(EventTable("tb2")) }
+        Thread.sleep(1500)
+
+        Assert.assertEquals(3, sent.size)
+        Assert.assertEquals(setOf("tb2", "eb"), sent.filterIsInstance<EventTable>().map { it.name }.toSet())
+        // history is announced once after all tables
+        Assert.assertEquals(1000L, (sent[2] as EventNewHistoryData).time)
+    }
+
+    @Test
+    fun fireNowTest() {
+        sut.historyChanged(1000)
+        sut.schedule(DatabaseChangeScheduler.Table.TREATMENT) { rxBus.send(EventTable("scheduled")) }
+        sut.fireNow(DatabaseChangeScheduler.Table.TREATMENT) { rxBus.send(EventTable("now")) }
+
+        Assert.assertEquals(2, sent.size)
+        Assert.assertEquals("now", (sent[0] as EventTable).name)
+        Assert.assertEquals(1000L, (sent[1] as EventNewHistoryData).time)
+        // pending task of the table is replaced
+        Thread.sleep(1500)
+        Assert.assertEquals(2, sent.size)
+    }
+
+    @Test
+    fun noHistoryChangeTest() {
+        sut.fireNow(DatabaseChangeScheduler.Table.CAREPORTAL_EVENT) { rxBus.send(EventTable("ce")) }
+        Assert.assertEquals(1, sent.size)
+    }
+}
@@ -0,0 +1,57 @@
+package info.nightscout.androidaps.db
+
+import androidx.collection.LongSparseArray
+import dagger.android.AndroidInjector
+import dagger.android.HasAndroidInjector
+import org.json.JSONObject
+import org.junit.Assert
+import org.junit.Test
+
+class DatabaseHelperBatchTest {
+
+    private val injector = HasAndroidInjector { AndroidInjector { } }
+
+    private fun bgReading(date: Long, value: Double) = BgReading(injector).also {
+        it.date = date
+        it.value = value
+    }
+
+    @Test
+    fun uniqueByIdTest() {
+        val first = JSONObject().put("_id", "a").put("carbs", 10)
+        val withoutId1 = JSONObject().put("carbs", 20)
+        val other = JSONObject().put("_id", "b").put("carbs", 30)
+        val withoutId2 = JSONObject().put("carbs", 20)
+        val last = JSONObject().put("_id", "a").put("carbs", 40)
+
+        val unique = DatabaseHelper.uniqueById(listOf(first, withoutId1, other, withoutId2, last)).toList()
+        // the last one with the same _id wins, records without _id are kept
+        Assert.assertEquals(listOf(withoutId1, other, withoutId2, last), unique)
+    }
+
+    @Test
+    fun uniqueByDateTest() {
+        val unique = DatabaseHelper.uniqueByDate(listOf(bgReading(3000, 100.0), bgReading(1000, 110.0), bgReading(3000, 120.0)))
+        Assert.assertEquals(2, unique.size())
+        Assert.assertEquals(1000, unique.keyAt(0))
+        Assert.assertEquals(3000, unique.keyAt(1))
+        Assert.assertEquals(120.0, unique.valueAt(1).value, 0.0)
+    }
+
+    @Test
+    fun splitBgReadingsTest() {
+        val unique = DatabaseHelper.uniqueByDate(listOf(bgReading(1000, 100.0), bgReading(2000, 110.0), bgReading(3000, 120.0)))
+        val existing = LongSparseArray<BgReading>()
+        val changed = bgReading(1000, 90.0)
+        existing.put(1000, changed)
+        existing.put(2000, bgReading(2000, 110.0))
+        val created = ArrayList<BgReading>()
+        val updated = ArrayList<BgReading>()
+
+        DatabaseHelper.splitBgReadings(unique, existing, created, updated)
+        Assert.assertEquals(listOf(3000L), created.map { it.date })
+        // existing reading is updated in place, equal one is skipped
+        Assert.assertEquals(listOf(changed), updated)
+        Assert.assertEquals(100.0, changed.value, 0.0)
+    }
+}
@@ -0,0 +1,43 @@
+package info.nightscout.androidaps.logging
+
+import info.nightscout.androidaps.TestBase
+import info.nightscout.androidaps.utils.sharedPreferences.SP
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mock
+
+class AAPSLoggerProductionTest : TestBase() {
+
+    @Mock lateinit var sp: SP
+
+    private lateinit var l: L
+    private lateinit var sut: AAPSLoggerProduction
+
+    @Before
+    fun prepare() {
+        // mocked SP returns false, all tags are disabled
+        l = L(sp)
+        sut = AAPSLoggerProduction(l)
+    }
+
+    @Test
+    fun messageIsNotBuiltForDisabledTagTest() {
+        var built = 0
+        sut.debug(LTag.AUTOSENS) { built++; "message" }
+        sut.info(LTag.AUTOSENS) { built++; "message" }
+        sut.warn(LTag.AUTOSENS) { built++; "message" }
+        Assert.assertEquals(0, built)
+
+        l.findByName(LTag.AUTOSENS.tag).enable(true)
+        Assert.assertTrue(l.isEnabled(LTag.AUTOSENS))
+        sut.debug(LTag.AUTOSENS) { built++; "message" }
+        Assert.assertEquals(1, built)
+    }
+
+    @Test
+    fun callerLocationIsDisabledByDefaultTest() {
+        Assert.assertFalse(l.callerLocation.enabled)
+        Assert.assertTrue(l.getLogElements().contains(l.callerLocation))
+    }
+}
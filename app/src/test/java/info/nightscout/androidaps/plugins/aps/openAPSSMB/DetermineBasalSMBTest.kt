@@ -0,0 +1,214 @@
+package info.nightscout.androidaps.plugins.aps.openAPSSMB
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert
+import org.junit.Test
+import org.mozilla.javascript.Context
+import org.mozilla.javascript.Function
+import org.mozilla.javascript.NativeJSON
+import org.mozilla.javascript.Scriptable
+import org.mozilla.javascript.Undefined
+import org.skyscreamer.jsonassert.JSONAssert
+import java.io.File
+import java.util.*
+import kotlin.math.exp
+import kotlin.math.roundToLong
+
+/**
+ * Replays determine-basal inputs through determine-basal.js and DetermineBasalSMB
+ * and requires identical results
+ */
+class DetermineBasalSMBTest {
+
+    private val now = 1591610400000L
+
+    private class Input(
+        val glucoseStatus: JSONObject,
+        val currentTemp: JSONObject,
+        val iobData: JSONArray,
+        val profile: JSONObject,
+        val autosensData: JSONObject?,
+        val mealData: JSONObject,
+        val microBolusAllowed: Boolean,
+        val currentTime: Long
+    )
+
+    // inputs as stored by DetermineBasalAdapterSMBJS
+    private val recordedProfile = "{\"max_iob\":3,\"type\":\"current\",\"max_daily_basal\":1.2,\"max_basal\":3.5,\"min_bg\":99,\"max_bg\":99,\"target_bg\":99,\"carb_ratio\":10,\"sens\":45,\"max_daily_safety_multiplier\":3,\"current_basal_safety_multiplier\":4,\"high_temptarget_raises_sensitivity\":false,\"low_temptarget_lowers_sensitivity\":false,\"sensitivity_raises_target\":true,\"resistance_lowers_target\":false,\"adv_target_adjustments\":false,\"exercise_mode\":false,\"half_basal_exercise_target\":160,\"maxCOB\":120,\"skip_neutral_temps\":false,\"remainingCarbsCap\":90,\"enableUAM\":true,\"A52_risk_enable\":false,\"SMBInterval\":3,\"enableSMB_with_COB\":true,\"enableSMB_with_temptarget\":true,\"allowSMB_with_high_temptarget\":false,\"enableSMB_always\":true,\"enableSMB_after_carbs\":true,\"maxSMBBasalMinutes\":30,\"maxUAMSMBBasalMinutes\":30,\"bolus_increment\":0.1,\"carbsReqThreshold\":1,\"current_basal\":0.85,\"temptargetSet\":false,\"autosens_max\":1.2}"
+    private val recordedGlucoseStatus = "{\"glucose\":152,\"noise\":0,\"delta\":4.2,\"short_avgdelta\":3.65,\"long_avgdelta\":2.11,\"date\":1591610280000}"
+    private val recordedCurrentTemp = "{\"temp\":\"absolute\",\"duration\":22,\"rate\":1.2,\"minutesrunning\":8}"
+    private val recordedMealData = "{\"carbs\":45,\"boluses\":3.2,\"mealCOB\":28.4,\"slopeFromMaxDeviation\":-0.42,\"slopeFromMinDeviation\":1.87,\"lastBolusTime\":1591608900000,\"lastCarbTime\":1591606800000}"
+    private val recordedAutosensData = "{\"ratio\":0.93}"
+
+    private fun iobArray(iob: Double, activity: Double, basal: Double, lastBolusTime: Long, jitter: (Int) -> Double = { 0.0 }): JSONArray {
+        val array = JSONArray()
+        for (i in 0 until 48) {
+            val decay = exp(-i / 15.0)
+            val zeroTemp = JSONObject()
+                .put("iob", iob * decay).put("basaliob", 0).put("bolussnooze", 0)
+                .put("activity", activity * decay - i * 0.0003 * basal).put("lastBolusTime", lastBolusTime).put("time", "2020-06-08T10:00:00Z")
+            array.put(
+                JSONObject()
+                    .put("iob", iob * decay).put("basaliob", iob * decay / 2).put("bolussnooze", 0)
+                    .put("activity", activity * decay + jitter(i)).put("lastBolusTime", lastBolusTime).put("time", "2020-06-08T10:00:00Z")
+                    .put("iobWithZeroTemp", zeroTemp)
+            )
+        }
+        return array
+    }
+
+    private fun recorded(): Input = Input(
+        JSONObject(recordedGlucoseStatus), JSONObject(recordedCurrentTemp), iobArray(1.73, 0.0112, 0.85, 1591608900000L),
+        JSONObject(recordedProfile), JSONObject(recordedAutosensData), JSONObject(recordedMealData), true, now
+    )
+
+    private fun Random.round(from: Double, to: Double, digits: Int): Double {
+        var scale = 1.0
+        repeat(digits) { scale *= 10 }
+        return ((from + (to - from) * nextDouble()) * scale).roundToLong() / scale
+    }
+
+    // variations of recorded input to reach all branches
+    private fun generated(random: Random): Input {
+        val time = now + random.nextInt(3600) * 1000L * (if (random.nextBoolean()) 1 else 60)
+        val basal = random.round(0.3, 2.5, 2)
+        val tempTarget = random.nextInt(4) == 0
+        val minBg = if (tempTarget) random.round(72.0, 160.0, 0) else random.round(80.0, 120.0, 1)
+        val maxBg = minBg + if (random.nextBoolean()) 0.0 else random.round(0.0, 30.0, 0)
+        val smb = random.nextInt(4) != 0
+        val profile = JSONObject(recordedProfile)
+            .put("max_iob", random.round(0.0, 7.0, 1))
+            .put("max_daily_basal", random.round(basal, basal * 1.5, 2))
+            .put("max_basal", random.round(0.5, 6.0, 1))
+            .put("min_bg", minBg).put("max_bg", maxBg).put("target_bg", (minBg + maxBg) / 2)
+            .put("carb_ratio", random.round(5.0, 20.0, 1))
+            .put("sens", random.round(20.0, 120.0, 1))
+            .put("sensitivity_raises_target", random.nextBoolean())
+            .put("resistance_lowers_target", random.nextBoolean())
+            .put("adv_target_adjustments", random.nextInt(3) == 0)
+            .put("exercise_mode", random.nextInt(3) == 0)
+            .put("skip_neutral_temps", random.nextInt(3) == 0)
+            .put("enableUAM", random.nextBoolean())
+            .put("SMBInterval", 3 + random.nextInt(3))
+            .put("enableSMB_with_COB", smb && random.nextBoolean())
+            .put("enableSMB_with_temptarget", smb && random.nextBoolean())
+            .put("allowSMB_with_high_temptarget", smb && random.nextBoolean())
+            .put("enableSMB_always", smb && random.nextBoolean())
+            .put("enableSMB_after_carbs", smb && random.nextBoolean())
+            .put("maxSMBBasalMinutes", 30 + 15 * random.nextInt(7))
+            .put("maxUAMSMBBasalMinutes", 30 + 15 * random.nextInt(7))
+            .put("bolus_increment", listOf(0.1, 0.05, 0.025)[random.nextInt(3)])
+            .put("carbsReqThreshold", 1 + random.nextInt(5))
+            .put("current_basal", basal)
+            .put("temptargetSet", tempTarget)
+        if (random.nextBoolean()) profile.put("out_units", "mmol/L")
+
+        val duration = listOf(0, 0, 5, 12, 20, 29, 45, 90, 120)[random.nextInt(9)]
+        val currentTemp = JSONObject().put("temp", "absolute").put("duration", duration)
+            .put("rate", if (duration == 0) 0.0 else listOf(0.0, basal, random.round(0.0, 5.0, 2), basal * 1.1)[random.nextInt(4)])
+
+        val delta = if (random.nextInt(20) == 0) 0.0 else random.round(-18.0, 18.0, 2)
+        val glucoseStatus = JSONObject()
+            .put("glucose", if (random.nextInt(30) == 0) listOf(5.0, 38.0, 39.0)[random.nextInt(3)] else random.round(40.0, 350.0, random.nextInt(2)))
+            .put("noise", if (random.nextInt(25) == 0) random.nextInt(4).toDouble() else 0.0)
+            .put("delta", delta)
+            .put("short_avgdelta", if (delta == 0.0 && random.nextBoolean()) 0.3 else random.round(-15.0, 15.0, 2))
+            .put("long_avgdelta", if (delta == 0.0 && random.nextBoolean()) -0.2 else random.round(-10.0, 10.0, 2))
+            .put("date", time - if (random.nextInt(30) == 0) random.nextInt(30) * 60000L else random.nextInt(300) * 1000L)
+
+        val carbs = if (random.nextBoolean()) random.round(5.0, 150.0, 0) else 0.0
+        val mealData = JSONObject(recordedMealData)
+            .put("carbs", carbs)
+            .put("mealCOB", if (carbs == 0.0 || random.nextInt(4) == 0) 0.0 else random.round(0.0, carbs, 1))
+            .put("slopeFromMaxDeviation", random.round(-5.0, 0.0, 3))
+            .put("slopeFromMinDeviation", random.round(0.0, 5.0, 3))
+            .put("lastCarbTime", if (carbs > 0) time - random.nextInt(360) * 60000L else 0)
+
+        val autosensData = if (random.nextInt(20) == 0) null else JSONObject().put("ratio", if (random.nextInt(3) == 0) 1.0 else random.round(0.7, 1.2, 2))
+        val lastBolusTime = time - random.nextInt(240) * 60000L - random.nextInt(60) * 1000L
+        val iobData = iobArray(random.round(-2.0, 8.0, 3), random.round(-0.01, 0.05, 4), basal, lastBolusTime) { (random.nextDouble() - 0.5) * 0.002 }
+        return Input(glucoseStatus, currentTemp, iobData, profile, autosensData, mealData, random.nextInt(5) != 0, time)
+    }
+
+    private fun javaScript(input: Input): String {
+        val rhino = Context.enter()
+        try {
+            rhino.optimizationLevel = -1
+            val scope: Scriptable = rhino.initStandardObjects()
+            rhino.evaluateString(scope, "var console = { log: function() {}, error: function() {} };", "JavaScript", 0, null)
+            rhino.evaluateString(scope, "var module = {\"parent\":Boolean(1)};", "JavaScript", 0, null)
+            rhino.evaluateString(scope, "var round_basal = function round_basal(basal, profile) { return basal; };", "JavaScript", 0, null)
+            rhino.evaluateString(scope, "require = function() {return round_basal;};", "JavaScript", 0, null)
+            rhino.evaluateString(scope, File("src/main/assets/OpenAPSSMB/determine-basal.js").readText(), "JavaScript", 0, null)
+            rhino.evaluateString(scope, File("src/main/assets/OpenAPSSMB/basal-set-temp.js").readText(), "setTempBasal.js", 0, null)
+            val determineBasal = scope.get("determine_basal", scope) as Function
+            fun param(json: Any?): Any = json?.let { NativeJSON.parse(rhino, scope, it.toString()) { _, _, _, objects -> objects[1] } } ?: Undefined.instance
+            val result = determineBasal.call(
+                rhino, scope, scope, arrayOf(
+                    param(input.glucoseStatus), param(input.currentTemp), param(input.iobData), param(input.profile), param(input.autosensData), param(input.mealData),
+                    scope.get("tempBasalFunctions", scope), input.microBolusAllowed, Undefined.instance, input.currentTime
+                )
+            )
+            return NativeJSON.stringify(rhino, scope, result, null, null).toString()
+        } finally {
+            Context.exit()
+        }
+    }
+
+    private fun java(input: Input): String =
+        DetermineBasalSMB().determineBasal(
+            input.glucoseStatus, input.currentTemp, input.iobData, input.profile, input.autosensData, input.mealData, input.microBolusAllowed, input.currentTime
+        ).toString()
+
+    private fun assertSameResult(input: Input) {
+        val expected = javaScript(input)
+        val actual = java(input)
+        JSONAssert.assertEquals("$expected\n$actual", expected, actual, true)
+    }
+
+    @Test
+    fun recordedInputTest() {
+        val input = recorded()
+        assertSameResult(input)
+        val result = JSONObject(java(input))
+        Assert.assertEquals("2020-06-08T10:00:00.000Z", result.getString("deliverAt"))
+        Assert.assertTrue(result.getString("reason").startsWith("COB: 28.4, Dev: "))
+    }
+
+    @Test
+    fun recordedInputMmolTest() {
+        val input = recorded()
+        input.profile.put("out_units", "mmol/L")
+        assertSameResult(input)
+    }
+
+    @Test
+    fun oldDataTest() {
+        val input = recorded()
+        input.glucoseStatus.put("date", now - 20 * 60 * 1000L)
+        assertSameResult(input)
+    }
+
+    @Test
+    fun generatedInputsTest() {
+        val random = Random(20200608)
+        repeat(300) { assertSameResult(generated(random)) }
+    }
+
+    @Test
+    fun jsNumberFormatTest() {
+        Assert.assertEquals("5", DetermineBasalSMB.str(5.0))
+        Assert.assertEquals("0", DetermineBasalSMB.str(-0.0))
+        Assert.assertEquals("0.1", DetermineBasalSMB.str(0.1))
+        Assert.assertEquals("0.30000000000000004", DetermineBasalSMB.str(0.1 + 0.2))
+        Assert.assertEquals("1591610400000", DetermineBasalSMB.str(1591610400000.0))
+        Assert.assertEquals("1.5e-7", DetermineBasalSMB.str(1.5e-7))
+        Assert.assertEquals("NaN", DetermineBasalSMB.str(Double.NaN))
+        Assert.assertEquals("1.01", DetermineBasalSMB.toFixed(1.005 + 0.000001, 2))
+        Assert.assertEquals("1.00", DetermineBasalSMB.toFixed(1.005, 2)) // 1.005 is 1.00499999999999989... as double
+        Assert.assertEquals("-0.50", DetermineBasalSMB.toFixed(-0.5, 2))
+        Assert.assertEquals(-2.0, DetermineBasalSMB.round(-2.5), 0.0)
+        Assert.assertEquals(1.24, DetermineBasalSMB.round(1.235, 2), 0.0)
+    }
+}
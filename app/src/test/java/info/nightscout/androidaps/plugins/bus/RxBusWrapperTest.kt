@@ -0,0 +1,68 @@
+package info.nightscout.androidaps.plugins.bus
+
+import info.nightscout.androidaps.TestBase
+import info.nightscout.androidaps.events.Event
+import org.junit.Assert
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class RxBusWrapperTest : TestBase() {
+
+    open class EventParent : Event()
+    class EventChild : EventParent()
+    class EventOther : Event()
+    class EventProgress(val progress: Int) : Event()
+
+    private val rxBus = RxBusWrapper()
+
+    // subscription is done on io thread
+    private fun waitForSubscription() = Thread.sleep(200)
+
+    @Test
+    fun deliversByClassAndSuperclassTest() {
+        val parent = rxBus.toObservable(EventParent::class.java).test()
+        val child = rxBus.toObservable(EventChild::class.java).test()
+        val all = rxBus.toObservable(Event::class.java).test()
+        waitForSubscription()
+
+        rxBus.send(EventParent())
+        rxBus.send(EventChild())
+        rxBus.send(EventOther())
+
+        parent.awaitCount(2)
+        all.awaitCount(3)
+        parent.assertValueCount(2)
+        child.assertValueCount(1)
+        all.assertValueCount(3)
+        Assert.assertTrue(child.values()[0] is EventChild)
+        Assert.assertEquals(mapOf("EventParent" to 1L, "EventChild" to 1L, "EventOther" to 1L), rxBus.eventCounts())
+    }
+
+    @Test
+    fun laterSubscriptionIsRoutedTest() {
+        val parent = rxBus.toObservable(EventParent::class.java).test()
+        waitForSubscription()
+        rxBus.send(EventChild())
+        // route of EventChild is cached now and must include new subscriber
+        val child = rxBus.toObservable(EventChild::class.java).test()
+        waitForSubscription()
+        rxBus.send(EventChild())
+
+        parent.awaitCount(2)
+        child.awaitCount(1)
+        parent.assertValueCount(2)
+        child.assertValueCount(1)
+    }
+
+    @Test
+    fun throttledDeliversLatestTest() {
+        val progress = rxBus.toObservable(EventProgress::class.java, 500).test()
+        waitForSubscription()
+        for (i in 1..100) rxBus.send(EventProgress(i))
+
+        progress.awaitDone(1, TimeUnit.SECONDS)
+        Assert.assertEquals(1, progress.values().first().progress)
+        Assert.assertEquals(100, progress.values().last().progress)
+        Assert.assertTrue(progress.values().size <= 3)
+    }
+}
@@ -0,0 +1,125 @@
+package info.nightscout.androidaps.plugins.general.nsclient
+
+import android.content.Context
+import com.j256.ormlite.dao.CloseableIterator
+import info.nightscout.androidaps.TestBase
+import info.nightscout.androidaps.db.CommitActions
+import info.nightscout.androidaps.db.DbRequest
+import info.nightscout.androidaps.interfaces.DatabaseHelperInterface
+import info.nightscout.androidaps.plugins.bus.RxBusWrapper
+import info.nightscout.androidaps.utils.sharedPreferences.SP
+import org.json.JSONObject
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mock
+import org.mockito.Mockito
+import org.mockito.Mockito.`when`
+
+class UploadQueueTest : TestBase() {
+
+    @Mock lateinit var databaseHelper: DatabaseHelperInterface
+    @Mock lateinit var context: Context
+    @Mock lateinit var sp: SP
+    @Mock lateinit var iterator: CloseableIterator<DbRequest>
+
+    private lateinit var sut: UploadQueue
+
+    @Before
+    fun prepare() {
+        `when`(iterator.hasNext()).thenReturn(false)
+        `when`(databaseHelper.getDbRequestInterator()).thenReturn(iterator)
+        sut = UploadQueue(aapsLogger, databaseHelper, context, sp, RxBusWrapper())
+    }
+
+    private fun request(id: Int, action: String = "dbAdd", _id: String = ""): DbRequest =
+        DbRequest().also {
+            it.nsClientID = id.toString()
+            it.action = action
+            it.collection = "treatments"
+            it.data = "{}"
+            it._id = _id
+        }
+
+    @Test
+    fun sendsWindowAndRefillsOnAckTest() {
+        for (i in 1..60) sut.add(request(i))
+        Assert.assertEquals(60L, sut.size())
+
+        val first = sut.nextToSend()
+        Assert.assertEquals(UploadQueue.WINDOW_SIZE, first.size)
+        Assert.assertEquals("1", first[0].nsClientID)
+        first.forEach { sut.markSent(it) }
+        // window is full
+        Assert.assertEquals(0, sut.nextToSend().size)
+
+        sut.removeID(JSONObject().put("NSCLIENT_ID", "1"))
+        Assert.assertEquals(59L, sut.size())
+        val next = sut.nextToSend()
+        Assert.assertEquals(1, next.size)
+        Assert.assertEquals("51", next[0].nsClientID)
+        sut.markSent(next[0])
+
+        // after reconnection everything not acked is sent again
+        sut.resetInFlight()
+        Assert.assertEquals(UploadQueue.WINDOW_SIZE, sut.nextToSend().size)
+    }
+
+    @Test
+    fun acknowledgedAreDeletedInBatchTest() {
+        sut.add(request(1))
+        sut.add(request(2, "dbUpdate", "abc"))
+        sut.add(request(3))
+        sut.nextToSend().forEach { sut.markSent(it) }
+
+        sut.removeID(JSONObject().put("NSCLIENT_ID", "1"))
+        sut.removeID("dbUpdate", "abc")
+        // unknown id is ignored
+        sut.removeID(JSONObject().put("NSCLIENT_ID", "10"))
+        Assert.assertEquals(1L, sut.size())
+
+        Thread.sleep(1500)
+        Mockito.verify(databaseHelper, Mockito.times(1)).deleteDbRequests(listOf("1", "2"))
+        Assert.assertTrue(sut.metrics().contains("acked: 2"))
+    }
+
+    @Test
+    fun notEmittedAreReturnedAgainTest() {
+        for (i in 1..3) sut.add(request(i))
+        // not connected, nothing is emitted
+        Assert.assertEquals(3, sut.nextToSend().size)
+        Assert.assertEquals(3, sut.nextToSend().size)
+
+        sut.markSent(sut.nextToSend()[0])
+        val next = sut.nextToSend()
+        Assert.assertEquals(listOf("2", "3"), next.map { it.nsClientID })
+    }
+
+    @Test
+    fun requestsAreForgottenOnDatabaseResetTest() {
+        for (i in 1..3) sut.add(request(i))
+        sut.markSent(sut.nextToSend()[0])
+
+        // what DatabaseHelper.resetDatabases does after DBRequests table is dropped
+        sut.reset()
+        Assert.assertEquals(0L, sut.size())
+        Assert.assertEquals(0, sut.nextToSend().size)
+        Assert.assertTrue(sut.metrics().contains("in flight: 0"))
+    }
+
+    @Test
+    fun requestsOfRolledBackBatchAreNotQueuedTest() {
+        // what TreatmentService.callInBatch does around a rolled back transaction
+        CommitActions.begin()
+        sut.add(request(1))
+        sut.add(request(2))
+        CommitActions.end(false)
+        Assert.assertEquals(0L, sut.size())
+        Assert.assertEquals(0, sut.nextToSend().size)
+
+        CommitActions.begin()
+        sut.add(request(3))
+        CommitActions.end(true)
+        Assert.assertEquals(listOf("3"), sut.nextToSend().map { it.nsClientID })
+    }
+}
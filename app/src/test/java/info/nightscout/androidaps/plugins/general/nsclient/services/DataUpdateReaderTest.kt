@@ -0,0 +1,40 @@
+package info.nightscout.androidaps.plugins.general.nsclient.services
+
+import org.json.JSONArray
+import org.json.JSONObject
+import org.junit.Assert
+import org.junit.Test
+
+class DataUpdateReaderTest {
+
+    private fun payload(count: Int): JSONObject {
+        val array = JSONArray()
+        for (i in 0 until count) array.put(JSONObject().put("mills", i))
+        return JSONObject().put("sgvs", array)
+    }
+
+    @Test
+    fun readsInChunksTest() {
+        val data = payload(250)
+        val array = data.getJSONArray("sgvs")
+        val chunks = ArrayList<List<Long>>()
+        val count = DataUpdateReader.read(data, "sgvs", 100) { chunk ->
+            chunks.add(chunk.map { it.getLong("mills") })
+        }
+
+        Assert.assertEquals(250, count)
+        Assert.assertEquals(listOf(100, 100, 50), chunks.map { it.size })
+        Assert.assertEquals((0L until 250L).toList(), chunks.flatten())
+        // records and array are released from payload
+        Assert.assertFalse(data.has("sgvs"))
+        Assert.assertTrue(array.isNull(0))
+        Assert.assertTrue(array.isNull(249))
+    }
+
+    @Test
+    fun missingArrayTest() {
+        var called = false
+        Assert.assertEquals(0, DataUpdateReader.read(JSONObject(), "sgvs", 100) { called = true })
+        Assert.assertFalse(called)
+    }
+}
@@ -0,0 +1,40 @@
+package info.nightscout.androidaps.plugins.insulin
+
+import org.junit.Assert
+import org.junit.Test
+
+class InsulinCurveTest {
+
+    @Test
+    fun interpolatedValuesMatchExactCurve() {
+        for (peak in listOf(45, 55, 75)) {
+            for (td in listOf(300.0, 360.0, 487.5)) {
+                val sut = InsulinCurve(peak, td)
+                var t = 0.0
+                while (t < td) {
+                    Assert.assertEquals(sut.exactIob(t), sut.iob(t), 0.0001)
+                    Assert.assertEquals(sut.exactActivity(t), sut.activity(t), 0.00001)
+                    t += 0.37
+                }
+            }
+        }
+    }
+
+    @Test
+    fun boundariesTest() {
+        val sut = InsulinCurve(75, 300.0)
+        Assert.assertEquals(1.0, sut.iob(0.0), 0.000001)
+        Assert.assertEquals(0.0, sut.activity(0.0), 0.000001)
+        Assert.assertEquals(0.0, sut.iob(300.0), 0.0)
+        Assert.assertEquals(0.0, sut.activity(1000.0), 0.0)
+        Assert.assertEquals(sut.exactIob(-10.0), sut.iob(-10.0), 0.0)
+    }
+
+    @Test
+    fun isForTest() {
+        val sut = InsulinCurve(75, 300.0)
+        Assert.assertTrue(sut.isFor(75, 300.0))
+        Assert.assertFalse(sut.isFor(55, 300.0))
+        Assert.assertFalse(sut.isFor(75, 360.0))
+    }
+}
@@ -0,0 +1,88 @@
+package info.nightscout.androidaps.plugins.iob.iobCobCalculator
+
+import dagger.android.AndroidInjector
+import dagger.android.HasAndroidInjector
+import info.nightscout.androidaps.db.BgReading
+import info.nightscout.androidaps.utils.T
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+class GlucoseSeriesTest {
+
+    private val injector = HasAndroidInjector { AndroidInjector { } }
+
+    private fun readings(vararg minutes: Long): List<BgReading> {
+        val list = ArrayList<BgReading>()
+        for (m in minutes) list.add(BgReading(injector).date(T.mins(m).msecs()).value(100.0 + m))
+        return list
+    }
+
+    @Test
+    fun ofTest() {
+        val series = GlucoseSeries.of(readings(20, 15, 10, 5))
+        Assert.assertEquals(4, series.size.toLong())
+        Assert.assertEquals(T.mins(20).msecs(), series.getTimestamp(0))
+        Assert.assertEquals(105.0, series.getValue(3), 0.01)
+        Assert.assertEquals(T.mins(5).msecs(), series[3].timestamp)
+        Assert.assertFalse(series.isInterpolated(0))
+    }
+
+    @Test
+    fun findTest() {
+        val series = GlucoseSeries.of(readings(20, 15, 10, 5))
+        Assert.assertEquals(2, series.findNewer(T.mins(8).msecs()).toLong())
+        Assert.assertEquals(2, series.findNewer(T.mins(10).msecs()).toLong())
+        Assert.assertEquals(3, series.findNewer(T.mins(1).msecs()).toLong())
+        Assert.assertEquals(-1, series.findNewer(T.mins(22).msecs()).toLong())
+        Assert.assertEquals(3, series.findOlder(T.mins(8).msecs()).toLong())
+        Assert.assertEquals(2, series.findOlder(T.mins(10).msecs()).toLong())
+        Assert.assertEquals(0, series.findOlder(T.mins(30).msecs()).toLong())
+        Assert.assertEquals(-1, series.findOlder(T.mins(4).msecs()).toLong())
+    }
+
+    @Test
+    fun appendTest() {
+        val series = GlucoseSeries.of(readings(20, 15, 10, 5))
+        val builder = GlucoseSeries.Builder()
+        builder.add(T.mins(30).msecs(), 130.0, false)
+        builder.add(T.mins(25).msecs(), 125.0, true)
+        val appended = series.append(builder).dropOldest(1)
+        Assert.assertEquals(5, appended.size.toLong())
+        Assert.assertEquals(T.mins(30).msecs(), appended.getTimestamp(0))
+        Assert.assertTrue(appended.isInterpolated(1))
+        Assert.assertFalse(appended.isInterpolated(0))
+        Assert.assertEquals(T.mins(10).msecs(), appended.getTimestamp(4))
+        // original is not changed
+        Assert.assertEquals(4, series.size.toLong())
+        Assert.assertEquals(T.mins(20).msecs(), series.getTimestamp(0))
+
+        // second append to the same series must not overwrite the first one
+        val other = GlucoseSeries.Builder()
+        other.add(T.mins(22).msecs(), 122.0, false)
+        val branch = series.append(other)
+        Assert.assertEquals(T.mins(22).msecs(), branch.getTimestamp(0))
+        Assert.assertEquals(T.mins(25).msecs(), appended.getTimestamp(1))
+
+        // storage is extended when full
+        var growing = series
+        for (i in 1..100) {
+            val next = GlucoseSeries.Builder()
+            next.add(T.mins(20 + i * 5L).msecs(), 100.0 + i, false)
+            growing = growing.append(next).dropOldest(1)
+        }
+        Assert.assertEquals(4, growing.size.toLong())
+        Assert.assertEquals(T.mins(520).msecs(), growing.getTimestamp(0))
+        Assert.assertEquals(T.mins(505).msecs(), growing.getTimestamp(3))
+    }
+
+    @Test
+    fun countAddedSinceTest() {
+        val previous = GlucoseSeries.of(readings(20, 15, 10, 5))
+        Assert.assertEquals(0, GlucoseSeries.of(readings(20, 15, 10, 5)).countAddedSince(previous).toLong())
+        Assert.assertEquals(2, GlucoseSeries.of(readings(30, 25, 20, 15, 10)).countAddedSince(previous).toLong())
+        Assert.assertEquals(-1, GlucoseSeries.of(readings(25, 20, 10, 5)).countAddedSince(previous).toLong())
+        Assert.assertEquals(-1, GlucoseSeries.of(readings(25, 20, 15, 10, 5, 0)).countAddedSince(previous).toLong())
+        Assert.assertEquals(-1, GlucoseSeries.of(readings(15, 10, 5)).countAddedSince(previous).toLong())
+    }
+}
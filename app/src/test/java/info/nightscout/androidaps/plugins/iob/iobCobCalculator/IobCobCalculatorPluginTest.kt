@@ -2,8 +2,10 @@ package info.nightscout.androidaps.plugins.iob.iobCobCalculator
 
 import dagger.android.AndroidInjector
 import dagger.android.HasAndroidInjector
+import info.nightscout.androidaps.MainApp
 import info.nightscout.androidaps.TestBase
 import info.nightscout.androidaps.db.BgReading
+import info.nightscout.androidaps.db.DatabaseHelper
 import info.nightscout.androidaps.interfaces.ActivePluginProvider
 import info.nightscout.androidaps.plugins.bus.RxBusWrapper
 import info.nightscout.androidaps.interfaces.ProfileFunction
@@ -21,13 +23,17 @@ import org.junit.Assert
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyBoolean
+import org.mockito.ArgumentMatchers.anyLong
 import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import org.powermock.api.mockito.PowerMockito
 import org.powermock.core.classloader.annotations.PrepareForTest
 import org.powermock.modules.junit4.PowerMockRunner
 import java.util.*
 
 @RunWith(PowerMockRunner::class)
-@PrepareForTest(FabricPrivacy::class)
+@PrepareForTest(FabricPrivacy::class, MainApp::class, DatabaseHelper::class)
 class IobCobCalculatorPluginTest : TestBase() {
 
     @Mock lateinit var sp: SP
@@ -42,6 +48,8 @@ class IobCobCalculatorPluginTest : TestBase() {
     @Mock lateinit var defaultValueHelper: DefaultValueHelper
     @Mock lateinit var fabricPrivacy: FabricPrivacy
     @Mock lateinit var dateUtil: DateUtil
+    @Mock lateinit var snapshot: IobCobSnapshot
+    @Mock lateinit var databaseHelper: DatabaseHelper
 
     lateinit var iobCobCalculatorPlugin: IobCobCalculatorPlugin
 
@@ -59,7 +67,7 @@ class IobCobCalculatorPluginTest : TestBase() {
 
     @Before
     fun mock() {
-        iobCobCalculatorPlugin = IobCobCalculatorPlugin(injector, aapsLogger, rxBus, sp, resourceHelper, profileFunction, activePlugin, treatmentsPlugin, sensitivityOref1Plugin, sensitivityAAPSPlugin, sensitivityWeightedAveragePlugin, fabricPrivacy, dateUtil)
+        iobCobCalculatorPlugin = IobCobCalculatorPlugin(injector, aapsLogger, rxBus, sp, resourceHelper, profileFunction, activePlugin, treatmentsPlugin, sensitivityOref1Plugin, sensitivityAAPSPlugin, sensitivityWeightedAveragePlugin, fabricPrivacy, dateUtil, snapshot)
     }
 
     @Test
@@ -372,6 +380,88 @@ class IobCobCalculatorPluginTest : TestBase() {
         Assert.assertEquals(false, iobCobCalculatorPlugin.isAbout5minData)
     }
 
+    @Test
+    fun createBucketedDataIncrementallyTest() {
+        val bgReadingList: MutableList<BgReading> = ArrayList()
+        for (i in 10 downTo 1)
+            bgReadingList.add(BgReading(injector).date(T.mins(5 * i.toLong()).msecs()).value(100.0 + i))
+        iobCobCalculatorPlugin.bgReadings = ArrayList(bgReadingList)
+        iobCobCalculatorPlugin.createBucketedData()
+        val previous = iobCobCalculatorPlugin.bucketedData
+
+        // new reading is appended, oldest is dropped
+        bgReadingList.add(0, BgReading(injector).date(T.mins(55).msecs() + T.secs(5).msecs()).value(120.0))
+        bgReadingList.removeAt(bgReadingList.size - 1)
+        iobCobCalculatorPlugin.bgReadings = ArrayList(bgReadingList)
+        iobCobCalculatorPlugin.createBucketedData()
+        val extended = iobCobCalculatorPlugin.bucketedData
+        Assert.assertEquals(10, extended.size.toLong())
+        Assert.assertEquals(T.mins(55).msecs(), extended.getTimestamp(0))
+        Assert.assertEquals(120.0, extended.getValue(0), 0.01)
+        for (i in 1 until extended.size) {
+            Assert.assertEquals(previous.getTimestamp(i - 1), extended.getTimestamp(i))
+            Assert.assertEquals(previous.getValue(i - 1), extended.getValue(i), 0.01)
+        }
+        // series handed out before is not changed
+        Assert.assertEquals(10, previous.size.toLong())
+        Assert.assertEquals(T.mins(5).msecs(), previous.getTimestamp(9))
+
+        // non 5min data gives the same result as full recalculation
+        bgReadingList.clear()
+        for (i in 20 downTo 1)
+            bgReadingList.add(BgReading(injector).date(T.mins(4 * i.toLong()).msecs()).value(100.0 + 3 * i))
+        iobCobCalculatorPlugin.bgReadings = ArrayList(bgReadingList)
+        iobCobCalculatorPlugin.createBucketedData()
+        bgReadingList.add(0, BgReading(injector).date(T.mins(84).msecs()).value(170.0))
+        bgReadingList.add(0, BgReading(injector).date(T.mins(88).msecs()).value(175.0))
+        iobCobCalculatorPlugin.bgReadings = ArrayList(bgReadingList)
+        iobCobCalculatorPlugin.createBucketedData()
+        val incremental = iobCobCalculatorPlugin.bucketedData
+
+        val recalculated = IobCobCalculatorPlugin(injector, aapsLogger, rxBus, sp, resourceHelper, profileFunction, activePlugin, treatmentsPlugin, sensitivityOref1Plugin, sensitivityAAPSPlugin, sensitivityWeightedAveragePlugin, fabricPrivacy, dateUtil, snapshot)
+        recalculated.referenceTime = iobCobCalculatorPlugin.referenceTime
+        recalculated.bgReadings = ArrayList(bgReadingList)
+        recalculated.createBucketedData()
+        Assert.assertEquals(recalculated.bucketedData.size.toLong(), incremental.size.toLong())
+        for (i in 0 until incremental.size) {
+            Assert.assertEquals(recalculated.bucketedData.getTimestamp(i), incremental.getTimestamp(i))
+            Assert.assertEquals(recalculated.bucketedData.getValue(i), incremental.getValue(i), 0.0)
+            Assert.assertEquals(recalculated.bucketedData.isInterpolated(i), incremental.isInterpolated(i))
+        }
+    }
+
+    @Test
+    fun backfilledReadingIsLoadedAfterIncrementalLoadTest() {
+        PowerMockito.mockStatic(MainApp::class.java)
+        `when`(MainApp.getDbHelper()).thenReturn(databaseHelper)
+        // stored readings sorted by date descending like the database returns them
+        val stored: MutableList<BgReading> = ArrayList()
+        `when`(databaseHelper.getBgreadingsDataFromTime(anyLong(), anyBoolean())).thenAnswer { invocation ->
+            stored.filter { it.date >= invocation.getArgument<Long>(0) }
+        }
+        `when`(databaseHelper.countBgreadingsDataFromTime(anyLong(), anyLong())).thenAnswer { invocation ->
+            stored.count { it.date >= invocation.getArgument<Long>(0) && it.date <= invocation.getArgument<Long>(1) }.toLong()
+        }
+        val now = System.currentTimeMillis()
+        for (i in 1..10)
+            if (i != 5) stored.add(BgReading(injector).date(now - T.mins(5L * i).msecs()).value(100.0 + i))
+        iobCobCalculatorPlugin.loadBgData(now)
+        Assert.assertEquals(9, iobCobCalculatorPlugin.bgReadings.size)
+
+        // new reading is loaded incrementally
+        stored.add(0, BgReading(injector).date(now).value(100.0))
+        iobCobCalculatorPlugin.loadBgData(now)
+        Assert.assertEquals(10, iobCobCalculatorPlugin.bgReadings.size)
+        Assert.assertEquals(now, iobCobCalculatorPlugin.bgReadings[0].date)
+
+        // backfilled reading is older than the newest loaded one
+        val backfilled = BgReading(injector).date(now - T.mins(25).msecs()).value(105.0)
+        stored.add(5, backfilled)
+        iobCobCalculatorPlugin.loadBgData(now)
+        Assert.assertEquals(11, iobCobCalculatorPlugin.bgReadings.size)
+        Assert.assertEquals(backfilled.date, iobCobCalculatorPlugin.bgReadings[5].date)
+    }
+
     @Test
     fun bgReadingsTest() {
         val bgReadingList: List<BgReading> = ArrayList()
@@ -0,0 +1,201 @@
+package info.nightscout.androidaps.plugins.iob.iobCobCalculator
+
+import android.content.Context
+import dagger.android.AndroidInjector
+import dagger.android.HasAndroidInjector
+import info.nightscout.androidaps.TestBase
+import info.nightscout.androidaps.data.IobTotal
+import info.nightscout.androidaps.data.NonOverlappingIntervals
+import info.nightscout.androidaps.data.ProfileIntervals
+import info.nightscout.androidaps.db.BgReading
+import info.nightscout.androidaps.db.Treatment
+import info.nightscout.androidaps.interfaces.ActivePluginProvider
+import info.nightscout.androidaps.interfaces.DatabaseHelperInterface
+import info.nightscout.androidaps.interfaces.InsulinInterface
+import info.nightscout.androidaps.interfaces.SensitivityInterface
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.data.AutosensData
+import info.nightscout.androidaps.plugins.treatments.TreatmentsPlugin
+import info.nightscout.androidaps.utils.DateUtil
+import info.nightscout.androidaps.utils.T
+import info.nightscout.androidaps.utils.resources.ResourceHelper
+import info.nightscout.androidaps.utils.sharedPreferences.SP
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.mockito.ArgumentMatchers.anyBoolean
+import org.mockito.ArgumentMatchers.anyLong
+import org.mockito.Mock
+import org.mockito.Mockito
+import org.mockito.Mockito.`when`
+
+class IobCobSnapshotTest : TestBase() {
+
+    @Mock lateinit var context: Context
+    @Mock lateinit var sp: SP
+    @Mock lateinit var resourceHelper: ResourceHelper
+    @Mock lateinit var activePlugin: ActivePluginProvider
+    @Mock lateinit var treatmentsPlugin: TreatmentsPlugin
+    @Mock lateinit var sensitivity: SensitivityInterface
+    @Mock lateinit var insulin: InsulinInterface
+    @Mock lateinit var databaseHelper: DatabaseHelperInterface
+    @Mock lateinit var dateUtil: DateUtil
+
+    private val injector = HasAndroidInjector { AndroidInjector { } }
+    private val treatments = ArrayList<Treatment>()
+    private val bgReadings = ArrayList<BgReading>()
+
+    private lateinit var snapshot: IobCobSnapshot
+
+    @Before
+    fun prepare() {
+        `when`(activePlugin.activeSensitivity).thenReturn(sensitivity)
+        `when`(activePlugin.activeInsulin).thenReturn(insulin)
+        `when`(treatmentsPlugin.treatmentsFromHistory).thenAnswer { ArrayList(treatments) }
+        `when`(treatmentsPlugin.temporaryBasalsFromHistory).thenReturn(NonOverlappingIntervals())
+        `when`(treatmentsPlugin.extendedBolusesFromHistory).thenReturn(NonOverlappingIntervals())
+        `when`(treatmentsPlugin.profileSwitchesFromHistory).thenReturn(ProfileIntervals())
+        `when`(databaseHelper.getAllBgreadingsDataFromTime(anyLong(), anyBoolean())).thenAnswer { invocation ->
+            bgReadings.filter { it.date >= invocation.getArgument<Long>(0) }
+        }
+        snapshot = IobCobSnapshot(context, injector, aapsLogger, sp, resourceHelper, activePlugin, treatmentsPlugin, databaseHelper, dateUtil)
+    }
+
+    private fun iobTotal(time: Long, iob: Double): IobTotal =
+        IobTotal(time).also {
+            it.iob = iob
+            it.activity = iob / 100
+            it.basaliob = iob / 2
+            it.lastBolusTime = time - T.hours(1).msecs()
+            it.iobWithZeroTemp = IobTotal(time).also { zero -> zero.iob = iob - 0.5 }
+        }
+
+    private fun autosensData(time: Long): AutosensData =
+        AutosensData(injector).also {
+            it.time = time
+            it.bg = 120.0
+            it.deviation = 2.5
+            it.validDeviation = true
+            it.cob = 20.0
+            it.activeCarbsList.add(it.CarbsInPast(time - T.mins(30).msecs(), 30.0, 8.0, 20.0))
+            it.autosensResult.ratio = 0.9
+            it.autosensResult.ratioLimit = "Ratio limited"
+            it.pastSensitivity = "+"
+            it.type = "csf"
+            it.uam = true
+            it.mealStartCounter = 3
+            it.extraDeviation.add(1.5)
+            it.extraDeviation.add(-0.5)
+        }
+
+    private fun state(from: Long, to: Long): IobCobSnapshot.State {
+        val state = IobCobSnapshot.State()
+        state.referenceTime = from
+        state.fiveMinData = true
+        var time = from
+        while (time <= to) {
+            state.iobTable.append(time, iobTotal(time, 1.0))
+            state.absIobTable.append(time, iobTotal(time, 2.0))
+            state.autosensDataTable.append(time, autosensData(time))
+            state.basalDataTable.append(time, BasalData().also { it.basal = 1.0; it.tempBasalAbsolute = 0.5; it.isTempBasalRunning = true })
+            time += T.mins(5).msecs()
+        }
+        snapshot.hashHistory(state)
+        return state
+    }
+
+    @Test
+    fun restoresStoredDataTest() {
+        val now = DateUtil.now()
+        val stored = state(now - T.hours(3).msecs(), now - T.mins(1).msecs())
+        val restored = snapshot.read(snapshot.write(stored))!!
+
+        Assert.assertEquals(stored.referenceTime, restored.referenceTime)
+        Assert.assertEquals(true, restored.fiveMinData)
+        Assert.assertEquals(stored.iobTable.size(), restored.iobTable.size())
+        Assert.assertEquals(stored.autosensDataTable.size(), restored.autosensDataTable.size())
+        Assert.assertEquals(stored.basalDataTable.size(), restored.basalDataTable.size())
+        val time = stored.iobTable.keyAt(10)
+        Assert.assertEquals(stored.iobTable[time]!!.determineBasalJson().toString(), restored.iobTable[time]!!.determineBasalJson().toString())
+        Assert.assertEquals(2.0, restored.absIobTable[time]!!.iob, 0.0)
+        val autosensData = restored.autosensDataTable[time]!!
+        Assert.assertEquals(time, autosensData.time)
+        Assert.assertEquals(2.5, autosensData.deviation, 0.0)
+        Assert.assertEquals(0.9, autosensData.autosensResult.ratio, 0.0)
+        Assert.assertEquals("Ratio limited", autosensData.autosensResult.ratioLimit)
+        Assert.assertEquals(1, autosensData.activeCarbsList.size)
+        Assert.assertEquals(20.0, autosensData.activeCarbsList[0].remaining, 0.0)
+        Assert.assertEquals(listOf(1.5, -0.5), autosensData.extraDeviation)
+        Assert.assertEquals(3, autosensData.mealStartCounter)
+        Assert.assertTrue(restored.basalDataTable[time]!!.isTempBasalRunning)
+    }
+
+    @Test
+    fun changedHistoryInvalidatesNewerDataTest() {
+        val now = DateUtil.now()
+        val treatmentTime = now - T.mins(90).msecs()
+        treatments.add(Treatment(injector).also { it.date = treatmentTime; it.carbs = 20.0 })
+        val bytes = snapshot.write(state(now - T.hours(3).msecs(), now - T.mins(1).msecs()))
+
+        // same history
+        Assert.assertEquals(36, snapshot.read(bytes)!!.autosensDataTable.size())
+
+        // treatment changed while app was not running
+        treatments[0].carbs = 30.0
+        val restored = snapshot.read(bytes)!!
+        val validTo = treatmentTime - treatmentTime % T.hours(1).msecs() - T.mins(5).msecs()
+        Assert.assertTrue(restored.autosensDataTable.size() in 1..35)
+        Assert.assertTrue(restored.autosensDataTable.keyAt(restored.autosensDataTable.size() - 1) <= validTo)
+        Assert.assertEquals(restored.autosensDataTable.size(), restored.iobTable.size())
+        Assert.assertEquals(restored.autosensDataTable.size(), restored.basalDataTable.size())
+
+        // changes older than loaded history are not verified
+        `when`(treatmentsPlugin.oldestDataAvailable()).thenReturn(now)
+        Assert.assertEquals(36, snapshot.read(bytes)!!.autosensDataTable.size())
+    }
+
+    @Test
+    fun backfilledBgInvalidatesNewerDataTest() {
+        val now = DateUtil.now()
+        for (i in 1..36)
+            if (i != 20) bgReadings.add(BgReading(injector).also { it.date = now - T.mins(5L * i).msecs(); it.value = 100.0 + i })
+        val bytes = snapshot.write(state(now - T.hours(3).msecs(), now - T.mins(1).msecs()))
+        Assert.assertEquals(36, snapshot.read(bytes)!!.autosensDataTable.size())
+
+        // reading older than the newest one stored while app was not running
+        val backfilled = now - T.mins(100).msecs()
+        bgReadings.add(BgReading(injector).also { it.date = backfilled; it.value = 120.0 })
+        val restored = snapshot.read(bytes)!!
+        val validTo = backfilled - backfilled % T.hours(1).msecs() - T.mins(5).msecs()
+        Assert.assertTrue(restored.autosensDataTable.size() in 1..35)
+        Assert.assertTrue(restored.autosensDataTable.keyAt(restored.autosensDataTable.size() - 1) <= validTo)
+
+        // readings newer than the snapshot don't invalidate it
+        bgReadings.removeAt(bgReadings.size - 1)
+        bgReadings.add(BgReading(injector).also { it.date = now + T.mins(5).msecs(); it.value = 120.0 })
+        Assert.assertEquals(36, snapshot.read(bytes)!!.autosensDataTable.size())
+    }
+
+    @Test
+    fun historyStoredAfterHashingInvalidatesNewerDataTest() {
+        val now = DateUtil.now()
+        val state = state(now - T.hours(3).msecs(), now - T.mins(1).msecs())
+        // stored after the tables were copied, tables don't include it
+        val treatmentTime = now - T.mins(30).msecs()
+        treatments.add(Treatment(injector).also { it.date = treatmentTime; it.insulin = 1.0 })
+        val restored = snapshot.read(snapshot.write(state))!!
+        val validTo = treatmentTime - treatmentTime % T.hours(1).msecs() - T.mins(5).msecs()
+        Assert.assertTrue(restored.autosensDataTable.size() in 1..35)
+        Assert.assertTrue(restored.autosensDataTable.keyAt(restored.autosensDataTable.size() - 1) <= validTo)
+    }
+
+    @Test
+    fun changedSettingsDropSnapshotTest() {
+        val now = DateUtil.now()
+        val bytes = snapshot.write(state(now - T.hours(1).msecs(), now - T.mins(1).msecs()))
+        `when`(activePlugin.activeSensitivity).thenReturn(Mockito.mock(SensitivityOtherInterface::class.java))
+        Assert.assertNull(snapshot.read(bytes))
+        Assert.assertNull(snapshot.read(byteArrayOf(1, 2, 3, 4, 5, 6, 7, 8)))
+    }
+
+    interface SensitivityOtherInterface : SensitivityInterface
+}
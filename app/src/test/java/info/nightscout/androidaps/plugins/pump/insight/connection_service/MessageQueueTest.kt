@@ -0,0 +1,102 @@
+package info.nightscout.androidaps.plugins.pump.insight.connection_service
+
+import info.nightscout.androidaps.plugins.pump.insight.app_layer.Service
+import info.nightscout.androidaps.plugins.pump.insight.app_layer.history.ReadHistoryEventsMessage
+import info.nightscout.androidaps.plugins.pump.insight.app_layer.remote_control.CancelTBRMessage
+import info.nightscout.androidaps.plugins.pump.insight.app_layer.status.GetBatteryStatusMessage
+import info.nightscout.androidaps.plugins.pump.insight.app_layer.status.GetOperatingModeMessage
+import info.nightscout.androidaps.plugins.pump.insight.exceptions.ConnectionLostException
+import info.nightscout.androidaps.plugins.pump.insight.exceptions.TimeoutException
+import org.junit.Assert
+import org.junit.Test
+
+class MessageQueueTest {
+
+    private val messageQueue = MessageQueue()
+    private val activatedServices = listOf(Service.STATUS, Service.HISTORY)
+
+    @Test
+    fun requestsOfSamePriorityKeepOrderTest() {
+        val requests = List(10) { MessageRequest(ReadHistoryEventsMessage()) }
+        val cancel = MessageRequest(CancelTBRMessage())
+        messageQueue.enqueueRequest(cancel)
+        requests.forEach { messageQueue.enqueueRequest(it) }
+        val sent = List(11) { messageQueue.nextRequest().also { messageQueue.completeActiveRequest(it.request) } }
+        // same order as sorting of the list used before
+        Assert.assertEquals(requests + cancel, sent)
+        Assert.assertFalse(messageQueue.hasPendingMessages())
+    }
+
+    @Test
+    fun onlyReadOnlyRequestsArePipelinedTest() {
+        val operatingMode = MessageRequest(GetOperatingModeMessage())
+        val battery = MessageRequest(GetBatteryStatusMessage())
+        val history = MessageRequest(ReadHistoryEventsMessage())
+        val cancel = MessageRequest(CancelTBRMessage())
+        listOf(operatingMode, battery, history, cancel).forEach { messageQueue.enqueueRequest(it) }
+
+        messageQueue.nextRequest()
+        Assert.assertTrue(messageQueue.canPipelineNextRequest(activatedServices))
+        messageQueue.nextRequest()
+        // pipeline is full
+        Assert.assertFalse(messageQueue.canPipelineNextRequest(activatedServices))
+
+        messageQueue.completeActiveRequest(operatingMode.request)
+        Assert.assertSame(battery, messageQueue.activeRequest)
+        Assert.assertSame(operatingMode.request, operatingMode.await())
+        Assert.assertTrue(messageQueue.canPipelineNextRequest(activatedServices))
+        // service not activated yet
+        Assert.assertFalse(messageQueue.canPipelineNextRequest(listOf(Service.STATUS)))
+        messageQueue.nextRequest()
+
+        messageQueue.completeActiveRequest(battery.request)
+        messageQueue.completeActiveRequest(history.request)
+        Assert.assertTrue(battery.future.isDone)
+        Assert.assertTrue(history.future.isDone)
+        Assert.assertNull(messageQueue.activeRequest)
+        messageQueue.nextRequest()
+        Assert.assertSame(cancel, messageQueue.activeRequest)
+    }
+
+    @Test
+    fun requestInFlightIsNotFollowedByWriteTest() {
+        messageQueue.enqueueRequest(MessageRequest(GetOperatingModeMessage()))
+        messageQueue.enqueueRequest(MessageRequest(CancelTBRMessage()))
+        messageQueue.nextRequest()
+        Assert.assertFalse(messageQueue.canPipelineNextRequest(activatedServices))
+    }
+
+    @Test(expected = ConnectionLostException::class)
+    fun requestsInFlightAreCompletedOnErrorTest() {
+        val first = MessageRequest(GetOperatingModeMessage())
+        val second = MessageRequest(GetBatteryStatusMessage())
+        val pending = MessageRequest(CancelTBRMessage())
+        listOf(first, second, pending).forEach { messageQueue.enqueueRequest(it) }
+        messageQueue.nextRequest()
+        messageQueue.nextRequest()
+
+        messageQueue.completeActiveRequest(ConnectionLostException())
+        messageQueue.completePendingRequests(ConnectionLostException())
+        Assert.assertTrue(first.future.isCompletedExceptionally)
+        Assert.assertTrue(pending.future.isCompletedExceptionally)
+        second.await()
+    }
+
+    @Test(expected = TimeoutException::class)
+    fun lostSecondResponseTimesOutTest() {
+        val first = MessageRequest(GetOperatingModeMessage())
+        val second = MessageRequest(GetBatteryStatusMessage())
+        listOf(first, second).forEach { messageQueue.enqueueRequest(it) }
+        messageQueue.nextRequest()
+        messageQueue.nextRequest()
+
+        messageQueue.completeActiveRequest(first.request)
+        // nothing more to send, but second request is still awaiting response and needs a timeout
+        Assert.assertFalse(messageQueue.hasPendingMessages())
+        Assert.assertSame(second, messageQueue.activeRequest)
+        // what timeout does in handleException
+        messageQueue.completeActiveRequest(TimeoutException())
+        messageQueue.completePendingRequests(TimeoutException())
+        second.await()
+    }
+}
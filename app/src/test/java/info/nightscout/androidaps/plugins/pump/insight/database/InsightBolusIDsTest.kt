@@ -0,0 +1,91 @@
+package info.nightscout.androidaps.plugins.pump.insight.database
+
+import info.nightscout.androidaps.TestBase
+import info.nightscout.androidaps.db.DatabaseHelper
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.ArgumentMatchers.anyInt
+import org.mockito.ArgumentMatchers.anyLong
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+import org.powermock.core.classloader.annotations.PrepareForTest
+import org.powermock.modules.junit4.PowerMockRunner
+
+@RunWith(PowerMockRunner::class)
+@PrepareForTest(DatabaseHelper::class)
+class InsightBolusIDsTest : TestBase() {
+
+    @Mock lateinit var databaseHelper: DatabaseHelper
+
+    private val serial = "12345"
+    private val from = 1000000000000L
+    private val to = from + 20 * InsightBolusIDs.WINDOW
+
+    private fun bolusID(id: Long, bolusID: Int, timestamp: Long) = InsightBolusID().also {
+        it.id = id
+        it.pumpSerial = serial
+        it.bolusID = bolusID
+        it.timestamp = timestamp
+    }
+
+    private val stored = arrayListOf(
+        bolusID(1, 7, from + 2 * InsightBolusIDs.WINDOW),
+        bolusID(2, 7, from + 3 * InsightBolusIDs.WINDOW),
+        bolusID(3, 8, from + 3 * InsightBolusIDs.WINDOW)
+    )
+
+    @Before
+    fun prepare() {
+        `when`(databaseHelper.getInsightBolusIDs(serial, from, to)).thenReturn(stored)
+    }
+
+    @Test
+    fun firstCreatedMatchIsFoundInMemoryTest() {
+        val sot = InsightBolusIDs(databaseHelper, serial, from, to)
+        // both 1 and 2 are within window, first created wins like queryForFirst
+        Assert.assertEquals(1L, sot.get(7, from + 2 * InsightBolusIDs.WINDOW + 1000)?.id)
+        Assert.assertEquals(2L, sot.get(7, from + 4 * InsightBolusIDs.WINDOW)?.id)
+        Assert.assertEquals(3L, sot.get(8, from + 3 * InsightBolusIDs.WINDOW)?.id)
+        Assert.assertNull(sot.get(8, from + 5 * InsightBolusIDs.WINDOW))
+        verify(databaseHelper, never()).getInsightBolusID(anyString(), anyInt(), anyLong())
+    }
+
+    @Test
+    fun storedBolusIDIsFoundByLaterLookupTest() {
+        val sot = InsightBolusIDs(databaseHelper, serial, from, to)
+        val created = InsightBolusID()
+        created.pumpSerial = serial
+        created.bolusID = 9
+        created.timestamp = from + 10 * InsightBolusIDs.WINDOW
+        doAnswer { created.id = 4; null }.`when`(databaseHelper).createOrUpdate(created)
+        sot.store(created)
+        Assert.assertSame(created, sot.get(9, from + 10 * InsightBolusIDs.WINDOW))
+        verify(databaseHelper).createOrUpdate(created)
+    }
+
+    @Test
+    fun lookupOutsideOfRangeGoesToDatabaseTest() {
+        val sot = InsightBolusIDs(databaseHelper, serial, from, to)
+        val old = bolusID(5, 7, from - InsightBolusIDs.WINDOW)
+        `when`(databaseHelper.getInsightBolusID(serial, 7, from)).thenReturn(old)
+        Assert.assertSame(old, sot.get(7, from))
+    }
+
+    @Test
+    fun failedStoreIsNotFoundByLaterLookupTest() {
+        val sot = InsightBolusIDs(databaseHelper, serial, from, to)
+        val notCreated = InsightBolusID()
+        notCreated.pumpSerial = serial
+        notCreated.bolusID = 9
+        notCreated.timestamp = from + 10 * InsightBolusIDs.WINDOW
+        // createOrUpdate failed and left id unset
+        sot.store(notCreated)
+        Assert.assertNull(sot.get(9, from + 10 * InsightBolusIDs.WINDOW))
+    }
+}
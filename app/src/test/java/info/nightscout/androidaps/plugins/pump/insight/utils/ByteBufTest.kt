@@ -0,0 +1,114 @@
+package info.nightscout.androidaps.plugins.pump.insight.utils
+
+import info.nightscout.androidaps.TestBase
+import info.nightscout.androidaps.plugins.pump.insight.satl.DataMessage
+import info.nightscout.androidaps.plugins.pump.insight.satl.SatlMessage
+import org.junit.Assert
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.util.*
+
+class ByteBufTest : TestBase() {
+
+    @Test
+    fun readsAndWritesAcrossEndOfBufferTest() {
+        val byteBuf = ByteBuf(8)
+        byteBuf.putBytes(byteArrayOf(1, 2, 3, 4, 5, 6))
+        Assert.assertArrayEquals(byteArrayOf(1, 2, 3, 4), byteBuf.readBytes(4))
+        // wraps to the beginning of backing array
+        byteBuf.putUInt32LE(0x0A0B0C0DL)
+        byteBuf.putUInt16LE(0xBEEF)
+        Assert.assertEquals(8, byteBuf.size)
+        Assert.assertArrayEquals(byteArrayOf(5, 6), byteBuf.readBytes(2))
+        Assert.assertEquals(0x0A0B0C0DL, byteBuf.readUInt32LE())
+        Assert.assertEquals(0xBEEF, byteBuf.getUInt16LE(0))
+        Assert.assertArrayEquals(byteArrayOf(0xEF.toByte(), 0xBE.toByte()), byteBuf.bytes)
+        byteBuf.clear()
+        Assert.assertEquals(0, byteBuf.size)
+    }
+
+    @Test(expected = IndexOutOfBoundsException::class)
+    fun overflowIsRejectedTest() {
+        val byteBuf = ByteBuf(4)
+        byteBuf.putBytes(byteArrayOf(1, 2, 3))
+        byteBuf.readByte()
+        byteBuf.putBytes(byteArrayOf(4, 5, 6))
+    }
+
+    @Test
+    fun sliceIsViewOnBytesTest() {
+        val byteBuf = ByteBuf(8)
+        byteBuf.putBytes(byteArrayOf(9, 9, 9, 9, 9, 9))
+        byteBuf.readBytes(5)
+        byteBuf.putBytes(byteArrayOf(1, 2, 3, 4))
+        val slice = byteBuf.readSlice(4)
+        Assert.assertEquals(1, byteBuf.size)
+        Assert.assertEquals(4, slice.size)
+        Assert.assertEquals(9, slice.readByte().toInt())
+        Assert.assertArrayEquals(byteArrayOf(1, 2, 3), slice.bytes)
+        Assert.assertArrayEquals(byteArrayOf(4), byteBuf.bytes)
+
+        val copy = ByteBuf(4)
+        copy.putByteBuf(slice)
+        Assert.assertArrayEquals(byteArrayOf(1, 2, 3), copy.bytes)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun sliceIsReadOnlyTest() {
+        val byteBuf = ByteBuf.from(byteArrayOf(1, 2, 3, 4))
+        byteBuf.getSlice(2).putByte(5)
+    }
+
+    // Frames are parsed the same way as in InsightConnectionService.onReceiveBytes
+    private fun parseStream(stream: ByteArray, chunks: IntArray): List<SatlMessage> {
+        val buffer = ByteBuf(1024)
+        val messages = ArrayList<SatlMessage>()
+        var position = 0
+        var chunk = 0
+        while (position < stream.size) {
+            val length = minOf(chunks[chunk++ % chunks.size], stream.size - position)
+            buffer.putBytes(stream.copyOfRange(position, position + length), length)
+            position += length
+            while (SatlMessage.hasCompletePacket(buffer))
+                messages.add(SatlMessage.deserialize(buffer, null, null))
+        }
+        return messages
+    }
+
+    private fun satlStream(frames: Int, random: Random): ByteArray {
+        val stream = ByteArrayOutputStream()
+        repeat(frames) {
+            val data = ByteArray(20 + random.nextInt(300)).also { random.nextBytes(it) }
+            val message = DataMessage()
+            message.data = ByteBuf.from(data)
+            stream.write(message.serialize(DataMessage::class.java, null).bytes)
+        }
+        return stream.toByteArray()
+    }
+
+    @Test
+    fun parsesSatlStreamTest() {
+        val random = Random(5)
+        val stream = satlStream(50, random)
+        val messages = parseStream(stream, intArrayOf(17, 1, 256, 512, 64))
+        Assert.assertEquals(50, messages.size)
+        val expected = Random(5)
+        for (message in messages) {
+            val data = ByteArray(20 + expected.nextInt(300)).also { expected.nextBytes(it) }
+            Assert.assertArrayEquals(data, (message as DataMessage).data.bytes)
+        }
+    }
+
+    // Not a real benchmark harness, just warmed up measurement of stream parsing
+    @Test
+    fun benchmarkTest() {
+        val stream = satlStream(2000, Random(7))
+        val chunks = intArrayOf(20, 512, 300)
+        repeat(3) { parseStream(stream, chunks) }
+        val start = System.nanoTime()
+        val messages = parseStream(stream, chunks)
+        val micros = (System.nanoTime() - start) / 1000
+        aapsLogger.debug("Parsed " + messages.size + " SATL frames (" + stream.size + " bytes) in " + micros + " us")
+        Assert.assertEquals(2000, messages.size)
+    }
+}
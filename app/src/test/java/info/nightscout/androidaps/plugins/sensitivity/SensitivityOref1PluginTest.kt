@@ -0,0 +1,218 @@
+package info.nightscout.androidaps.plugins.sensitivity
+
+import androidx.collection.LongSparseArray
+import dagger.android.AndroidInjector
+import dagger.android.HasAndroidInjector
+import info.nightscout.androidaps.R
+import info.nightscout.androidaps.TestBase
+import info.nightscout.androidaps.data.Profile
+import info.nightscout.androidaps.interfaces.ProfileFunction
+import info.nightscout.androidaps.logging.AAPSLogger
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.AutosensResult
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.IobCobCalculatorPlugin
+import info.nightscout.androidaps.plugins.iob.iobCobCalculator.data.AutosensData
+import info.nightscout.androidaps.utils.DateUtil
+import info.nightscout.androidaps.utils.T
+import info.nightscout.androidaps.utils.resources.ResourceHelper
+import info.nightscout.androidaps.utils.sharedPreferences.SP
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mock
+import org.mockito.Mockito
+import org.mockito.Mockito.`when`
+import java.util.*
+
+class SensitivityOref1PluginTest : TestBase() {
+
+    @Mock lateinit var resourceHelper: ResourceHelper
+    @Mock lateinit var sp: SP
+    @Mock lateinit var profileFunction: ProfileFunction
+    @Mock lateinit var dateUtil: DateUtil
+
+    private val injector = HasAndroidInjector { AndroidInjector { } }
+    private val now = 1_600_000_000_000L - 1_600_000_000_000L % T.mins(5).msecs()
+
+    private lateinit var sut: SensitivityOref1Plugin
+
+    @Before
+    fun prepare() {
+        `when`(sp.getString(R.string.key_openapsama_autosens_min, "0.7")).thenReturn("0.7")
+        `when`(sp.getString(R.string.key_openapsama_autosens_max, "1.2")).thenReturn("1.2")
+        sut = SensitivityOref1Plugin(injector, aapsLogger, resourceHelper, sp, profileFunction, dateUtil)
+    }
+
+    private fun autosensDataTable(hours: Int, random: Random): LongSparseArray<AutosensData> {
+        val table = LongSparseArray<AutosensData>()
+        var time = now - T.hours(hours.toLong()).msecs()
+        while (time <= now) {
+            table.put(time, AutosensData(injector).also {
+                it.time = time
+                it.bg = 60.0 + random.nextInt(200)
+                it.deviation = random.nextGaussian() * 5 + 0.5
+                it.validDeviation = random.nextInt(10) != 0
+                it.pastSensitivity = if (it.deviation > 6) "+" else if (it.deviation < -6) "-" else "="
+                if (random.nextInt(20) == 0)
+                    repeat(1 + random.nextInt(3)) { _ -> it.extraDeviation.add(random.nextDouble() * 10) }
+            })
+            time += T.mins(5).msecs()
+        }
+        return table
+    }
+
+    // Previous implementation working on boxed lists, kept as reference
+    private fun reference(autosensDataTable: LongSparseArray<AutosensData>, fromTime: Long, toTime: Long, siteChanges: LongArray, profileSwitches: LongArray, sens: Double, maxDailyBasal: Double, cob: Double): AutosensResult {
+        fun isEvent5minBack(list: LongArray, time: Long) = list.any { it <= time && it > time - T.mins(5).msecs() }
+        val deviationsHour = listOf(ArrayList<Double>(), ArrayList())
+        val pastSensitivityArray = arrayOf("", "")
+        val sensResultArray = arrayOf("", "")
+        val ratioArray = doubleArrayOf(0.0, 0.0)
+        val deviationCategory = doubleArrayOf(96.0, 288.0)
+        val hoursDetection = doubleArrayOf(8.0, 24.0)
+        for (index in 0 until autosensDataTable.size()) {
+            val autosensData = autosensDataTable.valueAt(index)
+            if (autosensData.time < fromTime || autosensData.time > toTime) continue
+            for (hoursegment in deviationsHour.indices) {
+                val deviationsArray = deviationsHour[hoursegment]
+                var pastSensitivity = pastSensitivityArray[hoursegment]
+                if (isEvent5minBack(siteChanges, autosensData.time)) {
+                    deviationsArray.clear()
+                    pastSensitivity += "(SITECHANGE)"
+                }
+                if (isEvent5minBack(profileSwitches, autosensData.time)) {
+                    deviationsArray.clear()
+                    pastSensitivity += "(PROFILESWITCH)"
+                }
+                var deviation = autosensData.deviation
+                if (autosensData.bg < 80 && deviation > 0) deviation = 0.0
+                if (autosensData.validDeviation)
+                    if (autosensData.time > toTime - hoursDetection[hoursegment] * 60 * 60 * 1000L)
+                        deviationsArray.add(deviation)
+                deviationsArray.addAll(autosensData.extraDeviation)
+                if (deviationsArray.size > deviationCategory[hoursegment]) deviationsArray.removeAt(0)
+                pastSensitivity += autosensData.pastSensitivity
+                val secondsFromMidnight = Profile.secondsFromMidnight(autosensData.time)
+                if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60)
+                    pastSensitivity += "(" + Math.round(secondsFromMidnight / 3600.0) + ")"
+                pastSensitivityArray[hoursegment] = pastSensitivity
+            }
+        }
+        for (i in deviationsHour.indices) {
+            val deviations = deviationsHour[i]
+            if (deviations.size < deviationCategory[i]) {
+                val pad = Math.round((1 - deviations.size.toDouble() / deviationCategory[i]) * 18).toInt()
+                repeat(pad) { deviations.add(0.0) }
+            }
+        }
+        for (hourused in deviationsHour.indices) {
+            var sensResult = if (hourused == 1) "(24 hours) " else "(8 hours) "
+            val deviations = deviationsHour[hourused].toTypedArray()
+            Arrays.sort(deviations)
+            val pSensitive = IobCobCalculatorPlugin.percentile(deviations, 0.50)
+            var basalOff = 0.0
+            when {
+                pSensitive < 0 -> {
+                    basalOff = pSensitive * (60.0 / 5) / sens
+                    sensResult += "Excess insulin sensitivity detected"
+                }
+
+                pSensitive > 0 -> {
+                    basalOff = pSensitive * (60.0 / 5) / sens
+                    sensResult += "Excess insulin resistance detected"
+                }
+
+                else           -> sensResult += "Sensitivity normal"
+            }
+            sensResultArray[hourused] = sensResult
+            ratioArray[hourused] = 1 + basalOff / maxDailyBasal
+        }
+        val key = if (ratioArray[0] < ratioArray[1]) 0 else 1
+        val comparison = " 8 h ratio " + ratioArray[0] + " vs 24h ratio " + ratioArray[1]
+        return sut.fillResult(ratioArray[key], cob, pastSensitivityArray[key], "", sensResultArray[key] + comparison, deviationsHour[key].size)
+    }
+
+    private fun assertSame(expected: AutosensResult, actual: AutosensResult) {
+        Assert.assertEquals(expected.ratio, actual.ratio, 0.0)
+        Assert.assertEquals(expected.carbsAbsorbed, actual.carbsAbsorbed, 0.0)
+        Assert.assertEquals(expected.pastSensitivity, actual.pastSensitivity)
+        Assert.assertEquals(expected.ratioLimit, actual.ratioLimit)
+        Assert.assertEquals(expected.sensResult, actual.sensResult)
+    }
+
+    @Test
+    fun sameResultAsListImplementationTest() {
+        val random = Random(1)
+        for (hours in listOf(1, 6, 10, 26, 30)) {
+            val table = autosensDataTable(hours, random)
+            val siteChanges = longArrayOf(now - T.hours(5).msecs() - T.mins(2).msecs())
+            val profileSwitches = longArrayOf(now - T.hours(20).msecs(), now - T.mins(90).msecs())
+            for (fromTime in listOf(now - T.hours(24).msecs(), now - T.hours(3).msecs(), now - T.hours(40).msecs())) {
+                assertSame(
+                    reference(table, fromTime, now, siteChanges, profileSwitches, 50.0, 1.5, 12.0),
+                    sut.detectSensitivity(table, fromTime, now, siteChanges.clone(), profileSwitches.clone(), 50.0, 1.5, 12.0))
+                assertSame(
+                    reference(table, fromTime, now - T.hours(2).msecs(), longArrayOf(), longArrayOf(), 50.0, 1.5, 12.0),
+                    sut.detectSensitivity(table, fromTime, now - T.hours(2).msecs(), longArrayOf(), longArrayOf(), 50.0, 1.5, 12.0))
+            }
+        }
+    }
+
+    @Test
+    fun isEvent5minBackTest() {
+        val events = longArrayOf(now - T.mins(30).msecs(), now)
+        Assert.assertTrue(SensitivityOref1Plugin.isEvent5minBack(events, now))
+        Assert.assertTrue(SensitivityOref1Plugin.isEvent5minBack(events, now + T.mins(5).msecs() - 1))
+        Assert.assertFalse(SensitivityOref1Plugin.isEvent5minBack(events, now + T.mins(5).msecs()))
+        Assert.assertFalse(SensitivityOref1Plugin.isEvent5minBack(events, now - 1))
+        Assert.assertTrue(SensitivityOref1Plugin.isEvent5minBack(events, now - T.mins(28).msecs()))
+        Assert.assertFalse(SensitivityOref1Plugin.isEvent5minBack(longArrayOf(), now))
+    }
+
+    @Test
+    fun deviationsBufferPercentileTest() {
+        val random = Random(2)
+        val buffer = DeviationsBuffer()
+        Assert.assertEquals(0.0, buffer.percentile(0.5), 0.0)
+        val list = ArrayList<Double>()
+        repeat(1000) {
+            val value = Math.round(random.nextGaussian() * 20) / 2.0
+            buffer.add(value)
+            list.add(value)
+            if (it % 3 == 0) {
+                buffer.removeOldest()
+                list.removeAt(0)
+            }
+            val sorted = list.toTypedArray().also { array -> Arrays.sort(array) }
+            for (p in listOf(0.0, 0.25, 0.5, 0.9, 1.0))
+                Assert.assertEquals(IobCobCalculatorPlugin.percentile(sorted, p), buffer.percentile(p), 0.0)
+        }
+        Assert.assertEquals(list.size, buffer.size())
+        buffer.clear()
+        Assert.assertEquals(0, buffer.size())
+    }
+
+    // Not a real benchmark harness, just warmed up comparison of both implementations
+    @Test
+    fun benchmarkTest() {
+        val quiet = SensitivityOref1Plugin(injector, Mockito.mock(AAPSLogger::class.java), resourceHelper, sp, profileFunction, dateUtil)
+        sut = quiet
+        val table = autosensDataTable(30, Random(3))
+        val fromTime = now - T.hours(24).msecs()
+        val siteChanges = longArrayOf(now - T.hours(30).msecs())
+        val profileSwitches = longArrayOf(now - T.hours(22).msecs(), now - T.hours(2).msecs())
+        val iterations = 200
+
+        fun measure(block: () -> AutosensResult): Long {
+            repeat(iterations) { block() }
+            val start = System.nanoTime()
+            repeat(iterations) { block() }
+            return (System.nanoTime() - start) / iterations
+        }
+
+        val listNanos = measure { reference(table, fromTime, now, siteChanges, profileSwitches, 50.0, 1.5, 0.0) }
+        val bufferNanos = measure { quiet.detectSensitivity(table, fromTime, now, siteChanges.clone(), profileSwitches.clone(), 50.0, 1.5, 0.0) }
+        aapsLogger.debug("detectSensitivity over " + table.size() + " records: lists " + listNanos / 1000 + " us, buffers " + bufferNanos / 1000 + " us")
+        assertSame(reference(table, fromTime, now, siteChanges, profileSwitches, 50.0, 1.5, 0.0),
+            quiet.detectSensitivity(table, fromTime, now, siteChanges, profileSwitches, 50.0, 1.5, 0.0))
+    }
+}
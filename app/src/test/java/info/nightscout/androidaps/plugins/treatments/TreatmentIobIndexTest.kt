@@ -0,0 +1,105 @@
+package info.nightscout.androidaps.plugins.treatments
+
+import info.nightscout.androidaps.R
+import info.nightscout.androidaps.TestBaseWithProfile
+import info.nightscout.androidaps.data.IobTotal
+import info.nightscout.androidaps.db.Treatment
+import info.nightscout.androidaps.plugins.insulin.InsulinOrefRapidActingPlugin
+import info.nightscout.androidaps.utils.T
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito.`when`
+
+class TreatmentIobIndexTest : TestBaseWithProfile() {
+
+    private lateinit var insulin: InsulinOrefRapidActingPlugin
+    private val now = 1000000000000L // fixed time rounded to 5 min
+
+    @Before
+    fun prepare() {
+        insulin = InsulinOrefRapidActingPlugin(profileInjector, resourceHelper, profileFunction, rxBus, aapsLogger)
+        `when`(profileFunction.getProfile()).thenReturn(validProfile)
+        `when`(resourceHelper.gs(R.string.dia_too_short)).thenReturn("%1\$.1f %2\$.1f")
+        `when`(activePluginProvider.activeInsulin).thenReturn(insulin)
+    }
+
+    private fun treatment(date: Long, insulin: Double, isSMB: Boolean = false, isValid: Boolean = true): Treatment =
+        Treatment(profileInjector).also {
+            it.date = date
+            it.insulin = insulin
+            it.isSMB = isSMB
+            it.isValid = isValid
+        }
+
+    // reference implementation walking all treatments
+    private fun naive(treatments: List<Treatment>, time: Long, divisor: Double): IobTotal {
+        val total = IobTotal(time)
+        for (t in treatments) {
+            if (!t.isValid) continue
+            if (t.date > time) continue
+            val tIOB = t.iobCalc(time, validProfile.dia)
+            total.iob += tIOB.iobContrib
+            total.activity += tIOB.activityContrib
+            if (t.insulin > 0 && t.date > total.lastBolusTime) total.lastBolusTime = t.date
+            if (!t.isSMB) {
+                val snoozeTime = t.date + ((time - t.date) * divisor).toLong()
+                total.bolussnooze += t.iobCalc(snoozeTime, validProfile.dia).iobContrib
+            }
+        }
+        return total
+    }
+
+    private fun history(): List<Treatment> {
+        val list = ArrayList<Treatment>()
+        for (i in 0 until 300) {
+            val date = now - T.hours(30).msecs() + i * T.mins(7).msecs()
+            list.add(treatment(date, if (i % 5 == 0) 0.0 else 0.1 * (i % 7), isSMB = i % 3 == 0, isValid = i % 11 != 0))
+        }
+        list.reverse() // TreatmentsPlugin keeps newest first
+        return list
+    }
+
+    @Test
+    fun `matches full walk over all treatments`() {
+        val treatments = history()
+        val sut = TreatmentIobIndex(treatments)
+        for (divisor in listOf(2.0, 1.0, 0.5)) {
+            var time = now - T.hours(31).msecs()
+            while (time <= now + T.hours(6).msecs()) {
+                val expected = naive(treatments, time, divisor)
+                val result = sut.calculate(time, validProfile.dia, insulin, divisor)
+                Assert.assertEquals(expected.iob, result.iob, 0.000001)
+                Assert.assertEquals(expected.activity, result.activity, 0.000001)
+                Assert.assertEquals(expected.bolussnooze, result.bolussnooze, 0.000001)
+                Assert.assertEquals(expected.lastBolusTime, result.lastBolusTime)
+                time += T.mins(5).msecs()
+            }
+        }
+    }
+
+    @Test
+    fun `cached result is not shared with caller`() {
+        val sut = TreatmentIobIndex(listOf(treatment(now - T.hours(1).msecs(), 2.0)))
+        val first = sut.calculate(now, validProfile.dia, insulin, 2.0)
+        first.iob = 100.0
+        val second = sut.calculate(now, validProfile.dia, insulin, 2.0)
+        Assert.assertNotEquals(100.0, second.iob, 0.01)
+    }
+
+    @Test
+    fun `invalid treatments are excluded`() {
+        val sut = TreatmentIobIndex(listOf(treatment(now - T.hours(1).msecs(), 2.0, isValid = false)))
+        Assert.assertEquals(0, sut.size())
+        val result = sut.calculate(now, validProfile.dia, insulin, 2.0)
+        Assert.assertEquals(0.0, result.iob, 0.0)
+        Assert.assertEquals(0L, result.lastBolusTime)
+    }
+
+    @Test
+    fun actionWindowTest() {
+        Assert.assertEquals(T.hours(5).msecs(), TreatmentIobIndex.actionWindow(3.0, 5.0, 2.0))
+        Assert.assertEquals(T.hours(12).msecs(), TreatmentIobIndex.actionWindow(6.0, 5.0, 0.5))
+        Assert.assertEquals(Long.MAX_VALUE, TreatmentIobIndex.actionWindow(6.0, 5.0, 0.0))
+    }
+}
@@ -7,6 +7,7 @@ import dagger.android.HasAndroidInjector
 import info.nightscout.androidaps.Config
 import info.nightscout.androidaps.TestBaseWithProfile
 import info.nightscout.androidaps.data.DetailedBolusInfo
+import info.nightscout.androidaps.data.PumpEnactResult
 import info.nightscout.androidaps.interfaces.ActivePluginProvider
 import info.nightscout.androidaps.interfaces.Constraint
 import info.nightscout.androidaps.interfaces.PumpDescription
@@ -14,7 +15,10 @@ import info.nightscout.androidaps.plugins.configBuilder.ConstraintChecker
 import info.nightscout.androidaps.plugins.pump.virtual.VirtualPumpPlugin
 import info.nightscout.androidaps.plugins.treatments.TreatmentsPlugin
 import info.nightscout.androidaps.queue.commands.Command
+import info.nightscout.androidaps.queue.commands.CommandReadStatus
+import info.nightscout.androidaps.queue.commands.CommandTempBasalAbsolute
 import info.nightscout.androidaps.utils.FabricPrivacy
+import info.nightscout.androidaps.utils.LocalAlertUtils
 import info.nightscout.androidaps.utils.ToastUtils
 import info.nightscout.androidaps.utils.buildHelper.BuildHelper
 import info.nightscout.androidaps.utils.sharedPreferences.SP
@@ -29,7 +33,7 @@ import org.powermock.modules.junit4.PowerMockRunner
 import java.util.*
 
 @RunWith(PowerMockRunner::class)
-@PrepareForTest(ConstraintChecker::class, VirtualPumpPlugin::class, ToastUtils::class, Context::class, TreatmentsPlugin::class, FabricPrivacy::class)
+@PrepareForTest(ConstraintChecker::class, VirtualPumpPlugin::class, ToastUtils::class, Context::class, TreatmentsPlugin::class, FabricPrivacy::class, LocalAlertUtils::class)
 class CommandQueueTest : TestBaseWithProfile() {
 
     @Mock lateinit var constraintChecker: ConstraintChecker
@@ -38,6 +42,7 @@ class CommandQueueTest : TestBaseWithProfile() {
     @Mock lateinit var context: Context
     @Mock lateinit var virtualPumpPlugin: VirtualPumpPlugin
     @Mock lateinit var sp: SP
+    @Mock lateinit var localAlertUtils: LocalAlertUtils
 
     private val buildHelper = BuildHelper(Config())
 
@@ -47,6 +52,13 @@ class CommandQueueTest : TestBaseWithProfile() {
                 it.aapsLogger = aapsLogger
                 it.resourceHelper = resourceHelper
             }
+            if (it is CommandReadStatus) {
+                it.activePlugin = activePlugin
+                it.localAlertUtils = localAlertUtils
+            }
+            if (it is CommandTempBasalAbsolute) {
+                it.activePlugin = activePlugin
+            }
         }
     }
 
@@ -192,4 +204,60 @@ class CommandQueueTest : TestBaseWithProfile() {
         Assert.assertFalse(queued)
         Assert.assertEquals(commandQueue.size(), 0)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun statusReadIsCoalescedIntoCommandReadingStatus() {
+        var answered = 0
+        val callback = object : Callback() {
+            override fun run() {
+                answered++
+            }
+        }
+        `when`(virtualPumpPlugin.isStatusReadWith(Command.CommandType.TEMPBASAL)).thenReturn(true)
+        commandQueue.readStatus("before", callback)
+        commandQueue.tempBasalAbsolute(0.0, 30, true, validProfile, null)
+        commandQueue.readStatus("after", callback)
+
+        commandQueue.pickup()
+        Assert.assertEquals(Command.CommandType.TEMPBASAL, commandQueue.performing?.commandType)
+        Assert.assertEquals(0, commandQueue.size())
+        Assert.assertTrue(commandQueue.statusInQueue())
+
+        commandQueue.completeCoalesced()
+        Assert.assertEquals(2, answered)
+        Assert.assertFalse(commandQueue.statusInQueue())
+    }
+
+    @Test
+    fun statusReadIsNotCoalescedByDefault() {
+        commandQueue.readStatus("before", null)
+        commandQueue.tempBasalAbsolute(0.0, 30, true, validProfile, null)
+        commandQueue.readStatus("after", null)
+
+        commandQueue.pickup()
+        Assert.assertEquals(Command.CommandType.READSTATUS, commandQueue.performing?.commandType)
+        Assert.assertEquals(2, commandQueue.size())
+    }
+
+    @Test
+    fun coalescedStatusReadGetsResultOfCommand() {
+        var answer: PumpEnactResult? = null
+        val callback = object : Callback() {
+            override fun run() {
+                answer = result
+            }
+        }
+        `when`(virtualPumpPlugin.isStatusReadWith(Command.CommandType.TEMPBASAL)).thenReturn(true)
+        // data were read recently but the command failed
+        `when`(virtualPumpPlugin.lastDataTime()).thenReturn(System.currentTimeMillis())
+        `when`(virtualPumpPlugin.setTempBasalAbsolute(0.0, 30, validProfile, true)).thenReturn(PumpEnactResult(injector).success(false).comment("failed"))
+        commandQueue.tempBasalAbsolute(0.0, 30, true, validProfile, null)
+        commandQueue.readStatus("after", callback)
+
+        commandQueue.pickup()
+        commandQueue.performing?.execute()
+        commandQueue.completeCoalesced()
+        Assert.assertEquals(false, answer?.success)
+        Assert.assertEquals("failed", answer?.comment)
+    }
+}
@@ -0,0 +1,78 @@
+package info.nightscout.androidaps.utils.sharedPreferences
+
+import info.nightscout.androidaps.TestBase
+import info.nightscout.androidaps.events.EventPreferenceChange
+import info.nightscout.androidaps.plugins.bus.RxBusWrapper
+import info.nightscout.androidaps.testing.mocks.SharedPreferencesMock
+import info.nightscout.androidaps.utils.resources.ResourceHelper
+import io.reactivex.plugins.RxJavaPlugins
+import io.reactivex.schedulers.Schedulers
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mock
+import org.mockito.Mockito
+import org.mockito.Mockito.`when`
+
+class SPImplementationTest : TestBase() {
+
+    @Mock lateinit var resourceHelper: ResourceHelper
+
+    private val sharedPreferences = SharedPreferencesMock()
+    private val rxBus = RxBusWrapper()
+    private lateinit var sut: SPImplementation
+
+    @Before
+    fun prepare() {
+        `when`(resourceHelper.gs(1)).thenReturn("key")
+        // subscription is done on io thread, run it on the calling thread so events are delivered synchronously
+        RxJavaPlugins.setIoSchedulerHandler { Schedulers.trampoline() }
+        sut = SPImplementation(sharedPreferences, resourceHelper, rxBus)
+    }
+
+    @After
+    fun reset() {
+        RxJavaPlugins.reset()
+    }
+
+    @Test
+    fun valueIsParsedOnceTest() {
+        sharedPreferences.edit().putString("key", "1,5").apply()
+        Assert.assertEquals(1.5, sut.getDouble(1, 0.0), 0.01)
+        Assert.assertEquals(1.5, sut.getDouble("key", 0.0), 0.01)
+        Mockito.verify(resourceHelper, Mockito.times(1)).gs(1)
+    }
+
+    @Test
+    fun missingValueReturnsCallersDefaultTest() {
+        Assert.assertEquals(2.0, sut.getDouble("key", 2.0), 0.01)
+        Assert.assertEquals(3.0, sut.getDouble("key", 3.0), 0.01)
+        Assert.assertEquals(true, sut.getBoolean("key", true))
+        Assert.assertEquals(false, sut.getBoolean("key", false))
+    }
+
+    @Test
+    fun writeThroughSPInvalidatesTest() {
+        sut.putDouble("key", 1.0)
+        Assert.assertEquals(1.0, sut.getDouble("key", 0.0), 0.01)
+        sut.putDouble(1, 2.0)
+        Assert.assertEquals(2.0, sut.getDouble("key", 0.0), 0.01)
+        sut.remove("key")
+        Assert.assertEquals(5.0, sut.getDouble("key", 5.0), 0.01)
+        sut.incInt(1)
+        sut.incInt(1)
+        Assert.assertEquals(2, sut.getInt("key", 0))
+    }
+
+    @Test
+    fun preferenceChangeInvalidatesTest() {
+        sharedPreferences.edit().putString("key", "10").apply()
+        Assert.assertEquals(10, sut.getInt("key", 0))
+        // changed directly, ie. in preferences UI
+        sharedPreferences.edit().putString("key", "20").apply()
+        Assert.assertEquals(10, sut.getInt("key", 0))
+        rxBus.send(EventPreferenceChange("key"))
+        Assert.assertEquals(20, sut.getInt("key", 0))
+    }
+}
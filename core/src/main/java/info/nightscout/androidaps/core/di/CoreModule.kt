@@ -10,6 +10,7 @@ import info.nightscout.androidaps.interfaces.ProfileFunction
 import info.nightscout.androidaps.logging.AAPSLogger
 import info.nightscout.androidaps.logging.AAPSLoggerProduction
 import info.nightscout.androidaps.logging.L
+import info.nightscout.androidaps.plugins.bus.RxBusWrapper
 import info.nightscout.androidaps.plugins.configBuilder.ProfileFunctionImplementation
 import info.nightscout.androidaps.utils.FabricPrivacy
 import info.nightscout.androidaps.utils.resources.ResourceHelper
@@ -37,7 +38,7 @@ open class CoreModule {
 
     @Provides
     @Singleton
-    fun provideSharedPreferences(context: Context, resourceHelper: ResourceHelper): SP = SPImplementation(PreferenceManager.getDefaultSharedPreferences(context), resourceHelper)
+    fun provideSharedPreferences(context: Context, resourceHelper: ResourceHelper, rxBus: RxBusWrapper): SP = SPImplementation(PreferenceManager.getDefaultSharedPreferences(context), resourceHelper, rxBus)
 
     @Provides
     @Singleton
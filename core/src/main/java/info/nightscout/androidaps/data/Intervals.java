@@ -44,6 +44,29 @@ public abstract class Intervals<T extends Interval> {
         merge();
     }
 
+    /**
+     * Applies changed records without reloading all of them
+     *
+     * @param starts  start of created, updated or deleted intervals
+     * @param changed current state of changed intervals, deleted are missing
+     * @param from    intervals starting before are removed
+     */
+    public synchronized void update(long[] starts, List<T> changed, long from) {
+        for (long start : starts)
+            rawData.remove(start);
+        while (rawData.size() > 0 && rawData.keyAt(0) < from)
+            rawData.removeAt(0);
+        for (T interval : changed)
+            if (interval.start() >= from)
+                rawData.put(interval.start(), interval);
+        // cuts made by removed or moved intervals are not valid anymore
+        for (int index = 0; index < rawData.size(); index++) {
+            T interval = rawData.valueAt(index);
+            interval.cutEndTo(interval.originalEnd());
+        }
+        merge();
+    }
+
 
     public synchronized List<T> getList() {
         List<T> list = new ArrayList<>();
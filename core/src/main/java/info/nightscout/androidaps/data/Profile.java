@@ -2,7 +2,7 @@ package info.nightscout.androidaps.data;
 
 import androidx.collection.LongSparseArray;
 
-import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -55,6 +55,16 @@ public class Profile {
     private JSONArray targetHigh;
     private LongSparseArray<Double> targetHigh_v; // oldest at index 0
 
+    // compiled lookup tables, rebuilt lazily when null
+    private volatile ProfileSchedule isf_s;
+    private volatile ProfileSchedule ic_s;
+    private volatile ProfileSchedule basal_s;
+    private volatile ProfileSchedule targetLow_s;
+    private volatile ProfileSchedule targetHigh_s;
+
+    // cached timezone offset for secondsFromMidnight(long)
+    private static volatile OffsetRange offsetRange;
+
     private int percentage;
     private int timeshift;
 
@@ -109,6 +119,11 @@ public class Profile {
         basal_v = null;
         targetLow_v = null;
         targetHigh_v = null;
+        isf_s = null;
+        ic_s = null;
+        basal_s = null;
+        targetLow_s = null;
+        targetHigh_s = null;
 
         isValid = true;
         isValidated = false;
@@ -269,6 +284,7 @@ public class Profile {
                         sendAboveMaximumNotification(from);
                 }
             }
+            basal_s = null;
 
         }
         return isValid;
@@ -355,21 +371,6 @@ public class Profile {
         return multiplier;
     }
 
-    private double getValueToTime(LongSparseArray<Double> array, Integer timeAsSeconds) {
-        Double lastValue = null;
-
-        for (Integer index = 0; index < array.size(); index++) {
-            long tas = array.keyAt(index);
-            double value = array.valueAt(index);
-            if (lastValue == null) lastValue = value;
-            if (timeAsSeconds < tas) {
-                break;
-            }
-            lastValue = value;
-        }
-        return lastValue;
-    }
-
     public static String format_HH_MM(Integer timeAsSeconds) {
         String time;
         int hour = timeAsSeconds / 60 / 60;
@@ -410,9 +411,14 @@ public class Profile {
     }
 
     public double getIsfTimeFromMidnight(int timeAsSeconds) {
-        if (isf_v == null)
-            isf_v = convertToSparseArray(isf);
-        return getValueToTime(isf_v, timeAsSeconds);
+        ProfileSchedule schedule = isf_s;
+        if (schedule == null)
+            synchronized (this) {
+                if (isf_v == null)
+                    isf_v = convertToSparseArray(isf);
+                schedule = isf_s = ProfileSchedule.of(isf_v);
+            }
+        return schedule.valueAt(timeAsSeconds);
     }
 
     public String getIsfList() {
@@ -443,9 +449,14 @@ public class Profile {
     }
 
     public double getIcTimeFromMidnight(int timeAsSeconds) {
-        if (ic_v == null)
-            ic_v = convertToSparseArray(ic);
-        return getValueToTime(ic_v, timeAsSeconds);
+        ProfileSchedule schedule = ic_s;
+        if (schedule == null)
+            synchronized (this) {
+                if (ic_v == null)
+                    ic_v = convertToSparseArray(ic);
+                schedule = ic_s = ProfileSchedule.of(ic_v);
+            }
+        return schedule.valueAt(timeAsSeconds);
     }
 
     public String getIcList() {
@@ -475,11 +486,15 @@ public class Profile {
         return getBasalTimeFromMidnight(secondsFromMidnight(time));
     }
 
-    public synchronized double getBasalTimeFromMidnight(int timeAsSeconds) {
-        if (basal_v == null) {
-            basal_v = convertToSparseArray(basal);
-        }
-        return getValueToTime(basal_v, timeAsSeconds);
+    public double getBasalTimeFromMidnight(int timeAsSeconds) {
+        ProfileSchedule schedule = basal_s;
+        if (schedule == null)
+            synchronized (this) {
+                if (basal_v == null)
+                    basal_v = convertToSparseArray(basal);
+                schedule = basal_s = ProfileSchedule.of(basal_v);
+            }
+        return schedule.valueAt(timeAsSeconds);
     }
 
     public String getBasalList() {
@@ -539,9 +554,14 @@ public class Profile {
     }
 
     double getTargetLowTimeFromMidnight(int timeAsSeconds) {
-        if (targetLow_v == null)
-            targetLow_v = convertToSparseArray(targetLow);
-        return getValueToTime(targetLow_v, timeAsSeconds);
+        ProfileSchedule schedule = targetLow_s;
+        if (schedule == null)
+            synchronized (this) {
+                if (targetLow_v == null)
+                    targetLow_v = convertToSparseArray(targetLow);
+                schedule = targetLow_s = ProfileSchedule.of(targetLow_v);
+            }
+        return schedule.valueAt(timeAsSeconds);
     }
 
     public double getTargetLowMgdlTimeFromMidnight(int timeAsSeconds) {
@@ -557,9 +577,14 @@ public class Profile {
     }
 
     double getTargetHighTimeFromMidnight(int timeAsSeconds) {
-        if (targetHigh_v == null)
-            targetHigh_v = convertToSparseArray(targetHigh);
-        return getValueToTime(targetHigh_v, timeAsSeconds);
+        ProfileSchedule schedule = targetHigh_s;
+        if (schedule == null)
+            synchronized (this) {
+                if (targetHigh_v == null)
+                    targetHigh_v = convertToSparseArray(targetHigh);
+                schedule = targetHigh_s = ProfileSchedule.of(targetHigh_v);
+            }
+        return schedule.valueAt(timeAsSeconds);
     }
 
     public double getTargetHighMgdlTimeFromMidnight(int timeAsSeconds) {
@@ -627,18 +652,42 @@ public class Profile {
     }
 
     public static int secondsFromMidnight() {
-        // long passed = DateUtil.now() - MidnightTime.calc();
-        long passed = new DateTime().getMillisOfDay();
-        return (int) (passed / 1000);
+        return secondsFromMidnight(System.currentTimeMillis());
     }
 
     public static int secondsFromMidnight(long date) {
         //long midnight = MidnightTime.calc(date);
         //long passed = date - midnight;
-        long passed = new DateTime(date).getMillisOfDay();
+        DateTimeZone zone = DateTimeZone.getDefault();
+        OffsetRange range = offsetRange;
+        if (range == null || !range.contains(zone, date))
+            offsetRange = range = new OffsetRange(zone, date);
+        long passed = Math.floorMod(date + range.offset, 24 * 60 * 60 * 1000L);
         return (int) (passed / 1000);
     }
 
+    // Interval of time with constant timezone offset (ie. between DST transitions)
+    private static final class OffsetRange {
+        final DateTimeZone zone;
+        final long from; // inclusive
+        final long to; // exclusive
+        final int offset;
+
+        OffsetRange(DateTimeZone zone, long date) {
+            this.zone = zone;
+            offset = zone.getOffset(date);
+            long next = zone.nextTransition(date);
+            to = next > date ? next : Long.MAX_VALUE;
+            long previous = zone.previousTransition(date);
+            if (previous >= date) from = Long.MIN_VALUE;
+            else from = zone.getOffset(previous) == offset ? previous : previous + 1;
+        }
+
+        boolean contains(DateTimeZone zone, long date) {
+            return this.zone == zone && date >= from && date < to;
+        }
+    }
+
     public static double toMgdl(double value, String units) {
         if (units.equals(Constants.MGDL)) return value;
         else return value * Constants.MMOLL_TO_MGDL;
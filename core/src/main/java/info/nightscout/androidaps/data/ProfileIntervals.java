@@ -47,6 +47,26 @@ public class ProfileIntervals<T extends Interval> {
         merge();
     }
 
+    /**
+     * Applies changed records without reloading all of them
+     *
+     * @param starts  start of created or updated intervals
+     * @param changed current state of changed intervals
+     */
+    public synchronized void update(long[] starts, List<T> changed) {
+        for (long start : starts)
+            rawData.remove(start);
+        for (T interval : changed)
+            if (interval.isValid())
+                rawData.put(interval.start(), interval);
+        // cuts made by removed or moved intervals are not valid anymore
+        for (int index = 0; index < rawData.size(); index++) {
+            T interval = rawData.valueAt(index);
+            interval.cutEndTo(interval.originalEnd());
+        }
+        merge();
+    }
+
     private synchronized void merge() {
         for (int index = 0; index < rawData.size() - 1; index++) {
             Interval i = rawData.valueAt(index);
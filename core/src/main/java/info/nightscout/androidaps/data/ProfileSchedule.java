@@ -0,0 +1,47 @@
+package info.nightscout.androidaps.data;
+
+import androidx.collection.LongSparseArray;
+
+/**
+ * Immutable compiled form of one profile array (basal, isf, ic, targets)
+ * <p>
+ * Segment starts and values are kept in primitive arrays and looked up by binary search
+ * so profile values can be read from hot loops without locking and boxing.
+ */
+final class ProfileSchedule {
+    private final int[] starts; // seconds from midnight, ascending
+    private final double[] values;
+
+    private ProfileSchedule(int[] starts, double[] values) {
+        this.starts = starts;
+        this.values = values;
+    }
+
+    static ProfileSchedule of(LongSparseArray<Double> array) {
+        int size = array.size();
+        int[] starts = new int[size];
+        double[] values = new double[size];
+        for (int index = 0; index < size; index++) {
+            starts[index] = (int) array.keyAt(index);
+            values[index] = array.valueAt(index);
+        }
+        return new ProfileSchedule(starts, values);
+    }
+
+    /**
+     * @param timeAsSeconds seconds from midnight
+     * @return value of the segment containing timeAsSeconds, first value if time is before first segment
+     */
+    double valueAt(int timeAsSeconds) {
+        int low = 0;
+        int high = starts.length - 1;
+        if (high < 0 || timeAsSeconds < starts[0]) return values[0];
+        // find last segment with start <= timeAsSeconds
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= timeAsSeconds) low = mid;
+            else high = mid - 1;
+        }
+        return values[low];
+    }
+}
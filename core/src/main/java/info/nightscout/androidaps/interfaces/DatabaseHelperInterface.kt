@@ -15,6 +15,7 @@ interface DatabaseHelperInterface {
     fun size(table: String): Long
     fun deleteAllDbRequests()
     fun deleteDbRequest(id: String): Int
+    fun deleteDbRequests(ids: Collection<String>): Int
     fun deleteDbRequestbyMongoId(action: String, _id: String)
     fun getDbRequestInterator(): CloseableIterator<DbRequest>
     fun roundDateToSec(date: Long): Long
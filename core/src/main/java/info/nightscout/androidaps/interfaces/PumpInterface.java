@@ -12,6 +12,7 @@ import info.nightscout.androidaps.plugins.common.ManufacturerType;
 import info.nightscout.androidaps.plugins.general.actions.defs.CustomAction;
 import info.nightscout.androidaps.plugins.general.actions.defs.CustomActionType;
 import info.nightscout.androidaps.plugins.pump.common.defs.PumpType;
+import info.nightscout.androidaps.queue.commands.Command;
 import info.nightscout.androidaps.utils.TimeChangeType;
 
 /**
@@ -123,4 +124,12 @@ public interface PumpInterface {
     default boolean setNeutralTempAtFullHour() {
         return false;
     }
+
+    /**
+     * Status read queued next to command of this type is answered after the command without calling getPumpStatus()
+     * Return true only if the command response updates the status and getPumpStatus() has nothing more to do right now
+     */
+    default boolean isStatusReadWith(Command.CommandType commandType) {
+        return false;
+    }
 }
@@ -20,4 +20,11 @@ interface AAPSLogger {
     fun error(message: String)
     fun error(message: String, throwable: Throwable)
     fun error(format: String, vararg arguments: Any?)
-}
\ No newline at end of file
+
+    // Message is built only if tag is enabled. Use in hot paths instead of string concatenation
+    fun debug(tag: LTag, message: () -> String)
+    fun debug(tag: LTag, format: String, argument: Any?)
+    fun debug(tag: LTag, format: String, argument1: Any?, argument2: Any?)
+    fun info(tag: LTag, message: () -> String)
+    fun warn(tag: LTag, message: () -> String)
+}
@@ -1,5 +1,6 @@
 package info.nightscout.androidaps.logging
 
+import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 /**
@@ -8,66 +9,102 @@ import org.slf4j.LoggerFactory
 
 class AAPSLoggerProduction constructor(val l: L) : AAPSLogger {
 
+    private val loggers: Array<Logger> = LTag.values().map { LoggerFactory.getLogger(it.tag) }.toTypedArray()
+
+    private fun logger(tag: LTag): Logger = loggers[tag.ordinal]
+
     override fun debug(message: String) {
-        LoggerFactory.getLogger(LTag.CORE.tag).debug(stackLogMarker() + message)
+        logger(LTag.CORE).debug(location() + message)
     }
 
     override fun debug(enable: Boolean, tag: LTag, message: String) {
-        if (enable && l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + message)
+        if (enable && l.isEnabled(tag))
+            logger(tag).debug(location() + message)
     }
 
     override fun debug(tag: LTag, message: String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + message)
+        if (l.isEnabled(tag))
+            logger(tag).debug(location() + message)
+    }
+
+    override fun debug(tag: LTag, message: () -> String) {
+        if (l.isEnabled(tag))
+            logger(tag).debug(location() + message())
+    }
+
+    override fun debug(tag: LTag, format: String, argument: Any?) {
+        if (l.isEnabled(tag))
+            logger(tag).debug(location() + format, argument)
+    }
+
+    override fun debug(tag: LTag, format: String, argument1: Any?, argument2: Any?) {
+        if (l.isEnabled(tag))
+            logger(tag).debug(location() + format, argument1, argument2)
     }
 
     override fun debug(tag: LTag, format: String, vararg arguments: Any?) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + format, arguments)
+        if (l.isEnabled(tag))
+            logger(tag).debug(location() + format, *arguments)
     }
 
     override fun warn(tag: LTag, message: String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).warn(stackLogMarker() + message)
+        if (l.isEnabled(tag))
+            logger(tag).warn(location() + message)
+    }
+
+    override fun warn(tag: LTag, message: () -> String) {
+        if (l.isEnabled(tag))
+            logger(tag).warn(location() + message())
     }
 
     override fun warn(tag: LTag, format: String, vararg arguments: Any?) {
-        LoggerFactory.getLogger(tag.tag).warn(stackLogMarker() + format, arguments)
+        logger(tag).warn(location() + format, *arguments)
     }
 
     override fun info(tag: LTag, message: String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).info(stackLogMarker() + message)
+        if (l.isEnabled(tag))
+            logger(tag).info(location() + message)
+    }
+
+    override fun info(tag: LTag, message: () -> String) {
+        if (l.isEnabled(tag))
+            logger(tag).info(location() + message())
     }
 
     override fun info(tag: LTag, format: String, vararg arguments: Any?) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).info(stackLogMarker() + format, arguments)
+        if (l.isEnabled(tag))
+            logger(tag).info(location() + format, *arguments)
     }
 
     override fun error(tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).error(stackLogMarker() + message)
+        logger(tag).error(location() + message)
     }
 
     override fun error(message: String) {
-        LoggerFactory.getLogger(LTag.CORE.tag).error(stackLogMarker() + message)
+        logger(LTag.CORE).error(location() + message)
     }
 
     override fun error(message: String, throwable: Throwable) {
-        LoggerFactory.getLogger(LTag.CORE.tag).error(stackLogMarker() + message, throwable)
+        logger(LTag.CORE).error(location() + message, throwable)
     }
 
     override fun error(format: String, vararg arguments: Any?) {
-        LoggerFactory.getLogger(LTag.CORE.tag).error(stackLogMarker() + format, arguments)
+        logger(LTag.CORE).error(location() + format, *arguments)
     }
 
     override fun error(tag: LTag, message: String, throwable: Throwable) {
-        LoggerFactory.getLogger(tag.tag).error(stackLogMarker() + message, throwable)
+        logger(tag).error(location() + message, throwable)
     }
 
     override fun error(tag: LTag, format: String, vararg arguments: Any?) {
-        LoggerFactory.getLogger(tag.tag).error(stackLogMarker() + format, arguments)
+        logger(tag).error(location() + format, *arguments)
+    }
+
+    // Caller is the first frame outside of this class. Stack depth is not fixed when methods are inlined by R8
+    private fun location(): String {
+        if (!l.callerLocation.enabled) return ""
+        val caller = Throwable().stackTrace.firstOrNull { it.className != javaClass.name } ?: return ""
+        return caller.toLogString()
     }
 }
 
@@ -75,4 +112,4 @@ fun StackTraceElement.toLogString(): String = "[${this.className.substringAfterL
 
 /* Needs to be inline. Don't remove even if IDE suggests it. */
 @Suppress("NOTHING_TO_INLINE")
-inline fun stackLogMarker() = Throwable().stackTrace[1].toLogString()
\ No newline at end of file
+inline fun stackLogMarker() = Throwable().stackTrace[1].toLogString()
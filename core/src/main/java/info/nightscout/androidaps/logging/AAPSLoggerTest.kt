@@ -1,5 +1,7 @@
 package info.nightscout.androidaps.logging
 
+import org.slf4j.helpers.MessageFormatter
+
 /**
  * Created by adrian on 2019-12-27.
  */
@@ -19,7 +21,7 @@ class AAPSLoggerTest : AAPSLogger {
     }
 
     override fun debug(tag: LTag, format: String, vararg arguments: Any?) {
-        println("DEBUG: : " + tag.tag + " " + String.format(format, arguments))
+        println("DEBUG: : " + tag.tag + " " + format(format, *arguments))
     }
 
     override fun warn(tag: LTag, message: String) {
@@ -27,7 +29,7 @@ class AAPSLoggerTest : AAPSLogger {
     }
 
     override fun warn(tag: LTag, format: String, vararg arguments: Any?) {
-        println("INFO: : " + tag.tag + " " + String.format(format, arguments))
+        println("INFO: : " + tag.tag + " " + format(format, *arguments))
     }
 
     override fun info(tag: LTag, message: String) {
@@ -35,7 +37,7 @@ class AAPSLoggerTest : AAPSLogger {
     }
 
     override fun info(tag: LTag, format: String, vararg arguments: Any?) {
-        println("INFO: : " + tag.tag + " " + String.format(format, arguments))
+        println("INFO: : " + tag.tag + " " + format(format, *arguments))
     }
 
     override fun error(tag: LTag, message: String) {
@@ -51,7 +53,7 @@ class AAPSLoggerTest : AAPSLogger {
     }
 
     override fun error(format: String, vararg arguments: Any?) {
-        println("ERROR: : " + String.format(format, arguments))
+        println("ERROR: : " + format(format, *arguments))
     }
 
     override fun error(tag: LTag, message: String, throwable: Throwable) {
@@ -59,6 +61,30 @@ class AAPSLoggerTest : AAPSLogger {
     }
 
     override fun error(tag: LTag, format: String, vararg arguments: Any?) {
-        println("ERROR: : " + tag.tag + " " + String.format(format, arguments))
+        println("ERROR: : " + tag.tag + " " + format(format, *arguments))
+    }
+
+    override fun debug(tag: LTag, message: () -> String) {
+        println("DEBUG: : " + tag.tag + " " + message())
+    }
+
+    override fun debug(tag: LTag, format: String, argument: Any?) {
+        println("DEBUG: : " + tag.tag + " " + format(format, argument))
+    }
+
+    override fun debug(tag: LTag, format: String, argument1: Any?, argument2: Any?) {
+        println("DEBUG: : " + tag.tag + " " + format(format, argument1, argument2))
+    }
+
+    override fun info(tag: LTag, message: () -> String) {
+        println("INFO: " + tag.tag + " " + message())
     }
+
+    override fun warn(tag: LTag, message: () -> String) {
+        println("WARN: " + tag.tag + " " + message())
+    }
+
+    // the same placeholders as slf4j in production
+    private fun format(format: String, vararg arguments: Any?): String =
+        MessageFormatter.arrayFormat(format, arguments).message
 }
\ No newline at end of file
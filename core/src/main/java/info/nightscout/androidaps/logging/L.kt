@@ -10,12 +10,21 @@ class L @Inject constructor(
     private val sp: SP
 ) {
 
+    // indexed by LTag.ordinal, checked on every log call
+    private val elementsByTag: Array<LogElement> = LTag.values().map { LogElement(it, sp) }.toTypedArray()
+
+    // taking caller from stacktrace is expensive, enable only for debugging
+    val callerLocation = LogElement("CALLER_LOCATION", false, sp)
+
     private var logElements: MutableList<LogElement> = ArrayList()
 
     init {
-        LTag.values().forEach { logElements.add(LogElement(it, sp)) }
+        logElements.addAll(elementsByTag)
+        logElements.add(callerLocation)
     }
 
+    fun isEnabled(tag: LTag): Boolean = elementsByTag[tag.ordinal].enabled
+
     fun findByName(name: String): LogElement {
         for (element in logElements) {
             if (element.name == name) return element
@@ -48,6 +57,13 @@ class L @Inject constructor(
             enabled = sp.getBoolean(getSPName(), defaultValue)
         }
 
+        internal constructor(name: String, defaultValue: Boolean, sp: SP) {
+            this.sp = sp
+            this.name = name
+            this.defaultValue = defaultValue
+            enabled = sp.getBoolean(getSPName(), defaultValue)
+        }
+
         internal constructor(defaultValue: Boolean, sp: SP) {
             this.sp = sp
             name = "NONEXISTING"
@@ -4,22 +4,58 @@ import info.nightscout.androidaps.events.Event
 import io.reactivex.Observable
 import io.reactivex.schedulers.Schedulers
 import io.reactivex.subjects.PublishSubject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 import javax.inject.Singleton
 
 @Singleton
 open class RxBusWrapper @Inject constructor() {
 
-    private val publisher = PublishSubject.create<Event>()
+    // one subject per listened class, event is delivered only to subscribers of its class and superclasses
+    private val subjects = ConcurrentHashMap<Class<*>, PublishSubject<Any>>()
+    // cache of subjects matching event class, cleared when a new class is listened
+    private val routes = ConcurrentHashMap<Class<*>, List<PublishSubject<Any>>>()
+    private val counters = ConcurrentHashMap<Class<*>, AtomicLong>()
 
     fun send(event: Event) {
-        publisher.onNext(event)
+        counters.getOrPut(event.javaClass) { AtomicLong() }.incrementAndGet()
+        for (subject in route(event.javaClass)) subject.onNext(event)
     }
 
+    private fun route(eventClass: Class<*>): List<PublishSubject<Any>> =
+        routes[eventClass] ?: synchronized(this) {
+            routes.getOrPut(eventClass) { subjects.filterKeys { it.isAssignableFrom(eventClass) }.values.toList() }
+        }
+
+    @Synchronized
+    private fun subject(eventType: Class<*>): PublishSubject<Any> =
+        subjects[eventType] ?: PublishSubject.create<Any>().also {
+            subjects[eventType] = it
+            routes.clear()
+        }
+
     // Listen should return an Observable and not the publisher
-    // Using ofType we filter only events that match that class type
+    // Using ofType we only cast events to the listened type
     fun <T> toObservable(eventType: Class<T>): Observable<T> =
-        publisher
+        subject(eventType)
             .subscribeOn(Schedulers.io())
             .ofType(eventType)
-}
\ No newline at end of file
+
+    /**
+     * For frequent events where only the latest value matters (progress, status).
+     * Delivers the first event immediately and then the latest one once per interval at most
+     */
+    fun <T> toObservable(eventType: Class<T>, intervalMillis: Long): Observable<T> =
+        toObservable(eventType)
+            .throttleLatest(intervalMillis, TimeUnit.MILLISECONDS, true)
+
+    /**
+     * @return number of sent events of every class since start
+     */
+    fun eventCounts(): Map<String, Long> =
+        counters.entries
+            .sortedByDescending { it.value.get() }
+            .associate { it.key.simpleName to it.value.get() }
+}
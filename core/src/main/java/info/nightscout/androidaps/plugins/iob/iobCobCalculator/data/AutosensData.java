@@ -68,6 +68,25 @@ public class AutosensData implements DataPointWithLabelInterface {
             this.remaining = other.remaining;
         }
 
+        public CarbsInPast(long time, double carbs, double min5minCarbImpact, double remaining) {
+            this.time = time;
+            this.carbs = carbs;
+            this.min5minCarbImpact = min5minCarbImpact;
+            this.remaining = remaining;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public double getCarbs() {
+            return carbs;
+        }
+
+        public double getRemaining() {
+            return remaining;
+        }
+
         @Override
         public String toString() {
             return String.format(Locale.ENGLISH, "CarbsInPast: time: %s carbs: %.02f min5minCI: %.02f remaining: %.2f", dateUtil.dateAndTimeString(time), carbs, min5minCarbImpact, remaining);
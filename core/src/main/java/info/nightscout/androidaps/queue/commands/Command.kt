@@ -18,6 +18,10 @@ abstract class Command(
     @Inject lateinit var aapsLogger: AAPSLogger
     @Inject lateinit var resourceHelper: ResourceHelper
 
+    // result of execute(), status reads coalesced into this command are answered with it
+    var result: PumpEnactResult? = null
+        private set
+
     enum class CommandType {
         BOLUS,
         SMB_BOLUS,
@@ -41,6 +45,11 @@ abstract class Command(
     abstract fun execute()
     abstract fun status(): String
 
+    protected fun finish(result: PumpEnactResult) {
+        this.result = result
+        callback?.result(result)?.run()
+    }
+
     fun cancel() {
         val result = PumpEnactResult(injector)
         result.success = false
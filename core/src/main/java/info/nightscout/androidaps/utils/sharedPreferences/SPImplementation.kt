@@ -1,38 +1,98 @@
 package info.nightscout.androidaps.utils.sharedPreferences
 
 import android.content.SharedPreferences
+import info.nightscout.androidaps.events.EventPreferenceChange
+import info.nightscout.androidaps.plugins.bus.RxBusWrapper
 import info.nightscout.androidaps.utils.SafeParse
 import info.nightscout.androidaps.utils.resources.ResourceHelper
+import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 import javax.inject.Singleton
 
 /**
  * Created by mike on 17.02.2017.
+ *
+ * Parsed values of getDouble, getInt, getLong and getBoolean are cached per key
+ * until the key is written through SP or EventPreferenceChange is received
+ * (preferences edited directly in UI)
  */
 @Singleton
 class SPImplementation @Inject constructor(
     private val sharedPreferences: SharedPreferences,
-    private val resourceHelper: ResourceHelper) : SP {
+    private val resourceHelper: ResourceHelper,
+    rxBus: RxBusWrapper
+) : SP {
+
+    // resource strings don't change at runtime
+    private val keys = ConcurrentHashMap<Int, String>()
+    private val doubles = ConcurrentHashMap<String, Any>()
+    private val ints = ConcurrentHashMap<String, Any>()
+    private val longs = ConcurrentHashMap<String, Any>()
+    private val booleans = ConcurrentHashMap<String, Any>()
+
+    // stored for keys without value, caller's default is returned
+    private object Absent
+
+    init {
+        // SP is created before plugins so cache is invalidated before they receive the event
+        rxBus
+            .toObservable(EventPreferenceChange::class.java)
+            .subscribe({ event ->
+                val key = event.changedKey
+                if (key != null) invalidate(key) else invalidateAll()
+            }, {})
+    }
+
+    private fun key(resourceID: Int): String = keys[resourceID] ?: resourceHelper.gs(resourceID).also { keys[resourceID] = it }
+
+    // loading is synchronized with invalidation to not store value read before a write
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> cached(cache: ConcurrentHashMap<String, Any>, key: String, defaultValue: T, load: () -> Any): T {
+        val value = cache[key] ?: synchronized(this) {
+            cache.getOrPut(key) { if (sharedPreferences.contains(key)) load() else Absent }
+        }
+        return if (value === Absent) defaultValue else value as T
+    }
+
+    @Synchronized
+    private fun invalidate(key: String) {
+        doubles.remove(key)
+        ints.remove(key)
+        longs.remove(key)
+        booleans.remove(key)
+    }
+
+    @Synchronized
+    private fun invalidateAll() {
+        doubles.clear()
+        ints.clear()
+        longs.clear()
+        booleans.clear()
+    }
 
     override fun getAll(): Map<String, *> = sharedPreferences.all
 
-    override fun clear() = sharedPreferences.edit().clear().apply()
+    override fun clear() {
+        sharedPreferences.edit().clear().apply()
+        invalidateAll()
+    }
 
     override fun contains(key: String): Boolean = sharedPreferences.contains(key)
 
-    override fun contains(resourceId: Int): Boolean = sharedPreferences.contains(resourceHelper.gs(resourceId))
+    override fun contains(resourceId: Int): Boolean = sharedPreferences.contains(key(resourceId))
 
-    override fun remove(resourceID: Int) =
-        sharedPreferences.edit().remove(resourceHelper.gs(resourceID)).apply()
+    override fun remove(resourceID: Int) = remove(key(resourceID))
 
-    override fun remove(key: String) =
+    override fun remove(key: String) {
         sharedPreferences.edit().remove(key).apply()
+        invalidate(key)
+    }
 
     override fun getString(resourceID: Int, defaultValue: String): String =
-        sharedPreferences.getString(resourceHelper.gs(resourceID), defaultValue) ?: defaultValue
+        sharedPreferences.getString(key(resourceID), defaultValue) ?: defaultValue
 
     override fun getStringOrNull(resourceID: Int, defaultValue: String?): String? =
-        sharedPreferences.getString(resourceHelper.gs(resourceID), defaultValue) ?: defaultValue
+        sharedPreferences.getString(key(resourceID), defaultValue) ?: defaultValue
 
     override fun getStringOrNull(key: String, defaultValue: String?): String? =
         sharedPreferences.getString(key, defaultValue)
@@ -40,93 +100,84 @@ class SPImplementation @Inject constructor(
     override fun getString(key: String, defaultValue: String): String =
         sharedPreferences.getString(key, defaultValue) ?: defaultValue
 
-    override fun getBoolean(resourceID: Int, defaultValue: Boolean): Boolean {
-        return try {
-            sharedPreferences.getBoolean(resourceHelper.gs(resourceID), defaultValue)
-        } catch (e: Exception) {
-            defaultValue
-        }
-    }
+    override fun getBoolean(resourceID: Int, defaultValue: Boolean): Boolean = getBoolean(key(resourceID), defaultValue)
 
-    override fun getBoolean(key: String, defaultValue: Boolean): Boolean {
-        return try {
-            sharedPreferences.getBoolean(key, defaultValue)
-        } catch (e: Exception) {
-            defaultValue
+    override fun getBoolean(key: String, defaultValue: Boolean): Boolean =
+        cached(booleans, key, defaultValue) {
+            try {
+                sharedPreferences.getBoolean(key, defaultValue)
+            } catch (e: Exception) {
+                Absent
+            }
         }
-    }
 
-    override fun getDouble(resourceID: Int, defaultValue: Double): Double =
-        SafeParse.stringToDouble(sharedPreferences.getString(resourceHelper.gs(resourceID), defaultValue.toString()))
+    override fun getDouble(resourceID: Int, defaultValue: Double): Double = getDouble(key(resourceID), defaultValue)
 
     override fun getDouble(key: String, defaultValue: Double): Double =
-        SafeParse.stringToDouble(sharedPreferences.getString(key, defaultValue.toString()))
-
-    override fun getInt(resourceID: Int, defaultValue: Int): Int {
-        return try {
-            sharedPreferences.getInt(resourceHelper.gs(resourceID), defaultValue)
-        } catch (e: Exception) {
-            SafeParse.stringToInt(sharedPreferences.getString(resourceHelper.gs(resourceID), defaultValue.toString()))
+        cached(doubles, key, defaultValue) {
+            SafeParse.stringToDouble(sharedPreferences.getString(key, defaultValue.toString()))
         }
-    }
 
-    override fun getInt(key: String, defaultValue: Int): Int {
-        return try {
-            sharedPreferences.getInt(key, defaultValue)
-        } catch (e: Exception) {
-            SafeParse.stringToInt(sharedPreferences.getString(key, defaultValue.toString()))
-        }
-    }
+    override fun getInt(resourceID: Int, defaultValue: Int): Int = getInt(key(resourceID), defaultValue)
 
-    override fun getLong(resourceID: Int, defaultValue: Long): Long {
-        return try {
-            sharedPreferences.getLong(resourceHelper.gs(resourceID), defaultValue)
-        } catch (e: Exception) {
-            SafeParse.stringToLong(sharedPreferences.getString(resourceHelper.gs(resourceID), defaultValue.toString()))
+    override fun getInt(key: String, defaultValue: Int): Int =
+        cached(ints, key, defaultValue) {
+            try {
+                sharedPreferences.getInt(key, defaultValue)
+            } catch (e: Exception) {
+                SafeParse.stringToInt(sharedPreferences.getString(key, defaultValue.toString()))
+            }
         }
-    }
 
-    override fun getLong(key: String, defaultValue: Long): Long {
-        return try {
-            sharedPreferences.getLong(key, defaultValue)
-        } catch (e: Exception) {
-            SafeParse.stringToLong(sharedPreferences.getString(key, defaultValue.toString()))
+    override fun getLong(resourceID: Int, defaultValue: Long): Long = getLong(key(resourceID), defaultValue)
+
+    override fun getLong(key: String, defaultValue: Long): Long =
+        cached(longs, key, defaultValue) {
+            try {
+                sharedPreferences.getLong(key, defaultValue)
+            } catch (e: Exception) {
+                SafeParse.stringToLong(sharedPreferences.getString(key, defaultValue.toString()))
+            }
         }
-    }
 
-    override fun putBoolean(key: String, value: Boolean) = sharedPreferences.edit().putBoolean(key, value).apply()
+    override fun putBoolean(key: String, value: Boolean) {
+        sharedPreferences.edit().putBoolean(key, value).apply()
+        invalidate(key)
+    }
 
-    override fun putBoolean(resourceID: Int, value: Boolean) =
-        sharedPreferences.edit().putBoolean(resourceHelper.gs(resourceID), value).apply()
+    override fun putBoolean(resourceID: Int, value: Boolean) = putBoolean(key(resourceID), value)
 
-    override fun putDouble(key: String, value: Double) =
+    override fun putDouble(key: String, value: Double) {
         sharedPreferences.edit().putString(key, value.toString()).apply()
-
-    override fun putDouble(resourceID: Int, value: Double) {
-        sharedPreferences.edit().putString(resourceHelper.gs(resourceID), value.toString()).apply()
+        invalidate(key)
     }
 
-    override fun putLong(key: String, value: Long) =
+    override fun putDouble(resourceID: Int, value: Double) = putDouble(key(resourceID), value)
+
+    override fun putLong(key: String, value: Long) {
         sharedPreferences.edit().putLong(key, value).apply()
+        invalidate(key)
+    }
 
-    override fun putLong(resourceID: Int, value: Long) =
-        sharedPreferences.edit().putLong(resourceHelper.gs(resourceID), value).apply()
+    override fun putLong(resourceID: Int, value: Long) = putLong(key(resourceID), value)
 
-    override fun putInt(key: String, value: Int) =
+    override fun putInt(key: String, value: Int) {
         sharedPreferences.edit().putInt(key, value).apply()
+        invalidate(key)
+    }
 
-    override fun putInt(resourceID: Int, value: Int) =
-        sharedPreferences.edit().putInt(resourceHelper.gs(resourceID), value).apply()
+    override fun putInt(resourceID: Int, value: Int) = putInt(key(resourceID), value)
 
     override fun incInt(resourceID: Int) {
         val value = getInt(resourceID, 0) + 1
-        sharedPreferences.edit().putInt(resourceHelper.gs(resourceID), value).apply()
+        putInt(resourceID, value)
     }
 
-    override fun putString(resourceID: Int, value: String) =
-        sharedPreferences.edit().putString(resourceHelper.gs(resourceID), value).apply()
+    override fun putString(resourceID: Int, value: String) = putString(key(resourceID), value)
 
-    override fun putString(key: String, value: String) =
+    override fun putString(key: String, value: String) {
         sharedPreferences.edit().putString(key, value).apply()
+        invalidate(key)
+    }
 
-}
\ No newline at end of file
+}
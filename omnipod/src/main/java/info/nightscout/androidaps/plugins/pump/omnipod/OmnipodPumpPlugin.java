@@ -85,6 +85,7 @@ import info.nightscout.androidaps.plugins.pump.omnipod.rileylink.service.RileyLi
 import info.nightscout.androidaps.plugins.pump.omnipod.ui.OmnipodFragment;
 import info.nightscout.androidaps.plugins.pump.omnipod.util.AapsOmnipodUtil;
 import info.nightscout.androidaps.plugins.pump.omnipod.util.OmnipodAlertUtil;
+import info.nightscout.androidaps.queue.commands.Command;
 import info.nightscout.androidaps.utils.DateUtil;
 import info.nightscout.androidaps.utils.DecimalFormatter;
 import info.nightscout.androidaps.utils.FabricPrivacy;
@@ -541,6 +542,20 @@ public class OmnipodPumpPlugin extends PumpPluginBase implements PumpInterface,
         }
     }
 
+    // Insulin commands get a StatusResponse, so a status read next to them is only needed
+    // when getPumpStatus() has something squeezed in
+    @Override
+    public boolean isStatusReadWith(Command.CommandType commandType) {
+        switch (commandType) {
+            case BOLUS:
+            case SMB_BOLUS:
+            case TEMPBASAL:
+                return !firstRun && statusRequestList.isEmpty() && !hasTimeDateOrTimeZoneChanged && verifyPodAlertConfiguration();
+            default:
+                return false;
+        }
+    }
+
     @NotNull
     @Override
     public PumpEnactResult setNewBasalProfile(Profile profile) {
@@ -64,10 +64,10 @@ public class RFSpyReader {
                 // returns null if timeout.
                 byte[] dataFromQueue = mDataQueue.poll(timeout_ms, TimeUnit.MILLISECONDS);
                 if (dataFromQueue != null) {
-                    aapsLogger.debug(LTag.PUMPBTCOMM, "Got data [" + ByteUtil.shortHexString(dataFromQueue) + "] at t=="
+                    aapsLogger.debug(LTag.PUMPBTCOMM, () -> "Got data [" + ByteUtil.shortHexString(dataFromQueue) + "] at t=="
                             + SystemClock.uptimeMillis());
                 } else {
-                    aapsLogger.debug(LTag.PUMPBTCOMM, "Got data [null] at t==" + SystemClock.uptimeMillis());
+                    aapsLogger.debug(LTag.PUMPBTCOMM, "Got data [null] at t=={}", SystemClock.uptimeMillis());
                 }
                 return dataFromQueue;
             } catch (InterruptedException e) {